@@ -0,0 +1,143 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.VendingMachineApplication;
+import ch.akros.vending_machine.reactive.ReactiveVendingMachineApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Boots the servlet service ({@code mvc}) or the WebFlux module ({@code webflux}) with its web
+ * layer and security on a random port, against an in-memory H2 database, optionally in a Spring
+ * profile such as {@code virtual-threads}. Both applications are
+ * on the class path of the benchmarks, so each one is kept away from the other's beans and
+ * auto-configuration.
+ */
+class ApiServer implements AutoCloseable {
+
+  static final String DEFAULT_PROFILE = "default";
+
+  static final String R2DBC_AUTO_CONFIGURATION = "org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration,"
+          + "org.springframework.boot.autoconfigure.data.r2dbc.R2dbcDataAutoConfiguration,"
+          + "org.springframework.boot.autoconfigure.data.r2dbc.R2dbcRepositoriesAutoConfiguration,"
+          + "org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration";
+  private static final String JDBC_AUTO_CONFIGURATION = "org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration";
+
+  private final ConfigurableApplicationContext context;
+  private final String database;
+
+  private ApiServer(ConfigurableApplicationContext context, String database) {
+    this.context = context;
+    this.database = database;
+  }
+
+  /**
+   * @param stack   {@code mvc} or {@code webflux}.
+   * @param issuer  the identity provider whose tokens are accepted.
+   * @param profile the Spring profile to activate, {@code default} for none.
+   */
+  static ApiServer start(String stack, LocalTokenIssuer issuer, String profile) {
+    String database = "api-" + stack + "-" + System.nanoTime();
+    List<String> args = new ArrayList<>(List.of(
+            "--server.port=0",
+            "--spring.security.oauth2.resource-server.jwt.issuer-uri=" + issuer.issuer(),
+            "--spring.security.oauth2.resource-server.jwt.jwk-set-uri=" + issuer.jwkSetUri(),
+            "--jwt.auth.converter.resource-id=conde-rest-api",
+            "--jwt.auth.converter.principal-attribute=preferred_username",
+            "--springdoc.api-docs.enabled=false",
+            // All requests come from one principal, whose rate limit would be measured instead of the service.
+            "--rate-limit.enabled=false",
+            "--logging.level.root=WARN"));
+    if (!DEFAULT_PROFILE.equals(profile)) {
+      args.add("--spring.profiles.active=" + profile);
+    }
+    SpringApplicationBuilder builder;
+    if ("webflux".equals(stack)) {
+      args.addAll(List.of(
+              "--spring.r2dbc.url=r2dbc:h2:mem:///" + database + ";DB_CLOSE_DELAY=-1",
+              "--spring.r2dbc.username=sa",
+              "--spring.r2dbc.password=",
+              "--spring.sql.init.mode=always",
+              "--spring.sql.init.schema-locations=classpath:webflux-schema.sql",
+              "--spring.autoconfigure.exclude=" + JDBC_AUTO_CONFIGURATION,
+              // H2 cannot switch a single transaction to read-only and warns on every repository read.
+              "--logging.level.io.r2dbc.h2=ERROR"));
+      builder = new SpringApplicationBuilder(ReactiveVendingMachineApplication.class, NettyServer.class)
+              .web(WebApplicationType.REACTIVE);
+    } else {
+      args.addAll(List.of(
+              "--spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+              "--spring.datasource.username=sa",
+              "--spring.datasource.password=",
+              "--spring.jpa.hibernate.ddl-auto=create-drop",
+              "--spring.jpa.show-sql=false",
+              "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+              "--spring.autoconfigure.exclude=" + R2DBC_AUTO_CONFIGURATION));
+      builder = new SpringApplicationBuilder(VendingMachineApplication.class)
+              .web(WebApplicationType.SERVLET)
+              .initializers(context -> context.getBeanFactory().registerSingleton("benchmarkTypeExcludeFilter", new OwnPackageOnly()));
+    }
+    return new ApiServer(builder.run(args.toArray(String[]::new)), database);
+  }
+
+  int port() {
+    return ((WebServerApplicationContext) context).getWebServer().getPort();
+  }
+
+  /**
+   * @return the JDBC URL of the in-memory database, which is shared with the running service.
+   */
+  String jdbcUrl() {
+    return "jdbc:h2:mem:" + database;
+  }
+
+  @Override
+  public void close() {
+    context.close();
+  }
+
+  /**
+   * Runs the WebFlux module on Netty, as it runs on its own, although Tomcat is on the class path.
+   */
+  @Configuration(proxyBeanMethods = false)
+  static class NettyServer {
+
+    @Bean
+    NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+      return new NettyReactiveWebServerFactory();
+    }
+  }
+
+  /**
+   * Keeps the component scan of the servlet service out of the WebFlux module and the benchmarks,
+   * which live in sub-packages of it.
+   */
+  static class OwnPackageOnly extends TypeExcludeFilter {
+
+    @Override
+    public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+      String className = metadataReader.getClassMetadata().getClassName();
+      return className.startsWith("ch.akros.vending_machine.reactive.") || className.startsWith("ch.akros.vending_machine.benchmark.");
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof OwnPackageOnly;
+    }
+
+    @Override
+    public int hashCode() {
+      return OwnPackageOnly.class.hashCode();
+    }
+  }
+}
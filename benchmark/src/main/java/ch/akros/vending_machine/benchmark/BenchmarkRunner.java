@@ -0,0 +1,29 @@
+package ch.akros.vending_machine.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the JMH benchmarks with the gc profiler always attached, so every result reports the
+ * allocation rate (gc.alloc.rate.norm = bytes per operation) next to throughput and latency.
+ * Any regular JMH command line option is accepted, e.g. {@code ProductServiceBenchmark -p backend=h2}.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    String[] jmhArgs = Arrays.stream(String.join(" ", args).trim().split("\\s+"))
+            .filter(arg -> !arg.isBlank())
+            .toArray(String[]::new);
+    var options = new OptionsBuilder()
+            .parent(new CommandLineOptions(jmhArgs))
+            .addProfiler(GCProfiler.class)
+            .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,69 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.CoinInventory;
+import ch.akros.vending_machine.service.InventoryJournal;
+import ch.akros.vending_machine.service.OptimisticRetry;
+import ch.akros.vending_machine.service.ProductCatalog;
+import ch.akros.vending_machine.service.ProductMetrics;
+import ch.akros.vending_machine.service.StockLedger;
+import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+/**
+ * Boots the JPA slice of the service (repository, service, transaction management) against an
+ * in-memory H2 database. Security and the web layer are left out so that only the persistence
+ * path is measured.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@EntityScan(basePackageClasses = Product.class)
+@EnableJpaRepositories(basePackageClasses = ProductRepository.class)
+@Import({ProductCatalog.class, ProductMetrics.class, CoinInventory.class, StockLedger.class, OptimisticRetry.class, InventoryJournal.class, ProductServiceImpl.class})
+class EmbeddedDatabase {
+
+  /**
+   * The settings are passed as command line arguments so they win over the datasource
+   * placeholders of the service's own application.yml.
+   */
+  static ConfigurableApplicationContext start() {
+    return start(false);
+  }
+
+  /**
+   * @param stockLedger whether the stock is kept in the in-memory ledger, logged to a temporary directory.
+   */
+  static ConfigurableApplicationContext start(boolean stockLedger) {
+    String directory;
+    try {
+      directory = Files.createTempDirectory("stock-wal").toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new SpringApplicationBuilder(EmbeddedDatabase.class)
+            .web(WebApplicationType.NONE)
+            .run("--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                    "--stock.ledger.enabled=" + stockLedger,
+                    "--stock.ledger.directory=" + directory,
+                    "--spring.datasource.username=sa",
+                    "--spring.datasource.password=",
+                    "--spring.jpa.hibernate.ddl-auto=create-drop",
+                    "--spring.jpa.show-sql=false",
+                    "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                    // r2dbc-h2 is on the classpath for the reactive module and would replace the JDBC data source.
+                    "--spring.autoconfigure.exclude=" + ApiServer.R2DBC_AUTO_CONFIGURATION,
+                    "--logging.level.root=WARN");
+  }
+}
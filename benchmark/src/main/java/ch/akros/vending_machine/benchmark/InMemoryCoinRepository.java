@@ -0,0 +1,60 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.domain.Coin;
+import ch.akros.vending_machine.repository.CoinRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map backed stand-in for {@link CoinRepository}, the counterpart of {@link InMemoryProductRepository}
+ * for the coin inventory. Every other repository method throws {@link UnsupportedOperationException}.
+ */
+final class InMemoryCoinRepository {
+
+  private final Map<Integer, Integer> coins = new ConcurrentHashMap<>();
+
+  private InMemoryCoinRepository() {
+  }
+
+  static CoinRepository create() {
+    var store = new InMemoryCoinRepository();
+    return (CoinRepository) Proxy.newProxyInstance(CoinRepository.class.getClassLoader(),
+            new Class<?>[]{CoinRepository.class},
+            (proxy, method, args) -> switch (method.getName()) {
+              case "findAll" -> store.findAll();
+              case "saveAll" -> store.saveAll((Iterable<?>) args[0]);
+              case "addCoins" -> store.update((Integer) args[0], (Integer) args[1]);
+              case "dispenseCoins" -> store.update((Integer) args[0], -(Integer) args[1]);
+              case "hashCode" -> System.identityHashCode(proxy);
+              case "equals" -> proxy == args[0];
+              case "toString" -> "InMemoryCoinRepository";
+              default -> throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private ArrayList<Coin> findAll() {
+    var all = new ArrayList<Coin>();
+    coins.forEach((denomination, quantity) -> all.add(new Coin(denomination, quantity)));
+    return all;
+  }
+
+  private Iterable<?> saveAll(Iterable<?> saved) {
+    saved.forEach(coin -> coins.put(((Coin) coin).getDenomination(), ((Coin) coin).getQuantity()));
+    return saved;
+  }
+
+  private int update(Integer denomination, int delta) {
+    var updated = new int[1];
+    coins.computeIfPresent(denomination, (key, quantity) -> {
+      if (quantity + delta < 0) {
+        return quantity;
+      }
+      updated[0] = 1;
+      return quantity + delta;
+    });
+    return updated[0];
+  }
+}
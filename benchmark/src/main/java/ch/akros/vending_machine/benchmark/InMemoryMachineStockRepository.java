@@ -0,0 +1,100 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+
+import java.lang.reflect.Proxy;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * Map backed stand-in for {@link MachineStockRepository}, the counterpart of
+ * {@link InMemoryProductRepository} for the stock of the machine. It only knows the local machine
+ * and keeps its stock in the quantity of the stored products, as the database maps it. Every other
+ * repository method throws {@link UnsupportedOperationException}.
+ */
+final class InMemoryMachineStockRepository {
+
+  private final ProductRepository productRepository;
+
+  private InMemoryMachineStockRepository(ProductRepository productRepository) {
+    this.productRepository = productRepository;
+  }
+
+  static MachineStockRepository create(ProductRepository productRepository) {
+    var store = new InMemoryMachineStockRepository(productRepository);
+    return (MachineStockRepository) Proxy.newProxyInstance(MachineStockRepository.class.getClassLoader(),
+            new Class<?>[]{MachineStockRepository.class},
+            (proxy, method, args) -> switch (method.getName()) {
+              case "existsByProductIdAndMachineIdNot" -> false;
+              case "decrementQuantity" -> store.decrementQuantity((String) args[0], (Integer) args[1], (Integer) args[2]);
+              case "removeUnit" -> store.removeUnit((String) args[0], (Integer) args[1]);
+              case "upsertQuantity" -> store.upsertQuantity((String) args[0], (Integer) args[1], (Integer) args[2]);
+              case "deleteStock" -> store.deleteStock((String) args[0], (Integer) args[1]);
+              case "deleteAll" -> {
+                store.productRepository.findAll().forEach(product -> product.setQuantity(null));
+                yield null;
+              }
+              case "hashCode" -> System.identityHashCode(proxy);
+              case "equals" -> proxy == args[0];
+              case "toString" -> "InMemoryMachineStockRepository";
+              default -> throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private int decrementQuantity(String machineId, Integer productId, Integer price) {
+    var product = localProduct(machineId, productId);
+    if (product == null) {
+      return 0;
+    }
+    synchronized (product) {
+      if (product.getQuantity() == null || product.getQuantity() == 0 || !product.getProductPrice().equals(price)) {
+        return 0;
+      }
+      product.setQuantity(product.getQuantity() - 1);
+      return 1;
+    }
+  }
+
+  private int removeUnit(String machineId, Integer productId) {
+    var product = localProduct(machineId, productId);
+    if (product == null) {
+      return 0;
+    }
+    synchronized (product) {
+      if (product.getQuantity() == null || product.getQuantity() <= 1) {
+        return 0;
+      }
+      product.setQuantity(product.getQuantity() - 1);
+      return 1;
+    }
+  }
+
+  private int upsertQuantity(String machineId, Integer productId, int quantity) {
+    var product = localProduct(machineId, productId);
+    if (product == null) {
+      throw new UnsupportedOperationException("Stock of machine " + machineId + " or of an unknown product");
+    }
+    synchronized (product) {
+      product.setQuantity(quantity);
+      return 1;
+    }
+  }
+
+  private int deleteStock(String machineId, Integer productId) {
+    var product = localProduct(machineId, productId);
+    if (product == null) {
+      return 0;
+    }
+    synchronized (product) {
+      boolean stocked = product.getQuantity() != null;
+      product.setQuantity(null);
+      return stocked ? 1 : 0;
+    }
+  }
+
+  private Product localProduct(String machineId, Integer productId) {
+    return LOCAL_MACHINE_ID.equals(machineId) ? productRepository.findById(productId).orElse(null) : null;
+  }
+}
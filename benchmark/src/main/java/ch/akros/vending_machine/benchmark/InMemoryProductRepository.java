@@ -0,0 +1,97 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.repository.ProductRestockRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * Map backed stand-in for {@link ProductRepository}. It answers the repository methods the
+ * service uses without any persistence overhead, so the benchmarks show the cost of the service
+ * code itself. The quantity of a stored product is the stock of the local machine, which
+ * {@link InMemoryMachineStockRepository} changes. Every other repository method throws
+ * {@link UnsupportedOperationException}.
+ */
+final class InMemoryProductRepository {
+
+  private final Map<Integer, Product> products = new ConcurrentHashMap<>();
+  private final AtomicInteger sequence = new AtomicInteger();
+
+  private InMemoryProductRepository() {
+  }
+
+  static ProductRepository create() {
+    var store = new InMemoryProductRepository();
+    return (ProductRepository) Proxy.newProxyInstance(ProductRepository.class.getClassLoader(),
+            new Class<?>[]{ProductRepository.class},
+            (proxy, method, args) -> switch (method.getName()) {
+              case "findAll" -> new ArrayList<>(store.products.values());
+              case "findById" -> Optional.ofNullable(store.products.get((Integer) args[0]));
+              case "findByProductName" -> store.findByProductName((String) args[0]);
+              case "save" -> store.save((Product) args[0]);
+              case "deleteById" -> store.products.remove((Integer) args[0]);
+              case "delete" -> store.products.remove(((Product) args[0]).getProductId());
+              case "deleteAll" -> {
+                store.products.clear();
+                yield null;
+              }
+              case "restock" -> store.restock((String) args[0], (String) args[1], (Integer) args[2], (Integer) args[3]);
+              case "hashCode" -> System.identityHashCode(proxy);
+              case "equals" -> proxy == args[0];
+              case "toString" -> "InMemoryProductRepository";
+              default -> throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private Product findByProductName(String productName) {
+    for (Product product : products.values()) {
+      if (product.getProductName().equals(productName)) {
+        return product;
+      }
+    }
+    return null;
+  }
+
+  private Product save(Product product) {
+    if (product.getProductId() == null) {
+      product.setProductId(sequence.incrementAndGet());
+    } else {
+      sequence.accumulateAndGet(product.getProductId(), Math::max);
+    }
+    products.put(product.getProductId(), product);
+    return product;
+  }
+
+  private synchronized ProductRestockRepository.Restock restock(String machineId, String productName, Integer productPrice,
+                                                              int maxQuantity) {
+    if (!LOCAL_MACHINE_ID.equals(machineId)) {
+      throw new UnsupportedOperationException("Restock of machine " + machineId);
+    }
+    Product product = null;
+    for (Product stored : products.values()) {
+      if (stored.getProductName().equalsIgnoreCase(productName)) {
+        product = stored;
+      }
+    }
+    if (product == null) {
+      return new ProductRestockRepository.Restock(save(new Product(null, productName, productPrice, 1)), true);
+    }
+    synchronized (product) {
+      int quantity = product.getQuantity() == null ? 0 : product.getQuantity();
+      if (quantity >= maxQuantity) {
+        return null;
+      }
+      product.setQuantity(quantity + 1);
+      product.setProductPrice(productPrice);
+      return new ProductRestockRepository.Restock(product, false);
+    }
+  }
+}
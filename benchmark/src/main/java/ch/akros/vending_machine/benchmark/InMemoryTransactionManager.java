@@ -0,0 +1,26 @@
+package ch.akros.vending_machine.benchmark;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Transaction manager for the in-memory repository stand-ins, which have nothing to commit or roll
+ * back. It only lets the service run its {@code TransactionTemplate} callbacks.
+ */
+final class InMemoryTransactionManager implements PlatformTransactionManager {
+
+  @Override
+  public TransactionStatus getTransaction(TransactionDefinition definition) {
+    return new SimpleTransactionStatus();
+  }
+
+  @Override
+  public void commit(TransactionStatus status) {
+  }
+
+  @Override
+  public void rollback(TransactionStatus status) {
+  }
+}
@@ -0,0 +1,406 @@
+package ch.akros.vending_machine.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load generator for the product API. Requests are sent at a fixed rate, whether or
+ * not earlier ones have been answered, and the rate is raised step by step until the service
+ * saturates: it no longer keeps up with the rate, answers with 5xx, or its 99th percentile
+ * exceeds the objective. Tokens are signed by a {@link LocalTokenIssuer}, whose JWK set the
+ * service under test has to be pointed at.
+ * <p>
+ * Without {@code --target} the servlet service ({@code --stack=mvc}) or the WebFlux module
+ * ({@code --stack=webflux}) is started in this JVM against H2, which is handy to try the
+ * workload but shares the CPU with the generator. With {@code --modes=default,virtual-threads}
+ * the servlet service is started once per mode, on platform threads and then in its
+ * {@code virtual-threads} profile. Each mode gets the same rate steps, and the rates every mode
+ * sustained are compared at the end. To find the saturation point of one instance,
+ * start the issuer with a fixed port and key, start the service with the printed properties and
+ * pass its URL as {@code --target}.
+ * <p>
+ * Options, given as {@code --name=value} or {@code name=value}:
+ * <ul>
+ *   <li>{@code target} base URL of a running service, e.g. {@code http://localhost:9090}</li>
+ *   <li>{@code stack} {@code mvc} or {@code webflux} when no target is given, default {@code mvc}</li>
+ *   <li>{@code modes} Spring profiles to start the service in one after the other when no target is
+ *   given, default {@code default}; {@code virtual-threads} needs a Java 21 runtime</li>
+ *   <li>{@code rates} requests per second of the steps, default {@code 50,100,200,400,800}</li>
+ *   <li>{@code warmup} and {@code duration} of every step, default {@code 5s} and {@code 30s}</li>
+ *   <li>{@code mix} weights of the operations, default {@code list:10,get:60,buy:20,restock:10}</li>
+ *   <li>{@code products} number of products the workload uses, default {@code 20}</li>
+ *   <li>{@code slo-p99} latency objective of the 99th percentile, default {@code 500ms}</li>
+ *   <li>{@code max-in-flight} requests in flight before new ones are dropped, default {@code 10000}</li>
+ *   <li>{@code timeout} of a single request, default {@code 30s}</li>
+ *   <li>{@code issuer-host}, {@code issuer-port} and {@code key-file} of the token issuer</li>
+ *   <li>{@code output} directory for the {@code .hgrm} percentile distributions, default {@code target/load},
+ *   with a sub-directory per mode if there are several</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+  private static final String API_PATH = "/api/v1/products";
+  private static final String PRODUCT_PREFIX = "Load ";
+  private static final int PRODUCT_PRICE = 350;
+  private static final String PAYMENT = "{\"prices\":[200,100,50]}";
+  private static final double KEEP_UP_RATIO = 0.95;
+  private static final double MAX_ERROR_RATE = 0.01;
+  private static final String VIRTUAL_THREADS_PROFILE = "virtual-threads";
+
+  enum Operation {
+    LIST, GET, BUY, RESTOCK
+  }
+
+  private final Map<String, String> options;
+  private final HttpClient client;
+  private final ExecutorService clientExecutor;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Duration timeout;
+  private final int maxInFlight;
+  private Operation[] mix;
+  private HttpRequest list;
+  private HttpRequest[] gets;
+  private HttpRequest[] buys;
+  private HttpRequest[] restocks;
+
+  private LoadGenerator(Map<String, String> options) {
+    this.options = options;
+    timeout = duration(option("timeout", "30s"));
+    maxInFlight = Integer.parseInt(option("max-in-flight", "10000"));
+    clientExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(clientExecutor)
+            .build();
+  }
+
+  public static void main(String[] args) throws Exception {
+    var generator = new LoadGenerator(parse(args));
+    try {
+      generator.run();
+    } finally {
+      generator.clientExecutor.shutdownNow();
+    }
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    var keyFile = options.containsKey("key-file") ? Path.of(options.get("key-file")) : null;
+    long sloMicros = duration(option("slo-p99", "500ms")).toNanos() / 1000;
+    var output = Path.of(option("output", "target/load"));
+    try (var issuer = new LocalTokenIssuer(option("issuer-host", "localhost"), Integer.parseInt(option("issuer-port", "0")), keyFile)) {
+      String target = options.get("target");
+      if (target != null) {
+        System.out.printf("Start the service under test with%n  --spring.security.oauth2.resource-server.jwt.issuer-uri=%s%n"
+                + "  --spring.security.oauth2.resource-server.jwt.jwk-set-uri=%s%n", issuer.issuer(), issuer.jwkSetUri());
+        awaitService(target, duration(option("wait", "2m")));
+        printSummary(load(target, issuer, sloMicros, output), sloMicros);
+        return;
+      }
+
+      String[] modes = Arrays.stream(option("modes", ApiServer.DEFAULT_PROFILE).split(",")).map(String::trim).toArray(String[]::new);
+      if (Arrays.asList(modes).contains(VIRTUAL_THREADS_PROFILE) && Runtime.version().feature() < 21) {
+        throw new IllegalStateException("The " + VIRTUAL_THREADS_PROFILE + " mode needs a Java 21 runtime, this is " + Runtime.version());
+      }
+      Map<String, List<LoadStep.Summary>> results = new LinkedHashMap<>();
+      for (String mode : modes) {
+        if (modes.length > 1) {
+          System.out.printf("%n=== %s ===%n", mode);
+        }
+        try (var server = ApiServer.start(option("stack", "mvc"), issuer, mode)) {
+          var directory = modes.length == 1 ? output : output.resolve(mode);
+          results.put(mode, load("http://localhost:" + server.port(), issuer, sloMicros, directory));
+        }
+      }
+      results.forEach((mode, summaries) -> {
+        if (results.size() > 1) {
+          System.out.printf("%n%s:", mode);
+        }
+        printSummary(summaries, sloMicros);
+      });
+      if (results.size() > 1) {
+        printComparison(results, sloMicros);
+      }
+    }
+  }
+
+  /**
+   * Prepares the workload and raises the rate step by step until the service saturates.
+   *
+   * @return the summaries of the steps that were run.
+   */
+  private List<LoadStep.Summary> load(String target, LocalTokenIssuer issuer, long sloMicros, Path output)
+          throws IOException, InterruptedException {
+    var warmup = duration(option("warmup", "5s"));
+    var duration = duration(option("duration", "30s"));
+    int[] rates = Arrays.stream(option("rates", "50,100,200,400,800").split(",")).mapToInt(rate -> Integer.parseInt(rate.trim())).toArray();
+    var lifetime = warmup.plus(duration).multipliedBy(rates.length).plusHours(1);
+    prepare(target, issuer.token(lifetime, "client_user"), issuer.token(lifetime, "client_admin"));
+
+    List<LoadStep.Summary> summaries = new ArrayList<>();
+    for (int rate : rates) {
+      var summary = run(rate, warmup, duration).report(duration, System.out, output);
+      summaries.add(summary);
+      if (saturated(summary, sloMicros)) {
+        break;
+      }
+    }
+    return summaries;
+  }
+
+  /**
+   * Creates the products of the workload with full stock, through the API so it works against
+   * any instance, and builds the requests of every operation.
+   */
+  private void prepare(String target, String userToken, String adminToken) throws IOException, InterruptedException {
+    int products = Integer.parseInt(option("products", "20"));
+    String base = target + API_PATH;
+    restocks = new HttpRequest[products];
+    for (int i = 0; i < products; i++) {
+      restocks[i] = HttpRequest.newBuilder(URI.create(base))
+              .timeout(timeout)
+              .header("Authorization", "Bearer " + adminToken)
+              .header("Content-Type", "application/json")
+              .POST(HttpRequest.BodyPublishers.ofString("{\"productName\":\"" + PRODUCT_PREFIX + (i + 1) + "\",\"productPrice\":" + PRODUCT_PRICE + "}"))
+              .build();
+      for (int unit = 0; unit < 10; unit++) {
+        expectOk(client.send(restocks[i], HttpResponse.BodyHandlers.discarding()), "restock");
+      }
+    }
+
+    list = HttpRequest.newBuilder(URI.create(base)).timeout(timeout).header("Authorization", "Bearer " + userToken).GET().build();
+    var response = client.send(list, HttpResponse.BodyHandlers.ofString());
+    expectOk(response, "list");
+    Map<String, Integer> ids = new HashMap<>();
+    for (JsonNode product : objectMapper.readTree(response.body())) {
+      ids.put(product.path("productName").asText(), product.path("productId").asInt());
+    }
+    gets = new HttpRequest[products];
+    buys = new HttpRequest[products];
+    for (int i = 0; i < products; i++) {
+      Integer id = ids.get(PRODUCT_PREFIX + (i + 1));
+      if (id == null) {
+        throw new IllegalStateException("Product " + PRODUCT_PREFIX + (i + 1) + " was not created");
+      }
+      var uri = URI.create(base + "/" + id);
+      gets[i] = HttpRequest.newBuilder(uri).timeout(timeout).header("Authorization", "Bearer " + userToken).GET().build();
+      buys[i] = HttpRequest.newBuilder(uri)
+              .timeout(timeout)
+              .header("Authorization", "Bearer " + userToken)
+              .header("Content-Type", "application/json")
+              .POST(HttpRequest.BodyPublishers.ofString(PAYMENT))
+              .build();
+    }
+    mix = mix(option("mix", "list:10,get:60,buy:20,restock:10"));
+  }
+
+  /**
+   * Sends requests at the given rate for the warmup and the measured duration, then waits for the
+   * outstanding responses. Only requests due after the warmup are recorded.
+   */
+  private LoadStep run(int rate, Duration warmup, Duration duration) throws InterruptedException {
+    var step = new LoadStep(rate);
+    var random = new SplittableRandom(rate);
+    long start = System.nanoTime();
+    long measureFrom = start + warmup.toNanos();
+    long end = measureFrom + duration.toNanos();
+    for (long i = 0; ; i++) {
+      long due = start + i * 1_000_000_000L / rate;
+      if (due >= end) {
+        break;
+      }
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      var operation = mix[random.nextInt(mix.length)];
+      boolean measured = due >= measureFrom;
+      if (inFlight.get() >= maxInFlight) {
+        if (measured) {
+          step.dropped(operation);
+        }
+        continue;
+      }
+      int product = random.nextInt(gets.length);
+      var request = switch (operation) {
+        case LIST -> list;
+        case GET -> gets[product];
+        case BUY -> buys[product];
+        case RESTOCK -> restocks[product];
+      };
+      inFlight.incrementAndGet();
+      client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+        inFlight.decrementAndGet();
+        if (!measured) {
+          return;
+        }
+        if (error != null) {
+          step.failed(operation, due);
+        } else {
+          step.completed(operation, due, response.statusCode());
+        }
+      });
+    }
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    return step;
+  }
+
+  private static boolean saturated(LoadStep.Summary summary, long sloMicros) {
+    return summary.throughput() < summary.rate() * KEEP_UP_RATIO
+            || summary.errorRate() > MAX_ERROR_RATE
+            || summary.p99Micros() > sloMicros;
+  }
+
+  private static void printSummary(List<LoadStep.Summary> summaries, long sloMicros) {
+    System.out.printf("%n%10s %12s %10s %10s %8s%n", "rate", "throughput", "p50 ms", "p99 ms", "errors");
+    LoadStep.Summary last = null;
+    for (LoadStep.Summary summary : summaries) {
+      System.out.printf(Locale.ROOT, "%10d %12.1f %10.2f %10.2f %7.2f%%%s%n", summary.rate(), summary.throughput(),
+              summary.p50Micros() / 1000.0, summary.p99Micros() / 1000.0, summary.errorRate() * 100,
+              saturated(summary, sloMicros) ? "  saturated" : "");
+      if (!saturated(summary, sloMicros)) {
+        last = summary;
+      }
+    }
+    if (last == null) {
+      System.out.println("The service saturated at the lowest rate.");
+    } else if (last == summaries.get(summaries.size() - 1)) {
+      System.out.printf("The service kept up with every rate, up to %d requests/s.%n", last.rate());
+    } else {
+      System.out.printf("The service keeps up with %d requests/s and saturates below %d requests/s.%n",
+              last.rate(), summaries.get(summaries.size() - 1).rate());
+    }
+  }
+
+  /**
+   * Prints the highest rate every mode kept up with, next to each other.
+   */
+  private static void printComparison(Map<String, List<LoadStep.Summary>> results, long sloMicros) {
+    System.out.printf("%n%-20s %14s %12s %10s %10s%n", "mode", "sustained rate", "throughput", "p50 ms", "p99 ms");
+    results.forEach((mode, summaries) -> {
+      var sustained = summaries.stream().filter(summary -> !saturated(summary, sloMicros)).reduce((first, second) -> second);
+      if (sustained.isEmpty()) {
+        System.out.printf("%-20s %14s%n", mode, "none");
+      } else {
+        var summary = sustained.get();
+        System.out.printf(Locale.ROOT, "%-20s %14d %12.1f %10.2f %10.2f%n", mode, summary.rate(), summary.throughput(),
+                summary.p50Micros() / 1000.0, summary.p99Micros() / 1000.0);
+      }
+    });
+  }
+
+  private void awaitService(String target, Duration wait) throws InterruptedException {
+    var health = HttpRequest.newBuilder(URI.create(target + "/actuator/health")).timeout(Duration.ofSeconds(5)).GET().build();
+    long deadline = System.nanoTime() + wait.toNanos();
+    while (true) {
+      try {
+        if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+          return;
+        }
+      } catch (ConnectException e) {
+        // not started yet
+      } catch (IOException e) {
+        System.out.println("Waiting for " + target + ": " + e.getMessage());
+      }
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException(target + " did not become healthy within " + wait);
+      }
+      Thread.sleep(1000);
+    }
+  }
+
+  private static void expectOk(HttpResponse<?> response, String operation) {
+    if (response.statusCode() != 200) {
+      throw new IllegalStateException(operation + " answered with " + response.statusCode() + " while preparing the workload");
+    }
+  }
+
+  /**
+   * @param mix weights such as {@code list:10,get:60,buy:20,restock:10}.
+   * @return the operations, each repeated as often as its weight.
+   */
+  private static Operation[] mix(String mix) {
+    List<Operation> operations = new ArrayList<>();
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split(":");
+      var operation = Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+      int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+      for (int i = 0; i < weight; i++) {
+        operations.add(operation);
+      }
+    }
+    if (operations.isEmpty()) {
+      throw new IllegalArgumentException("The mix contains no operation: " + mix);
+    }
+    return operations.toArray(Operation[]::new);
+  }
+
+  /**
+   * @param value a duration such as {@code 500ms}, {@code 30s} or {@code 2m}, or in ISO-8601.
+   */
+  static Duration duration(String value) {
+    String trimmed = value.trim().toLowerCase(Locale.ROOT);
+    if (trimmed.startsWith("p")) {
+      return Duration.parse(trimmed);
+    }
+    if (trimmed.endsWith("ms")) {
+      return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 2)));
+    }
+    long amount = Long.parseLong(trimmed.substring(0, trimmed.length() - 1));
+    return switch (trimmed.charAt(trimmed.length() - 1)) {
+      case 's' -> Duration.ofSeconds(amount);
+      case 'm' -> Duration.ofMinutes(amount);
+      case 'h' -> Duration.ofHours(amount);
+      default -> throw new IllegalArgumentException("Unknown duration: " + value);
+    };
+  }
+
+  /**
+   * Accepts the options as separate arguments or as one string, as passed by {@code exec:exec}.
+   * The leading dashes are optional, since they cannot be written in a Maven property comment.
+   */
+  private static Map<String, String> parse(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : String.join(" ", args).trim().split("\\s+")) {
+      if (arg.isBlank()) {
+        continue;
+      }
+      String option = arg.startsWith("--") ? arg.substring(2) : arg;
+      if (!option.contains("=")) {
+        throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+      }
+      options.put(option.substring(0, option.indexOf('=')), option.substring(option.indexOf('=') + 1));
+    }
+    return options;
+  }
+
+  private String option(String name, String defaultValue) {
+    return options.getOrDefault(name, defaultValue);
+  }
+}
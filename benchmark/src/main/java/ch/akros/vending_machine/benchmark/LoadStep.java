@@ -0,0 +1,139 @@
+package ch.akros.vending_machine.benchmark;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of one load step at a fixed rate, per operation. A latency is measured
+ * from the time the request was due, not from the time it was sent, so a service that falls
+ * behind is also charged for the requests that queued up behind a slow one.
+ */
+class LoadStep {
+
+  private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(2);
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final int rate;
+  private final Map<LoadGenerator.Operation, Outcomes> outcomes = new EnumMap<>(LoadGenerator.Operation.class);
+
+  LoadStep(int rate) {
+    this.rate = rate;
+    for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+      outcomes.put(operation, new Outcomes());
+    }
+  }
+
+  int rate() {
+    return rate;
+  }
+
+  void completed(LoadGenerator.Operation operation, long dueNanos, int status) {
+    var outcome = outcomes.get(operation);
+    outcome.latencies.recordValue(Math.min(latencyMicros(dueNanos), HIGHEST_LATENCY_MICROS));
+    (status < 300 ? outcome.success : status < 500 ? outcome.clientErrors : outcome.serverErrors).increment();
+  }
+
+  /**
+   * Counts a request that got no response, e.g. because of a timeout or a refused connection.
+   */
+  void failed(LoadGenerator.Operation operation, long dueNanos) {
+    var outcome = outcomes.get(operation);
+    outcome.latencies.recordValue(Math.min(latencyMicros(dueNanos), HIGHEST_LATENCY_MICROS));
+    outcome.failed.increment();
+  }
+
+  /**
+   * Counts a request that was not sent because too many requests were in flight.
+   */
+  void dropped(LoadGenerator.Operation operation) {
+    outcomes.get(operation).dropped.increment();
+  }
+
+  /**
+   * Prints one line per operation and writes the percentile distributions as {@code .hgrm} files.
+   *
+   * @param measured  the length of the measured part of the step.
+   * @param directory the directory for the distributions, or {@code null} to write none.
+   * @return the totals of the step.
+   */
+  Summary report(Duration measured, PrintStream out, Path directory) throws IOException {
+    var total = new Histogram(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+    long responses = 0;
+    long errors = 0;
+    out.printf("%n%d requests/s%n", rate);
+    out.printf("%-10s %8s %7s %7s %7s %7s %7s %10s %10s %10s %10s %10s%n",
+            "operation", "count", "2xx", "4xx", "5xx", "failed", "dropped", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    for (var entry : outcomes.entrySet()) {
+      var outcome = entry.getValue();
+      var histogram = outcome.latencies.getIntervalHistogram();
+      total.add(histogram);
+      responses += outcome.success.sum() + outcome.clientErrors.sum() + outcome.serverErrors.sum();
+      errors += outcome.serverErrors.sum() + outcome.failed.sum() + outcome.dropped.sum();
+      out.printf("%-10s %8d %7d %7d %7d %7d %7d %s%n", entry.getKey().name().toLowerCase(Locale.ROOT), histogram.getTotalCount(),
+              outcome.success.sum(), outcome.clientErrors.sum(), outcome.serverErrors.sum(), outcome.failed.sum(), outcome.dropped.sum(),
+              percentiles(histogram));
+      write(histogram, directory, entry.getKey().name().toLowerCase(Locale.ROOT));
+    }
+    out.printf("%-10s %8d %39s %s%n", "all", total.getTotalCount(), "", percentiles(total));
+    write(total, directory, "all");
+
+    double throughput = responses / (measured.toNanos() / 1e9);
+    long attempts = total.getTotalCount() + outcomes.values().stream().mapToLong(outcome -> outcome.dropped.sum()).sum();
+    out.printf("throughput %.1f responses/s, errors %d of %d%n", throughput, errors, attempts);
+    return new Summary(rate, throughput, total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+            attempts == 0 ? 0 : (double) errors / attempts);
+  }
+
+  private void write(Histogram histogram, Path directory, String name) throws IOException {
+    if (directory == null) {
+      return;
+    }
+    Files.createDirectories(directory);
+    try (var out = new PrintStream(Files.newOutputStream(directory.resolve(rate + "-" + name + ".hgrm")))) {
+      histogram.outputPercentileDistribution(out, 1000.0);
+    }
+  }
+
+  private static String percentiles(Histogram histogram) {
+    return String.format(Locale.ROOT, "%10.2f %10.2f %10.2f %10.2f %10.2f",
+            histogram.getValueAtPercentile(50) / 1000.0,
+            histogram.getValueAtPercentile(90) / 1000.0,
+            histogram.getValueAtPercentile(99) / 1000.0,
+            histogram.getValueAtPercentile(99.9) / 1000.0,
+            histogram.getMaxValue() / 1000.0);
+  }
+
+  private static long latencyMicros(long dueNanos) {
+    return Math.max(0, (System.nanoTime() - dueNanos) / 1000);
+  }
+
+  /**
+   * @param rate       the target rate in requests per second.
+   * @param throughput the responses per second actually received.
+   * @param p50Micros  the median latency over all operations.
+   * @param p99Micros  the 99th percentile latency over all operations.
+   * @param errorRate  the share of requests answered with 5xx, not answered or not sent.
+   */
+  record Summary(int rate, double throughput, long p50Micros, long p99Micros, double errorRate) {
+  }
+
+  private static final class Outcomes {
+    private final Recorder latencies = new Recorder(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+    private final LongAdder success = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+  }
+}
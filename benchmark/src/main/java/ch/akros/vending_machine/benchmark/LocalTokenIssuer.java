@@ -0,0 +1,124 @@
+package ch.akros.vending_machine.benchmark;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stand-in for Keycloak: serves the JWK set of an RSA key on a local port and signs tokens with
+ * it, so the services under load verify real tokens without an identity provider.
+ */
+class LocalTokenIssuer implements AutoCloseable {
+
+  private static final String CERTS_PATH = "/protocol/openid-connect/certs";
+  private static final String RESOURCE_ID = "conde-rest-api";
+
+  private final HttpServer server;
+  private final String host;
+  private final RSAKey key;
+
+  LocalTokenIssuer() throws IOException {
+    this("localhost", 0, null);
+  }
+
+  /**
+   * @param host    the host the JWK set is served on, also used in the issuer URI.
+   * @param port    the port, or 0 for any free port.
+   * @param keyFile the file the signing key is kept in, so a running service keeps accepting the
+   *                tokens of later runs. A new key is generated if it is {@code null} or missing.
+   */
+  LocalTokenIssuer(String host, int port, Path keyFile) throws IOException {
+    this.host = host;
+    key = keyFile == null ? generateKey() : loadKey(keyFile);
+    byte[] jwkSet = new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+    var address = "localhost".equals(host) ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(host, port);
+    server = HttpServer.create(address, 0);
+    server.createContext(CERTS_PATH, exchange -> {
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, jwkSet.length);
+      exchange.getResponseBody().write(jwkSet);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  String issuer() {
+    return "http://" + host + ":" + server.getAddress().getPort() + "/realms/conde";
+  }
+
+  String jwkSetUri() {
+    return "http://" + host + ":" + server.getAddress().getPort() + CERTS_PATH;
+  }
+
+  /**
+   * @param lifetime how long the token is valid.
+   * @param roles    the client roles of the resource server, e.g. {@code client_user}.
+   * @return a signed token in the shape Keycloak issues.
+   */
+  String token(Duration lifetime, String... roles) {
+    var now = Instant.now();
+    var claims = new JWTClaimsSet.Builder()
+            .issuer(issuer())
+            .subject(UUID.randomUUID().toString())
+            .jwtID(UUID.randomUUID().toString())
+            .claim("preferred_username", "benchmark")
+            .claim("resource_access", Map.of(RESOURCE_ID, Map.of("roles", List.of(roles))))
+            .issueTime(Date.from(now))
+            .expirationTime(Date.from(now.plus(lifetime)))
+            .build();
+    try {
+      var jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+      jwt.sign(new RSASSASigner(key));
+      return jwt.serialize();
+    } catch (JOSEException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private static RSAKey loadKey(Path keyFile) throws IOException {
+    if (Files.exists(keyFile)) {
+      try {
+        return RSAKey.parse(Files.readString(keyFile));
+      } catch (ParseException e) {
+        throw new IOException("Not an RSA key: " + keyFile, e);
+      }
+    }
+    var key = generateKey();
+    Files.writeString(keyFile, key.toJSONString());
+    return key;
+  }
+
+  private static RSAKey generateKey() {
+    try {
+      return new RSAKeyGenerator(2048).keyID(UUID.randomUUID().toString()).generate();
+    } catch (JOSEException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
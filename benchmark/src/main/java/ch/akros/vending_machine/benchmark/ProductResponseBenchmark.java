@@ -0,0 +1,103 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.dto.ResponseTimestamp;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Measures building the {@link ProductResponseDto} envelope the way the service does and
+ * serializing it with the same Jackson configuration Spring MVC uses. The {@code legacy}
+ * benchmarks build and serialize the same JSON the way the envelope used to be produced: joined
+ * strings, a fresh {@link Instant#toString()}, a map around the product and the reflective bean
+ * serializer. Compare the {@code gc.alloc.rate.norm} of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductResponseBenchmark {
+
+  private ObjectMapper objectMapper;
+  private ProductDTO productDTO;
+  private ProductResponseDto response;
+  private LegacyResponse legacyResponse;
+  private Integer id;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    id = 1;
+    productDTO = ProductDTO.builder().productId(id).productName("Cola").productPrice(350).quantity(5).build();
+    response = build();
+    legacyResponse = buildLegacy();
+  }
+
+  @Benchmark
+  public ProductResponseDto buildResponse() {
+    return build();
+  }
+
+  @Benchmark
+  public byte[] serializeResponse() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(response);
+  }
+
+  @Benchmark
+  public byte[] buildAndSerializeResponse() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(build());
+  }
+
+  @Benchmark
+  public LegacyResponse legacyBuildResponse() {
+    return buildLegacy();
+  }
+
+  @Benchmark
+  public byte[] legacySerializeResponse() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(legacyResponse);
+  }
+
+  @Benchmark
+  public byte[] legacyBuildAndSerializeResponse() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(buildLegacy());
+  }
+
+  private ProductResponseDto build() {
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .message("Product found by ID: ", id)
+            .error(null)
+            .path(PRODUCT_API_PATH, id)
+            .statusCode(OK.value())
+            .product(productDTO)
+            .build();
+  }
+
+  private LegacyResponse buildLegacy() {
+    return new LegacyResponse("Product found by ID: " + id, null, PRODUCT_API_PATH + id, OK, OK.value(),
+            Instant.now().toString(), Map.of(PRODUCT_KEY, productDTO));
+  }
+
+  /**
+   * The envelope as it was before it got its own serializer.
+   */
+  public record LegacyResponse(String message, String error, String path, HttpStatus status, Integer statusCode,
+                               String timestamp, Map<String, ProductDTO> data) {
+  }
+}
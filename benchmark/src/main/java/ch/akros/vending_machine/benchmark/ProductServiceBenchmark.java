@@ -0,0 +1,133 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.CoinInventory;
+import ch.akros.vending_machine.service.InventoryJournal;
+import ch.akros.vending_machine.service.OptimisticRetry;
+import ch.akros.vending_machine.service.ProductCatalog;
+import ch.akros.vending_machine.service.ProductMetrics;
+import ch.akros.vending_machine.service.ProductService;
+import ch.akros.vending_machine.service.StockLedger;
+import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+
+/**
+ * Measures the {@link ProductService} hot paths against the in-memory repository stand-in
+ * ({@code backend=memory}), against an embedded H2 database ({@code backend=h2}) and against H2
+ * with the stock kept in the in-memory {@link StockLedger} ({@code backend=h2-ledger}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductServiceBenchmark {
+
+  private static final int PRICE = 350;
+
+  @Param({"memory", "h2", "h2-ledger"})
+  private String backend;
+
+  @Param({"20"})
+  private int catalogSize;
+
+  private ConfigurableApplicationContext context;
+  private ProductRepository productRepository;
+  private MachineStockRepository machineStockRepository;
+  private ProductService productService;
+  private Integer buyId;
+  private Integer restockId;
+  private PriceRequestDTO payment;
+  private ProductDTO restock;
+  private ProductDTO empty;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    if (backend.startsWith("h2")) {
+      context = EmbeddedDatabase.start("h2-ledger".equals(backend));
+      productRepository = context.getBean(ProductRepository.class);
+      machineStockRepository = context.getBean(MachineStockRepository.class);
+      productService = context.getBean(ProductService.class);
+    } else {
+      productRepository = InMemoryProductRepository.create();
+      machineStockRepository = InMemoryMachineStockRepository.create(productRepository);
+      var transactionTemplate = new TransactionTemplate(new InMemoryTransactionManager());
+      var metrics = new ProductMetrics(new SimpleMeterRegistry());
+      productService = new ProductServiceImpl(productRepository, new ProductCatalog(), metrics,
+            new CoinInventory(InMemoryCoinRepository.create(), 10_000),
+            new StockLedger(productRepository, machineStockRepository, transactionTemplate, new SimpleMeterRegistry(), false, "", 0),
+            new OptimisticRetry(metrics, 4, Duration.ofMillis(5), Duration.ofMillis(100)),
+            new InventoryJournal(null, null, null, productRepository, null, transactionTemplate, new SimpleMeterRegistry(), false, false, 0),
+            machineStockRepository, transactionTemplate);
+    }
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    for (int i = 0; i < catalogSize; i++) {
+      stocked("Product " + i, 100 + 50 * (i % 8), 5);
+    }
+    // Stock far beyond the capacity rule so the buy benchmark never runs out of units.
+    buyId = stocked("Cola", PRICE, Integer.MAX_VALUE);
+    restockId = stocked("Fanta", PRICE, 0);
+    payment = PriceRequestDTO.builder().prices(List.of(50, 100, 200)).build();
+    restock = ProductDTO.builder().productName("Fanta").productPrice(PRICE).build();
+    empty = ProductDTO.builder().quantity(0).build();
+  }
+
+  private Integer stocked(String productName, int productPrice, int quantity) {
+    var productId = productRepository.save(new Product(null, productName, productPrice, null)).getProductId();
+    machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, productId, quantity);
+    return productId;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (context != null) {
+      context.close();
+    }
+  }
+
+  @Benchmark
+  public List<ProductDTO> getProducts() {
+    return productService.getProducts();
+  }
+
+  @Benchmark
+  public ProductResponseDto getProduct() throws ProductNotFoundException {
+    return productService.getProduct(buyId);
+  }
+
+  @Benchmark
+  public ProductResponseDto buyProduct() throws ProductNotFoundException {
+    return productService.buyProduct(buyId, payment);
+  }
+
+  /**
+   * Restocks one unit. Once the product reaches the capacity limit it is emptied again, so
+   * every tenth invocation also pays for that reset.
+   */
+  @Benchmark
+  public ProductResponseDto createProduct() throws ProductNotFoundException {
+    var response = productService.createProduct(restock);
+    if (response.getStatus() == BAD_REQUEST) {
+      productService.updateProduct(empty, restockId);
+    }
+    return response;
+  }
+}
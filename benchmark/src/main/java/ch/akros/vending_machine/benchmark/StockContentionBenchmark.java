@@ -0,0 +1,65 @@
+package ch.akros.vending_machine.benchmark;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * Measures the conditional stock decrement of {@link MachineStockRepository} with eight threads
+ * buying the same product. {@code ProductRepositoryTest} checks that the decrement never oversells
+ * under this contention; this benchmark measures how many decrements it sustains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class StockContentionBenchmark {
+
+  private static final int PRICE = 350;
+
+  @Param({"memory", "h2"})
+  private String backend;
+
+  private ConfigurableApplicationContext context;
+  private MachineStockRepository machineStockRepository;
+  private Integer productId;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ProductRepository productRepository;
+    if ("h2".equals(backend)) {
+      context = EmbeddedDatabase.start();
+      productRepository = context.getBean(ProductRepository.class);
+      machineStockRepository = context.getBean(MachineStockRepository.class);
+    } else {
+      productRepository = InMemoryProductRepository.create();
+      machineStockRepository = InMemoryMachineStockRepository.create(productRepository);
+    }
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    productId = productRepository.save(new Product(null, "Cola", PRICE, null)).getProductId();
+    // Stock far beyond the capacity rule so the benchmark never runs out of units.
+    machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, productId, Integer.MAX_VALUE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (context != null) {
+      context.close();
+    }
+  }
+
+  @Benchmark
+  public int decrementQuantity() {
+    return machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, productId, PRICE);
+  }
+}
@@ -0,0 +1,131 @@
+package ch.akros.vending_machine.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * Compares the throughput of the servlet service ({@code stack=mvc}) with the WebFlux module
+ * ({@code stack=webflux}) over HTTP, with bearer tokens verified against a local JWK set and an
+ * in-memory H2 database behind each stack.
+ * <p>
+ * Every operation sends {@code concurrentRequests} requests at once and waits for all responses.
+ * Nine out of ten requests read a product, every tenth buys one with the exact price. The
+ * {@code requests} counter is the number of completed requests per second, {@code failed} the
+ * number of those that did not answer with 200.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class WebStackBenchmark {
+
+  private static final int PRODUCTS = 20;
+
+  @Param({"mvc", "webflux"})
+  private String stack;
+
+  @Param({"64", "512"})
+  private int concurrentRequests;
+
+  private LocalTokenIssuer issuer;
+  private ApiServer server;
+  private ExecutorService clientExecutor;
+  private HttpClient client;
+  private HttpRequest[] reads;
+  private HttpRequest buy;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Completed {
+    public long requests;
+    public long failed;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    issuer = new LocalTokenIssuer();
+    server = ApiServer.start(stack, issuer, ApiServer.DEFAULT_PROFILE);
+    seed(server.jdbcUrl());
+
+    clientExecutor = Executors.newFixedThreadPool(4);
+    client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(clientExecutor)
+            .build();
+    String token = "Bearer " + issuer.token(Duration.ofHours(1), "client_user");
+    String base = "http://localhost:" + server.port() + "/api/v1/products/";
+    reads = new HttpRequest[PRODUCTS];
+    for (int i = 0; i < PRODUCTS; i++) {
+      reads[i] = HttpRequest.newBuilder(URI.create(base + (i + 1))).header("Authorization", token).GET().build();
+    }
+    buy = HttpRequest.newBuilder(URI.create(base + (PRODUCTS + 1)))
+            .header("Authorization", token)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString("{\"prices\":[200,100,50]}"))
+            .build();
+  }
+
+  /**
+   * Inserts the products directly, so the product that is bought has more stock than the API
+   * allows to add and does not sell out during the run.
+   */
+  private static void seed(String jdbcUrl) throws SQLException {
+    try (var connection = DriverManager.getConnection(jdbcUrl, "sa", "");
+         var product = connection.prepareStatement(
+                 "insert into _product (product_id, product_name, product_price, version) values (?, ?, 350, 0)");
+         var stock = connection.prepareStatement(
+                 "insert into _machine_stock (machine_id, product_id, quantity) values ('" + LOCAL_MACHINE_ID + "', ?, ?)")) {
+      for (int id = 1; id <= PRODUCTS + 1; id++) {
+        product.setInt(1, id);
+        product.setString(2, id <= PRODUCTS ? "Product " + id : "Cola");
+        product.addBatch();
+        stock.setInt(1, id);
+        stock.setInt(2, id <= PRODUCTS ? 5 : Integer.MAX_VALUE);
+        stock.addBatch();
+      }
+      product.executeBatch();
+      stock.executeBatch();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.close();
+    issuer.close();
+    clientExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public void mixedRequests(Completed completed) {
+    var failed = new AtomicLong();
+    var responses = new CompletableFuture<?>[concurrentRequests];
+    for (int i = 0; i < concurrentRequests; i++) {
+      var request = i % 10 == 0 ? buy : reads[i % PRODUCTS];
+      responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+              .thenAccept(response -> {
+                if (response.statusCode() != 200) {
+                  failed.incrementAndGet();
+                }
+              });
+    }
+    CompletableFuture.allOf(responses).join();
+    completed.requests += concurrentRequests;
+    completed.failed += failed.get();
+  }
+}
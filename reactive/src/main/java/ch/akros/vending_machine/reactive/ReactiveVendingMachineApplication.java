@@ -0,0 +1,17 @@
+package ch.akros.vending_machine.reactive;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * The product API on WebFlux and R2DBC. Only this package is scanned; the DTOs, validations and
+ * the JWT conversion are shared with the servlet service.
+ */
+@SpringBootApplication
+public class ReactiveVendingMachineApplication {
+
+	public static void main(String[] args) {
+		SpringApplication.run(ReactiveVendingMachineApplication.class, args);
+	}
+
+}
@@ -0,0 +1,29 @@
+package ch.akros.vending_machine.reactive.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.relational.core.mapping.NamingStrategy;
+import org.springframework.data.relational.core.mapping.RelationalPersistentProperty;
+
+@Configuration
+public class R2dbcNamingConfig {
+
+  /**
+   * Provides a NamingStrategy bean that uses the property names as column names, like the
+   * {@code PhysicalNamingStrategyStandardImpl} of the servlet service in the dev and prod profiles.
+   * Without it columns are named in snake case, like the default naming of Hibernate.
+   *
+   * @return the configured {@link NamingStrategy}.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "r2dbc.naming.physical-strategy", havingValue = "standard")
+  public NamingStrategy standardNamingStrategy() {
+    return new NamingStrategy() {
+      @Override
+      public String getColumnName(RelationalPersistentProperty property) {
+        return property.getName();
+      }
+    };
+  }
+}
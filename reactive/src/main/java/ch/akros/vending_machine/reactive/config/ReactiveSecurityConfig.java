@@ -0,0 +1,49 @@
+package ch.akros.vending_machine.reactive.config;
+
+import ch.akros.vending_machine.reactive.exception.handler.ReactiveAccessDeniedHandler;
+import ch.akros.vending_machine.service.JwtAuthConverter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.config.annotation.method.configuration.EnableReactiveMethodSecurity;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverterAdapter;
+import org.springframework.security.oauth2.server.resource.web.server.BearerTokenServerAuthenticationEntryPoint;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+
+import static ch.akros.vending_machine.constant.AppConstant.PUBLIC_URLS;
+
+@Configuration
+@EnableWebFluxSecurity
+@EnableReactiveMethodSecurity
+@Import(JwtAuthConverter.class)
+public class ReactiveSecurityConfig {
+
+  /**
+   * Provides a SecurityWebFilterChain bean with the rules of the servlet service: the public URLs
+   * are open, every other request needs a bearer token, whose roles are extracted by the same
+   * {@link JwtAuthConverter}. Nothing is kept between requests.
+   *
+   * @param http             the {@link ServerHttpSecurity} object to configure.
+   * @param jwtAuthConverter the conversion of the token into an authentication.
+   * @return the configured {@link SecurityWebFilterChain}.
+   */
+  @Bean
+  public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http, JwtAuthConverter jwtAuthConverter) {
+    return http
+            .csrf(ServerHttpSecurity.CsrfSpec::disable)
+            .authorizeExchange(exchange -> exchange
+                    .pathMatchers(PUBLIC_URLS).permitAll()
+                    .anyExchange().authenticated()
+            )
+            .oauth2ResourceServer(oauth -> oauth
+                    .jwt(jwt -> jwt.jwtAuthenticationConverter(new ReactiveJwtAuthenticationConverterAdapter(jwtAuthConverter)))
+            )
+            .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+            .exceptionHandling(exception -> exception.authenticationEntryPoint(new BearerTokenServerAuthenticationEntryPoint())
+                    .accessDeniedHandler(new ReactiveAccessDeniedHandler()))
+            .build();
+  }
+}
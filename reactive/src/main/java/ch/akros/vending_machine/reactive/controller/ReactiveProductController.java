@@ -0,0 +1,222 @@
+package ch.akros.vending_machine.reactive.controller;
+
+import ch.akros.vending_machine.dto.BasketRequestDTO;
+import ch.akros.vending_machine.dto.InventoryEventDTO;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.reactive.service.ReactiveProductService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static ch.akros.vending_machine.constant.AppConstant.DEFAULT_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
+
+/**
+ * The product endpoints of the servlet {@code ProductController} on WebFlux, with the same paths,
+ * roles and response bodies.
+ */
+@RestController
+@RequestMapping("/api/v1/products")
+@RequiredArgsConstructor
+public class ReactiveProductController {
+
+  private final ReactiveProductService productService;
+
+  @Operation(
+          description = "Get all Products",
+          summary = "Display all the products.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping
+  @PreAuthorize("hasRole('client_user')")
+  public Mono<ResponseEntity<List<ProductDTO>>> getAllProducts(@RequestParam(value = "after", required = false) Integer after,
+                                                               @RequestParam(value = "limit", required = false) Integer limit) {
+    if (after == null && limit == null) {
+      return productService.getProducts().collectList().map(ResponseEntity::ok);
+    }
+    return productService.getProducts(after, limit == null ? DEFAULT_PAGE_SIZE : limit).map(page -> {
+      var response = ResponseEntity.ok();
+      if (page.getNextCursor() != null) {
+        response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+      }
+      return response.body(page.getProducts());
+    });
+  }
+
+  @Operation(
+          description = "Stream all Products",
+          summary = "Streams all the products as newline delimited JSON, one product per line.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+  @PreAuthorize("hasRole('client_user')")
+  public Flux<ProductDTO> streamAllProducts() {
+    return productService.getProducts();
+  }
+
+  @Operation(
+          description = "Add Product",
+          summary = "A new product will be added into the database",
+          responses = {
+                  @ApiResponse(
+                          description = "Created",
+                          responseCode = "201"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  )
+          }
+  )
+  @PostMapping
+  @PreAuthorize("hasRole('client_admin')")
+  public Mono<ResponseEntity<ProductResponseDto>> addProduct(@Valid @RequestBody ProductDTO productDTO) {
+    return productService.createProduct(productDTO).map(ResponseEntity::ok);
+  }
+
+  @Operation(
+          description = "Get Product by ID",
+          summary = "The found product by the given id will be shown.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @GetMapping("/{id}")
+  @PreAuthorize("hasRole('client_user')")
+  public Mono<ResponseEntity<ProductResponseDto>> getProductById(@PathVariable("id") Integer id) {
+    return productService.getProduct(id).map(response -> new ResponseEntity<>(response, response.getStatus()));
+  }
+
+  @Operation(
+          description = "Get Product history",
+          summary = "The latest journaled inventory changes of the product, newest first.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping("/{id}/history")
+  @PreAuthorize("hasRole('client_admin')")
+  public Mono<ResponseEntity<List<InventoryEventDTO>>> getProductHistory(@PathVariable("id") Integer id,
+                                                                         @RequestParam(value = "limit", required = false) Integer limit) {
+    int size = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+    return productService.history(id, size).collectList().map(ResponseEntity::ok);
+  }
+
+  @Operation(
+          description = "Delete Product by ID",
+          summary = "The found product will be deleted from the database.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @DeleteMapping("/{id}")
+  @PreAuthorize("hasRole('client_remove')")
+  public Mono<ResponseEntity<ProductResponseDto>> deleteProductById(@PathVariable("id") Integer id) {
+    return productService.deleteProduct(id).map(ResponseEntity::ok);
+  }
+
+  @Operation(
+          description = "Update Product by ID",
+          summary = "Product will be updated.",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @PutMapping("/{id}")
+  @PreAuthorize("hasRole('client_admin')")
+  public Mono<ResponseEntity<ProductResponseDto>> updateProduct(@Valid @RequestBody ProductDTO productDTO, @PathVariable("id") Integer id) {
+    return productService.updateProduct(productDTO, id).map(ResponseEntity::ok);
+  }
+
+  @Operation(
+          description = "Buy Product",
+          summary = "By product by given Id and price",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @PostMapping("/{id}")
+  public Mono<ResponseEntity<ProductResponseDto>> buyProduct(@PathVariable("id") Integer id, @RequestBody PriceRequestDTO priceRequestDTO) {
+    return productService.buyProduct(id, priceRequestDTO).map(response -> new ResponseEntity<>(response, response.getStatus()));
+  }
+
+  @Operation(
+          description = "Buy Basket",
+          summary = "Buy several products with one payment; either all of them are bought or none",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @PostMapping("/basket")
+  public Mono<ResponseEntity<ProductResponseDto>> buyProducts(@RequestBody BasketRequestDTO basketRequestDTO) {
+    return productService.buyProducts(basketRequestDTO).map(response -> new ResponseEntity<>(response, response.getStatus()));
+  }
+}
@@ -0,0 +1,18 @@
+package ch.akros.vending_machine.reactive.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("_coin")
+public class CoinRow {
+
+    @Id
+    private Integer denomination;
+    private Integer quantity;
+}
@@ -0,0 +1,42 @@
+package ch.akros.vending_machine.reactive.domain;
+
+import ch.akros.vending_machine.domain.InventoryEvent;
+import ch.akros.vending_machine.dto.InventoryEventDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.Instant;
+
+/**
+ * A row of the inventory journal the servlet service maps with {@link InventoryEvent}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("_inventory_event")
+public class InventoryEventRow {
+
+    @Id
+    private Long eventId;
+    private Integer productId;
+    private InventoryEvent.Type type;
+    private int quantityDelta;
+    private String productName;
+    private Integer productPrice;
+    private Instant occurredAt;
+
+    public InventoryEventDTO toDto() {
+        return InventoryEventDTO.builder()
+                .eventId(eventId)
+                .productId(productId)
+                .type(type.name())
+                .quantityDelta(quantityDelta)
+                .productName(productName)
+                .productPrice(productPrice)
+                .occurredAt(occurredAt)
+                .build();
+    }
+}
@@ -0,0 +1,23 @@
+package ch.akros.vending_machine.reactive.domain;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.relational.core.mapping.Table;
+
+/**
+ * A row of the stock table the servlet service maps with {@link MachineStock}. Spring Data R2DBC
+ * has no composite keys, so the rows are only written by
+ * {@link ch.akros.vending_machine.reactive.repository.StockUpdates}.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("_machine_stock")
+public class MachineStockRow {
+
+    private String machineId;
+    private Integer productId;
+    private Integer quantity;
+}
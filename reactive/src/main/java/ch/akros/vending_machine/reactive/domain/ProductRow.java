@@ -0,0 +1,47 @@
+package ch.akros.vending_machine.reactive.domain;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.ProductDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.relational.core.mapping.Table;
+
+/**
+ * A row of the product table the servlet service maps with {@link Product}. The version is the
+ * same optimistic lock, so both services can write the table at the same time. The quantity is
+ * the stock of {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID}, joined in by
+ * the queries of {@link ch.akros.vending_machine.reactive.repository.ProductRowRepository} and
+ * written through {@link ch.akros.vending_machine.reactive.repository.StockUpdates} only.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("_product")
+public class ProductRow {
+
+    @Id
+    private Integer productId;
+    private String productName;
+    private Integer productPrice;
+    @ReadOnlyProperty
+    private Integer quantity;
+    @Version
+    private Long version;
+
+    public ProductDTO toDto() {
+        return ProductDTO.builder()
+                .productId(productId)
+                .productName(productName)
+                .productPrice(productPrice)
+                .quantity(quantity)
+                .build();
+    }
+
+    public Product toProduct() {
+        return new Product(productId, productName, productPrice, quantity);
+    }
+}
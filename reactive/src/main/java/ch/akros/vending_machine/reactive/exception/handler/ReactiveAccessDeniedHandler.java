@@ -0,0 +1,29 @@
+package ch.akros.vending_machine.reactive.exception.handler;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.web.server.authorization.ServerAccessDeniedHandler;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+public class ReactiveAccessDeniedHandler implements ServerAccessDeniedHandler {
+
+  @Override
+  public Mono<Void> handle(ServerWebExchange exchange, AccessDeniedException denied) {
+    var response = exchange.getResponse();
+    response.setStatusCode(HttpStatus.FORBIDDEN);
+    response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+
+    ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.FORBIDDEN, "You do not have enough permission.");
+    problemDetail.setTitle(HttpStatus.FORBIDDEN.getReasonPhrase());
+    problemDetail.setProperty("timestamp", Instant.now());
+
+    var body = response.bufferFactory().wrap(problemDetail.toString().getBytes(StandardCharsets.UTF_8));
+    return response.writeWith(Mono.just(body));
+  }
+}
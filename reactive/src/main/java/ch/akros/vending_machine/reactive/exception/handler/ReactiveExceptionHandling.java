@@ -0,0 +1,89 @@
+package ch.akros.vending_machine.reactive.exception.handler;
+
+import ch.akros.vending_machine.exception.ProductConflictException;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.bind.support.WebExchangeBindException;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.springframework.http.HttpStatus.*;
+
+/**
+ * The error responses of the servlet {@code ProductExceptionHandling} for the exceptions that the
+ * reactive endpoints can raise.
+ */
+@RestControllerAdvice
+public class ReactiveExceptionHandling {
+
+  private static final String NOT_ENOUGH_PERMISSION = "You do not have enough permission";
+  private static final String PRODUCT_NOT_FOUND_BY_ID = "Product does not exist in the database";
+  private static final String PRODUCT_CONFLICT = "Product was changed concurrently";
+  private static final String PRODUCT_CONFLICT_DETAIL = "The product was changed by another request. Please reload it and try again";
+
+  @ExceptionHandler(AccessDeniedException.class)
+  public ResponseEntity<ProblemDetail> handleAccessDeniedException() {
+    return handleGenericException(FORBIDDEN, NOT_ENOUGH_PERMISSION);
+  }
+
+  @ExceptionHandler(ProductNotFoundException.class)
+  public ResponseEntity<ProblemDetail> handleProductNotFoundException(ProductNotFoundException exception) {
+    return generateProblemDetail(BAD_REQUEST, exception.getMessage(), PRODUCT_NOT_FOUND_BY_ID);
+  }
+
+  @ExceptionHandler(ProductConflictException.class)
+  public ResponseEntity<ProblemDetail> handleProductConflictException(ProductConflictException exception) {
+    return generateProblemDetail(CONFLICT, exception.getMessage(), PRODUCT_CONFLICT);
+  }
+
+  @ExceptionHandler(OptimisticLockingFailureException.class)
+  public ResponseEntity<ProblemDetail> handleOptimisticLockingFailureException() {
+    return generateProblemDetail(CONFLICT, PRODUCT_CONFLICT_DETAIL, PRODUCT_CONFLICT);
+  }
+
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<ProblemDetail> handleIllegalArgumentException(IllegalArgumentException exception) {
+    return handleGenericException(BAD_REQUEST, exception.getMessage());
+  }
+
+  @ExceptionHandler(DataIntegrityViolationException.class)
+  public ResponseEntity<ProblemDetail> handleDataIntegrityViolationException(DataIntegrityViolationException exception) {
+    return handleGenericException(BAD_REQUEST, exception.getMostSpecificCause().getMessage());
+  }
+
+  @ExceptionHandler(WebExchangeBindException.class)
+  public ResponseEntity<ProblemDetail> handleWebExchangeBindException(WebExchangeBindException exception) {
+    Map<String, Object> errors = new HashMap<>();
+    exception.getBindingResult().getFieldErrors().forEach(error -> errors.put(error.getField(), error.getDefaultMessage()));
+
+    ProblemDetail problemDetail = handleGenericException(BAD_REQUEST, exception.getBody().getDetail(), null, errors);
+    return new ResponseEntity<>(problemDetail, BAD_REQUEST);
+  }
+
+  private ResponseEntity<ProblemDetail> generateProblemDetail(HttpStatus status, String message, String title) {
+    ProblemDetail problemDetail = handleGenericException(status, message, title, null);
+    return new ResponseEntity<>(problemDetail, status);
+  }
+
+  private ResponseEntity<ProblemDetail> handleGenericException(HttpStatus status, String message) {
+    return generateProblemDetail(status, message, null);
+  }
+
+  private ProblemDetail handleGenericException(HttpStatus status, String message, String title, Map<String, Object> properties) {
+    ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(status, message);
+    problemDetail.setTitle(Optional.ofNullable(title).orElse(status.getReasonPhrase()));
+    problemDetail.setProperties(Optional.ofNullable(properties).orElseGet(HashMap::new));
+    problemDetail.setProperty("timestamp", Instant.now());
+    return problemDetail;
+  }
+}
@@ -0,0 +1,9 @@
+package ch.akros.vending_machine.reactive.repository;
+
+import ch.akros.vending_machine.reactive.domain.CoinRow;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface CoinRowRepository extends R2dbcRepository<CoinRow, Integer> {
+}
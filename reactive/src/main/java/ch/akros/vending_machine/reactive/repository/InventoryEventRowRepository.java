@@ -0,0 +1,18 @@
+package ch.akros.vending_machine.reactive.repository;
+
+import ch.akros.vending_machine.reactive.domain.InventoryEventRow;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+@Repository
+public interface InventoryEventRowRepository extends R2dbcRepository<InventoryEventRow, Long> {
+
+    /**
+     * @param productId the product.
+     * @param limit     the maximum number of events.
+     * @return the latest events of the product, newest first.
+     */
+    Flux<InventoryEventRow> findByProductIdOrderByEventIdDesc(Integer productId, Limit limit);
+}
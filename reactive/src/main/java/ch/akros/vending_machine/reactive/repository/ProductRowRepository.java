@@ -0,0 +1,45 @@
+package ch.akros.vending_machine.reactive.repository;
+
+import ch.akros.vending_machine.reactive.domain.ProductRow;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * Reads the products together with the stock of the local machine, {@code null} for a product the
+ * machine does not hold.
+ */
+@Repository
+public interface ProductRowRepository extends R2dbcRepository<ProductRow, Integer> {
+
+    String SELECT_WITH_STOCK = "select p.product_id, p.product_name, p.product_price, p.version, s.quantity "
+            + "from _product p left join _machine_stock s "
+            + "on s.machine_id = '" + LOCAL_MACHINE_ID + "' and s.product_id = p.product_id ";
+
+    @Override
+    @Query(SELECT_WITH_STOCK + "where p.product_id = :id")
+    Mono<ProductRow> findById(Integer id);
+
+    @Query(SELECT_WITH_STOCK + "where p.product_name = :productName")
+    Mono<ProductRow> findByProductName(String productName);
+
+    @Query(SELECT_WITH_STOCK + "order by p.product_id")
+    Flux<ProductRow> findAllByOrderByProductIdAsc();
+
+    /**
+     * @param after the last product id of the previous page.
+     * @param limit the page size.
+     * @return the next page ordered by id.
+     */
+    @Query(SELECT_WITH_STOCK + "where p.product_id > :after order by p.product_id limit :limit")
+    Flux<ProductRow> findByProductIdGreaterThanOrderByProductIdAsc(Integer after, int limit);
+
+    @Query(SELECT_WITH_STOCK + "where p.product_id in (:productIds) order by p.product_id")
+    Flux<ProductRow> findByProductIdInOrderByProductIdAsc(Collection<Integer> productIds);
+}
@@ -0,0 +1,60 @@
+package ch.akros.vending_machine.reactive.repository;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.data.r2dbc.dialect.DialectResolver;
+import org.springframework.data.r2dbc.dialect.H2Dialect;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids from the sequences Hibernate allocates in blocks for the servlet service. Like
+ * Hibernate's pooled optimizer, a sequence value {@code v} reserves the ids
+ * {@code v - allocationSize + 1} to {@code v}, so both services can insert into the same tables
+ * without sharing an id, and only every {@code allocationSize}-th insert queries the sequence.
+ */
+@Component
+public class SequenceBlocks {
+
+  private final DatabaseClient databaseClient;
+  private final boolean h2;
+  private final ConcurrentMap<String, Block> blocks = new ConcurrentHashMap<>();
+
+  public SequenceBlocks(DatabaseClient databaseClient, ConnectionFactory connectionFactory) {
+    this.databaseClient = databaseClient;
+    this.h2 = DialectResolver.getDialect(connectionFactory) instanceof H2Dialect;
+  }
+
+  /**
+   * @param sequence       the name of the sequence.
+   * @param allocationSize the increment of the sequence.
+   * @return the next free id.
+   */
+  public Mono<Long> next(String sequence, int allocationSize) {
+    return Mono.defer(() -> {
+      var block = blocks.get(sequence);
+      if (block != null) {
+        long id = block.next().getAndIncrement();
+        if (id <= block.last()) {
+          return Mono.just(id);
+        }
+      }
+      return databaseClient.sql(h2 ? "select next value for " + sequence : "select nextval('" + sequence + "')")
+              .map(row -> row.get(0, Long.class))
+              .one()
+              .map(last -> {
+                var fresh = new Block(new AtomicLong(Math.max(1, last - allocationSize + 1)), last);
+                long first = fresh.next().getAndIncrement();
+                blocks.put(sequence, fresh);
+                return first;
+              });
+    });
+  }
+
+  private record Block(AtomicLong next, long last) {
+  }
+}
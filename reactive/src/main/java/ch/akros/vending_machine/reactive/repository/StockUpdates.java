@@ -0,0 +1,174 @@
+package ch.akros.vending_machine.reactive.repository;
+
+import ch.akros.vending_machine.reactive.domain.CoinRow;
+import ch.akros.vending_machine.reactive.domain.MachineStockRow;
+import ch.akros.vending_machine.reactive.domain.ProductRow;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * The conditional single-statement updates of the product and coin stock. Spring Data cannot
+ * express {@code quantity = quantity - n}, so the statements are written here, with the table and
+ * column names taken from the mapping of {@link ProductRow}, {@link MachineStockRow} and
+ * {@link CoinRow}. The product stock is the one of
+ * {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID}.
+ */
+@Component
+public class StockUpdates {
+
+  private final DatabaseClient databaseClient;
+  private final String decrement;
+  private final String add;
+  private final String set;
+  private final String insert;
+  private final String delete;
+  private final String heldElsewhere;
+  private final String addCoins;
+  private final String dispenseCoins;
+
+  public StockUpdates(R2dbcEntityTemplate template) {
+    this.databaseClient = template.getDatabaseClient();
+    var columns = new Columns(template);
+    String stock = columns.table(MachineStockRow.class);
+    String quantity = columns.of(MachineStockRow.class, "quantity");
+    String machineId = columns.of(MachineStockRow.class, "machineId");
+    String productId = columns.of(MachineStockRow.class, "productId");
+    String row = " where " + machineId + " = :machineId and " + productId + " = :productId";
+    this.decrement = "update " + stock + " set " + quantity + " = " + quantity + " - :units" + row
+            + " and " + quantity + " >= :units and exists (select 1 from " + columns.table(ProductRow.class)
+            + " where " + columns.of(ProductRow.class, "productId") + " = :productId"
+            + " and " + columns.of(ProductRow.class, "productPrice") + " = :price)";
+    this.add = "update " + stock + " set " + quantity + " = " + quantity + " + :units" + row
+            + " and " + quantity + " + :units between 0 and :max";
+    this.set = "update " + stock + " set " + quantity + " = :quantity" + row;
+    this.insert = "insert into " + stock + " (" + machineId + ", " + productId + ", " + quantity + ")"
+            + " values (:machineId, :productId, :quantity)";
+    this.delete = "delete from " + stock + row;
+    this.heldElsewhere = "select count(*) from " + stock + " where " + productId + " = :productId and " + machineId + " <> :machineId";
+    String coins = columns.of(CoinRow.class, "quantity");
+    String denomination = columns.of(CoinRow.class, "denomination");
+    this.addCoins = "update " + columns.table(CoinRow.class) + " set " + coins + " = " + coins + " + :count"
+            + " where " + denomination + " = :denomination";
+    this.dispenseCoins = "update " + columns.table(CoinRow.class) + " set " + coins + " = " + coins + " - :count"
+            + " where " + denomination + " = :denomination and " + coins + " >= :count";
+  }
+
+  /**
+   * Takes units of the product out of stock if enough are left and the price still matches.
+   *
+   * @return the number of updated rows, either 0 or 1.
+   */
+  public Mono<Long> decrement(Integer productId, int units, int price) {
+    return databaseClient.sql(decrement)
+            .bind("units", units)
+            .bind("machineId", LOCAL_MACHINE_ID)
+            .bind("productId", productId)
+            .bind("price", price)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  /**
+   * Adds units to the stock of the product, or takes them out if negative, if the stock stays
+   * between 0 and {@code max}.
+   *
+   * @return the number of updated rows, 0 if the machine does not hold the product or the stock
+   * would leave the range.
+   */
+  public Mono<Long> add(Integer productId, int units, int max) {
+    return databaseClient.sql(add)
+            .bind("units", units)
+            .bind("machineId", LOCAL_MACHINE_ID)
+            .bind("productId", productId)
+            .bind("max", max)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  /**
+   * Sets the stock of the product, adding the product to the machine if it does not hold it yet.
+   * Concurrent calls for the same product must be serialized by the caller, e.g. by saving the
+   * product in the same transaction first.
+   */
+  public Mono<Void> set(Integer productId, int quantity) {
+    return databaseClient.sql(set)
+            .bind("quantity", quantity)
+            .bind("machineId", LOCAL_MACHINE_ID)
+            .bind("productId", productId)
+            .fetch()
+            .rowsUpdated()
+            .flatMap(rows -> rows > 0 ? Mono.just(rows) : databaseClient.sql(insert)
+                    .bind("machineId", LOCAL_MACHINE_ID)
+                    .bind("productId", productId)
+                    .bind("quantity", quantity)
+                    .fetch()
+                    .rowsUpdated())
+            .then();
+  }
+
+  /**
+   * Removes the product from the machine.
+   *
+   * @return the number of deleted rows, either 0 or 1.
+   */
+  public Mono<Long> remove(Integer productId) {
+    return databaseClient.sql(delete)
+            .bind("machineId", LOCAL_MACHINE_ID)
+            .bind("productId", productId)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  /**
+   * @return whether any other machine of the fleet stocks the product.
+   */
+  public Mono<Boolean> heldElsewhere(Integer productId) {
+    return databaseClient.sql(heldElsewhere)
+            .bind("productId", productId)
+            .bind("machineId", LOCAL_MACHINE_ID)
+            .map(result -> result.get(0, Long.class))
+            .one()
+            .map(count -> count > 0);
+  }
+
+  /**
+   * @return the number of updated rows, either 0 or 1.
+   */
+  public Mono<Long> addCoins(int denomination, int count) {
+    return databaseClient.sql(addCoins)
+            .bind("count", count)
+            .bind("denomination", denomination)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  /**
+   * Takes coins out of stock if enough are left.
+   *
+   * @return the number of updated rows, either 0 or 1.
+   */
+  public Mono<Long> dispenseCoins(int denomination, int count) {
+    return databaseClient.sql(dispenseCoins)
+            .bind("count", count)
+            .bind("denomination", denomination)
+            .fetch()
+            .rowsUpdated();
+  }
+
+  private record Columns(R2dbcEntityTemplate template) {
+
+    String table(Class<?> type) {
+      return template.getDataAccessStrategy().toSql(template.getConverter().getMappingContext()
+              .getRequiredPersistentEntity(type).getTableName());
+    }
+
+    String of(Class<?> type, String property) {
+      return template.getDataAccessStrategy().toSql(template.getConverter().getMappingContext()
+              .getRequiredPersistentEntity(type).getRequiredPersistentProperty(property).getColumnName());
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package ch.akros.vending_machine.reactive.service;
+
+import ch.akros.vending_machine.dto.BasketRequestDTO;
+import ch.akros.vending_machine.dto.InventoryEventDTO;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link ch.akros.vending_machine.service.ProductService}. A missing
+ * product is signalled as {@link ch.akros.vending_machine.exception.ProductNotFoundException}.
+ */
+public interface ReactiveProductService {
+    Flux<ProductDTO> getProducts();
+    Mono<ProductPageDTO> getProducts(Integer after, int limit);
+    Mono<ProductResponseDto> getProduct(Integer id);
+    Mono<ProductResponseDto> createProduct(ProductDTO product);
+    Mono<ProductResponseDto> deleteProduct(Integer id);
+    Mono<ProductResponseDto> updateProduct(ProductDTO product, Integer id);
+    Mono<ProductResponseDto> buyProduct(Integer id, PriceRequestDTO priceRequestDTO);
+    Mono<ProductResponseDto> buyProducts(BasketRequestDTO basketRequestDTO);
+    Flux<InventoryEventDTO> history(Integer id, int limit);
+}
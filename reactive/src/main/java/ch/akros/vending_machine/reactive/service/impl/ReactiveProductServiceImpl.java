@@ -0,0 +1,609 @@
+package ch.akros.vending_machine.reactive.service.impl;
+
+import ch.akros.vending_machine.domain.InventoryEvent;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.BasketRequestDTO;
+import ch.akros.vending_machine.dto.InventoryEventDTO;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.dto.ResponseTimestamp;
+import ch.akros.vending_machine.exception.ProductConflictException;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.plausibility.PurchaseValidation;
+import ch.akros.vending_machine.plausibility.PurchaseValidator;
+import ch.akros.vending_machine.reactive.domain.CoinRow;
+import ch.akros.vending_machine.reactive.domain.InventoryEventRow;
+import ch.akros.vending_machine.reactive.domain.ProductRow;
+import ch.akros.vending_machine.reactive.repository.CoinRowRepository;
+import ch.akros.vending_machine.reactive.repository.InventoryEventRowRepository;
+import ch.akros.vending_machine.reactive.repository.ProductRowRepository;
+import ch.akros.vending_machine.reactive.repository.SequenceBlocks;
+import ch.akros.vending_machine.reactive.repository.StockUpdates;
+import ch.akros.vending_machine.reactive.service.ReactiveProductService;
+import ch.akros.vending_machine.service.ChangeMaker;
+import ch.akros.vending_machine.service.CoinInventory;
+import ch.akros.vending_machine.service.Payment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.ReactiveTransaction;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static ch.akros.vending_machine.constant.AppConstant.BASKET_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.COIN_NOT_ALLOWED;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_BASKET_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_QUANTITY;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_FOUND_BY_ID;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_NOT_FOUND_BY_ID;
+import static ch.akros.vending_machine.constant.AppConstant.TOO_MANY_COINS;
+import static org.springframework.http.HttpStatus.*;
+
+/**
+ * The product service of the servlet module on R2DBC. Every request is a chain of non-blocking
+ * statements; no thread waits for the database. Stock and coins are changed with the same
+ * conditional single-statement updates, changes of a product are guarded by the same version,
+ * and every change is journaled in its own transaction, so this service and the servlet service
+ * can run against the same database. Like the servlet service, it sells the stock of
+ * {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID}; restocks, updates and
+ * deletes save the product before they change that stock, so the version serializes them.
+ */
+@Service
+public class ReactiveProductServiceImpl implements ReactiveProductService {
+
+  private static final int[] DENOMINATIONS = new int[CoinInventory.denominations()];
+
+  static {
+    for (int i = 0; i < DENOMINATIONS.length; i++) {
+      DENOMINATIONS[i] = CoinInventory.denomination(i);
+    }
+  }
+
+  private final ProductRowRepository productRepository;
+  private final CoinRowRepository coinRepository;
+  private final InventoryEventRowRepository eventRepository;
+  private final StockUpdates stockUpdates;
+  private final SequenceBlocks sequenceBlocks;
+  private final R2dbcEntityTemplate template;
+  private final TransactionalOperator transactionalOperator;
+  private final int maxAttempts;
+  private final Duration backoff;
+  private final Duration maxBackoff;
+  private final boolean journal;
+  private final int maxChange;
+
+  public ReactiveProductServiceImpl(ProductRowRepository productRepository,
+                                    CoinRowRepository coinRepository,
+                                    InventoryEventRowRepository eventRepository,
+                                    StockUpdates stockUpdates,
+                                    SequenceBlocks sequenceBlocks,
+                                    R2dbcEntityTemplate template,
+                                    TransactionalOperator transactionalOperator,
+                                    @Value("${product.retry.max-attempts:4}") int maxAttempts,
+                                    @Value("${product.retry.backoff:5ms}") Duration backoff,
+                                    @Value("${product.retry.max-backoff:100ms}") Duration maxBackoff,
+                                    @Value("${journal.enabled:true}") boolean journal,
+                                    @Value("${coins.max-change:10000}") int maxChange) {
+    this.productRepository = productRepository;
+    this.coinRepository = coinRepository;
+    this.eventRepository = eventRepository;
+    this.stockUpdates = stockUpdates;
+    this.sequenceBlocks = sequenceBlocks;
+    this.template = template;
+    this.transactionalOperator = transactionalOperator;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoff = backoff;
+    this.maxBackoff = maxBackoff;
+    this.journal = journal;
+    this.maxChange = maxChange;
+  }
+
+  @Override
+  public Flux<ProductDTO> getProducts() {
+    return productRepository.findAllByOrderByProductIdAsc().map(ProductRow::toDto);
+  }
+
+  @Override
+  public Mono<ProductPageDTO> getProducts(Integer after, int limit) {
+    int size = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+    return productRepository.findByProductIdGreaterThanOrderByProductIdAsc(after == null ? 0 : after, size)
+            .map(ProductRow::toDto)
+            .collectList()
+            .map(products -> ProductPageDTO.builder()
+                    .products(products)
+                    .nextCursor(products.size() == size ? products.get(size - 1).getProductId() : null)
+                    .build());
+  }
+
+  @Override
+  public Mono<ProductResponseDto> getProduct(Integer id) {
+    return productRepository.findById(id)
+            .map(product -> ProductResponseDto.builder()
+                    .timestamp(ResponseTimestamp.now())
+                    .status(OK)
+                    .message(PRODUCT_FOUND_BY_ID, id)
+                    .error(null)
+                    .path(PRODUCT_API_PATH, id)
+                    .statusCode(OK.value())
+                    .product(product.toDto())
+                    .build())
+            .switchIfEmpty(notFound(id));
+  }
+
+  /**
+   * Adds a new product with one unit, or one unit of a known product. The restock re-reads the
+   * product on every attempt and is retried when the product changed concurrently.
+   */
+  @Override
+  public Mono<ProductResponseDto> createProduct(ProductDTO productDTO) {
+    return productRepository.findByProductName(productDTO.getProductName())
+            .flatMap(known -> retryOnConflict(restock(known.getProductId(), productDTO), known.getProductId()))
+            .switchIfEmpty(Mono.defer(() -> insert(productDTO)));
+  }
+
+  private Mono<ProductResponseDto> insert(ProductDTO productDTO) {
+    return sequenceBlocks.next(Product.ID_SEQUENCE, Product.ID_ALLOCATION_SIZE)
+            .flatMap(id -> template.insert(new ProductRow(Math.toIntExact(id), productDTO.getProductName(),
+                    productDTO.getProductPrice(), 1, null)))
+            .flatMap(saved -> stockUpdates.set(saved.getProductId(), 1).thenReturn(saved))
+            .flatMap(saved -> record(InventoryEvent.Type.CREATED, saved.getProductId(), 1, saved.getProductName(), saved.getProductPrice())
+                    .thenReturn(created(saved)))
+            .as(transactionalOperator::transactional);
+  }
+
+  private Mono<ProductResponseDto> restock(Integer id, ProductDTO productDTO) {
+    return Mono.defer(() -> productRepository.findById(id)
+                    .flatMap(product -> {
+                      Integer quantity = product.getQuantity();
+                      if (quantity != null && quantity >= MAX_QUANTITY) {
+                        return Mono.just(productFull(productDTO));
+                      }
+                      Integer price = productDTO.getProductPrice() == null ? product.getProductPrice() : productDTO.getProductPrice();
+                      product.setQuantity(quantity == null ? 1 : quantity + 1);
+                      product.setProductPrice(price);
+                      return productRepository.save(product)
+                              .flatMap(saved -> (quantity == null ? stockUpdates.set(id, 1) : taken(stockUpdates.add(id, 1, MAX_QUANTITY), id))
+                                      .then(record(InventoryEvent.Type.RESTOCKED, id, 1, null, price))
+                                      .thenReturn(created(saved)));
+                    })
+                    .switchIfEmpty(Mono.defer(() -> insert(productDTO))))
+            .as(transactionalOperator::transactional);
+  }
+
+  private static ProductResponseDto created(ProductRow saved) {
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(CREATED)
+            .error(null)
+            .path(PRODUCT_API_PATH)
+            .statusCode(CREATED.value())
+            .product(saved.toDto())
+            .build();
+  }
+
+  private static ProductResponseDto productFull(ProductDTO productDTO) {
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(BAD_REQUEST)
+            .error("Product cannot be added")
+            .path(PRODUCT_API_PATH)
+            .statusCode(BAD_REQUEST.value())
+            .product(productDTO)
+            .build();
+  }
+
+  /**
+   * Takes one unit out of stock, or deletes the product with its last unit. The delete is
+   * version-checked, so a concurrent restock is not lost. A product that other machines of the
+   * fleet still hold is kept with no local unit instead.
+   */
+  @Override
+  public Mono<ProductResponseDto> deleteProduct(Integer id) {
+    var attempt = Mono.defer(() -> productRepository.findById(id)
+                    .switchIfEmpty(Mono.error(() -> new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id)))
+                    .flatMap(product -> {
+                      int quantity = product.getQuantity() == null ? 0 : product.getQuantity();
+                      if (quantity > 1) {
+                        product.setQuantity(quantity - 1);
+                        return productRepository.save(product)
+                                .flatMap(saved -> taken(stockUpdates.add(id, -1, MAX_QUANTITY), id)
+                                        .then(record(InventoryEvent.Type.UPDATED, id, -1, null, null))
+                                        .thenReturn(deleted(saved, null)));
+                      }
+                      return stockUpdates.heldElsewhere(id).flatMap(heldElsewhere -> {
+                        if (heldElsewhere) {
+                          // Machines of the fleet still stock the product, so it stays without local units.
+                          product.setQuantity(0);
+                          return productRepository.save(product)
+                                  .flatMap(saved -> stockUpdates.set(id, 0)
+                                          .then(record(InventoryEvent.Type.UPDATED, id, -quantity, null, null))
+                                          .thenReturn(deleted(saved, null)));
+                        }
+                        return stockUpdates.remove(id)
+                                .then(productRepository.delete(product))
+                                .then(record(InventoryEvent.Type.DELETED, id, -quantity, null, null))
+                                .thenReturn(deleted(product, "Product deleted"));
+                      });
+                    }))
+            .as(transactionalOperator::transactional);
+    return retryOnConflict(attempt, id);
+  }
+
+  private static ProductResponseDto deleted(ProductRow product, String message) {
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .message(message)
+            .error(null)
+            .statusCode(OK.value())
+            .path(PRODUCT_API_PATH, product.getProductId())
+            .product(product.toDto())
+            .build();
+  }
+
+  @Override
+  public Mono<ProductResponseDto> updateProduct(ProductDTO productDTO, Integer id) {
+    if (productDTO.getQuantity() != null && productDTO.getQuantity() > 10) {
+      return Mono.just(ProductResponseDto.builder()
+              .timestamp(ResponseTimestamp.now())
+              .status(BAD_REQUEST)
+              .message("Product quantity must be less than 11")
+              .error("Product cannot be updated, due the number of products: " + productDTO.getQuantity())
+              .statusCode(BAD_REQUEST.value())
+              .path(PRODUCT_API_PATH, id)
+              .product(productDTO)
+              .build());
+    }
+    var attempt = Mono.defer(() -> productRepository.findById(id)
+                    .switchIfEmpty(Mono.error(() -> new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id)))
+                    .flatMap(product -> {
+                      int before = product.getQuantity() == null ? 0 : product.getQuantity();
+                      if (productDTO.getProductName() != null) {
+                        product.setProductName(productDTO.getProductName());
+                      }
+                      if (productDTO.getProductPrice() != null) {
+                        product.setProductPrice(productDTO.getProductPrice());
+                      }
+                      if (productDTO.getQuantity() != null) {
+                        product.setQuantity(productDTO.getQuantity());
+                      }
+                      int delta = productDTO.getQuantity() == null ? 0 : productDTO.getQuantity() - before;
+                      return productRepository.save(product)
+                              .flatMap(update -> (productDTO.getQuantity() == null ? Mono.<Void>empty() : stockUpdates.set(id, productDTO.getQuantity()))
+                                      .then(record(InventoryEvent.Type.UPDATED, id, delta, update.getProductName(), update.getProductPrice())
+                                      .thenReturn(ProductResponseDto.builder()
+                                              .timestamp(ResponseTimestamp.now())
+                                              .status(OK)
+                                              .error(null)
+                                              .statusCode(OK.value())
+                                              .path(PRODUCT_API_PATH, id)
+                                              .product(update.toDto())
+                                              .build())));
+                    }))
+            .as(transactionalOperator::transactional);
+    return retryOnConflict(attempt, id);
+  }
+
+  /**
+   * Buys one unit of the product. An overpayment is accepted when the coins in the machine can
+   * return the change; the product stock, the inserted coins and the dispensed change are updated
+   * in one transaction.
+   */
+  @Override
+  public Mono<ProductResponseDto> buyProduct(Integer id, PriceRequestDTO priceRequestDTO) {
+    var payment = Payment.of(priceRequestDTO.getPrices(), priceRequestDTO.getCoins());
+    if (payment.refusal() != null) {
+      return Mono.just(paymentRefused(payment.refusal(), PRODUCT_API_PATH, id));
+    }
+    return transactionalOperator.execute(status -> productRepository.findById(id)
+                    .switchIfEmpty(notFound(id))
+                    .flatMap(product -> buyProduct(product, payment, status)))
+            .single();
+  }
+
+  private Mono<ProductResponseDto> buyProduct(ProductRow product, Payment payment, ReactiveTransaction status) {
+    Integer id = product.getProductId();
+    int price = payment.total();
+    var dispensed = new int[DENOMINATIONS.length];
+    int change = price - product.getProductPrice();
+    return (change > 0 ? changePlan(change, dispensed) : Mono.just(false))
+            .flatMap(canChange -> {
+              int charged = canChange ? product.getProductPrice() : price;
+              return stockUpdates.decrement(id, 1, charged).flatMap(rows -> {
+                if (rows == 0) {
+                  return refusedPurchase(id, price);
+                }
+                return collect(payment.coins(), price - charged, dispensed).flatMap(collected -> {
+                  if (!collected) {
+                    status.setRollbackOnly();
+                    return Mono.just(priceTooHigh(charged, price, PRODUCT_API_PATH, id));
+                  }
+                  product.setQuantity(product.getQuantity() - 1);
+                  return record(InventoryEvent.Type.PURCHASED, id, -1, null, null)
+                          .thenReturn(ProductResponseDto.builder()
+                                  .timestamp(ResponseTimestamp.now())
+                                  .status(OK)
+                                  .message(PurchaseValidation.PURCHASED.getDescription())
+                                  .error(null)
+                                  .statusCode(OK.value())
+                                  .path(PRODUCT_API_PATH, id)
+                                  .product(product.toDto())
+                                  .change(charged < price ? CoinInventory.coins(dispensed) : null)
+                                  .build());
+                });
+              });
+            });
+  }
+
+  /**
+   * Explains why the conditional decrement did not take a unit out of stock.
+   */
+  private Mono<ProductResponseDto> refusedPurchase(Integer id, int price) {
+    return productRepository.findById(id)
+            .map(ProductRow::toProduct)
+            .map(Optional::of)
+            .defaultIfEmpty(Optional.empty())
+            .flatMap(found -> {
+              Product product = found.orElse(null);
+              var validation = PurchaseValidator.refusedPurchase(price).apply(product);
+              return switch (validation) {
+                case PRICE_TOO_HIGH, PRICE_TOO_LOW -> Mono.just(ProductResponseDto.builder()
+                        .message("Please insert a price = " + product.getProductPrice() + ", inserted price is: " + price)
+                        .error(validation.getDescription())
+                        .status(HttpStatus.BAD_REQUEST)
+                        .timestamp(ResponseTimestamp.now())
+                        .path(PRODUCT_API_PATH, id)
+                        .build());
+                case OUT_OF_STOCK -> Mono.just(ProductResponseDto.builder()
+                        .message(validation.getDescription())
+                        .error("Product cannot be bought, no unit left by ID: " + id)
+                        .status(HttpStatus.BAD_REQUEST)
+                        .timestamp(ResponseTimestamp.now())
+                        .path(PRODUCT_API_PATH, id)
+                        .build());
+                default -> notFound(id);
+              };
+            });
+  }
+
+  /**
+   * Buys all products of the basket with one payment. Every product is taken out of stock with a
+   * conditional update; if one of them is sold out, or its price changed, the transaction rolls
+   * back and nothing is bought.
+   */
+  @Override
+  public Mono<ProductResponseDto> buyProducts(BasketRequestDTO basketRequestDTO) {
+    var payment = Payment.of(basketRequestDTO.getPrices(), basketRequestDTO.getCoins());
+    if (payment.refusal() != null) {
+      return Mono.just(paymentRefused(payment.refusal(), BASKET_API_PATH, null));
+    }
+    List<Integer> productIds = basketRequestDTO.getProductIds();
+    if (productIds == null || productIds.isEmpty()) {
+      return Mono.just(ProductResponseDto.builder()
+              .message(PurchaseValidation.BASKET_EMPTY.getDescription())
+              .error("Please add at least one product to the basket")
+              .status(HttpStatus.BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(BASKET_API_PATH)
+              .build());
+    }
+    if (productIds.size() > MAX_BASKET_SIZE) {
+      return Mono.just(ProductResponseDto.builder()
+              .message(PurchaseValidation.BASKET_TOO_LARGE.getDescription())
+              .error("Please add at most " + MAX_BASKET_SIZE + " products to the basket")
+              .status(HttpStatus.BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(BASKET_API_PATH)
+              .build());
+    }
+    Map<Integer, Integer> units = new TreeMap<>();
+    productIds.forEach(productId -> units.merge(productId, 1, Integer::sum));
+    return transactionalOperator.execute(status -> productRepository.findByProductIdInOrderByProductIdAsc(units.keySet())
+                    .collectList()
+                    .flatMap(products -> buyProducts(products, units, payment, status)))
+            .single();
+  }
+
+  private Mono<ProductResponseDto> buyProducts(List<ProductRow> products, Map<Integer, Integer> units, Payment payment,
+                                               ReactiveTransaction status) {
+    if (products.size() < units.size()) {
+      var found = products.stream().map(ProductRow::getProductId).toList();
+      var missing = units.keySet().stream().filter(productId -> !found.contains(productId)).findFirst().orElse(null);
+      return Mono.error(new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + missing));
+    }
+    int expected = 0;
+    for (ProductRow product : products) {
+      int requested = units.get(product.getProductId());
+      if (product.getQuantity() == null || product.getQuantity() < requested) {
+        return Mono.just(basketOutOfStock(product));
+      }
+      expected += product.getProductPrice() * requested;
+    }
+    int price = payment.total();
+    int total = expected;
+    var dispensed = new int[DENOMINATIONS.length];
+    return (price > expected ? changePlan(price - expected, dispensed) : Mono.just(price == expected))
+            .flatMap(payable -> {
+              if (!payable) {
+                return Mono.just(basketPriceRefused(total, price));
+              }
+              return Flux.fromIterable(products)
+                      .concatMap(product -> stockUpdates.decrement(product.getProductId(), units.get(product.getProductId()), product.getProductPrice())
+                              .filter(rows -> rows == 0)
+                              .map(rows -> product))
+                      .next()
+                      .map(soldOut -> {
+                        status.setRollbackOnly();
+                        return basketOutOfStock(soldOut);
+                      })
+                      .switchIfEmpty(Mono.defer(() -> collect(payment.coins(), price - total, dispensed).flatMap(collected -> {
+                        if (!collected) {
+                          status.setRollbackOnly();
+                          return Mono.just(basketPriceRefused(total, price));
+                        }
+                        Map<String, ProductDTO> bought = new LinkedHashMap<>();
+                        products.forEach(product -> {
+                          product.setQuantity(product.getQuantity() - units.get(product.getProductId()));
+                          bought.put(product.getProductId().toString(), product.toDto());
+                        });
+                        return Flux.fromIterable(products)
+                                .concatMap(product -> record(InventoryEvent.Type.PURCHASED, product.getProductId(),
+                                        -units.get(product.getProductId()), null, null))
+                                .then(Mono.just(ProductResponseDto.builder()
+                                        .timestamp(ResponseTimestamp.now())
+                                        .status(OK)
+                                        .message("Products purchased")
+                                        .error(null)
+                                        .statusCode(OK.value())
+                                        .path(BASKET_API_PATH)
+                                        .data(bought)
+                                        .change(price > total ? CoinInventory.coins(dispensed) : null)
+                                        .build()));
+                      })));
+            });
+  }
+
+  private static ProductResponseDto basketOutOfStock(ProductRow product) {
+    return ProductResponseDto.builder()
+            .message(PurchaseValidation.OUT_OF_STOCK.getDescription())
+            .error("Product cannot be bought, only " + product.getQuantity() + " unit(s) left by ID: " + product.getProductId())
+            .status(HttpStatus.BAD_REQUEST)
+            .timestamp(ResponseTimestamp.now())
+            .path(BASKET_API_PATH)
+            .build();
+  }
+
+  private static ProductResponseDto basketPriceRefused(int expected, int price) {
+    var validation = price > expected ? PurchaseValidation.PRICE_TOO_HIGH : PurchaseValidation.PRICE_TOO_LOW;
+    return ProductResponseDto.builder()
+            .message("Please insert a price = " + expected + ", inserted price is: " + price)
+            .error(validation.getDescription())
+            .status(HttpStatus.BAD_REQUEST)
+            .timestamp(ResponseTimestamp.now())
+            .path(BASKET_API_PATH)
+            .build();
+  }
+
+  private static ProductResponseDto priceTooHigh(int charged, int price, String path, Integer id) {
+    return ProductResponseDto.builder()
+            .message("Please insert a price = " + charged + ", inserted price is: " + price)
+            .error(PurchaseValidation.PRICE_TOO_HIGH.getDescription())
+            .status(HttpStatus.BAD_REQUEST)
+            .timestamp(ResponseTimestamp.now())
+            .path(path, id)
+            .build();
+  }
+
+  private static ProductResponseDto paymentRefused(PurchaseValidation refusal, String path, Integer id) {
+    return ProductResponseDto.builder()
+            .message(refusal.getDescription())
+            .error(refusal == PurchaseValidation.TOO_MANY_COINS ? TOO_MANY_COINS : COIN_NOT_ALLOWED)
+            .status(HttpStatus.BAD_REQUEST)
+            .timestamp(ResponseTimestamp.now())
+            .path(path, id)
+            .build();
+  }
+
+  @Override
+  public Flux<InventoryEventDTO> history(Integer id, int limit) {
+    if (!journal) {
+      return Flux.empty();
+    }
+    return eventRepository.findByProductIdOrderByEventIdDesc(id, Limit.of(Math.max(limit, 1))).map(InventoryEventRow::toDto);
+  }
+
+  /**
+   * Plans the change with the coins currently in the machine.
+   *
+   * @param plan receives the coins to return per denomination.
+   * @return whether the machine can return the change.
+   */
+  private Mono<Boolean> changePlan(int change, int[] plan) {
+    return coinRepository.findAll()
+            .collectList()
+            .map(coins -> {
+              var stock = new int[DENOMINATIONS.length];
+              for (CoinRow coin : coins) {
+                int index = CoinInventory.index(coin.getDenomination());
+                if (index >= 0 && coin.getQuantity() != null) {
+                  stock[index] = coin.getQuantity();
+                }
+              }
+              return ChangeMaker.of(DENOMINATIONS, stock, maxChange).plan(change, plan);
+            });
+  }
+
+  /**
+   * Dispenses the planned change and stores the inserted coins within the current transaction.
+   *
+   * @return {@code false} if a planned coin is no longer there; the caller has to roll back.
+   */
+  private Mono<Boolean> collect(int[] inserted, int change, int[] plan) {
+    Mono<Boolean> dispensed = change <= 0 ? Mono.just(true) : Flux.range(0, plan.length)
+            .filter(i -> plan[i] > 0)
+            .concatMap(i -> stockUpdates.dispenseCoins(DENOMINATIONS[i], plan[i]))
+            .all(rows -> rows == 1);
+    return dispensed.flatMap(complete -> !complete ? Mono.just(false) : Flux.range(0, inserted.length)
+            .filter(i -> inserted[i] > 0)
+            .concatMap(i -> stockUpdates.addCoins(DENOMINATIONS[i], inserted[i])
+                    .filter(rows -> rows == 0)
+                    .flatMap(rows -> template.insert(new CoinRow(DENOMINATIONS[i], inserted[i]))))
+            .then(Mono.just(true)));
+  }
+
+  /**
+   * Journals a change in the current transaction.
+   */
+  private Mono<Void> record(InventoryEvent.Type type, Integer productId, int quantityDelta, String productName, Integer productPrice) {
+    if (!journal) {
+      return Mono.empty();
+    }
+    return sequenceBlocks.next(InventoryEvent.ID_SEQUENCE, InventoryEvent.ID_ALLOCATION_SIZE)
+            .flatMap(eventId -> template.insert(new InventoryEventRow(eventId, productId, type, quantityDelta,
+                    productName, productPrice, Instant.now())))
+            .then();
+  }
+
+  /**
+   * Resubscribes to the attempt while it fails because the product was changed concurrently,
+   * waiting an exponentially growing, jittered time in between.
+   */
+  private <T> Mono<T> retryOnConflict(Mono<T> attempt, Integer productId) {
+    return attempt.retryWhen(Retry.backoff(maxAttempts - 1, backoff)
+            .maxBackoff(maxBackoff)
+            .jitter(1.0)
+            .filter(OptimisticLockingFailureException.class::isInstance)
+            .onRetryExhaustedThrow((spec, signal) -> new ProductConflictException("Product " + productId
+                    + " was changed concurrently by another request. Please reload it and try again", signal.failure())));
+  }
+
+  /**
+   * Fails with a conflict if a relative stock change found no row to change, so the attempt is
+   * retried with the current stock.
+   */
+  private static Mono<Void> taken(Mono<Long> change, Integer productId) {
+    return change.flatMap(rows -> rows == 1 ? Mono.<Void>empty()
+            : Mono.error(new OptimisticLockingFailureException("The stock of product " + productId + " was changed concurrently")));
+  }
+
+  private static <T> Mono<T> notFound(Integer id) {
+    return Mono.error(() -> new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id));
+  }
+}
@@ -0,0 +1,232 @@
+package ch.akros.vending_machine.reactive.controller;
+
+import ch.akros.vending_machine.dto.BasketRequestDTO;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.reactive.domain.CoinRow;
+import ch.akros.vending_machine.reactive.domain.MachineStockRow;
+import ch.akros.vending_machine.reactive.repository.CoinRowRepository;
+import ch.akros.vending_machine.reactive.repository.InventoryEventRowRepository;
+import ch.akros.vending_machine.reactive.repository.ProductRowRepository;
+import ch.akros.vending_machine.service.JwtAuthConverter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.List;
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockJwt;
+
+/**
+ * Runs the endpoints on an in-memory database with tokens whose roles are extracted by the
+ * {@link JwtAuthConverter} of the servlet service.
+ */
+@SpringBootTest
+@AutoConfigureWebTestClient
+class ReactiveProductApiTest {
+
+  @Autowired
+  private WebTestClient webTestClient;
+
+  @Autowired
+  private JwtAuthConverter jwtAuthConverter;
+
+  @Autowired
+  private R2dbcEntityTemplate template;
+
+  @Autowired
+  private ProductRowRepository productRepository;
+
+  @Autowired
+  private CoinRowRepository coinRepository;
+
+  @Autowired
+  private InventoryEventRowRepository eventRepository;
+
+  @BeforeEach
+  void setUp() {
+    eventRepository.deleteAll().block();
+    template.delete(MachineStockRow.class).all().block();
+    productRepository.deleteAll().block();
+    coinRepository.deleteAll().block();
+  }
+
+  @Test
+  void createListAndPageProducts() {
+    //Given
+    Integer colaId = create("Cola", 350);
+    create("Cola", 350);
+    Integer fantaId = create("Fanta", 300);
+
+    //When
+    var products = as("client_user").get().uri("/api/v1/products")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBodyList(ProductDTO.class)
+            .returnResult().getResponseBody();
+
+    //Then
+    assertThat(products).extracting(ProductDTO::getProductId).containsExactly(colaId, fantaId);
+    assertThat(products).extracting(ProductDTO::getQuantity).containsExactly(2, 1);
+    as("client_user").get().uri("/api/v1/products?limit=1")
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().valueEquals(NEXT_CURSOR_HEADER, colaId.toString())
+            .expectBody().jsonPath("$[0].productName").isEqualTo("Cola");
+    as("client_user").get().uri("/api/v1/products/{id}", fantaId)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.message").isEqualTo("Product found by ID: " + fantaId)
+            .jsonPath("$.path").isEqualTo("/api/v1/products/" + fantaId);
+  }
+
+  @Test
+  void buyProductReturnsChange() {
+    //Given
+    Integer id = create("Tea", 150);
+    template.insert(new CoinRow(50, 2)).block();
+
+    //When
+    var bought = as("client_user").post().uri("/api/v1/products/{id}", id)
+            .bodyValue(PriceRequestDTO.builder().prices(List.of(200)).build())
+            .exchange();
+    var soldOut = as("client_user").post().uri("/api/v1/products/{id}", id)
+            .bodyValue(PriceRequestDTO.builder().prices(List.of(100, 50)).build())
+            .exchange();
+
+    //Then
+    bought.expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.data.product.quantity").isEqualTo(0)
+            .jsonPath("$.change['50']").isEqualTo(1);
+    soldOut.expectStatus().isBadRequest()
+            .expectBody().jsonPath("$.error").isEqualTo("Product cannot be bought, no unit left by ID: " + id);
+    assertThat(coinRepository.findById(50).block().getQuantity()).isEqualTo(1);
+    assertThat(coinRepository.findById(200).block().getQuantity()).isEqualTo(1);
+    assertThat(eventRepository.count().block()).isEqualTo(2);
+  }
+
+  @Test
+  void basketIsBoughtCompletelyOrNotAtAll() {
+    //Given
+    Integer colaId = create("Cola", 200);
+    Integer waterId = create("Water", 100);
+
+    //When
+    var refused = as("client_user").post().uri("/api/v1/products/basket")
+            .bodyValue(BasketRequestDTO.builder().productIds(List.of(colaId, waterId, waterId)).prices(List.of(200, 100, 100)).build())
+            .exchange();
+    var bought = as("client_user").post().uri("/api/v1/products/basket")
+            .bodyValue(BasketRequestDTO.builder().productIds(List.of(colaId, waterId)).coins(Map.of(100, 3)).build())
+            .exchange();
+
+    //Then
+    refused.expectStatus().isBadRequest();
+    bought.expectStatus().isOk()
+            .expectBody().jsonPath("$.message").isEqualTo("Products purchased");
+    assertThat(productRepository.findById(colaId).block().getQuantity()).isZero();
+    assertThat(productRepository.findById(waterId).block().getQuantity()).isZero();
+    assertThat(coinRepository.findById(100).block().getQuantity()).isEqualTo(3);
+  }
+
+  @Test
+  void deleteProductWithItsLastUnit() {
+    //Given
+    Integer id = create("Sprite", 300);
+    create("Sprite", 300);
+
+    //When
+    as("client_remove").delete().uri("/api/v1/products/{id}", id).exchange().expectStatus().isOk();
+    as("client_remove").delete().uri("/api/v1/products/{id}", id)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$.message").isEqualTo("Product deleted");
+
+    //Then
+    assertThat(productRepository.findById(id).block()).isNull();
+    as("client_remove").delete().uri("/api/v1/products/{id}", id)
+            .exchange()
+            .expectStatus().isBadRequest()
+            .expectBody().jsonPath("$.title").isEqualTo("Product does not exist in the database");
+    as("client_admin").get().uri("/api/v1/products/{id}/history", id)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$[0].type").isEqualTo("DELETED");
+  }
+
+  @Test
+  void deleteKeepsProductStockedByOtherMachines() {
+    //Given
+    Integer id = create("Mate", 300);
+    template.insert(new MachineStockRow("m-1", id, 3)).block();
+
+    //When
+    as("client_remove").delete().uri("/api/v1/products/{id}", id)
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$.data.product.quantity").isEqualTo(0);
+
+    //Then
+    assertThat(productRepository.findById(id).block()).extracting(product -> product.getQuantity()).isEqualTo(0);
+  }
+
+  @Test
+  void updateProductChecksTheQuantity() {
+    //Given
+    Integer id = create("Juice", 400);
+
+    //When
+    as("client_admin").put().uri("/api/v1/products/{id}", id)
+            .bodyValue(ProductDTO.builder().productName("Juice").productPrice(450).quantity(11).build())
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody().jsonPath("$.status").isEqualTo("BAD_REQUEST");
+    as("client_admin").put().uri("/api/v1/products/{id}", id)
+            .bodyValue(ProductDTO.builder().productName("Juice").productPrice(450).quantity(6).build())
+            .exchange()
+            .expectStatus().isOk();
+
+    //Then
+    assertThat(productRepository.findById(id).block())
+            .extracting(product -> product.getQuantity(), product -> product.getProductPrice())
+            .containsExactly(6, 450);
+  }
+
+  @Test
+  void rolesAndTokenAreRequired() {
+    //When //Then
+    webTestClient.get().uri("/api/v1/products").exchange().expectStatus().isUnauthorized();
+    as("client_user").post().uri("/api/v1/products")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(ProductDTO.builder().productName("Cola").productPrice(350).build())
+            .exchange()
+            .expectStatus().isForbidden();
+  }
+
+  private Integer create(String name, int price) {
+    var response = as("client_admin").post().uri("/api/v1/products")
+            .bodyValue(ProductDTO.builder().productName(name).productPrice(price).build())
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(Map.class)
+            .returnResult().getResponseBody();
+    return (Integer) ((Map<?, ?>) ((Map<?, ?>) response.get("data")).get(PRODUCT_KEY)).get("productId");
+  }
+
+  private WebTestClient as(String role) {
+    return webTestClient.mutateWith(mockJwt()
+            .jwt(jwt -> jwt.jti(role).claim("preferred_username", "tester")
+                    .claim("resource_access", Map.of("conde-rest-api", Map.of("roles", List.of(role)))))
+            .authorities(jwt -> jwtAuthConverter.convert(jwt).getAuthorities()));
+  }
+}
@@ -0,0 +1,270 @@
+package ch.akros.vending_machine.reactive.controller;
+
+import ch.akros.vending_machine.dto.InventoryEventDTO;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.reactive.service.ReactiveProductService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.openMocks;
+import static org.springframework.http.HttpStatus.OK;
+
+class ReactiveProductControllerTest {
+
+  @InjectMocks
+  private ReactiveProductController controller;
+
+  @Mock
+  private ReactiveProductService productService;
+
+  @BeforeEach
+  void setUp() {
+    openMocks(this);
+  }
+
+  @Test
+  void getAllProducts() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductDTO productDTO2 = ProductDTO.builder()
+            .productId(1)
+            .productName("Fanta")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    var productDTOS = List.of(productDTO1, productDTO2);
+    when(productService.getProducts()).thenReturn(Flux.fromIterable(productDTOS));
+
+    //When
+    var responseEntity = controller.getAllProducts(null, null).block();
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    int size = responseEntity.getBody().size();
+    assertThat(size).isEqualTo(productDTOS.size());
+
+    //Verify
+    verify(productService, times(1)).getProducts();
+  }
+
+  @Test
+  void getAllProductsPage() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductPageDTO page = ProductPageDTO.builder()
+            .products(List.of(productDTO1))
+            .nextCursor(productDTO1.getProductId())
+            .build();
+    when(productService.getProducts(null, 1)).thenReturn(Mono.just(page));
+
+    //When
+    var responseEntity = controller.getAllProducts(null, 1).block();
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    assertThat(responseEntity.getBody().size()).isEqualTo(1);
+    assertThat(responseEntity.getHeaders().getFirst(NEXT_CURSOR_HEADER)).isEqualTo("1");
+
+    //Verify
+    verify(productService, times(0)).getProducts();
+  }
+
+  @Test
+  void addProduct() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Product added")
+            .data(Map.of(PRODUCT_KEY, productDTO1))
+            .status(OK)
+            .statusCode(OK.value())
+            .build();
+
+    when(productService.createProduct(productDTO1)).thenReturn(Mono.just(responseDto));
+
+    //When
+    var responseEntity = controller.addProduct(productDTO1).block();
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
+    assertThat(actual).isEqualTo(productDTO1);
+  }
+
+  @Test
+  void getProductById() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Product found by ID: "+productDTO1.getProductId())
+            .data(Map.of(PRODUCT_KEY, productDTO1))
+            .status(OK)
+            .statusCode(OK.value())
+            .build();
+
+    when(productService.getProduct(productDTO1.getProductId())).thenReturn(Mono.just(responseDto));
+
+    //When
+    var responseEntity = controller.getProductById(productDTO1.getProductId()).block();
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
+    assertThat(actual).isEqualTo(productDTO1);
+  }
+
+  @Test
+  void deleteProductById() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Product deleted by ID: "+productDTO1.getProductId())
+            .data(Map.of(PRODUCT_KEY, productDTO1))
+            .status(OK)
+            .statusCode(OK.value())
+            .build();
+
+    when(productService.deleteProduct(productDTO1.getProductId())).thenReturn(Mono.just(responseDto));
+
+    //When
+    var responseEntity = controller.deleteProductById(productDTO1.getProductId()).block();
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
+    assertThat(actual).isEqualTo(productDTO1);
+  }
+
+  @Test
+  void updateProduct() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Product deleted by ID: "+productDTO1.getProductId())
+            .data(Map.of(PRODUCT_KEY, productDTO1))
+            .status(OK)
+            .statusCode(OK.value())
+            .build();
+
+    when(productService.updateProduct(productDTO1, productDTO1.getProductId())).thenReturn(Mono.just(responseDto));
+
+    //When
+    productDTO1.setQuantity(9);
+    var responseEntity = controller.updateProduct(productDTO1, productDTO1.getProductId()).block();
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
+    assertThat(actual).isEqualTo(productDTO1);
+  }
+
+  @Test
+  void buyProduct() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(50, 100, 200))
+            .build();
+
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Product deleted by ID: "+productDTO1.getProductId())
+            .data(Map.of(PRODUCT_KEY, productDTO1))
+            .status(OK)
+            .statusCode(OK.value())
+            .build();
+
+    when(productService.buyProduct(productDTO1.getProductId(), priceRequestDTO)).thenReturn(Mono.just(responseDto));
+
+    //When
+    var responseEntity = controller.buyProduct(productDTO1.getProductId(), priceRequestDTO).block();
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
+    assertThat(actual).isEqualTo(productDTO1);
+  }
+
+  @Test
+  void getProductHistoryCapsTheLimit() {
+    //Given
+    var event = InventoryEventDTO.builder()
+            .eventId(7L)
+            .productId(1)
+            .type("PURCHASED")
+            .quantityDelta(-1)
+            .build();
+    when(productService.history(1, 500)).thenReturn(Flux.just(event));
+
+    //When
+    var responseEntity = controller.getProductHistory(1, 10_000).block();
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    assertThat(responseEntity.getBody()).isEqualTo(List.of(event));
+
+    //Verify
+    verify(productService).history(1, 500);
+  }
+}
@@ -0,0 +1,34 @@
+create sequence if not exists _product_seq start with 1 increment by 50;
+create sequence if not exists _inventory_event_seq start with 1 increment by 50;
+
+create table if not exists _product (
+    product_id integer primary key,
+    product_name varchar(255) not null unique,
+    product_price integer,
+    version bigint default 0 not null
+);
+
+create table if not exists _machine_stock (
+    machine_id varchar(64) not null,
+    product_id integer not null references _product (product_id),
+    quantity integer not null,
+    primary key (machine_id, product_id)
+);
+
+create index if not exists _machine_stock_product_idx on _machine_stock (product_id);
+
+create table if not exists _coin (
+    denomination integer primary key,
+    quantity integer
+);
+
+create table if not exists _inventory_event (
+    event_id bigint primary key,
+    product_id integer,
+    type varchar(16),
+    quantity_delta integer not null,
+    product_name varchar(255),
+    product_price integer,
+    occurred_at timestamp with time zone,
+    log_position bigint
+);
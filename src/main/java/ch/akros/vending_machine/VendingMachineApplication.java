@@ -2,8 +2,10 @@ package ch.akros.vending_machine;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class VendingMachineApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,71 @@
+package ch.akros.vending_machine.config;
+
+import ch.akros.vending_machine.service.RateLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refuses requests of a principal that exceeded its {@link RateLimiter} limit with {@code 429 Too
+ * Many Requests} and a {@code Retry-After} header, before they reach a controller. Runs in the
+ * security filter chain right after the bearer token is authenticated; anonymous requests to the
+ * public URLs are not limited.
+ * <p>
+ * Not a bean on purpose: as a bean it would also be registered with the servlet container and run
+ * outside the security filter chain, where the principal is not yet known.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+  private final RateLimiter rateLimiter;
+  private final ObjectMapper objectMapper;
+
+  public RateLimitFilter(RateLimiter rateLimiter, ObjectMapper objectMapper) {
+    this.rateLimiter = rateLimiter;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+          throws ServletException, IOException {
+    var authentication = SecurityContextHolder.getContext().getAuthentication();
+    if (authentication == null || !authentication.isAuthenticated()) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+
+    long waitNanos = rateLimiter.tryAcquire(authentication);
+    if (waitNanos == 0) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+
+    long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    response.setContentType(MediaType.APPLICATION_PROBLEM_JSON_VALUE);
+
+    ProblemDetail problemDetail = ProblemDetail.forStatusAndDetail(HttpStatus.TOO_MANY_REQUESTS,
+            "Too many requests, retry in " + retryAfterSeconds + " s.");
+    problemDetail.setTitle(HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase());
+    problemDetail.setProperty("timestamp", Instant.now().toString());
+
+    objectMapper.writeValue(response.getOutputStream(), problemDetail);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !rateLimiter.isEnabled();
+  }
+}
@@ -0,0 +1,69 @@
+package ch.akros.vending_machine.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Adds a read replica when {@code datasource.replica.url} is set. The primary stays configured
+ * with {@code spring.datasource}, the replica uses the same driver and gets its own pool, tuned
+ * with {@code datasource.replica.hikari}. The application uses a routing data source over both,
+ * see {@link ReplicaRoutingDataSource}. Without a replica the data source is the usual single pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.url")
+public class ReplicaDataSourceConfig {
+
+  @Bean
+  @ConfigurationProperties("spring.datasource.hikari")
+  public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+    return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+  }
+
+  @Bean
+  @ConfigurationProperties("datasource.replica.hikari")
+  public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                            @Value("${datasource.replica.url}") String url,
+                                            @Value("${datasource.replica.username:${spring.datasource.username:}}") String username,
+                                            @Value("${datasource.replica.password:${spring.datasource.password:}}") String password) {
+    var replica = DataSourceBuilder.create()
+            .type(HikariDataSource.class)
+            .driverClassName(properties.determineDriverClassName())
+            .url(url)
+            .username(username)
+            .password(password)
+            .build();
+    replica.setPoolName("replica");
+    replica.setReadOnly(true);
+    return replica;
+  }
+
+  @Bean
+  public ReplicaLagMonitor replicaLagMonitor(HikariDataSource primaryDataSource,
+                                             HikariDataSource replicaDataSource,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${datasource.replica.max-lag:5s}") Duration maxLag) {
+    return new ReplicaLagMonitor(primaryDataSource, replicaDataSource, maxLag, meterRegistry);
+  }
+
+  /**
+   * @return the data source used by JPA and {@link org.springframework.jdbc.core.JdbcTemplate}.
+   */
+  @Bean
+  @Primary
+  public DataSource dataSource(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource,
+                               ReplicaLagMonitor replicaLagMonitor) {
+    return new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, replicaLagMonitor));
+  }
+}
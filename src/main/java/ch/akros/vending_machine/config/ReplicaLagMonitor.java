@@ -0,0 +1,152 @@
+package ch.akros.vending_machine.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how far the read replica is behind the primary with a heartbeat counter. Every
+ * {@code datasource.replica.heartbeat-interval} the counter is raised on the primary and read on
+ * the replica. The replica has replayed every commit that happened before a raise once it shows
+ * the raised value, so the monitor knows up to which local time the replica is complete. No clock
+ * of another machine is involved, and several instances may raise the same counter.
+ * <p>
+ * Writes are remembered by principal and for the whole instance until the replica has caught up
+ * with them. The replica is considered lagging, and all reads go to the primary, when it is more
+ * than {@code datasource.replica.max-lag} behind or cannot be reached.
+ */
+public class ReplicaLagMonitor {
+
+  private static final Logger log = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+  private static final String HEARTBEAT_TABLE = "_replica_heartbeat";
+  private static final int MAX_SAMPLES = 1_000;
+
+  private final JdbcTemplate primary;
+  private final JdbcTemplate replica;
+  private final long maxLagNanos;
+  private final Deque<Sample> samples = new ArrayDeque<>();
+  private final AtomicLong lastWrite;
+  private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+  private volatile long replicatedUpTo;
+  private boolean lagging = true;
+
+  public ReplicaLagMonitor(DataSource primary, DataSource replica, Duration maxLag, MeterRegistry meterRegistry) {
+    this.primary = new JdbcTemplate(primary);
+    this.replica = new JdbcTemplate(replica);
+    this.replica.setQueryTimeout((int) Math.max(1, maxLag.toSeconds()));
+    this.maxLagNanos = maxLag.toNanos();
+    long now = System.nanoTime();
+    this.replicatedUpTo = now - maxLagNanos - 1;
+    this.lastWrite = new AtomicLong(now);
+    Gauge.builder("vending.datasource.replica.lag", this, monitor -> (System.nanoTime() - monitor.replicatedUpTo) / 1e9)
+            .description("Time since the newest primary state the read replica is known to have replayed")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+  }
+
+  /**
+   * Creates the heartbeat on the primary. A replica of the primary gets it by replication.
+   */
+  @PostConstruct
+  void start() {
+    primary.execute("create table if not exists " + HEARTBEAT_TABLE + " (id integer primary key, beat bigint not null)");
+    try {
+      primary.update("insert into " + HEARTBEAT_TABLE + " (id, beat) select 1, 0 where not exists (select id from " + HEARTBEAT_TABLE + " where id = 1)");
+    } catch (DuplicateKeyException e) {
+      // Another instance created it at the same time.
+    }
+    beat();
+  }
+
+  /**
+   * Raises the heartbeat on the primary and checks which raise the replica has replayed.
+   */
+  @Scheduled(fixedDelayString = "${datasource.replica.heartbeat-interval:1s}", initialDelayString = "${datasource.replica.heartbeat-interval:1s}")
+  public void beat() {
+    long started = System.nanoTime();
+    try {
+      primary.update("update " + HEARTBEAT_TABLE + " set beat = beat + 1 where id = 1");
+      samples.addLast(new Sample(primary.queryForObject("select beat from " + HEARTBEAT_TABLE + " where id = 1", Long.class), started));
+      if (samples.size() > MAX_SAMPLES) {
+        samples.removeFirst();
+      }
+    } catch (DataAccessException e) {
+      log.warn("Cannot raise the replica heartbeat on the primary: {}", e.getMessage());
+    }
+    try {
+      Long replayed = replica.queryForObject("select beat from " + HEARTBEAT_TABLE + " where id = 1", Long.class);
+      Sample caughtUp = null;
+      while (!samples.isEmpty() && samples.peekFirst().beat() <= replayed) {
+        caughtUp = samples.removeFirst();
+      }
+      if (caughtUp != null) {
+        replicatedUpTo = caughtUp.started();
+        long upTo = caughtUp.started();
+        lastWrites.values().removeIf(written -> written - upTo < 0);
+      }
+    } catch (DataAccessException e) {
+      log.warn("Cannot read the replica heartbeat: {}", e.getMessage());
+    }
+
+    boolean nowLagging = lagging();
+    if (nowLagging != lagging) {
+      if (nowLagging) {
+        log.warn("Read replica is more than {} ms behind, reads go to the primary", maxLagNanos / 1_000_000);
+      } else {
+        log.info("Read replica caught up, replica reads are enabled");
+      }
+      lagging = nowLagging;
+    }
+  }
+
+  /**
+   * Remembers a write that has just been committed.
+   *
+   * @param principal the principal that wrote, or {@code null} for a write of the instance itself.
+   */
+  public void written(String principal) {
+    long now = System.nanoTime();
+    lastWrite.accumulateAndGet(now, (current, next) -> next - current > 0 ? next : current);
+    if (principal != null) {
+      lastWrites.merge(principal, now, (current, next) -> next - current > 0 ? next : current);
+    }
+  }
+
+  /**
+   * @param principal the principal whose writes the read has to see, or {@code null} for all writes of the instance.
+   * @return whether the replica is within the maximum lag and has replayed these writes.
+   */
+  public boolean caughtUp(String principal) {
+    long upTo = replicatedUpTo;
+    if (System.nanoTime() - upTo > maxLagNanos) {
+      return false;
+    }
+    Long written = principal == null ? Long.valueOf(lastWrite.get()) : lastWrites.get(principal);
+    return written == null || written - upTo < 0;
+  }
+
+  private boolean lagging() {
+    return System.nanoTime() - replicatedUpTo > maxLagNanos;
+  }
+
+  /**
+   * @param beat    the heartbeat value after the raise.
+   * @param started the local time before the raise.
+   */
+  private record Sample(long beat, long started) {
+  }
+}
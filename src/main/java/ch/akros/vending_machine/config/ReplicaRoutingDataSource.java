@@ -0,0 +1,86 @@
+package ch.akros.vending_machine.config;
+
+import ch.akros.vending_machine.service.ReplicaReads;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static ch.akros.vending_machine.service.TransactionCallbacks.afterCommit;
+
+/**
+ * Hands out replica connections to reads marked with {@link ReplicaReads} that run in a read-only
+ * transaction, as long as the {@link ReplicaLagMonitor} reports that the replica has caught up
+ * with the writes they have to see. Everything else uses the primary. Commits of read-write
+ * transactions are reported to the monitor with the authenticated principal, which gives every
+ * caller read-your-writes on this instance.
+ * <p>
+ * The target is chosen when the connection is first used, so this data source has to be wrapped
+ * in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}; the transaction
+ * and its read-only flag are known by then.
+ */
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+  enum Target {
+    PRIMARY,
+    REPLICA
+  }
+
+  private final ReplicaLagMonitor replicaLagMonitor;
+
+  ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReplicaLagMonitor replicaLagMonitor) {
+    this.replicaLagMonitor = replicaLagMonitor;
+    setTargetDataSources(Map.of(Target.PRIMARY, primary, Target.REPLICA, replica));
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    var consistency = ReplicaReads.current();
+    if (consistency == null || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      return Target.PRIMARY;
+    }
+    String principal = consistency == ReplicaReads.Consistency.PRINCIPAL ? principal() : null;
+    return replicaLagMonitor.caughtUp(principal) ? Target.REPLICA : Target.PRIMARY;
+  }
+
+  /**
+   * Reports the writes made on the returned connection once they are committed: at the end of the
+   * surrounding transaction, or when the connection is closed if there is none.
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    Connection connection = super.getConnection();
+    if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      return connection;
+    }
+    String principal = principal();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      afterCommit(() -> replicaLagMonitor.written(principal));
+      return connection;
+    }
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+      try {
+        return method.invoke(connection, args);
+      } catch (InvocationTargetException e) {
+        throw e.getTargetException();
+      } finally {
+        if ("close".equals(method.getName())) {
+          replicaLagMonitor.written(principal);
+        }
+      }
+    });
+  }
+
+  private static String principal() {
+    var authentication = SecurityContextHolder.getContext().getAuthentication();
+    return authentication == null || !authentication.isAuthenticated() ? null : authentication.getName();
+  }
+}
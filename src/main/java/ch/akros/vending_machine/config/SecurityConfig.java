@@ -1,15 +1,27 @@
 package ch.akros.vending_machine.config;
 
 import ch.akros.vending_machine.exception.handler.CustomAccessDeniedHandler;
+import ch.akros.vending_machine.service.JwkSetCache;
 import ch.akros.vending_machine.service.JwtAuthConverter;
+import ch.akros.vending_machine.service.RateLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.oauth2.server.resource.web.BearerTokenAuthenticationEntryPoint;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 import static ch.akros.vending_machine.constant.AppConstant.PUBLIC_URLS;
@@ -22,9 +34,12 @@ import static org.springframework.security.config.http.SessionCreationPolicy.STA
 public class SecurityConfig {
 
   private final JwtAuthConverter jwtAuthConverter;
+  private final RateLimiter rateLimiter;
+  private final ObjectMapper objectMapper;
 
   /**
    * Provides a SecurityFilterChain bean that configures HTTP security for the application.
+   * Authenticated requests pass the {@link RateLimitFilter} before they reach a controller.
    *
    * @param http the {@link HttpSecurity} object to configure.
    * @return the configured {@link SecurityFilterChain}.
@@ -46,7 +61,28 @@ public class SecurityConfig {
                     .sessionCreationPolicy(STATELESS)
             )
             .exceptionHandling(exception -> exception.authenticationEntryPoint(new BearerTokenAuthenticationEntryPoint())
-                    .accessDeniedHandler(new CustomAccessDeniedHandler()));
+                    .accessDeniedHandler(new CustomAccessDeniedHandler()))
+            .addFilterAfter(new RateLimitFilter(rateLimiter, objectMapper), BearerTokenAuthenticationFilter.class);
     return http.build();
   }
+
+  /**
+   * Provides a JwtDecoder bean that verifies the tokens with the keys of the {@link JwkSetCache}
+   * instead of fetching them from the identity provider on demand.
+   *
+   * @param jwkSetCache the cached keys of the identity provider.
+   * @param issuerUri   the expected issuer of the tokens.
+   * @return the configured {@link JwtDecoder}.
+   */
+  @Bean
+  public JwtDecoder jwtDecoder(JwkSetCache jwkSetCache,
+                               @Value("${spring.security.oauth2.resource-server.jwt.issuer-uri}") String issuerUri) {
+    var jwtProcessor = new DefaultJWTProcessor<SecurityContext>();
+    jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSetCache));
+    jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+    });
+    var jwtDecoder = new NimbusJwtDecoder(jwtProcessor);
+    jwtDecoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(issuerUri));
+    return jwtDecoder;
+  }
 }
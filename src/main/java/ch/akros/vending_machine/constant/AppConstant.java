@@ -18,5 +18,24 @@ public class AppConstant {
           "/swagger-ui.html"
   };
   public static final String PRODUCT_API_PATH = "/api/v1/products/";
+  public static final String BASKET_API_PATH = "/api/v1/products/basket";
+  public static final String BULK_API_PATH = "/api/v1/products/bulk";
+  public static final String MACHINE_API_PATH = "/api/v1/machines/";
+  public static final String MACHINE_PRODUCTS_PATH = "/products/";
+  public static final String COIN_API_PATH = "/api/v1/coins";
   public static final String PRODUCT_KEY = "product";
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  public static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+  public static final int DEFAULT_PAGE_SIZE = 50;
+  public static final int MAX_PAGE_SIZE = 500;
+  public static final int MAX_COINS = 1_000;
+  public static final int MAX_QUANTITY = 10;
+  public static final int MAX_BULK_OPERATIONS = 500;
+  public static final int MAX_BASKET_SIZE = 100;
+  public static final String LOCAL_MACHINE_ID = "local";
+  public static final String PRODUCT_NOT_FOUND_BY_ID = "Product not found by ID: ";
+  public static final String PRODUCT_FOUND_BY_ID = "Product found by ID: ";
+  public static final String COIN_NOT_ALLOWED = "Vending Machine accepts only coins: [10 or 20 or 50 or 100 or 200]";
+  public static final String TOO_MANY_COINS = "Vending Machine accepts at most " + MAX_COINS + " coins per purchase";
 }
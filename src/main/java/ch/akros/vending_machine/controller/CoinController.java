@@ -0,0 +1,57 @@
+package ch.akros.vending_machine.controller;
+
+import ch.akros.vending_machine.service.CoinInventory;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.COIN_API_PATH;
+
+@RestController
+@RequestMapping(COIN_API_PATH)
+@RequiredArgsConstructor
+public class CoinController {
+
+  private final CoinInventory coinInventory;
+
+  @Operation(
+          description = "Get Coins",
+          summary = "Display the number of coins per denomination the machine can return as change.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping
+  @PreAuthorize("hasRole('client_admin')")
+  public ResponseEntity<Map<Integer, Integer>> getCoins() {
+    return ResponseEntity.ok(coinInventory.stock());
+  }
+
+  @Operation(
+          description = "Refill Coins",
+          summary = "Add coins per denomination to the change stock of the machine.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  )
+          }
+  )
+  @PostMapping
+  @PreAuthorize("hasRole('client_admin')")
+  public ResponseEntity<Map<Integer, Integer>> refillCoins(@RequestBody Map<Integer, Integer> coins) {
+    return ResponseEntity.ok(coinInventory.refill(coins));
+  }
+}
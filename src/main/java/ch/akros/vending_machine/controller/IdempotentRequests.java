@@ -0,0 +1,151 @@
+package ch.akros.vending_machine.controller;
+
+import ch.akros.vending_machine.exception.IdempotencyKeyException;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static ch.akros.vending_machine.constant.AppConstant.IDEMPOTENCY_KEY_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.IDEMPOTENT_REPLAYED_HEADER;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
+
+/**
+ * Answers retried requests that carry the same {@code Idempotency-Key} with the response of the
+ * first one, so a purchase or restock is carried out once however often a client sends it. Keys
+ * are scoped by principal and endpoint, and remembered together with a hash of the request body:
+ * reusing a key for a different request is refused. A retry that arrives while the first request
+ * still runs waits for its response instead of running again.
+ * <p>
+ * Responses are kept in memory for {@code idempotency.ttl}, at most {@code idempotency.maximum-size}
+ * of them. A request that fails with an exception is forgotten, so its retry runs again.
+ */
+@Component
+public class IdempotentRequests {
+
+  private static final int MAX_KEY_LENGTH = 255;
+
+  private final ObjectMapper objectMapper;
+  private final Cache<String, Execution> executions;
+  private final Duration waitTimeout;
+  private final Counter replayed;
+
+  public IdempotentRequests(ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${idempotency.maximum-size:10000}") long maximumSize,
+                            @Value("${idempotency.ttl:10m}") Duration timeToLive,
+                            @Value("${idempotency.wait-timeout:10s}") Duration waitTimeout) {
+    this.objectMapper = objectMapper;
+    this.waitTimeout = waitTimeout;
+    this.executions = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(timeToLive)
+            .build();
+    this.replayed = Counter.builder("vending.idempotency.replayed")
+            .description("Requests answered with the stored response of an earlier request with the same Idempotency-Key")
+            .register(meterRegistry);
+  }
+
+  /**
+   * Handles the request once per key.
+   *
+   * @param key     the {@code Idempotency-Key} of the request, or {@code null} to always handle it.
+   * @param path    the constant start of the request path.
+   * @param id      the id appended to the path, may be {@code null}.
+   * @param body    the request body.
+   * @param request handles the request.
+   * @return the response of the first request with the key, marked with {@code Idempotent-Replayed} for a retry.
+   */
+  public <T> ResponseEntity<T> execute(String key, String path, Integer id, Object body, Request<T> request) throws ProductNotFoundException {
+    if (key == null) {
+      return request.handle();
+    }
+    if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+      throw new IdempotencyKeyException(BAD_REQUEST, IDEMPOTENCY_KEY_HEADER + " must have 1 to " + MAX_KEY_LENGTH + " characters");
+    }
+    String scope = principal() + ' ' + path + (id == null ? "" : id) + ' ' + key;
+    var execution = new Execution(fingerprint(body), new CompletableFuture<>());
+    var first = executions.asMap().putIfAbsent(scope, execution);
+    if (first != null) {
+      return replay(first, execution.fingerprint());
+    }
+
+    try {
+      var response = request.handle();
+      execution.response().complete(response);
+      return response;
+    } catch (ProductNotFoundException | RuntimeException | Error e) {
+      executions.asMap().remove(scope, execution);
+      execution.response().completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> ResponseEntity<T> replay(Execution first, byte[] fingerprint) throws ProductNotFoundException {
+    if (!Arrays.equals(first.fingerprint(), fingerprint)) {
+      throw new IdempotencyKeyException(UNPROCESSABLE_ENTITY, IDEMPOTENCY_KEY_HEADER + " was already used for a different request");
+    }
+    ResponseEntity<?> response;
+    try {
+      response = first.response().get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new IdempotencyKeyException(CONFLICT, "The first request with this " + IDEMPOTENCY_KEY_HEADER + " is still being processed");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IdempotencyKeyException(CONFLICT, "The first request with this " + IDEMPOTENCY_KEY_HEADER + " is still being processed");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ProductNotFoundException notFound) {
+        throw notFound;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw (RuntimeException) e.getCause();
+    }
+    replayed.increment();
+    return (ResponseEntity<T>) ResponseEntity.status(response.getStatusCode())
+            .headers(response.getHeaders())
+            .header(IDEMPOTENT_REPLAYED_HEADER, "true")
+            .body(response.getBody());
+  }
+
+  private byte[] fingerprint(Object body) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(body));
+    } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Cannot hash the request body", e);
+    }
+  }
+
+  private static String principal() {
+    var authentication = SecurityContextHolder.getContext().getAuthentication();
+    return authentication == null ? "" : authentication.getName();
+  }
+
+  @FunctionalInterface
+  public interface Request<T> {
+    ResponseEntity<T> handle() throws ProductNotFoundException;
+  }
+
+  private record Execution(byte[] fingerprint, CompletableFuture<ResponseEntity<?>> response) {
+  }
+}
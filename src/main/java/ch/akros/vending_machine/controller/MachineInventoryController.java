@@ -0,0 +1,136 @@
+package ch.akros.vending_machine.controller;
+
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.service.MachineInventoryService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+import static ch.akros.vending_machine.constant.AppConstant.DEFAULT_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
+
+/**
+ * Products of one machine of the fleet. Machine ids are 1 to 64 letters, digits, {@code -} or
+ * {@code _}; other ids do not match any endpoint.
+ */
+@RestController
+@RequestMapping("/api/v1/machines/{machineId:[A-Za-z0-9_-]{1,64}}/products")
+@RequiredArgsConstructor
+public class MachineInventoryController {
+
+  private final MachineInventoryService machineInventoryService;
+
+  @Operation(
+          description = "Get Machine Products",
+          summary = "Display a page of the products of the machine, ordered by id.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping
+  @PreAuthorize("hasRole('client_user')")
+  public ResponseEntity<List<ProductDTO>> getProducts(@PathVariable("machineId") String machineId,
+                                                      @RequestParam(value = "after", required = false) Integer after,
+                                                      @RequestParam(value = "limit", required = false) Integer limit) {
+    var page = machineInventoryService.getProducts(machineId, after, limit == null ? DEFAULT_PAGE_SIZE : limit);
+    var response = ResponseEntity.ok();
+    if (page.getNextCursor() != null) {
+      response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+    }
+    return response.body(page.getProducts());
+  }
+
+  @Operation(
+          description = "Get Machine Product by ID",
+          summary = "The product of the machine by the given id will be shown.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @GetMapping("/{id}")
+  @PreAuthorize("hasRole('client_user')")
+  public ResponseEntity<ProductResponseDto> getProductById(@PathVariable("machineId") String machineId,
+                                                           @PathVariable("id") Integer id) throws ProductNotFoundException {
+    return ResponseEntity.ok(machineInventoryService.getProduct(machineId, id));
+  }
+
+  @Operation(
+          description = "Update Machine Product by ID",
+          summary = "Sets the quantity of a catalog product in the machine.",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  )
+          }
+  )
+  @PutMapping("/{id}")
+  @PreAuthorize("hasRole('client_admin')")
+  public ResponseEntity<ProductResponseDto> updateProduct(@PathVariable("machineId") String machineId,
+                                                          @PathVariable("id") Integer id,
+                                                          @RequestBody ProductDTO productDTO) throws ProductNotFoundException {
+    ProductResponseDto responseDto = machineInventoryService.updateProduct(machineId, id, productDTO);
+    return new ResponseEntity<>(responseDto, responseDto.getStatus());
+  }
+
+  @Operation(
+          description = "Buy Machine Product",
+          summary = "Buy a product of the machine with the exact price",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  )
+          }
+  )
+  @PostMapping("/{id}")
+  public ResponseEntity<ProductResponseDto> buyProduct(@PathVariable("machineId") String machineId,
+                                                       @PathVariable("id") Integer id,
+                                                       @RequestBody PriceRequestDTO priceRequestDTO) throws ProductNotFoundException {
+    ProductResponseDto responseDto = machineInventoryService.buyProduct(machineId, id, priceRequestDTO);
+    return new ResponseEntity<>(responseDto, responseDto.getStatus());
+  }
+
+  @Operation(
+          description = "Remove Machine Product by ID",
+          summary = "The product will be removed from the machine and stays in the catalog.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @DeleteMapping("/{id}")
+  @PreAuthorize("hasRole('client_admin')")
+  public ResponseEntity<ProductResponseDto> removeProduct(@PathVariable("machineId") String machineId,
+                                                          @PathVariable("id") Integer id) throws ProductNotFoundException {
+    return ResponseEntity.ok(machineInventoryService.removeProduct(machineId, id));
+  }
+}
@@ -1,26 +1,55 @@
 package ch.akros.vending_machine.controller;
 
+import ch.akros.vending_machine.dto.BasketRequestDTO;
+import ch.akros.vending_machine.dto.InventoryEventDTO;
 import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkResponseDTO;
 import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
 import ch.akros.vending_machine.dto.ProductResponseDto;
 import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.service.InventoryJournal;
+import ch.akros.vending_machine.service.ProductCatalog;
 import ch.akros.vending_machine.service.ProductService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import static ch.akros.vending_machine.constant.AppConstant.BASKET_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.DEFAULT_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.IDEMPOTENCY_KEY_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+
 @RestController
 @RequestMapping("/api/v1/products")
 @RequiredArgsConstructor
 public class ProductController {
 
   private final ProductService productService;
+  private final ObjectMapper objectMapper;
+  private final InventoryJournal inventoryJournal;
+  private final IdempotentRequests idempotentRequests;
 
   @Operation(
           description = "Get all Products",
@@ -29,13 +58,66 @@ public class ProductController {
                   @ApiResponse(
                           description = "Success",
                           responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Not Modified",
+                          responseCode = "304"
                   )
           }
   )
   @GetMapping
   @PreAuthorize("hasRole('client_user')")
-  public ResponseEntity<List<ProductDTO>> getAllProducts() {
-    return ResponseEntity.ok(productService.getProducts());
+  public ResponseEntity<List<ProductDTO>> getAllProducts(@RequestParam(value = "after", required = false) Integer after,
+                                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                                         @RequestHeader HttpHeaders headers) {
+    if (after == null && limit == null) {
+      var catalog = productService.catalog();
+      if (notModified(headers, catalog)) {
+        return validators(ResponseEntity.status(NOT_MODIFIED), catalog).build();
+      }
+      return validators(ResponseEntity.ok(), catalog).body(productService.getProducts());
+    }
+    // Keyset pages are read from the database or the read replica, not from the catalog, so their
+    // validator is computed from the page itself.
+    var page = productService.getProducts(after, limit == null ? DEFAULT_PAGE_SIZE : limit);
+    String eTag = eTag(page);
+    boolean notModified = matches(headers.getIfNoneMatch(), eTag);
+    var response = (notModified ? ResponseEntity.status(NOT_MODIFIED) : ResponseEntity.ok())
+            .eTag(eTag)
+            .cacheControl(CacheControl.noCache());
+    if (page.getNextCursor() != null) {
+      response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+    }
+    return notModified ? response.build() : response.body(page.getProducts());
+  }
+
+  @Operation(
+          description = "Stream all Products",
+          summary = "Streams all the products as newline delimited JSON, one product per line.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+  @PreAuthorize("hasRole('client_user')")
+  public ResponseEntity<StreamingResponseBody> streamAllProducts() {
+    StreamingResponseBody body = out -> {
+      try (JsonGenerator generator = objectMapper.createGenerator(out)) {
+        generator.setRootValueSeparator(null);
+        productService.streamProducts(product -> {
+          try {
+            objectMapper.writeValue(generator, product);
+            generator.writeRaw('\n');
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      }
+    };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
   }
 
   @Operation(
@@ -54,9 +136,10 @@ public class ProductController {
   )
   @PostMapping
   @PreAuthorize("hasRole('client_admin')")
-  public ResponseEntity<ProductResponseDto> addProduct( @Valid @RequestBody ProductDTO productDTO) {
-    var save = productService.createProduct(productDTO);
-    return ResponseEntity.ok(save);
+  public ResponseEntity<ProductResponseDto> addProduct(@Valid @RequestBody ProductDTO productDTO,
+                                                       @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws ProductNotFoundException {
+    return idempotentRequests.execute(idempotencyKey, PRODUCT_API_PATH, null, productDTO,
+            () -> ResponseEntity.ok(productService.createProduct(productDTO)));
   }
 
   @Operation(
@@ -67,6 +150,10 @@ public class ProductController {
                           description = "Success",
                           responseCode = "200"
                   ),
+                  @ApiResponse(
+                          description = "Not Modified",
+                          responseCode = "304"
+                  ),
                   @ApiResponse(
                           description = "Not Found",
                           responseCode = "404"
@@ -75,9 +162,32 @@ public class ProductController {
   )
   @GetMapping("/{id}")
   @PreAuthorize("hasRole('client_user')")
-  public ResponseEntity<ProductResponseDto> getProductById(@PathVariable("id") Integer id) throws ProductNotFoundException {
+  public ResponseEntity<ProductResponseDto> getProductById(@PathVariable("id") Integer id,
+                                                           @RequestHeader HttpHeaders headers) throws ProductNotFoundException {
+    var catalog = productService.catalog();
+    if (notModified(headers, catalog)) {
+      return validators(ResponseEntity.status(NOT_MODIFIED), catalog).build();
+    }
     ProductResponseDto productResponseDto = productService.getProduct(id);
-    return  new ResponseEntity<>(productResponseDto, productResponseDto.getStatus());
+    return validators(ResponseEntity.status(productResponseDto.getStatus()), catalog).body(productResponseDto);
+  }
+
+  @Operation(
+          description = "Get Product history",
+          summary = "The latest journaled inventory changes of the product, newest first.",
+          responses = {
+                  @ApiResponse(
+                          description = "Success",
+                          responseCode = "200"
+                  )
+          }
+  )
+  @GetMapping("/{id}/history")
+  @PreAuthorize("hasRole('client_admin')")
+  public ResponseEntity<List<InventoryEventDTO>> getProductHistory(@PathVariable("id") Integer id,
+                                                                   @RequestParam(value = "limit", required = false) Integer limit) {
+    int size = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+    return ResponseEntity.ok(inventoryJournal.history(id, size));
   }
 
   @Operation(
@@ -139,8 +249,103 @@ public class ProductController {
           }
   )
   @PostMapping("/{id}")
-  public ResponseEntity<ProductResponseDto> buyProduct(@PathVariable("id") Integer id, @RequestBody PriceRequestDTO priceRequestDTO) throws ProductNotFoundException {
-    ProductResponseDto responseDto = productService.buyProduct(id, priceRequestDTO);
+  public ResponseEntity<ProductResponseDto> buyProduct(@PathVariable("id") Integer id, @RequestBody PriceRequestDTO priceRequestDTO,
+                                                       @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws ProductNotFoundException {
+    return idempotentRequests.execute(idempotencyKey, PRODUCT_API_PATH, id, priceRequestDTO, () -> {
+      ProductResponseDto responseDto = productService.buyProduct(id, priceRequestDTO);
+      return new ResponseEntity<>(responseDto, responseDto.getStatus());
+    });
+  }
+
+  @Operation(
+          description = "Buy Basket",
+          summary = "Buy several products with one payment; either all of them are bought or none",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  ),
+                  @ApiResponse(
+                          description = "Not Found",
+                          responseCode = "404"
+                  )
+          }
+  )
+  @PostMapping("/basket")
+  public ResponseEntity<ProductResponseDto> buyProducts(@RequestBody BasketRequestDTO basketRequestDTO,
+                                                        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws ProductNotFoundException {
+    return idempotentRequests.execute(idempotencyKey, BASKET_API_PATH, null, basketRequestDTO, () -> {
+      ProductResponseDto responseDto = productService.buyProducts(basketRequestDTO);
+      return new ResponseEntity<>(responseDto, responseDto.getStatus());
+    });
+  }
+
+  @Operation(
+          description = "Apply Operations",
+          summary = "Restock and update several products at once; either all operations are applied or none",
+          responses = {
+                  @ApiResponse(
+                          description = "OK",
+                          responseCode = "200"
+                  ),
+                  @ApiResponse(
+                          description = "Bad Request",
+                          responseCode = "400"
+                  )
+          }
+  )
+  @PostMapping("/bulk")
+  @PreAuthorize("hasRole('client_admin')")
+  public ResponseEntity<ProductBulkResponseDTO> applyOperations(@RequestBody ProductBulkRequestDTO productBulkRequestDTO) {
+    ProductBulkResponseDTO responseDto = productService.applyOperations(productBulkRequestDTO);
     return new ResponseEntity<>(responseDto, responseDto.getStatus());
   }
+
+  /**
+   * Checks the validators of the client against the catalog version, before any product is read
+   * or serialized. The version is read before the products, so a response is never labelled with
+   * a version newer than its content. {@code If-None-Match} wins over {@code If-Modified-Since}.
+   */
+  private static boolean notModified(HttpHeaders headers, ProductCatalog.Snapshot catalog) {
+    List<String> ifNoneMatch = headers.getIfNoneMatch();
+    if (!ifNoneMatch.isEmpty()) {
+      return matches(ifNoneMatch, catalog.eTag());
+    }
+    long ifModifiedSince = headers.getIfModifiedSince();
+    return ifModifiedSince >= 0 && catalog.lastModified() / 1000 * 1000 <= ifModifiedSince;
+  }
+
+  private static boolean matches(List<String> ifNoneMatch, String eTag) {
+    var current = ETag.create(eTag);
+    return ifNoneMatch.stream()
+            .flatMap(value -> ETag.parse(value).stream())
+            .anyMatch(tag -> tag.isWildcard() || tag.compare(current, false));
+  }
+
+  /**
+   * @return a validator that changes whenever a product of the page or the next cursor changes.
+   */
+  private static String eTag(ProductPageDTO page) {
+    var content = new StringBuilder().append(page.getNextCursor());
+    for (ProductDTO product : page.getProducts()) {
+      content.append('|').append(product.getProductId())
+              .append(',').append(product.getProductName())
+              .append(',').append(product.getProductPrice())
+              .append(',').append(product.getQuantity());
+    }
+    return "\"" + DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  /**
+   * Adds the catalog version as validators. Clients may keep the response but have to revalidate it.
+   */
+  private static ResponseEntity.BodyBuilder validators(ResponseEntity.BodyBuilder response, ProductCatalog.Snapshot catalog) {
+    return response.eTag(catalog.eTag())
+            .lastModified(catalog.lastModified())
+            .cacheControl(CacheControl.noCache());
+  }
 }
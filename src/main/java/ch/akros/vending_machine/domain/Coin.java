@@ -0,0 +1,20 @@
+package ch.akros.vending_machine.domain;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "_coin")
+public class Coin {
+
+    @Id
+    private Integer denomination;
+    private Integer quantity;
+}
@@ -0,0 +1,50 @@
+package ch.akros.vending_machine.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One change of the inventory. Stock changes are stored as deltas, so replaying the events of a
+ * product gives the same quantity whatever order concurrent changes were journaled in.
+ * <p>
+ * The ids come from a pooled sequence and are not in commit order. {@code logPosition} is assigned
+ * once the event has committed, by a single writer, and gives the order the journal is replayed in.
+ * It is {@code null} until then.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "_inventory_event", indexes = {
+        @Index(name = "_inventory_event_product_idx", columnList = "productId, eventId"),
+        @Index(name = "_inventory_event_position_idx", columnList = "logPosition")
+})
+public class InventoryEvent {
+
+    public static final String ID_SEQUENCE = "_inventory_event_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    public enum Type {
+        CREATED, RESTOCKED, PURCHASED, UPDATED, DELETED, RECONCILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "inventory_event_id")
+    @SequenceGenerator(name = "inventory_event_id", sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
+    private Long eventId;
+    @Column(nullable = false)
+    private Integer productId;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Type type;
+    private int quantityDelta;
+    private String productName;
+    private Integer productPrice;
+    @Column(nullable = false)
+    private Instant occurredAt;
+    private Long logPosition;
+}
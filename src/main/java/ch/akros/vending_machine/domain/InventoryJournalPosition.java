@@ -0,0 +1,27 @@
+package ch.akros.vending_machine.domain;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The single row holding the last {@link InventoryEvent#getLogPosition() log position} handed out.
+ * Whoever assigns positions holds its write lock, so positions follow the order the events were
+ * committed in.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "_inventory_journal_position")
+public class InventoryJournalPosition {
+
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+    private long position;
+}
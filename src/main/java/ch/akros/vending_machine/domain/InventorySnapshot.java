@@ -0,0 +1,27 @@
+package ch.akros.vending_machine.domain;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * State of one product as of the journal position {@code logPosition}. Replaying the events after
+ * it on top of the snapshot gives the current inventory.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "_inventory_snapshot")
+public class InventorySnapshot {
+
+    @Id
+    private Integer productId;
+    private String productName;
+    private Integer productPrice;
+    private Integer quantity;
+    private Long logPosition;
+}
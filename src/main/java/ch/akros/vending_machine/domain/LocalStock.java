@@ -0,0 +1,54 @@
+package ch.akros.vending_machine.domain;
+
+import org.hibernate.annotations.AttributeBinderType;
+import org.hibernate.binder.AttributeBinder;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.spi.MetadataBuildingContext;
+import org.hibernate.mapping.Formula;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * Maps a {@link org.hibernate.annotations.Formula} property of {@link Product} to the stock the
+ * local machine holds of the product in {@link MachineStock}. The text of the formula is replaced
+ * while the mapping is built, with the column names the configured physical naming strategy gives
+ * the mapped attributes, so it reads {@code machine_id} with the default strategy and
+ * {@code machineId} with {@code PhysicalNamingStrategyStandardImpl}.
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+@AttributeBinderType(binder = LocalStock.Binder.class)
+public @interface LocalStock {
+
+    class Binder implements AttributeBinder<LocalStock> {
+
+        @Override
+        public void bind(LocalStock annotation, MetadataBuildingContext buildingContext,
+                         PersistentClass persistentClass, Property property) {
+            var strategy = buildingContext.getBuildingOptions().getPhysicalNamingStrategy();
+            var environment = buildingContext.getMetadataCollector().getDatabase().getJdbcEnvironment();
+            var dialect = environment.getDialect();
+            String table = strategy.toPhysicalTableName(Identifier.toIdentifier(MachineStock.TABLE), environment).render(dialect);
+            String machineId = strategy.toPhysicalColumnName(Identifier.toIdentifier("machineId"), environment).render(dialect);
+            String productId = strategy.toPhysicalColumnName(Identifier.toIdentifier("productId"), environment).render(dialect);
+            String quantity = strategy.toPhysicalColumnName(Identifier.toIdentifier("quantity"), environment).render(dialect);
+            String id = strategy.toPhysicalColumnName(Identifier.toIdentifier(persistentClass.getIdentifierProperty().getName()), environment)
+                    .render(dialect);
+
+            var formula = property.getValue().getSelectables().stream()
+                    .filter(Formula.class::isInstance)
+                    .map(Formula.class::cast)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("@LocalStock needs a @Formula on " + property.getName()));
+            formula.setFormula("(select s." + quantity + " from " + table + " s where s." + machineId + " = '" + LOCAL_MACHINE_ID
+                    + "' and s." + productId + " = " + id + ")");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ch.akros.vending_machine.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.io.Serializable;
+
+/**
+ * Stock of one catalog product in one vending machine. Name and price are shared by all machines
+ * and stay in {@link Product}; only the quantity is kept per machine. The key starts with the
+ * machine, so all products of a machine are neighbours in the primary key index and, on
+ * PostgreSQL, in the same hash partition. A second index on the product serves the lookups by
+ * product across all machines.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@IdClass(MachineStock.Key.class)
+@Table(name = MachineStock.TABLE, indexes = @Index(name = MachineStock.PRODUCT_INDEX, columnList = "productId"))
+public class MachineStock {
+
+    public static final String TABLE = "_machine_stock";
+    public static final int MACHINE_ID_LENGTH = 64;
+    public static final String PRODUCT_INDEX = "_machine_stock_product_idx";
+
+    @Id
+    @Column(length = MACHINE_ID_LENGTH)
+    private String machineId;
+    @Id
+    private Integer productId;
+    @Column(nullable = false)
+    private int quantity;
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "productId", insertable = false, updatable = false)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Product product;
+
+    public MachineStock(String machineId, Integer productId, int quantity) {
+        this(machineId, productId, quantity, null);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private String machineId;
+        private Integer productId;
+    }
+}
@@ -6,7 +6,19 @@ import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.Formula;
 
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * A product of the catalog, shared by all machines of the fleet. The stock is kept per machine in
+ * {@link MachineStock}; the quantity of a product is the stock of the machine this service runs
+ * in, {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID}. It is read with the
+ * product, {@code null} if that machine does not hold the product, and written through
+ * {@link ch.akros.vending_machine.repository.MachineStockRepository} only. The formula shown is
+ * the one of the default naming strategy; {@link LocalStock} renders it for the configured one.
+ */
 @Entity
 @Data
 @NoArgsConstructor
@@ -14,13 +26,27 @@ import lombok.NoArgsConstructor;
 @Table(name = "_product")
 public class Product {
 
+    public static final String ID_SEQUENCE = "_product_seq";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_id")
+    @SequenceGenerator(name = "product_id", sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Integer productId;
     @Column(unique = true)
     @NotBlank(message = "the productId must not null or empty")
     private String productName;
     @NotNull(message = "the productPrice must not null")
     private Integer productPrice;
+    @Formula("(select s.quantity from _machine_stock s where s.machine_id = '" + LOCAL_MACHINE_ID + "' and s.product_id = product_id)")
+    @LocalStock
     private Integer quantity;
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private long version;
+
+    public Product(Integer productId, String productName, Integer productPrice, Integer quantity) {
+        this(productId, productName, productPrice, quantity, 0);
+    }
 }
@@ -0,0 +1,24 @@
+package ch.akros.vending_machine.dto;
+
+import ch.akros.vending_machine.dto.deserializer.CoinCountDeserializer;
+import ch.akros.vending_machine.dto.deserializer.CoinListDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BasketRequestDTO {
+    private List<Integer> productIds;
+    @JsonDeserialize(using = CoinListDeserializer.class)
+    private List<Integer> prices;
+    @JsonDeserialize(using = CoinCountDeserializer.class)
+    private Map<Integer, Integer> coins;
+}
@@ -0,0 +1,18 @@
+package ch.akros.vending_machine.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Instant;
+
+@Getter
+@Builder
+public class InventoryEventDTO {
+    private Long eventId;
+    private Integer productId;
+    private String type;
+    private Integer quantityDelta;
+    private String productName;
+    private Integer productPrice;
+    private Instant occurredAt;
+}
@@ -1,11 +1,24 @@
 package ch.akros.vending_machine.dto;
 
+import ch.akros.vending_machine.dto.deserializer.CoinCountDeserializer;
+import ch.akros.vending_machine.dto.deserializer.CoinListDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.*;
 
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Payment of a purchase, either as single coins ({@code prices}) or as number of coins per coin
+ * value ({@code coins}). Both may be combined.
+ */
 @Getter
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class PriceRequestDTO {
+    @JsonDeserialize(using = CoinListDeserializer.class)
     private List<Integer> prices;
+    @JsonDeserialize(using = CoinCountDeserializer.class)
+    private Map<Integer, Integer> coins;
 }
@@ -0,0 +1,16 @@
+package ch.akros.vending_machine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBulkRequestDTO {
+    private List<ProductOperationDTO> operations;
+}
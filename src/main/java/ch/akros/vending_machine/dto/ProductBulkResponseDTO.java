@@ -0,0 +1,22 @@
+package ch.akros.vending_machine.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.util.List;
+
+/**
+ * Response of a bulk request, with one result per operation in request order.
+ */
+@Getter
+@Builder
+public class ProductBulkResponseDTO {
+    private String message;
+    private String error;
+    private String path;
+    private HttpStatus status;
+    private Integer statusCode;
+    private String timestamp;
+    private List<ProductResponseDto> results;
+}
@@ -10,7 +10,6 @@ import lombok.Setter;
 @Setter
 @Builder
 public class ProductDTO {
-    @NotBlank(message = "the productId must not null or empty")
     private Integer productId;
     @NotBlank(message = "the productId must not null or empty")
     private String productName;
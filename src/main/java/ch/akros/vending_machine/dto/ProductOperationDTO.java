@@ -0,0 +1,27 @@
+package ch.akros.vending_machine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * One operation of a bulk request. A {@code RESTOCK} adds {@code quantity} units (one if not given)
+ * to the product with the given name, or creates it with the given price. An {@code UPDATE} changes
+ * the product with the given id like {@code PUT /api/v1/products/{id}}; fields left out are kept.
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductOperationDTO {
+    private Type type;
+    private Integer productId;
+    private String productName;
+    private Integer productPrice;
+    private Integer quantity;
+
+    public enum Type {
+        RESTOCK, UPDATE
+    }
+}
@@ -0,0 +1,13 @@
+package ch.akros.vending_machine.dto;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@Builder
+public class ProductPageDTO {
+    private List<ProductDTO> products;
+    private Integer nextCursor;
+}
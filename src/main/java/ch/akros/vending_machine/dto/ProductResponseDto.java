@@ -1,21 +1,198 @@
 package ch.akros.vending_machine.dto;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
 import org.springframework.http.HttpStatus;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+
+/**
+ * Response envelope of the product endpoints. A message or path made of a constant prefix and an
+ * id, as well as a single product, are kept apart and only joined when the envelope is written,
+ * so building a response does not concatenate strings or wrap the product in a map.
+ */
 @Getter
 @Builder
 @ToString
+@JsonSerialize(using = ProductResponseDto.Serializer.class)
 public class ProductResponseDto {
   private String message;
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private Integer messageId;
   private String error;
   private String path;
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private Integer pathId;
   HttpStatus status;
   private Integer statusCode;
   private String timestamp;
+  @Getter(AccessLevel.NONE)
+  @ToString.Exclude
+  private ProductDTO product;
   private Map<String, ProductDTO> data;
+  private Map<Integer, Integer> change;
+
+  public String getMessage() {
+    return messageId == null || message == null ? message : message + messageId;
+  }
+
+  public String getPath() {
+    return pathId == null || path == null ? path : path + pathId;
+  }
+
+  public Map<String, ProductDTO> getData() {
+    return data != null || product == null ? data : Map.of(PRODUCT_KEY, product);
+  }
+
+  public static class ProductResponseDtoBuilder {
+
+    public ProductResponseDtoBuilder message(String message) {
+      return message(message, null);
+    }
+
+    /**
+     * @param prefix the constant start of the message.
+     * @param id     the id appended to the prefix.
+     */
+    public ProductResponseDtoBuilder message(String prefix, Integer id) {
+      this.message = prefix;
+      this.messageId = id;
+      return this;
+    }
+
+    public ProductResponseDtoBuilder path(String path) {
+      return path(path, null);
+    }
+
+    /**
+     * @param prefix the constant start of the path.
+     * @param id     the id appended to the prefix.
+     */
+    public ProductResponseDtoBuilder path(String prefix, Integer id) {
+      this.path = prefix;
+      this.pathId = id;
+      return this;
+    }
+  }
+
+  /**
+   * Writes the envelope field by field with pre-encoded names. Prefixed values are written as the
+   * escaped prefix followed by the digits of the id, without building the joined string. The
+   * returned change is only written when there is one.
+   */
+  static class Serializer extends StdSerializer<ProductResponseDto> {
+
+    private static final SerializableString MESSAGE = new SerializedString("message");
+    private static final SerializableString ERROR = new SerializedString("error");
+    private static final SerializableString PATH = new SerializedString("path");
+    private static final SerializableString STATUS = new SerializedString("status");
+    private static final SerializableString STATUS_CODE = new SerializedString("statusCode");
+    private static final SerializableString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializableString DATA = new SerializedString("data");
+    private static final SerializableString PRODUCT = new SerializedString(PRODUCT_KEY);
+    private static final SerializableString CHANGE = new SerializedString("change");
+    private static final int MAX_ESCAPED_PREFIXES = 64;
+    private static final Map<String, String> ESCAPED_PREFIXES = new ConcurrentHashMap<>();
+
+    Serializer() {
+      super(ProductResponseDto.class);
+    }
+
+    @Override
+    public void serialize(ProductResponseDto value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+      gen.writeStartObject(value);
+      gen.writeFieldName(MESSAGE);
+      writePrefixed(gen, value.message, value.messageId);
+      gen.writeFieldName(ERROR);
+      gen.writeString(value.error);
+      gen.writeFieldName(PATH);
+      writePrefixed(gen, value.path, value.pathId);
+      gen.writeFieldName(STATUS);
+      if (value.status == null) {
+        gen.writeNull();
+      } else {
+        gen.writeString(value.status.name());
+      }
+      gen.writeFieldName(STATUS_CODE);
+      if (value.statusCode == null) {
+        gen.writeNull();
+      } else {
+        gen.writeNumber(value.statusCode);
+      }
+      gen.writeFieldName(TIMESTAMP);
+      gen.writeString(value.timestamp);
+      gen.writeFieldName(DATA);
+      if (value.data == null && value.product != null) {
+        gen.writeStartObject();
+        gen.writeFieldName(PRODUCT);
+        provider.defaultSerializeValue(value.product, gen);
+        gen.writeEndObject();
+      } else {
+        provider.defaultSerializeValue(value.data, gen);
+      }
+      if (value.change != null) {
+        gen.writeFieldName(CHANGE);
+        provider.defaultSerializeValue(value.change, gen);
+      }
+      gen.writeEndObject();
+    }
+
+    private static void writePrefixed(JsonGenerator gen, String prefix, Integer id) throws IOException {
+      if (prefix == null || id == null || gen instanceof TokenBuffer) {
+        gen.writeString(prefix == null || id == null ? prefix : prefix + id);
+        return;
+      }
+      gen.writeRawValue("\"");
+      gen.writeRaw(escaped(prefix));
+      long digits = id;
+      if (digits < 0) {
+        gen.writeRaw('-');
+        digits = -digits;
+      }
+      long divisor = 1;
+      while (divisor * 10 <= digits) {
+        divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+        gen.writeRaw((char) ('0' + digits / divisor % 10));
+      }
+      gen.writeRaw('"');
+    }
+
+    /**
+     * Prefixes are meant to be constants, so only the first {@link #MAX_ESCAPED_PREFIXES} are
+     * kept. A prefix built from request input is escaped on every write instead of filling the map.
+     */
+    private static String escaped(String prefix) {
+      String escaped = ESCAPED_PREFIXES.get(prefix);
+      if (escaped != null) {
+        return escaped;
+      }
+      escaped = escape(prefix);
+      if (ESCAPED_PREFIXES.size() < MAX_ESCAPED_PREFIXES) {
+        ESCAPED_PREFIXES.putIfAbsent(prefix, escaped);
+      }
+      return escaped;
+    }
+
+    private static String escape(String prefix) {
+      return new String(JsonStringEncoder.getInstance().quoteAsString(prefix));
+    }
+  }
 }
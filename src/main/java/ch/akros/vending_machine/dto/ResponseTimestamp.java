@@ -0,0 +1,31 @@
+package ch.akros.vending_machine.dto;
+
+import java.time.Instant;
+
+/**
+ * Millisecond precision timestamp of the response envelopes. The formatted value is cached and
+ * shared by all responses created within the same millisecond.
+ */
+public final class ResponseTimestamp {
+
+  private static volatile Cached cached = new Cached(Long.MIN_VALUE, null);
+
+  private ResponseTimestamp() {
+  }
+
+  /**
+   * @return the current time in ISO-8601 format, as {@link Instant#toString()} prints it.
+   */
+  public static String now() {
+    long millis = System.currentTimeMillis();
+    Cached current = cached;
+    if (current.millis() != millis) {
+      current = new Cached(millis, Instant.ofEpochMilli(millis).toString());
+      cached = current;
+    }
+    return current.text();
+  }
+
+  private record Cached(long millis, String text) {
+  }
+}
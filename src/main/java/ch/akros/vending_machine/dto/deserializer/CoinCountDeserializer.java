@@ -0,0 +1,51 @@
+package ch.akros.vending_machine.dto.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.MAX_COINS;
+
+/**
+ * Reads a map of coin value to number of coins, e.g. {@code {"200": 2, "50": 1}}. Repeated coin
+ * values are added up; the payload is refused as soon as it holds more than
+ * {@link ch.akros.vending_machine.constant.AppConstant#MAX_COINS} coins.
+ */
+public class CoinCountDeserializer extends StdDeserializer<Map<Integer, Integer>> {
+
+  public CoinCountDeserializer() {
+    super(Map.class);
+  }
+
+  @Override
+  public Map<Integer, Integer> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+    if (!p.isExpectedStartObjectToken()) {
+      return ctxt.reportInputMismatch(this, "Expected an object of coin counts");
+    }
+    Map<Integer, Integer> coins = new LinkedHashMap<>();
+    long total = 0;
+    for (String name = p.nextFieldName(); name != null; name = p.nextFieldName()) {
+      int coin;
+      try {
+        coin = Integer.parseInt(name);
+      } catch (NumberFormatException e) {
+        return ctxt.reportInputMismatch(this, "Expected a coin value, got '%s'", name);
+      }
+      if (p.nextToken() != JsonToken.VALUE_NUMBER_INT || p.getNumberType() != JsonParser.NumberType.INT) {
+        return ctxt.reportInputMismatch(this, "Expected a number of coins for %d", coin);
+      }
+      int count = p.getIntValue();
+      total += Math.abs((long) count);
+      if (total > MAX_COINS) {
+        return ctxt.reportInputMismatch(this, "A payment cannot have more than %d coins", MAX_COINS);
+      }
+      coins.merge(coin, count, Integer::sum);
+    }
+    return coins;
+  }
+}
@@ -0,0 +1,42 @@
+package ch.akros.vending_machine.dto.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ch.akros.vending_machine.constant.AppConstant.MAX_COINS;
+
+/**
+ * Reads a list of single coins and stops with an error as soon as it holds more than
+ * {@link ch.akros.vending_machine.constant.AppConstant#MAX_COINS} coins, so an oversized
+ * payload is never materialized.
+ */
+public class CoinListDeserializer extends StdDeserializer<List<Integer>> {
+
+  public CoinListDeserializer() {
+    super(List.class);
+  }
+
+  @Override
+  public List<Integer> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+    if (!p.isExpectedStartArrayToken()) {
+      return ctxt.reportInputMismatch(this, "Expected an array of coins");
+    }
+    List<Integer> coins = new ArrayList<>();
+    for (JsonToken token = p.nextToken(); token != JsonToken.END_ARRAY; token = p.nextToken()) {
+      if (token != JsonToken.VALUE_NUMBER_INT) {
+        return ctxt.reportInputMismatch(this, "Expected a coin value, got %s", token);
+      }
+      if (coins.size() == MAX_COINS) {
+        return ctxt.reportInputMismatch(this, "A payment cannot have more than %d coins", MAX_COINS);
+      }
+      coins.add(p.getIntValue());
+    }
+    return coins;
+  }
+}
@@ -1,8 +1,10 @@
 package ch.akros.vending_machine.dto.mapper;
 
+import ch.akros.vending_machine.domain.MachineStock;
 import ch.akros.vending_machine.domain.Product;
 import ch.akros.vending_machine.dto.ProductDTO;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 import org.mapstruct.factory.Mappers;
 
 @Mapper
@@ -10,7 +12,12 @@ public interface ProductMapper {
 
     ProductMapper PRODUCT_MAPPER = Mappers.getMapper(ProductMapper.class);
 
+    @Mapping(target = "version", ignore = true)
     Product mapToProduct(ProductDTO productDTO);
 
     ProductDTO mapToProductDTO(Product product);
+
+    @Mapping(target = "productName", source = "product.productName")
+    @Mapping(target = "productPrice", source = "product.productPrice")
+    ProductDTO mapToProductDTO(MachineStock machineStock);
 }
@@ -0,0 +1,18 @@
+package ch.akros.vending_machine.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * A request with an {@code Idempotency-Key} that cannot be answered: the key is invalid, was used
+ * for a different request, or its first request is still running.
+ */
+@Getter
+public class IdempotencyKeyException extends RuntimeException {
+    private final HttpStatus status;
+
+    public IdempotencyKeyException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+}
@@ -0,0 +1,7 @@
+package ch.akros.vending_machine.exception;
+
+public class ProductConflictException extends RuntimeException {
+    public ProductConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
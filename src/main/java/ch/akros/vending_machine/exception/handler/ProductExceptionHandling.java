@@ -1,9 +1,12 @@
 package ch.akros.vending_machine.exception.handler;
 
+import ch.akros.vending_machine.exception.IdempotencyKeyException;
+import ch.akros.vending_machine.exception.ProductConflictException;
 import ch.akros.vending_machine.exception.ProductNotFoundException;
 import org.hibernate.PropertyValueException;
 import org.postgresql.util.PSQLException;
 import org.springframework.boot.web.servlet.error.ErrorController;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
@@ -31,6 +34,9 @@ public class ProductExceptionHandling implements ErrorController {
   private static final String METHOD_IS_NOT_ALLOWED = "This request method is not allowed on this endpoint. Please send a '%s' request";
   private static final String UNAUTHORIZED_ACCESS = "Authentication failed. Please provide valid credentials.";
   private static final String PRODUCT_NOT_FOUND_BY_ID = "Product does not exist in the database";
+  private static final String PRODUCT_CONFLICT = "Product was changed concurrently";
+  private static final String PRODUCT_CONFLICT_DETAIL = "The product was changed by another request. Please reload it and try again";
+  private static final String IDEMPOTENCY_KEY_REFUSED = "Idempotency-Key refused";
   private static final String TOKEN_EXPIRED = "Your session has expired. Please log in again.";
   private static final String INVALID_TOKEN = "Invalid token. Please log in again.";
   private static final String GENERIC_AUTH_ERROR = "Authentication error. Please provide a valid token.";
@@ -51,6 +57,21 @@ public class ProductExceptionHandling implements ErrorController {
     return generateProblemDetail(BAD_REQUEST, exception.getMessage(), PRODUCT_NOT_FOUND_BY_ID);
   }
 
+  @ExceptionHandler(ProductConflictException.class)
+  public ResponseEntity<ProblemDetail> handleProductConflictException(ProductConflictException exception) {
+    return generateProblemDetail(CONFLICT, exception.getMessage(), PRODUCT_CONFLICT);
+  }
+
+  @ExceptionHandler(IdempotencyKeyException.class)
+  public ResponseEntity<ProblemDetail> handleIdempotencyKeyException(IdempotencyKeyException exception) {
+    return generateProblemDetail(exception.getStatus(), exception.getMessage(), IDEMPOTENCY_KEY_REFUSED);
+  }
+
+  @ExceptionHandler(OptimisticLockingFailureException.class)
+  public ResponseEntity<ProblemDetail> handleOptimisticLockingFailureException() {
+    return generateProblemDetail(CONFLICT, PRODUCT_CONFLICT_DETAIL, PRODUCT_CONFLICT);
+  }
+
   @ExceptionHandler(AuthenticationException.class)
   public ResponseEntity<ProblemDetail> handleUnauthorizedException(AuthenticationException exception) {
     return generateProblemDetail(UNAUTHORIZED, UNAUTHORIZED_ACCESS, exception.getMessage());
@@ -66,6 +87,11 @@ public class ProductExceptionHandling implements ErrorController {
     return handleGenericException(UNAUTHORIZED, message);
   }
 
+  @ExceptionHandler(IllegalArgumentException.class)
+  public ResponseEntity<ProblemDetail> handleIllegalArgumentException(IllegalArgumentException exception) {
+    return handleGenericException(BAD_REQUEST, exception.getMessage());
+  }
+
   @ExceptionHandler(PropertyValueException.class)
   public ResponseEntity<ProblemDetail> handlePropertyValueException(PropertyValueException exception) {
     return handleGenericException(BAD_REQUEST, exception.getMessage());
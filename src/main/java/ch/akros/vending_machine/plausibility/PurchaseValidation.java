@@ -0,0 +1,20 @@
+package ch.akros.vending_machine.plausibility;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+@Getter
+public enum PurchaseValidation {
+
+    PURCHASED("Product purchased"),
+    PRODUCT_NOT_FOUND_BY_ID("Product not found by ID"),
+    OUT_OF_STOCK("Product is out of stock"),
+    PRICE_TOO_HIGH("Vending Machine can not return money change. Inserted price is higher than expected price"),
+    PRICE_TOO_LOW("Inserted price is lower than expected price"),
+    COIN_NOT_ALLOWED("Coin not allowed"),
+    TOO_MANY_COINS("Too many coins"),
+    BASKET_EMPTY("Basket is empty"),
+    BASKET_TOO_LARGE("Basket is too large");
+    private String description;
+}
@@ -0,0 +1,29 @@
+package ch.akros.vending_machine.plausibility;
+
+
+import ch.akros.vending_machine.domain.Product;
+
+import java.util.function.Function;
+
+import static ch.akros.vending_machine.plausibility.PurchaseValidation.*;
+
+public interface PurchaseValidator extends Function<Product, PurchaseValidation> {
+
+    /**
+     * Explains why a conditional decrement did not take a unit out of stock.
+     *
+     * @param price the inserted amount.
+     * @return the reason of the refused purchase.
+     */
+    static PurchaseValidator refusedPurchase(Integer price) {
+        return product -> {
+            if (product == null) {
+                return PRODUCT_NOT_FOUND_BY_ID;
+            }
+            if (price > product.getProductPrice()) {
+                return PRICE_TOO_HIGH;
+            }
+            return price < product.getProductPrice() ? PRICE_TOO_LOW : OUT_OF_STOCK;
+        };
+    }
+}
@@ -0,0 +1,40 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.Coin;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface CoinRepository extends JpaRepository<Coin, Integer> {
+
+    /**
+     * Adds coins to the stock of one denomination.
+     *
+     * @param denomination the coin value.
+     * @param count        the number of added coins.
+     * @return the number of updated rows, either 0 or 1.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Coin c set c.quantity = c.quantity + :count where c.denomination = :denomination")
+    int addCoins(@Param("denomination") Integer denomination, @Param("count") Integer count);
+
+    /**
+     * Takes coins out of the stock of one denomination in a single statement. The row is only
+     * touched when enough coins are left, so concurrent purchases can never hand out more
+     * coins than the machine holds.
+     *
+     * @param denomination the coin value.
+     * @param count        the number of dispensed coins.
+     * @return the number of updated rows, either 0 or 1.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Coin c set c.quantity = c.quantity - :count " +
+            "where c.denomination = :denomination and c.quantity >= :count")
+    int dispenseCoins(@Param("denomination") Integer denomination, @Param("count") Integer count);
+}
@@ -0,0 +1,45 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.InventoryEvent;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+@Repository
+public interface InventoryEventRepository extends JpaRepository<InventoryEvent, Long> {
+
+    /**
+     * @param productId the product.
+     * @param limit     the maximum number of events.
+     * @return the latest events of the product, newest first.
+     */
+    List<InventoryEvent> findByProductIdOrderByEventIdDesc(Integer productId, Limit limit);
+
+    /**
+     * @param limit the maximum number of events.
+     * @return the committed events that have no log position yet, oldest id first.
+     */
+    List<InventoryEvent> findByLogPositionIsNullOrderByEventIdAsc(Limit limit);
+
+    /**
+     * Streams the events of a range of log positions from a database cursor. Must be consumed
+     * inside a transaction and closed afterwards.
+     *
+     * @param from the first wanted position.
+     * @param to   the last wanted position.
+     * @return the events in journal order.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")
+    })
+    Stream<InventoryEvent> streamByLogPositionBetweenOrderByLogPositionAsc(Long from, Long to);
+}
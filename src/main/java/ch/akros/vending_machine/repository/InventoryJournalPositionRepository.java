@@ -0,0 +1,25 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.InventoryJournalPosition;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface InventoryJournalPositionRepository extends JpaRepository<InventoryJournalPosition, Integer> {
+
+    /**
+     * Loads and write-locks the position row until the end of the transaction.
+     *
+     * @param id the id of the row.
+     * @return the row, empty if it was not created yet.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from InventoryJournalPosition p where p.id = :id")
+    Optional<InventoryJournalPosition> findByIdForUpdate(@Param("id") Integer id);
+}
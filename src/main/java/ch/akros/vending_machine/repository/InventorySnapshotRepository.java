@@ -0,0 +1,16 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.InventorySnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface InventorySnapshotRepository extends JpaRepository<InventorySnapshot, Integer> {
+
+    /**
+     * @return the last log position contained in the snapshot, 0 if there is no snapshot.
+     */
+    @Query("select coalesce(max(s.logPosition), 0) from InventorySnapshot s")
+    long findSnapshotLogPosition();
+}
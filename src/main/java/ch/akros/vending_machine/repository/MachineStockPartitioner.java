@@ -0,0 +1,86 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Hibernate creates the machine stock as a plain table. On PostgreSQL it is turned into a table
+ * that is hash partitioned by machine id at startup, and the rows stored so far are moved into the
+ * partitions. Every machine then lives in one partition with its own primary key index, so a busy
+ * machine neither bloats nor locks the indexes of the others. A table that is already partitioned
+ * is left alone, whatever its number of partitions. The index on the product id is created on the
+ * partitioned table, so every partition gets its own.
+ */
+@Component
+public class MachineStockPartitioner {
+
+  private static final Logger log = LoggerFactory.getLogger(MachineStockPartitioner.class);
+  private static final String POSTGRES = "PostgreSQL";
+  private static final String PARTITIONED = "p";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final SessionFactoryImplementor sessionFactory;
+  private final int partitions;
+
+  public MachineStockPartitioner(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                 EntityManagerFactory entityManagerFactory,
+                                 @Value("${machine.stock.partitions:16}") int partitions) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+    this.partitions = partitions;
+  }
+
+  @PostConstruct
+  void partition() {
+    String database = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+    if (!POSTGRES.equals(database) || partitions < 2) {
+      return;
+    }
+    var persister = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(MachineStock.class);
+    var products = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(Product.class);
+    String table = persister.getTableName();
+    String machineId = persister.getPropertyColumnNames("machineId")[0];
+    String productId = persister.getPropertyColumnNames("productId")[0];
+    String unpartitioned = table + "_unpartitioned";
+
+    transactionTemplate.executeWithoutResult(status -> {
+      // Instances starting together convert the table once; the others find it partitioned.
+      jdbcTemplate.queryForObject("select pg_advisory_xact_lock(hashtext(?))", Object.class, table);
+      String kind = jdbcTemplate.queryForObject("select relkind::text from pg_class where oid = to_regclass(?)", String.class, table);
+      if (kind == null) {
+        return;
+      }
+      if (!PARTITIONED.equals(kind)) {
+        jdbcTemplate.execute("alter table " + table + " rename to " + unpartitioned);
+        jdbcTemplate.execute("create table " + table + " (like " + unpartitioned + " including defaults including constraints) "
+                + "partition by hash (" + machineId + ")");
+        jdbcTemplate.execute("alter table " + table + " add primary key (" + machineId + ", " + productId + ")");
+        jdbcTemplate.execute("alter table " + table + " add foreign key (" + productId + ") references "
+                + products.getTableName() + " (" + products.getIdentifierColumnNames()[0] + ")");
+        for (int remainder = 0; remainder < partitions; remainder++) {
+          jdbcTemplate.execute("create table " + table + "_" + remainder + " partition of " + table
+                  + " for values with (modulus " + partitions + ", remainder " + remainder + ")");
+        }
+        int moved = jdbcTemplate.update("insert into " + table + " select * from " + unpartitioned);
+        jdbcTemplate.execute("drop table " + unpartitioned);
+        log.info("Machine stock {} is hash partitioned by {} into {} partitions, {} rows moved", table, machineId, partitions, moved);
+      }
+      // Dropping the old table dropped its index; the name is free again for the partitioned one.
+      jdbcTemplate.execute("create index if not exists " + MachineStock.PRODUCT_INDEX + " on " + table + " (" + productId + ")");
+    });
+  }
+}
@@ -0,0 +1,112 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Stock per machine. Every query but {@link #existsByProductIdAndMachineIdNot} is bound to one
+ * machine and served by the primary key index on {@code (machineId, productId)}, so its cost does
+ * not depend on the number of machines.
+ */
+@Repository
+public interface MachineStockRepository extends JpaRepository<MachineStock, MachineStock.Key> {
+
+    /**
+     * Loads a page of the stock of one machine together with the catalog products, ordered by product id.
+     *
+     * @param machineId the machine.
+     * @param after     the last product id of the previous page, 0 for the first page.
+     * @param limit     the maximum number of products.
+     * @return the stock of the machine after the cursor.
+     */
+    @Query("select s from MachineStock s join fetch s.product " +
+            "where s.machineId = :machineId and s.productId > :after order by s.productId")
+    List<MachineStock> findPage(@Param("machineId") String machineId, @Param("after") int after, Limit limit);
+
+    /**
+     * Loads the stock of one product in one machine together with the catalog product.
+     */
+    @Query("select s from MachineStock s join fetch s.product " +
+            "where s.machineId = :machineId and s.productId = :productId")
+    Optional<MachineStock> findStock(@Param("machineId") String machineId, @Param("productId") Integer productId);
+
+    /**
+     * Loads and write-locks the stock of the given products in one machine in product id order,
+     * so that concurrent baskets always lock shared rows in the same order. The catalog rows are
+     * not locked.
+     *
+     * @param machineId  the machine.
+     * @param productIds the products to lock.
+     * @return the found stock ordered by product id.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from MachineStock s where s.machineId = :machineId and s.productId in :productIds order by s.productId")
+    List<MachineStock> findAllForUpdate(@Param("machineId") String machineId, @Param("productIds") Collection<Integer> productIds);
+
+    /**
+     * Tells whether any machine but the given one stocks the product. Served by the index on the
+     * product id; on a partitioned table that is one index probe per partition.
+     */
+    boolean existsByProductIdAndMachineIdNot(Integer productId, String machineId);
+
+    /**
+     * Takes one unit of the product out of the machine in a single statement. The row is only
+     * touched when the machine still holds a unit and the given price matches the catalog price.
+     *
+     * @param machineId the machine.
+     * @param productId the product to buy.
+     * @param price     the inserted amount.
+     * @return the number of updated rows, either 0 or 1.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update MachineStock s set s.quantity = s.quantity - 1 " +
+            "where s.machineId = :machineId and s.productId = :productId and s.quantity > 0 " +
+            "and exists (select 1 from Product p where p.productId = :productId and p.productPrice = :price)")
+    int decrementQuantity(@Param("machineId") String machineId, @Param("productId") Integer productId, @Param("price") Integer price);
+
+    /**
+     * Takes one unit of the product out of the machine unless it is the last one.
+     *
+     * @return the number of updated rows, 0 if the machine holds at most one unit.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update MachineStock s set s.quantity = s.quantity - 1 " +
+            "where s.machineId = :machineId and s.productId = :productId and s.quantity > 1")
+    int removeUnit(@Param("machineId") String machineId, @Param("productId") Integer productId);
+
+    /**
+     * Sets the stock of the product in the machine, or adds the product to the machine, in a
+     * single statement. The product must exist in the catalog.
+     *
+     * @return the number of inserted or updated rows, always 1.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("insert into MachineStock (machineId, productId, quantity) values (:machineId, :productId, :quantity) " +
+            "on conflict (machineId, productId) do update set quantity = excluded.quantity")
+    int upsertQuantity(@Param("machineId") String machineId, @Param("productId") Integer productId, @Param("quantity") int quantity);
+
+    /**
+     * Removes the product from the machine.
+     *
+     * @return the number of deleted rows, either 0 or 1.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from MachineStock s where s.machineId = :machineId and s.productId = :productId")
+    int deleteStock(@Param("machineId") String machineId, @Param("productId") Integer productId);
+}
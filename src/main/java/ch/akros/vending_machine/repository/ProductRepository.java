@@ -1,10 +1,62 @@
 package ch.akros.vending_machine.repository;
 
 import ch.akros.vending_machine.domain.Product;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
 @Repository
-public interface ProductRepository extends JpaRepository<Product, Integer> {
+public interface ProductRepository extends JpaRepository<Product, Integer>, ProductRestockRepository {
     Product findByProductName(String productName);
+
+    List<Product> findAllByProductNameIn(Collection<String> productNames);
+
+    /**
+     * Loads a keyset page of the products ordered by id.
+     *
+     * @param after the last product id of the previous page, 0 for the first page.
+     * @param limit the maximum number of products.
+     * @return the products after the cursor.
+     */
+    List<Product> findByProductIdGreaterThanOrderByProductIdAsc(Integer after, Limit limit);
+
+    @Query("select coalesce(max(p.productId), 0) from Product p")
+    int findMaxProductId();
+
+    /**
+     * Loads and write-locks the products with the given ids or lower-case names in id order.
+     *
+     * @param productIds   the ids of the products to lock.
+     * @param productNames the names of the products to lock, in lower case.
+     * @return the found products ordered by id.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Product p where p.productId in :productIds or lower(p.productName) in :productNames order by p.productId")
+    List<Product> findAllByIdOrNameForUpdate(@Param("productIds") Collection<Integer> productIds,
+                                             @Param("productNames") Collection<String> productNames);
+
+    /**
+     * Streams all products ordered by id from a database cursor. Must be consumed inside a
+     * transaction and closed afterwards.
+     *
+     * @return the products ordered by id.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")
+    })
+    Stream<Product> streamAllByOrderByProductIdAsc();
 }
@@ -0,0 +1,32 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.Product;
+
+/**
+ * Restocks products by name without loading them first.
+ */
+public interface ProductRestockRepository {
+
+    /**
+     * Adds one unit of the product with the given name to the machine, creating the product in the
+     * catalog if necessary, in one transaction. Names are compared case-insensitively, so
+     * {@code cola} restocks {@code Cola}. The price of an existing product is replaced with the
+     * given one and its version is raised. Must not be called within a transaction, which would be
+     * marked for rollback if the machine is full.
+     *
+     * @param machineId    the machine that is restocked.
+     * @param productName  the name of the product.
+     * @param productPrice the price of the product.
+     * @param maxQuantity  the number of units the machine may hold of a product at most.
+     * @return the product with the stock of the machine after the restock, or {@code null} if the
+     * machine already holds {@code maxQuantity} units.
+     */
+    Restock restock(String machineId, String productName, Integer productPrice, int maxQuantity);
+
+    /**
+     * @param product the product as stored after the restock.
+     * @param created whether the product was created by the restock.
+     */
+    record Restock(Product product, boolean created) {
+    }
+}
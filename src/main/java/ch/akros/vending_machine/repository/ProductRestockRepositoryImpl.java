@@ -0,0 +1,151 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the restock as two {@code INSERT ... ON CONFLICT DO UPDATE} statements on PostgreSQL, one on
+ * the catalog and one on the stock of the local machine, and as two {@code MERGE ... USING} on H2.
+ * The catalog upsert is arbitrated by a unique index on {@code lower(productName)} that is created
+ * at startup, so concurrent restocks of a new product end up in one row instead of failing on the
+ * unique name constraint. Both statements run in one transaction, which is rolled back if the
+ * machine is full, so a refused restock does not change the price either. Column names are taken
+ * from the Hibernate mapping, so the statements follow the configured naming strategy.
+ * <p>
+ * Ids come from the Hibernate id generator of {@link Product} and so from the same blocks as
+ * inserted entities. An id that was not needed because the product existed is used for the next
+ * restock.
+ */
+class ProductRestockRepositoryImpl implements ProductRestockRepository {
+
+  private static final Logger log = LoggerFactory.getLogger(ProductRestockRepositoryImpl.class);
+  private static final String POSTGRES = "PostgreSQL";
+  private static final String H2 = "H2";
+  private static final String NAME_INDEX = "_product_name_lower_key";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final SessionFactoryImplementor sessionFactory;
+  private final AtomicReference<Integer> spareId = new AtomicReference<>();
+  private IdentifierGenerator idGenerator;
+  private RowMapper<Product> rowMapper;
+  private String productSql;
+  private String stockSql;
+
+  ProductRestockRepositoryImpl(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                               EntityManagerFactory entityManagerFactory) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+  }
+
+  @PostConstruct
+  void prepare() {
+    var persister = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(Product.class);
+    var stocks = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(MachineStock.class);
+    idGenerator = (IdentifierGenerator) persister.getGenerator();
+    String table = persister.getTableName();
+    String id = persister.getIdentifierColumnNames()[0];
+    String name = persister.getPropertyColumnNames("productName")[0];
+    String price = persister.getPropertyColumnNames("productPrice")[0];
+    String version = persister.getPropertyColumnNames("version")[0];
+    rowMapper = (rs, row) -> new Product(rs.getInt(id), rs.getString(name), rs.getInt(price), null, rs.getLong(version));
+    String stockTable = stocks.getTableName();
+    String machineId = stocks.getPropertyColumnNames("machineId")[0];
+    String productId = stocks.getPropertyColumnNames("productId")[0];
+    String quantity = stocks.getPropertyColumnNames("quantity")[0];
+
+    String database = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+    if (POSTGRES.equals(database)) {
+      String conflictTarget = "(lower(" + name + "))";
+      try {
+        jdbcTemplate.execute("create unique index if not exists " + NAME_INDEX + " on " + table + " " + conflictTarget);
+      } catch (DataAccessException e) {
+        log.warn("Cannot create unique index {} on lower({}), restocks match names case-sensitively: {}", NAME_INDEX, name, e.getMessage());
+        conflictTarget = "(" + name + ")";
+      }
+      productSql = "insert into " + table + " as p (" + id + ", " + name + ", " + price + ", " + version + ") "
+              + "values (?, ?, ?, 0) "
+              + "on conflict " + conflictTarget + " do update set "
+              + price + " = excluded." + price + ", " + version + " = p." + version + " + 1 "
+              + "returning " + id + ", " + name + ", " + price + ", " + version;
+      stockSql = "insert into " + stockTable + " as s (" + machineId + ", " + productId + ", " + quantity + ") "
+              + "values (?, ?, 1) "
+              + "on conflict (" + machineId + ", " + productId + ") do update set " + quantity + " = s." + quantity + " + 1 "
+              + "where s." + quantity + " < ? "
+              + "returning " + quantity;
+    } else if (H2.equals(database)) {
+      // H2 has no expression indexes, so the lookup by name scans the table here.
+      productSql = "select " + id + ", " + name + ", " + price + ", " + version + " from final table ("
+              + "merge into " + table + " p using (values (cast(? as integer), cast(? as varchar), cast(? as integer))) s (id, name, price) "
+              + "on lower(p." + name + ") = lower(s.name) "
+              + "when matched then update set " + price + " = s.price, " + version + " = p." + version + " + 1 "
+              + "when not matched then insert (" + id + ", " + name + ", " + price + ", " + version + ") "
+              + "values (s.id, s.name, s.price, 0))";
+      stockSql = "select " + quantity + " from final table ("
+              + "merge into " + stockTable + " s using (values (cast(? as varchar), cast(? as integer))) v (machine_id, product_id) "
+              + "on s." + machineId + " = v.machine_id and s." + productId + " = v.product_id "
+              + "when matched and s." + quantity + " < ? then update set " + quantity + " = s." + quantity + " + 1 "
+              + "when not matched then insert (" + machineId + ", " + productId + ", " + quantity + ") "
+              + "values (v.machine_id, v.product_id, 1))";
+    } else {
+      throw new IllegalStateException("Restocks are not supported on " + database);
+    }
+  }
+
+  @Override
+  public Restock restock(String machineId, String productName, Integer productPrice, int maxQuantity) {
+    Integer id = nextId();
+    var restock = transactionTemplate.execute(status -> {
+      Product product;
+      try {
+        product = upsert(id, productName, productPrice);
+      } catch (DuplicateKeyException e) {
+        // Only H2 gets here, when a concurrent restock inserted the same name first.
+        product = upsert(id, productName, productPrice);
+      }
+      var quantities = jdbcTemplate.queryForList(stockSql, Integer.class, machineId, product.getProductId(), maxQuantity);
+      if (quantities.isEmpty()) {
+        status.setRollbackOnly();
+        return null;
+      }
+      product.setQuantity(quantities.get(0));
+      return new Restock(product, product.getVersion() == 0);
+    });
+    if (restock == null || !id.equals(restock.product().getProductId())) {
+      spareId.compareAndSet(null, id);
+    }
+    return restock;
+  }
+
+  private Product upsert(Integer id, String productName, Integer productPrice) {
+    return jdbcTemplate.queryForObject(productSql, rowMapper, id, productName, productPrice);
+  }
+
+  private Integer nextId() {
+    Integer id = spareId.getAndSet(null);
+    if (id != null) {
+      return id;
+    }
+    try (var session = sessionFactory.openStatelessSession()) {
+      return (Integer) idGenerator.generate((SharedSessionContractImplementor) session, null);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package ch.akros.vending_machine.repository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import static ch.akros.vending_machine.domain.Product.ID_ALLOCATION_SIZE;
+import static ch.akros.vending_machine.domain.Product.ID_SEQUENCE;
+
+/**
+ * Product ids used to come from an identity column and are now allocated from a sequence in
+ * blocks of {@link ch.akros.vending_machine.domain.Product#ID_ALLOCATION_SIZE}, which lets
+ * Hibernate batch inserts. On PostgreSQL the sequence is moved past the highest existing id
+ * at startup, so rows created before the switch are never handed out again. The sequence is
+ * never moved backwards.
+ */
+@Component
+@RequiredArgsConstructor
+public class ProductSequenceInitializer {
+
+  private static final Logger log = LoggerFactory.getLogger(ProductSequenceInitializer.class);
+  private static final String POSTGRES = "PostgreSQL";
+
+  private final ProductRepository productRepository;
+  private final JdbcTemplate jdbcTemplate;
+
+  @PostConstruct
+  void alignSequence() {
+    String database = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+    if (!POSTGRES.equals(database)) {
+      return;
+    }
+    long floor = (long) productRepository.findMaxProductId() + ID_ALLOCATION_SIZE;
+    Long value = jdbcTemplate.queryForObject(
+            "select setval('" + ID_SEQUENCE + "', greatest(?, (select last_value from " + ID_SEQUENCE + ")))",
+            Long.class, floor);
+    log.info("Product id sequence {} is at {}", ID_SEQUENCE, value);
+  }
+}
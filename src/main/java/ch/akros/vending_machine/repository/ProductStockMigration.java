@@ -0,0 +1,76 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+
+/**
+ * The stock used to be a quantity column of the product table and is now kept per machine in
+ * {@link MachineStock}. Schema updates never drop the old column, so at startup its values are
+ * copied into the stock of {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID}
+ * and the column is dropped in the same transaction. A product the machine already stocks keeps
+ * that stock. Once the column is gone this is a single metadata lookup.
+ */
+@Component
+public class ProductStockMigration {
+
+  private static final Logger log = LoggerFactory.getLogger(ProductStockMigration.class);
+  private static final String POSTGRES = "PostgreSQL";
+  private static final String LEGACY_COLUMN = "quantity";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final SessionFactoryImplementor sessionFactory;
+
+  public ProductStockMigration(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                               EntityManagerFactory entityManagerFactory) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+  }
+
+  @PostConstruct
+  void migrate() {
+    var products = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(Product.class);
+    var stocks = (AbstractEntityPersister) sessionFactory.getMappingMetamodel().getEntityDescriptor(MachineStock.class);
+    String table = products.getTableName();
+    String id = products.getIdentifierColumnNames()[0];
+    String stockTable = stocks.getTableName();
+    String machineId = stocks.getPropertyColumnNames("machineId")[0];
+    String productId = stocks.getPropertyColumnNames("productId")[0];
+    String quantity = stocks.getPropertyColumnNames("quantity")[0];
+    String database = jdbcTemplate.execute((ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+
+    transactionTemplate.executeWithoutResult(status -> {
+      if (POSTGRES.equals(database)) {
+        // Instances starting together migrate once; the others find the column gone.
+        jdbcTemplate.queryForObject("select pg_advisory_xact_lock(hashtext(?))", Object.class, table + "." + LEGACY_COLUMN);
+      }
+      Integer columns = jdbcTemplate.queryForObject("select count(*) from information_schema.columns "
+              + "where table_schema = current_schema() and lower(table_name) = lower(?) and lower(column_name) = ?",
+              Integer.class, table, LEGACY_COLUMN);
+      if (columns == null || columns == 0) {
+        return;
+      }
+      int copied = jdbcTemplate.update("insert into " + stockTable + " (" + machineId + ", " + productId + ", " + quantity + ") "
+              + "select ?, p." + id + ", p." + LEGACY_COLUMN + " from " + table + " p "
+              + "where p." + LEGACY_COLUMN + " is not null and not exists (select 1 from " + stockTable + " s "
+              + "where s." + machineId + " = ? and s." + productId + " = p." + id + ")", LOCAL_MACHINE_ID, LOCAL_MACHINE_ID);
+      jdbcTemplate.execute("alter table " + table + " drop column " + LEGACY_COLUMN);
+      log.info("Copied the stock of {} product(s) from {}.{} to machine {} and dropped the column",
+              copied, table, LEGACY_COLUMN, LOCAL_MACHINE_ID);
+    });
+  }
+}
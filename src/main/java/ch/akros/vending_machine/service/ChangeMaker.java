@@ -0,0 +1,158 @@
+package ch.akros.vending_machine.service;
+
+import java.util.Arrays;
+
+/**
+ * Immutable change table for one coin stock. For every amount up to the table limit it holds the
+ * smallest number of coins the stock can pay the amount with, and how many coins of each
+ * denomination that takes. Whether an amount can be returned is an array read; a change plan is
+ * read back in one step per denomination. Both run in constant time and do not allocate.
+ */
+public final class ChangeMaker {
+
+  private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private final int[] denominations;
+  private final int[] stock;
+  private final int unit;
+  private final int limit;
+  private final int[] coins;
+  private final int[][] used;
+
+  private ChangeMaker(int[] denominations, int[] stock, int maxChange) {
+    this.denominations = denominations;
+    this.stock = stock;
+    this.unit = gcd(denominations);
+    long total = 0;
+    for (int i = 0; i < denominations.length; i++) {
+      total += (long) denominations[i] * stock[i];
+    }
+    this.limit = (int) (Math.min(total, maxChange) / unit);
+    this.used = new int[denominations.length][limit + 1];
+    this.coins = build();
+  }
+
+  /**
+   * @param denominations the coin values in ascending order.
+   * @param stock         the number of coins per denomination, in the same order.
+   * @param maxChange     the largest amount the table covers.
+   * @return the change table for the stock.
+   */
+  public static ChangeMaker of(int[] denominations, int[] stock, int maxChange) {
+    if (denominations.length != stock.length) {
+      throw new IllegalArgumentException("Expected " + denominations.length + " coin counts, got " + stock.length);
+    }
+    return new ChangeMaker(denominations.clone(), stock.clone(), maxChange);
+  }
+
+  /**
+   * Bounded coin change, one denomination at a time. For a denomination of {@code step} units the
+   * amounts {@code r, r + step, r + 2 * step, ...} are a chain in which taking {@code k} coins
+   * moves {@code k} positions back; the cheapest predecessor within the last {@code stock}
+   * positions is kept in a monotonic queue, which makes every pass linear in the table size.
+   */
+  private int[] build() {
+    var best = new int[limit + 1];
+    Arrays.fill(best, UNREACHABLE);
+    best[0] = 0;
+    var next = new int[limit + 1];
+    var queue = new int[limit + 1];
+    for (int i = 0; i < denominations.length; i++) {
+      int step = denominations[i] / unit;
+      int available = stock[i];
+      for (int residue = 0; residue < step && residue <= limit; residue++) {
+        int head = 0;
+        int tail = 0;
+        for (int j = 0, amount = residue; amount <= limit; j++, amount += step) {
+          if (best[amount] != UNREACHABLE) {
+            int key = best[amount] - j;
+            while (tail > head && best[residue + queue[tail - 1] * step] - queue[tail - 1] >= key) {
+              tail--;
+            }
+            queue[tail++] = j;
+          }
+          while (tail > head && j - queue[head] > available) {
+            head++;
+          }
+          if (tail > head) {
+            int from = queue[head];
+            next[amount] = best[residue + from * step] + j - from;
+            used[i][amount] = j - from;
+          } else {
+            next[amount] = UNREACHABLE;
+            used[i][amount] = 0;
+          }
+        }
+      }
+      var swap = best;
+      best = next;
+      next = swap;
+    }
+    return best;
+  }
+
+  /**
+   * @param amount the change to return.
+   * @return whether the stock can pay exactly this amount.
+   */
+  public boolean canChange(int amount) {
+    if (amount < 0 || amount % unit != 0 || amount / unit > limit) {
+      return false;
+    }
+    return coins[amount / unit] != UNREACHABLE;
+  }
+
+  /**
+   * Writes the coins that pay the amount with as few coins as possible.
+   *
+   * @param amount the change to return.
+   * @param plan   receives the number of coins per denomination, same order as the denominations.
+   * @return {@code false}, leaving {@code plan} untouched, if the stock cannot pay the amount.
+   */
+  public boolean plan(int amount, int[] plan) {
+    if (!canChange(amount)) {
+      return false;
+    }
+    int rest = amount / unit;
+    for (int i = denominations.length - 1; i >= 0; i--) {
+      int count = used[i][rest];
+      plan[i] = count;
+      rest -= count * (denominations[i] / unit);
+    }
+    return true;
+  }
+
+  /**
+   * @return the change table after adding {@code added} and removing {@code removed} coins.
+   */
+  public ChangeMaker with(int[] added, int[] removed, int maxChange) {
+    var changed = stock.clone();
+    for (int i = 0; i < changed.length; i++) {
+      changed[i] = Math.max(0, changed[i] + added[i] - removed[i]);
+    }
+    return new ChangeMaker(denominations, changed, maxChange);
+  }
+
+  /**
+   * @param index the position of the denomination.
+   * @return the number of coins of that denomination.
+   */
+  public int stock(int index) {
+    return stock[index];
+  }
+
+  private static int gcd(int[] values) {
+    int result = 0;
+    for (int value : values) {
+      int a = result;
+      int b = value;
+      while (b != 0) {
+        int t = a % b;
+        a = b;
+        b = t;
+      }
+      result = a;
+    }
+    return Math.max(result, 1);
+  }
+}
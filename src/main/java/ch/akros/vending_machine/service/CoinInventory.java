@@ -0,0 +1,318 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.Coin;
+import ch.akros.vending_machine.repository.CoinRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static ch.akros.vending_machine.service.TransactionCallbacks.afterCommit;
+import static ch.akros.vending_machine.service.TransactionCallbacks.afterRollback;
+
+/**
+ * Coins the machine holds per denomination. The database is the source of truth; the
+ * {@link ChangeMaker} built from the last known stock answers whether change can be returned
+ * without a query. Dispensing the change is a conditional update that joins the purchase
+ * transaction, so it commits or rolls back together with the product stock.
+ * <p>
+ * A purchase without change does not touch the coin table, which every purchase would otherwise
+ * wait on. Its inserted coins are counted in memory once it has committed and added to the table
+ * every {@code coins.flush-interval}, one update per denomination for all purchases since the
+ * last flush. A purchase that pays change writes the coins counted so far in its own transaction
+ * first, so the table holds every coin the change table offers. The coins of the last flush
+ * interval are not in the table if the instance crashes; the next refill count corrects them.
+ * <p>
+ * Committed coin changes are not applied to the change table one by one. They are summed up in a
+ * pending delta, and whichever thread gets the rebuild lock first rebuilds the table once for all
+ * changes collected so far, so concurrent purchases cost one rebuild between them instead of one
+ * per purchase and retry.
+ */
+@Component
+public class CoinInventory {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CoinInventory.class);
+  private static final int[] DENOMINATIONS = {10, 20, 50, 100, 200};
+  private static final int[] INDEX = new int[DENOMINATIONS[DENOMINATIONS.length - 1] + 1];
+  private static final int[] NONE = new int[DENOMINATIONS.length];
+
+  static {
+    Arrays.fill(INDEX, -1);
+    for (int i = 0; i < DENOMINATIONS.length; i++) {
+      INDEX[DENOMINATIONS[i]] = i;
+    }
+  }
+
+  private final CoinRepository coinRepository;
+  private final int maxChange;
+  private final AtomicReference<ChangeMaker> current = new AtomicReference<>();
+  private final AtomicIntegerArray pending = new AtomicIntegerArray(DENOMINATIONS.length);
+  private final AtomicIntegerArray unwritten = new AtomicIntegerArray(DENOMINATIONS.length);
+  private final ReentrantLock rebuild = new ReentrantLock();
+
+  public CoinInventory(CoinRepository coinRepository,
+                       @Value("${coins.max-change:10000}") int maxChange) {
+    this.coinRepository = coinRepository;
+    this.maxChange = maxChange;
+  }
+
+  /**
+   * @return the number of denominations the machine returns as change.
+   */
+  public static int denominations() {
+    return DENOMINATIONS.length;
+  }
+
+  /**
+   * @param coin the coin value.
+   * @return the position of the denomination, or -1 if the machine does not keep such coins.
+   */
+  public static int index(int coin) {
+    return coin >= 0 && coin < INDEX.length ? INDEX[coin] : -1;
+  }
+
+  /**
+   * @param index the position of the denomination.
+   * @return the coin value.
+   */
+  public static int denomination(int index) {
+    return DENOMINATIONS[index];
+  }
+
+  /**
+   * @return the change table of the last known stock.
+   */
+  public ChangeMaker changeMaker() {
+    var changeMaker = current.get();
+    return changeMaker != null ? changeMaker : refresh();
+  }
+
+  /**
+   * @param amount the change to return.
+   * @return whether the last known stock can pay the amount.
+   */
+  public boolean canChange(int amount) {
+    return changeMaker().canChange(amount);
+  }
+
+  /**
+   * Collects the inserted coins and dispenses the change. Without change the coins are written by
+   * the next {@link #flush()}; with change they are written within the current transaction.
+   *
+   * @param inserted the inserted coins per denomination.
+   * @param change   the amount to return.
+   * @param plan     receives the dispensed coins per denomination.
+   * @return {@code false} if the change cannot be paid; the caller has to roll back.
+   */
+  public boolean collect(int[] inserted, int change, int[] plan) {
+    var delta = inserted.clone();
+    if (change <= 0) {
+      afterCommit(() -> {
+        unwrite(inserted);
+        changed(delta);
+      });
+      return true;
+    }
+    if (!changeMaker().plan(change, plan)) {
+      return false;
+    }
+    var taken = new int[DENOMINATIONS.length];
+    for (int i = 0; i < taken.length; i++) {
+      taken[i] = unwritten.getAndSet(i, 0);
+    }
+    afterRollback(() -> unwrite(taken));
+    for (int i = 0; i < inserted.length; i++) {
+      if (inserted[i] + taken[i] > 0) {
+        coinRepository.addCoins(DENOMINATIONS[i], inserted[i] + taken[i]);
+      }
+    }
+    for (int i = 0; i < plan.length; i++) {
+      if (plan[i] > 0 && coinRepository.dispenseCoins(DENOMINATIONS[i], plan[i]) == 0) {
+        return false;
+      }
+      delta[i] -= plan[i];
+    }
+    afterCommit(() -> changed(delta));
+    return true;
+  }
+
+  /**
+   * Adds the coins collected since the last flush to the coin table. A denomination whose update
+   * fails is kept for the next flush.
+   *
+   * @return the number of written coins, or -1 if an update failed and will be retried.
+   */
+  @Scheduled(fixedDelayString = "${coins.flush-interval:1s}", initialDelayString = "${coins.flush-interval:1s}")
+  public int flush() {
+    int written = 0;
+    for (int i = 0; i < DENOMINATIONS.length; i++) {
+      int count = unwritten.getAndSet(i, 0);
+      if (count == 0) {
+        continue;
+      }
+      try {
+        if (coinRepository.addCoins(DENOMINATIONS[i], count) == 0) {
+          throw new IllegalStateException("no coin row for " + DENOMINATIONS[i]);
+        }
+      } catch (RuntimeException e) {
+        unwritten.addAndGet(i, count);
+        LOGGER.warn("Could not write {} coin(s) of {}, retrying with the next flush: {}", count, DENOMINATIONS[i], e.getMessage());
+        return -1;
+      }
+      written += count;
+    }
+    return written;
+  }
+
+  @PreDestroy
+  public void stop() {
+    flush();
+  }
+
+  private void unwrite(int[] coins) {
+    for (int i = 0; i < coins.length; i++) {
+      if (coins[i] != 0) {
+        unwritten.addAndGet(i, coins[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds committed coin changes to the pending delta and rebuilds the change table unless another
+   * thread is rebuilding it already; that thread picks the delta up before it lets go of the lock.
+   */
+  private void changed(int[] delta) {
+    for (int i = 0; i < delta.length; i++) {
+      if (delta[i] != 0) {
+        pending.addAndGet(i, delta[i]);
+      }
+    }
+    while (hasPending() && rebuild.tryLock()) {
+      try {
+        var collected = new int[DENOMINATIONS.length];
+        for (int i = 0; i < collected.length; i++) {
+          collected[i] = pending.getAndSet(i, 0);
+        }
+        var changeMaker = current.get();
+        if (changeMaker != null) {
+          current.set(changeMaker.with(collected, NONE, maxChange));
+        }
+      } finally {
+        rebuild.unlock();
+      }
+    }
+  }
+
+  private boolean hasPending() {
+    for (int i = 0; i < pending.length(); i++) {
+      if (pending.get(i) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds coins to the stock, e.g. when the machine is refilled.
+   *
+   * @param coins the number of added coins per denomination.
+   * @return the stock after the refill.
+   */
+  public Map<Integer, Integer> refill(Map<Integer, Integer> coins) {
+    changeMaker();
+    var added = new int[DENOMINATIONS.length];
+    coins.forEach((denomination, count) -> {
+      int index = index(denomination);
+      if (index < 0 || count == null || count < 0) {
+        throw new IllegalArgumentException("Cannot add " + count + " coin(s) of " + denomination);
+      }
+      added[index] += count;
+    });
+    for (int i = 0; i < added.length; i++) {
+      if (added[i] > 0) {
+        coinRepository.addCoins(DENOMINATIONS[i], added[i]);
+      }
+    }
+    return stock(refresh());
+  }
+
+  /**
+   * @return the last known stock per denomination.
+   */
+  public Map<Integer, Integer> stock() {
+    return stock(changeMaker());
+  }
+
+  /**
+   * Reloads the stock from the database and creates the rows of denominations seen for the
+   * first time.
+   *
+   * @return the change table of the reloaded stock.
+   */
+  @Scheduled(fixedDelayString = "${coins.refresh-interval:30s}", initialDelayString = "${coins.refresh-interval:30s}")
+  public ChangeMaker refresh() {
+    var stock = new int[DENOMINATIONS.length];
+    var known = new boolean[DENOMINATIONS.length];
+    for (Coin coin : coinRepository.findAll()) {
+      int index = index(coin.getDenomination());
+      if (index >= 0) {
+        stock[index] = coin.getQuantity() == null ? 0 : coin.getQuantity();
+        known[index] = true;
+      }
+    }
+    for (int i = 0; i < stock.length; i++) {
+      stock[i] += unwritten.get(i);
+    }
+    List<Coin> missing = new ArrayList<>();
+    for (int i = 0; i < DENOMINATIONS.length; i++) {
+      if (!known[i]) {
+        missing.add(new Coin(DENOMINATIONS[i], 0));
+      }
+    }
+    if (!missing.isEmpty()) {
+      coinRepository.saveAll(missing);
+    }
+    var changeMaker = ChangeMaker.of(DENOMINATIONS, stock, maxChange);
+    rebuild.lock();
+    try {
+      current.set(changeMaker);
+    } finally {
+      rebuild.unlock();
+    }
+    return changeMaker;
+  }
+
+  /**
+   * @param plan coins per denomination.
+   * @return the non-empty denominations and their coin count, in ascending order.
+   */
+  public static Map<Integer, Integer> coins(int[] plan) {
+    Map<Integer, Integer> coins = new LinkedHashMap<>();
+    for (int i = 0; i < plan.length; i++) {
+      if (plan[i] > 0) {
+        coins.put(DENOMINATIONS[i], plan[i]);
+      }
+    }
+    return Collections.unmodifiableMap(coins);
+  }
+
+  private static Map<Integer, Integer> stock(ChangeMaker changeMaker) {
+    Map<Integer, Integer> stock = new LinkedHashMap<>();
+    for (int i = 0; i < DENOMINATIONS.length; i++) {
+      stock.put(DENOMINATIONS[i], changeMaker.stock(i));
+    }
+    return Collections.unmodifiableMap(stock);
+  }
+}
@@ -1,31 +1,141 @@
 package ch.akros.vending_machine.service;
 
+import ch.akros.vending_machine.domain.MachineStock;
 import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.repository.MachineStockRepository;
 import ch.akros.vending_machine.repository.ProductRepository;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
 
 @Component
 @RequiredArgsConstructor
-public class DataLoader {
+public class DataLoader implements ApplicationRunner {
+
+  private static final Logger log = LoggerFactory.getLogger(DataLoader.class);
 
   @Value("${data.file}")
   private String fileName;
 
+  @Value("${data.import.chunk-size:500}")
+  private int chunkSize;
+
+  @Value("${data.import.on-startup:false}")
+  private boolean importOnStartup;
+
   private final ObjectMapper objectMapper;
   private final ProductRepository repository;
+  private final TransactionTemplate transactionTemplate;
+  private final StockLedger stockLedger;
+  private final MachineStockRepository machineStockRepository;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public void run(ApplicationArguments args) throws IOException {
+    if (importOnStartup) {
+      load();
+    }
+  }
 
-  public void load() throws IOException {
-    try(InputStream in = TypeReference.class.getResourceAsStream(fileName)) {
-      repository.saveAll(objectMapper.readValue(in, new TypeReference<List<Product>>() {}));
+  public long load() throws IOException {
+    try (InputStream in = new ClassPathResource(fileName).getInputStream()) {
+      return load(in);
     }
   }
 
+  /**
+   * Imports a JSON array of products. The array is parsed element by element and written in
+   * chunks of {@code data.import.chunk-size} products, one transaction and one JDBC batch per
+   * chunk, so memory stays bounded by the chunk size whatever the size of the file. Products
+   * are matched by name: known products are updated, unknown ones are inserted. The quantities
+   * are the stock of {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID}.
+   *
+   * @param in the JSON array of products.
+   * @return the number of imported products.
+   * @throws IOException if the input is not a JSON array of products.
+   */
+  public long load(InputStream in) throws IOException {
+    long start = System.nanoTime();
+    long rows = 0;
+    List<Product> chunk = new ArrayList<>(chunkSize);
+    try (JsonParser parser = objectMapper.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new IOException("Expected a JSON array of products in " + fileName);
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        chunk.add(parser.readValueAs(Product.class));
+        if (chunk.size() == chunkSize) {
+          rows += write(chunk);
+          chunk.clear();
+        }
+      }
+    }
+    rows += write(chunk);
+
+    long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+    log.info("Imported {} products in {} ms ({} rows/s)", rows, millis, rows * 1000 / millis);
+    return rows;
+  }
+
+  private int write(List<Product> chunk) {
+    if (chunk.isEmpty()) {
+      return 0;
+    }
+    Map<String, Product> known = new HashMap<>();
+    Map<Integer, MachineStock> stocks = new HashMap<>();
+    transactionTemplate.executeWithoutResult(status -> {
+      repository.findAllByProductNameIn(chunk.stream().map(Product::getProductName).toList())
+              .forEach(product -> known.put(product.getProductName(), product));
+      if (!known.isEmpty()) {
+        machineStockRepository.findAllForUpdate(LOCAL_MACHINE_ID, known.values().stream().map(Product::getProductId).toList())
+                .forEach(stock -> stocks.put(stock.getProductId(), stock));
+      }
+      for (Product product : chunk) {
+        Product current = known.get(product.getProductName());
+        if (current == null) {
+          product.setProductId(null);
+          entityManager.persist(product);
+          known.put(product.getProductName(), product);
+          current = product;
+        } else {
+          current.setProductPrice(product.getProductPrice());
+          current.setQuantity(product.getQuantity());
+        }
+        var stock = stocks.get(current.getProductId());
+        if (stock != null) {
+          stock.setQuantity(product.getQuantity() == null ? 0 : product.getQuantity());
+        } else if (product.getQuantity() != null) {
+          stock = new MachineStock(LOCAL_MACHINE_ID, current.getProductId(), product.getQuantity(), current);
+          entityManager.persist(stock);
+          stocks.put(current.getProductId(), stock);
+        }
+      }
+      entityManager.flush();
+      entityManager.clear();
+    });
+    known.values().forEach(product -> stockLedger.stored(product.getProductId(), product.getQuantity() == null ? 0 : product.getQuantity()));
+    return chunk.size();
+  }
 }
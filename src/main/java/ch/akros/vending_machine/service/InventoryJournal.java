@@ -0,0 +1,321 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.InventoryEvent;
+import ch.akros.vending_machine.domain.InventoryJournalPosition;
+import ch.akros.vending_machine.domain.InventorySnapshot;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.InventoryEventDTO;
+import ch.akros.vending_machine.repository.InventoryEventRepository;
+import ch.akros.vending_machine.repository.InventoryJournalPositionRepository;
+import ch.akros.vending_machine.repository.InventorySnapshotRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static ch.akros.vending_machine.service.ReplicaReads.Consistency.INSTANCE;
+
+/**
+ * Append-only journal of inventory changes, enabled with {@code journal.enabled}. Every purchase,
+ * restock, update and delete of a product becomes an {@link InventoryEvent}, inserted in the
+ * transaction of the change, or in a transaction of its own when there is none. An event is
+ * therefore in the database before the change is acknowledged, and a rolled back change leaves
+ * no event.
+ * <p>
+ * Event ids come from a pooled sequence, so they are not in commit order. Every
+ * {@code journal.sequence-interval} the committed events are given consecutive log positions, in
+ * batches of {@code journal.sequence-batch-size}, under the write lock of the single
+ * {@link InventoryJournalPosition} row. An event that commits late gets a later position, so the
+ * journal is replayed by position and never skips it.
+ * <p>
+ * Every {@code journal.snapshot-interval} the state of all products is rebuilt from the last
+ * {@link InventorySnapshot} and the events positioned after it, and stored as the new snapshot.
+ * Rebuilding therefore only replays the events since the last snapshot.
+ * <p>
+ * Changes made by an import or directly in the database are not journaled. {@link #reconcile()}
+ * journals such differences as {@link InventoryEvent.Type#RECONCILED} events. It reads every
+ * product while purchases go on, so two instances reconciling at the same time journal the same
+ * difference twice. It therefore only runs at startup with {@code journal.reconcile-on-startup},
+ * which should be set on a single instance.
+ */
+@Component
+public class InventoryJournal {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(InventoryJournal.class);
+
+  private final InventoryEventRepository eventRepository;
+  private final InventorySnapshotRepository snapshotRepository;
+  private final InventoryJournalPositionRepository positionRepository;
+  private final ProductRepository productRepository;
+  private final StockLedger stockLedger;
+  private final TransactionTemplate transactionTemplate;
+  private final boolean enabled;
+  private final boolean reconcileOnStartup;
+  private final int sequenceBatchSize;
+  private final Timer sequenced;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  public InventoryJournal(InventoryEventRepository eventRepository,
+                          InventorySnapshotRepository snapshotRepository,
+                          InventoryJournalPositionRepository positionRepository,
+                          ProductRepository productRepository,
+                          StockLedger stockLedger,
+                          TransactionTemplate transactionTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${journal.enabled:true}") boolean enabled,
+                          @Value("${journal.reconcile-on-startup:false}") boolean reconcileOnStartup,
+                          @Value("${journal.sequence-batch-size:500}") int sequenceBatchSize) {
+    this.eventRepository = eventRepository;
+    this.snapshotRepository = snapshotRepository;
+    this.positionRepository = positionRepository;
+    this.productRepository = productRepository;
+    this.stockLedger = stockLedger;
+    this.transactionTemplate = transactionTemplate;
+    this.enabled = enabled;
+    this.reconcileOnStartup = reconcileOnStartup;
+    this.sequenceBatchSize = sequenceBatchSize;
+    this.sequenced = Timer.builder("vending.journal.sequence")
+            .description("Duration of assigning log positions to one batch of inventory events")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  /**
+   * Journals a change in the surrounding transaction, or in a new one when there is none.
+   *
+   * @param type          the kind of change.
+   * @param productId     the changed product.
+   * @param quantityDelta the number of units added, negative if units were taken.
+   * @param productName   the name after the change, {@code null} if it did not change.
+   * @param productPrice  the price after the change, {@code null} if it did not change.
+   */
+  public void record(InventoryEvent.Type type, Integer productId, int quantityDelta, String productName, Integer productPrice) {
+    if (!enabled || productId == null) {
+      return;
+    }
+    var event = new InventoryEvent(null, productId, type, quantityDelta, productName, productPrice, Instant.now(), null);
+    transactionTemplate.executeWithoutResult(status -> eventRepository.save(event));
+  }
+
+  /**
+   * Gives the committed events without a log position the next positions, in batches of one
+   * transaction each. Events of transactions still running are positioned by a later run.
+   *
+   * @return the number of positioned events, or -1 if the position row could not be created and
+   * will be created with the next run.
+   */
+  @Scheduled(fixedDelayString = "${journal.sequence-interval:200ms}", initialDelayString = "${journal.sequence-interval:200ms}")
+  public int sequence() {
+    if (!enabled) {
+      return 0;
+    }
+    int positioned = 0;
+    int batch;
+    try {
+      do {
+        long start = System.nanoTime();
+        batch = transactionTemplate.execute(status -> assign(lockPosition()));
+        sequenced.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        positioned += batch;
+      } while (batch == sequenceBatchSize);
+    } catch (DataIntegrityViolationException e) {
+      LOGGER.warn("Could not create the inventory journal position, retrying with the next run: {}", e.getMessage());
+      return -1;
+    }
+    return positioned;
+  }
+
+  /**
+   * Replaces the snapshot with the state rebuilt from it and the events journaled since.
+   *
+   * @return the number of products in the new snapshot, or -1 if there was nothing to replay.
+   */
+  @Scheduled(fixedDelayString = "${journal.snapshot-interval:10m}", initialDelayString = "${journal.snapshot-interval:10m}")
+  public int snapshot() {
+    if (!enabled) {
+      return -1;
+    }
+    return transactionTemplate.execute(status -> {
+      var replayed = sequenceAndReplay();
+      var state = replayed.products();
+      if (replayed.lastPosition() == replayed.snapshotPosition()) {
+        return -1;
+      }
+      state.values().forEach(snapshot -> snapshot.setLogPosition(replayed.lastPosition()));
+      snapshotRepository.deleteAllInBatch();
+      snapshotRepository.saveAll(state.values());
+      LOGGER.info("Stored the inventory snapshot of {} product(s) up to log position {}", state.size(), replayed.lastPosition());
+      return state.size();
+    });
+  }
+
+  /**
+   * Rebuilds the inventory from the snapshot and the journaled events after it. Stock changes are
+   * summed up, the name and the price are taken from the latest event that set them, and deleted
+   * products are dropped. The committed events are positioned first, so every change committed
+   * before the call is included.
+   *
+   * @return the state per product id.
+   */
+  public Map<Integer, InventorySnapshot> rebuild() {
+    return enabled ? transactionTemplate.execute(status -> sequenceAndReplay()).products() : new HashMap<>();
+  }
+
+  /**
+   * Positions the pending events and replays the journal up to the last position, holding the
+   * position lock so that no position is handed out in between.
+   */
+  private Replay sequenceAndReplay() {
+    var position = lockPosition();
+    int batch;
+    do {
+      batch = assign(position);
+    } while (batch == sequenceBatchSize);
+    long last = position.getPosition();
+    Map<Integer, InventorySnapshot> state = new HashMap<>();
+    var snapshots = snapshotRepository.findAll();
+    snapshots.forEach(entityManager::detach);
+    long covered = 0;
+    // Snapshots stored before the events had positions are replaced by a full replay.
+    if (snapshots.stream().allMatch(snapshot -> snapshot.getLogPosition() != null)) {
+      for (InventorySnapshot snapshot : snapshots) {
+        state.put(snapshot.getProductId(), snapshot);
+        covered = Math.max(covered, snapshot.getLogPosition());
+      }
+    }
+    try (Stream<InventoryEvent> events = eventRepository.streamByLogPositionBetweenOrderByLogPositionAsc(covered + 1, last)) {
+      for (var iterator = events.iterator(); iterator.hasNext(); ) {
+        var event = iterator.next();
+        apply(state, event);
+        entityManager.detach(event);
+      }
+    }
+    return new Replay(state, covered, last);
+  }
+
+  private InventoryJournalPosition lockPosition() {
+    return positionRepository.findByIdForUpdate(InventoryJournalPosition.ID)
+            .orElseGet(() -> positionRepository.saveAndFlush(new InventoryJournalPosition(InventoryJournalPosition.ID, 0)));
+  }
+
+  private int assign(InventoryJournalPosition position) {
+    var events = eventRepository.findByLogPositionIsNullOrderByEventIdAsc(Limit.of(sequenceBatchSize));
+    long next = position.getPosition();
+    for (InventoryEvent event : events) {
+      event.setLogPosition(++next);
+    }
+    position.setPosition(next);
+    entityManager.flush();
+    events.forEach(entityManager::detach);
+    return events.size();
+  }
+
+  /**
+   * @param productId the product.
+   * @param limit     the maximum number of events.
+   * @return the latest journaled changes of the product, newest first. Events are written with the
+   * changes of this instance, so the read replica is only used once it has every write of it.
+   */
+  public List<InventoryEventDTO> history(Integer productId, int limit) {
+    if (!enabled) {
+      return List.of();
+    }
+    return ReplicaReads.call(INSTANCE, () -> eventRepository.findByProductIdOrderByEventIdDesc(productId, Limit.of(Math.max(limit, 1)))).stream()
+            .map(event -> InventoryEventDTO.builder()
+                    .eventId(event.getEventId())
+                    .productId(event.getProductId())
+                    .type(event.getType().name())
+                    .quantityDelta(event.getQuantityDelta())
+                    .productName(event.getProductName())
+                    .productPrice(event.getProductPrice())
+                    .occurredAt(event.getOccurredAt())
+                    .build())
+            .toList();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void reconcileOnStartup() {
+    if (reconcileOnStartup) {
+      reconcile();
+    }
+  }
+
+  /**
+   * Compares the rebuilt inventory with the products and journals the differences, then stores a
+   * fresh snapshot. Must not run on two instances at the same time.
+   *
+   * @return the number of journaled differences.
+   */
+  public int reconcile() {
+    if (!enabled) {
+      return 0;
+    }
+    var state = rebuild();
+    var now = Instant.now();
+    List<InventoryEvent> differences = new ArrayList<>();
+    for (Product product : productRepository.findAll()) {
+      int quantity = stockLedger.quantity(product.getProductId());
+      if (quantity == StockLedger.REJECTED) {
+        quantity = product.getQuantity() == null ? 0 : product.getQuantity();
+      }
+      var known = state.remove(product.getProductId());
+      int journaled = known == null || known.getQuantity() == null ? 0 : known.getQuantity();
+      if (known == null || journaled != quantity
+              || !Objects.equals(known.getProductName(), product.getProductName())
+              || !Objects.equals(known.getProductPrice(), product.getProductPrice())) {
+        differences.add(new InventoryEvent(null, product.getProductId(), InventoryEvent.Type.RECONCILED,
+                quantity - journaled, product.getProductName(), product.getProductPrice(), now, null));
+      }
+    }
+    for (InventorySnapshot gone : state.values()) {
+      differences.add(new InventoryEvent(null, gone.getProductId(), InventoryEvent.Type.DELETED,
+              gone.getQuantity() == null ? 0 : -gone.getQuantity(), null, null, now, null));
+    }
+    if (!differences.isEmpty()) {
+      transactionTemplate.executeWithoutResult(status -> eventRepository.saveAll(differences));
+      LOGGER.info("Journaled {} inventory difference(s) found at startup", differences.size());
+    }
+    snapshot();
+    return differences.size();
+  }
+
+  private record Replay(Map<Integer, InventorySnapshot> products, long snapshotPosition, long lastPosition) {
+  }
+
+  private static void apply(Map<Integer, InventorySnapshot> state, InventoryEvent event) {
+    if (event.getType() == InventoryEvent.Type.DELETED) {
+      state.remove(event.getProductId());
+      return;
+    }
+    var snapshot = state.computeIfAbsent(event.getProductId(), id -> new InventorySnapshot(id, null, null, 0, null));
+    snapshot.setQuantity((snapshot.getQuantity() == null ? 0 : snapshot.getQuantity()) + event.getQuantityDelta());
+    if (event.getProductName() != null) {
+      snapshot.setProductName(event.getProductName());
+    }
+    if (event.getProductPrice() != null) {
+      snapshot.setProductPrice(event.getProductPrice());
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package ch.akros.vending_machine.service;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestOperations;
+
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keys of the identity provider, used to verify the signature of the access tokens. The key set
+ * is fetched at startup and refreshed in the background, so no request waits for the identity
+ * provider. While a refresh is running, and when it fails, the last known keys stay in use.
+ * Only a token signed with an unknown key, e.g. after a key rotation, triggers a refresh on the
+ * request path; those refreshes are at least {@code jwt.jwk-set.refresh-cooldown} apart.
+ */
+@Component
+public class JwkSetCache implements JWKSource<SecurityContext> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(JwkSetCache.class);
+
+  private final String jwkSetUri;
+  private final RestOperations restOperations;
+  private final Duration timeout;
+  private final long refreshCooldownNanos;
+  private final Timer refreshed;
+  private final Timer failed;
+  private final AtomicReference<CompletableFuture<JWKSet>> inFlight = new AtomicReference<>();
+  private final AtomicLong lastOnDemandRefresh;
+  private volatile JWKSet jwkSet = new JWKSet();
+  private volatile long loadedAt;
+
+  public JwkSetCache(@Value("${spring.security.oauth2.resource-server.jwt.jwk-set-uri}") String jwkSetUri,
+                     @Value("${jwt.jwk-set.timeout:2s}") Duration timeout,
+                     @Value("${jwt.jwk-set.refresh-cooldown:30s}") Duration refreshCooldown,
+                     RestTemplateBuilder restTemplateBuilder,
+                     MeterRegistry meterRegistry) {
+    this.jwkSetUri = jwkSetUri;
+    this.timeout = timeout;
+    this.refreshCooldownNanos = refreshCooldown.toNanos();
+    this.lastOnDemandRefresh = new AtomicLong(System.nanoTime() - refreshCooldownNanos);
+    this.restOperations = restTemplateBuilder
+            .connectTimeout(timeout)
+            .readTimeout(timeout)
+            .build();
+    this.refreshed = refreshTimer(meterRegistry, "success");
+    this.failed = refreshTimer(meterRegistry, "failure");
+    Gauge.builder("vending.jwks.keys", this, cache -> cache.jwkSet.getKeys().size())
+            .description("Number of keys in the cached JWK set")
+            .register(meterRegistry);
+    Gauge.builder("vending.jwks.age", this, JwkSetCache::ageSeconds)
+            .description("Seconds since the JWK set was last fetched successfully")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+  }
+
+  private static Timer refreshTimer(MeterRegistry meterRegistry, String outcome) {
+    return Timer.builder("vending.jwks.refresh")
+            .description("Duration of the JWK set fetches")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+  }
+
+  @PostConstruct
+  void warmUp() {
+    refresh();
+  }
+
+  @Scheduled(fixedDelayString = "${jwt.jwk-set.refresh-interval:5m}", initialDelayString = "${jwt.jwk-set.refresh-interval:5m}")
+  public void scheduledRefresh() {
+    refresh();
+  }
+
+  /**
+   * Fetches the key set. Concurrent callers share the fetch that is already running.
+   *
+   * @return the fetch, completed with the new key set or the failure.
+   */
+  public CompletableFuture<JWKSet> refresh() {
+    var fetch = new CompletableFuture<JWKSet>();
+    var running = inFlight.compareAndExchange(null, fetch);
+    if (running != null) {
+      return running;
+    }
+    long start = System.nanoTime();
+    try {
+      var fetched = JWKSet.parse(restOperations.getForObject(jwkSetUri, String.class));
+      jwkSet = fetched;
+      loadedAt = System.nanoTime();
+      refreshed.record(loadedAt - start, TimeUnit.NANOSECONDS);
+      LOGGER.debug("Fetched {} key(s) from {}", fetched.getKeys().size(), jwkSetUri);
+      fetch.complete(fetched);
+    } catch (RuntimeException | ParseException e) {
+      failed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      LOGGER.warn("Fetching the JWK set from {} failed, keeping {} known key(s): {}", jwkSetUri,
+              jwkSet.getKeys().size(), e.getMessage());
+      fetch.completeExceptionally(e);
+    } finally {
+      inFlight.set(null);
+    }
+    return fetch;
+  }
+
+  @Override
+  public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) {
+    var keys = jwkSelector.select(jwkSet);
+    if (!keys.isEmpty() || !onDemandRefreshAllowed()) {
+      return keys;
+    }
+    try {
+      return jwkSelector.select(refresh().get(timeout.toMillis(), TimeUnit.MILLISECONDS));
+    } catch (ExecutionException | TimeoutException e) {
+      return jwkSelector.select(jwkSet);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return jwkSelector.select(jwkSet);
+    }
+  }
+
+  private boolean onDemandRefreshAllowed() {
+    long now = System.nanoTime();
+    long last = lastOnDemandRefresh.get();
+    return now - last >= refreshCooldownNanos && lastOnDemandRefresh.compareAndSet(last, now);
+  }
+
+  private double ageSeconds() {
+    return loadedAt == 0 ? Double.NaN : (System.nanoTime() - loadedAt) / 1e9;
+  }
+}
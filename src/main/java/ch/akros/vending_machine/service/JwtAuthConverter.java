@@ -1,5 +1,8 @@
 package ch.akros.vending_machine.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,31 +17,82 @@ import org.springframework.security.oauth2.server.resource.authentication.JwtAut
 import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Component
 public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationToken> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(JwtAuthConverter.class);
+  private static final int MAX_ROLE_COMBINATIONS = 1_024;
   private final JwtGrantedAuthoritiesConverter jwtGrantedAuthoritiesConverter = new JwtGrantedAuthoritiesConverter();
   private final String principalAttributeName;
   private final String resourceId;
+  private final Duration maxTimeToLive;
+
+  /**
+   * Converted principal and authorities per token, keyed by issuer and token id ({@code jti}), or
+   * by the SHA-256 digest of the token value if it has no id. Token ids are only unique per
+   * issuer, and the raw token value is not kept in memory. An entry never outlives the token's
+   * {@code exp}.
+   */
+  private final Cache<TokenKey, ConvertedToken> tokens;
+
+  /**
+   * One shared, immutable authority set per distinct combination of raw roles and scopes.
+   */
+  private final Cache<Set<String>, Set<GrantedAuthority>> authorities = Caffeine.newBuilder()
+          .maximumSize(MAX_ROLE_COMBINATIONS)
+          .build();
 
   public JwtAuthConverter(@Value("${jwt.auth.converter.principal-attribute}") String principalAttributeName,
-                          @Value("${jwt.auth.converter.resource-id}") String resourceId) {
+                          @Value("${jwt.auth.converter.resource-id}") String resourceId,
+                          @Value("${jwt.auth.converter.cache.maximum-size:10000}") long maximumSize,
+                          @Value("${jwt.auth.converter.cache.max-ttl:5m}") Duration maxTimeToLive) {
     this.principalAttributeName = principalAttributeName;
     this.resourceId = resourceId;
+    this.maxTimeToLive = maxTimeToLive;
+    this.tokens = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new TokenExpiry())
+            .build();
   }
 
   @Override
   public AbstractAuthenticationToken convert(@NonNull Jwt source) {
-    var value = jwtGrantedAuthoritiesConverter.convert(source).stream();
-    Collection<GrantedAuthority> authorities = Stream.concat(value, extractResourceRoles(source).stream()).collect(Collectors.toSet());
-    return new JwtAuthenticationToken(source, authorities, getPrincipalClaimName(source));
+    var converted = tokens.get(cacheKey(source), key -> convertToken(source));
+    return new JwtAuthenticationToken(source, converted.authorities(), converted.principal());
+  }
+
+  private ConvertedToken convertToken(Jwt source) {
+    Set<String> roles = new HashSet<>();
+    jwtGrantedAuthoritiesConverter.convert(source).forEach(authority -> roles.add(authority.getAuthority()));
+    extractResourceRoles(source).forEach(role -> roles.add("ROLE_" + role));
+    var grantedAuthorities = authorities.get(Set.copyOf(roles),
+            key -> key.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toUnmodifiableSet()));
+    LOGGER.debug("Jwt {} converted Role(s) {}", source.getId(), grantedAuthorities);
+    return new ConvertedToken(getPrincipalClaimName(source), grantedAuthorities, source.getExpiresAt());
+  }
+
+  private static TokenKey cacheKey(Jwt source) {
+    if (source.getId() != null) {
+      return new TokenKey(source.getClaimAsString(JwtClaimNames.ISS), source.getId(), null);
+    }
+    try {
+      var digest = MessageDigest.getInstance("SHA-256").digest(source.getTokenValue().getBytes(StandardCharsets.UTF_8));
+      return new TokenKey(null, null, Base64.getEncoder().encodeToString(digest));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
   }
 
   private String getPrincipalClaimName(Jwt source) {
@@ -47,11 +101,11 @@ public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationTo
       claimName = principalAttributeName;
     }
     String username = source.getClaim(claimName);
-    LOGGER.info("Jwt claim {} is: {}", claimName, username);
+    LOGGER.debug("Jwt claim {} is: {}", claimName, username);
     return username;
   }
 
-  private Collection<? extends GrantedAuthority> extractResourceRoles(Jwt source) {
+  private Collection<String> extractResourceRoles(Jwt source) {
     Map<String, Object> resourceAccess;
     Map<String, Object> resource;
     Collection<String> resourceRoles;
@@ -67,8 +121,40 @@ public class JwtAuthConverter implements Converter<Jwt, AbstractAuthenticationTo
 
     resource = (Map<String, Object>) resourceAccess.get(resourceId);
     resourceRoles = (Collection<String>) resource.get("roles");
-    var convertedRoles = resourceRoles.stream().map(role -> new SimpleGrantedAuthority("ROLE_" + role)).collect(Collectors.toSet());
-    LOGGER.info("Jwt Raw role(s) {} Jwt converted Role(s) {}", resourceRoles, convertedRoles);
-    return convertedRoles;
+    return resourceRoles == null ? Set.of() : resourceRoles;
+  }
+
+  /**
+   * @param digest the SHA-256 digest of a token without id, Base64 encoded.
+   */
+  private record TokenKey(String issuer, String id, String digest) {
+  }
+
+  private record ConvertedToken(String principal, Set<GrantedAuthority> authorities, Instant expiresAt) {
+  }
+
+  /**
+   * Keeps an entry until the token expires, but never longer than {@code max-ttl}.
+   */
+  private final class TokenExpiry implements Expiry<TokenKey, ConvertedToken> {
+
+    @Override
+    public long expireAfterCreate(TokenKey key, ConvertedToken value, long currentTime) {
+      long ttl = maxTimeToLive.toNanos();
+      if (value.expiresAt() != null) {
+        ttl = Math.min(ttl, Math.max(0, Duration.between(Instant.now(), value.expiresAt()).toNanos()));
+      }
+      return ttl;
+    }
+
+    @Override
+    public long expireAfterUpdate(TokenKey key, ConvertedToken value, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(TokenKey key, ConvertedToken value, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
   }
 }
@@ -0,0 +1,27 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+
+/**
+ * Inventory of the vending machines of the fleet. Products, names and prices come from the shared
+ * catalog, the quantities are kept per machine.
+ */
+public interface MachineInventoryService {
+    ProductPageDTO getProducts(String machineId, Integer after, int limit);
+    ProductResponseDto getProduct(String machineId, Integer id) throws ProductNotFoundException;
+
+    /**
+     * Sets the quantity of a catalog product in the machine, adding the product to the machine if necessary.
+     */
+    ProductResponseDto updateProduct(String machineId, Integer id, ProductDTO product) throws ProductNotFoundException;
+    ProductResponseDto buyProduct(String machineId, Integer id, PriceRequestDTO priceRequestDTO) throws ProductNotFoundException;
+
+    /**
+     * Removes the product from the machine. The product stays in the catalog.
+     */
+    ProductResponseDto removeProduct(String machineId, Integer id) throws ProductNotFoundException;
+}
@@ -0,0 +1,95 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.exception.ProductConflictException;
+import ch.akros.vending_machine.service.ProductMetrics.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Retries a product mutation that failed because the product was changed concurrently, i.e. its
+ * version no longer matched. Every attempt has to read the product again. Between the attempts the
+ * caller waits a random time up to an exponentially growing bound ("full jitter"), so colliding
+ * writers spread out instead of colliding again. After {@code product.retry.max-attempts} the
+ * conflict is reported to the client as a {@link ProductConflictException}.
+ */
+@Component
+public class OptimisticRetry {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OptimisticRetry.class);
+
+  /**
+   * One attempt of a mutation.
+   *
+   * @param <T> the result.
+   * @param <E> the checked exception the mutation may throw.
+   */
+  @FunctionalInterface
+  public interface Attempt<T, E extends Exception> {
+
+    /**
+     * @param attempt the number of the attempt, starting at 1.
+     */
+    T run(int attempt) throws E;
+  }
+
+  private final ProductMetrics productMetrics;
+  private final int maxAttempts;
+  private final long backoffNanos;
+  private final long maxBackoffNanos;
+
+  public OptimisticRetry(ProductMetrics productMetrics,
+                         @Value("${product.retry.max-attempts:4}") int maxAttempts,
+                         @Value("${product.retry.backoff:5ms}") Duration backoff,
+                         @Value("${product.retry.max-backoff:100ms}") Duration maxBackoff) {
+    this.productMetrics = productMetrics;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoffNanos = backoff.toNanos();
+    this.maxBackoffNanos = maxBackoff.toNanos();
+  }
+
+  /**
+   * Runs the mutation until it does not conflict with a concurrent change.
+   *
+   * @param operation the mutation, for the metrics.
+   * @param productId the mutated product, for the error message.
+   * @param attempt   the mutation.
+   * @return the result of the first attempt without conflict.
+   * @throws ProductConflictException if every attempt was in conflict.
+   */
+  public <T, E extends Exception> T execute(Operation operation, Integer productId, Attempt<T, E> attempt) throws E {
+    for (int count = 1; ; count++) {
+      try {
+        T result = attempt.run(count);
+        productMetrics.attempts(operation, count);
+        return result;
+      } catch (OptimisticLockingFailureException e) {
+        boolean retrying = count < maxAttempts && backOff(count);
+        productMetrics.conflict(operation, retrying);
+        if (!retrying) {
+          productMetrics.attempts(operation, count);
+          LOGGER.warn("Product {} was changed concurrently {} time(s) in a row, giving up {}", productId, count, operation);
+          throw new ProductConflictException("Product " + productId
+                  + " was changed concurrently by another request. Please reload it and try again", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return {@code false} if the thread was interrupted while waiting.
+   */
+  private boolean backOff(int attempt) {
+    long bound = Math.min(maxBackoffNanos, backoffNanos << Math.min(attempt - 1, 20));
+    if (bound > 0) {
+      LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(bound + 1));
+    }
+    return !Thread.currentThread().isInterrupted();
+  }
+}
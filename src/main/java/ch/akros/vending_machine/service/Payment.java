@@ -0,0 +1,95 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.plausibility.PurchaseValidation;
+
+import java.util.List;
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.MAX_COINS;
+
+/**
+ * Inserted coins counted per denomination of the {@link CoinInventory}. Coins are checked
+ * against the primitive denomination table of the inventory and summed in {@code long}, and a
+ * payment has at most {@link ch.akros.vending_machine.constant.AppConstant#MAX_COINS} coins, so
+ * the total always fits an {@code int}.
+ */
+public final class Payment {
+
+  private final int[] coins;
+  private final int total;
+  private final PurchaseValidation refusal;
+
+  private Payment(int[] coins, int total, PurchaseValidation refusal) {
+    this.coins = coins;
+    this.total = total;
+    this.refusal = refusal;
+  }
+
+  /**
+   * @param prices single coins, may be {@code null}.
+   * @param counts number of coins per coin value, may be {@code null}.
+   * @return the payment, or a refused payment if a coin is not accepted or there are too many.
+   */
+  public static Payment of(List<Integer> prices, Map<Integer, Integer> counts) {
+    var coins = new int[CoinInventory.denominations()];
+    long count = 0;
+    long total = 0;
+    if (prices != null) {
+      if (prices.size() > MAX_COINS) {
+        return refused(PurchaseValidation.TOO_MANY_COINS);
+      }
+      for (Integer coin : prices) {
+        int index = coin == null ? -1 : CoinInventory.index(coin);
+        if (index < 0) {
+          return refused(PurchaseValidation.COIN_NOT_ALLOWED);
+        }
+        coins[index]++;
+        total += coin;
+      }
+      count = prices.size();
+    }
+    if (counts != null) {
+      for (var entry : counts.entrySet()) {
+        Integer coin = entry.getKey();
+        Integer number = entry.getValue();
+        int index = coin == null ? -1 : CoinInventory.index(coin);
+        if (index < 0 || number == null || number < 0) {
+          return refused(PurchaseValidation.COIN_NOT_ALLOWED);
+        }
+        count += number;
+        if (count > MAX_COINS) {
+          return refused(PurchaseValidation.TOO_MANY_COINS);
+        }
+        coins[index] += number;
+        total += (long) coin * number;
+      }
+    }
+    return new Payment(coins, Math.toIntExact(total), null);
+  }
+
+  private static Payment refused(PurchaseValidation refusal) {
+    return new Payment(null, 0, refusal);
+  }
+
+  /**
+   * @return {@link PurchaseValidation#COIN_NOT_ALLOWED} or {@link PurchaseValidation#TOO_MANY_COINS}
+   * if the payment cannot be accepted, {@code null} otherwise.
+   */
+  public PurchaseValidation refusal() {
+    return refusal;
+  }
+
+  /**
+   * @return the inserted coins per denomination of the {@link CoinInventory}; must not be modified.
+   */
+  public int[] coins() {
+    return coins;
+  }
+
+  /**
+   * @return the inserted amount.
+   */
+  public int total() {
+    return total;
+  }
+}
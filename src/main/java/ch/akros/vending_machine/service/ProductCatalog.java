@@ -0,0 +1,250 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.ProductDTO;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+import static ch.akros.vending_machine.dto.mapper.ProductMapper.PRODUCT_MAPPER;
+
+/**
+ * In-memory, copy-on-write view of the product catalog. Readers get an immutable {@link Snapshot}
+ * without locking; every change derives a new version from the current snapshot and swaps it in
+ * atomically.
+ * The {@link ProductDTO}s handed out by a snapshot are shared and must not be modified.
+ * <p>
+ * Every change raises the version of the snapshot, which is the validator of the HTTP caching of
+ * the catalog. A reload that finds the products unchanged keeps the snapshot and its version.
+ */
+@Component
+public class ProductCatalog {
+
+  private final AtomicReference<Snapshot> current = new AtomicReference<>();
+  /**
+   * Distinguishes the versions of this catalog from those of other instances and restarts, which
+   * count from 0 as well.
+   */
+  private final String instance = Long.toString(new SecureRandom().nextLong() >>> 16, 36);
+
+  /**
+   * @return the current snapshot or {@code null} as long as the catalog has not been loaded.
+   */
+  public Snapshot snapshot() {
+    return current.get();
+  }
+
+  /**
+   * Replaces the catalog with the given products, unless it was changed since {@code expected}
+   * was read. A concurrent change wins over a reload that was started before it.
+   *
+   * @param expected the snapshot read before loading the products, may be {@code null}.
+   * @param products the products loaded from the database.
+   * @return the snapshot in place after the call.
+   */
+  public Snapshot replace(Snapshot expected, Collection<Product> products) {
+    var dtos = products.stream().map(PRODUCT_MAPPER::mapToProductDTO).toList();
+    if (expected != null && expected.contains(dtos)) {
+      return current.get();
+    }
+    var replacement = Snapshot.of(dtos, instance, expected == null ? 0 : expected.version + 1);
+    return current.compareAndSet(expected, replacement) ? replacement : current.get();
+  }
+
+  /**
+   * Adds or replaces a product.
+   *
+   * @param product the product as persisted.
+   */
+  public void put(Product product) {
+    var dto = PRODUCT_MAPPER.mapToProductDTO(product);
+    update(snapshot -> snapshot.with(dto.getProductId(), dto));
+  }
+
+  /**
+   * Removes a product.
+   *
+   * @param productId the id of the removed product.
+   */
+  public void remove(Integer productId) {
+    update(snapshot -> snapshot.with(productId, null));
+  }
+
+  /**
+   * Takes one unit of a bought product out of the catalog.
+   *
+   * @param productId the id of the bought product.
+   */
+  public void purchased(Integer productId) {
+    update(snapshot -> {
+      var product = snapshot.get(productId);
+      return product == null || product.getQuantity() == null ? snapshot : snapshot.with(productId, withOneUnitLess(product));
+    });
+  }
+
+  /**
+   * @param product a product of a snapshot.
+   * @return a copy of the product with one unit less in stock.
+   */
+  public static ProductDTO withOneUnitLess(ProductDTO product) {
+    return ProductDTO.builder()
+            .productId(product.getProductId())
+            .productName(product.getProductName())
+            .productPrice(product.getProductPrice())
+            .quantity(Math.max(0, product.getQuantity() - 1))
+            .build();
+  }
+
+  private Snapshot update(UnaryOperator<Snapshot> change) {
+    return current.updateAndGet(snapshot -> snapshot == null ? null : change.apply(snapshot));
+  }
+
+  /**
+   * Immutable catalog version. The ids are kept in a sorted array, so a lookup is a binary search
+   * however sparse the ids are. The products are stored in chunks of {@value #CHUNK_SIZE} in the
+   * order of the ids: replacing a product, as every purchase does, copies only the array of chunks
+   * and the chunk of the product and shares the ids and all other chunks with the previous version.
+   * Adding or removing a product rebuilds the snapshot.
+   */
+  public static final class Snapshot {
+
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private final String instance;
+    private final long version;
+    private final long lastModified = System.currentTimeMillis();
+    private final int[] ids;
+    private final ProductDTO[][] chunks;
+    private final List<ProductDTO> products = new Products();
+
+    private Snapshot(String instance, long version, int[] ids, ProductDTO[][] chunks) {
+      this.instance = instance;
+      this.version = version;
+      this.ids = ids;
+      this.chunks = chunks;
+    }
+
+    static Snapshot of(Collection<ProductDTO> products, String instance, long version) {
+      var sorted = products.stream()
+              .sorted(Comparator.comparing(ProductDTO::getProductId))
+              .toArray(ProductDTO[]::new);
+      var ids = new int[sorted.length];
+      var chunks = new ProductDTO[(sorted.length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT][];
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+        chunks[chunk] = Arrays.copyOfRange(sorted, chunk << CHUNK_SHIFT, Math.min(sorted.length, (chunk + 1) << CHUNK_SHIFT));
+      }
+      for (int index = 0; index < sorted.length; index++) {
+        ids[index] = sorted[index].getProductId();
+      }
+      return new Snapshot(instance, version, ids, chunks);
+    }
+
+    /**
+     * @param productId the id of the product.
+     * @return the product or {@code null} if the snapshot does not contain it.
+     */
+    public ProductDTO get(Integer productId) {
+      if (productId == null) {
+        return null;
+      }
+      int index = Arrays.binarySearch(ids, productId);
+      return index >= 0 ? product(index) : null;
+    }
+
+    /**
+     * @return all products ordered by id.
+     */
+    public List<ProductDTO> products() {
+      return products;
+    }
+
+    public long version() {
+      return version;
+    }
+
+    /**
+     * @return a strong entity tag, quoted, that changes with every version of the catalog.
+     */
+    public String eTag() {
+      return "\"" + instance + "-" + version + "\"";
+    }
+
+    /**
+     * @return the time this version was created, in epoch milliseconds.
+     */
+    public long lastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return whether the snapshot holds exactly the given products.
+     */
+    private boolean contains(Collection<ProductDTO> others) {
+      if (others.size() != ids.length) {
+        return false;
+      }
+      for (ProductDTO other : others) {
+        var product = get(other.getProductId());
+        if (product == null
+                || !Objects.equals(product.getProductName(), other.getProductName())
+                || !Objects.equals(product.getProductPrice(), other.getProductPrice())
+                || !Objects.equals(product.getQuantity(), other.getQuantity())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private Snapshot with(Integer productId, ProductDTO product) {
+      int index = Arrays.binarySearch(ids, productId);
+      if (index < 0 || product == null) {
+        if (index < 0 && product == null) {
+          return this;
+        }
+        var changed = new ArrayList<ProductDTO>(products);
+        if (index >= 0) {
+          changed.remove(index);
+        } else {
+          changed.add(product);
+        }
+        return of(changed, instance, version + 1);
+      }
+      var copy = chunks.clone();
+      copy[index >>> CHUNK_SHIFT] = copy[index >>> CHUNK_SHIFT].clone();
+      copy[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)] = product;
+      return new Snapshot(instance, version + 1, ids, copy);
+    }
+
+    private ProductDTO product(int index) {
+      return chunks[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+    }
+
+    /**
+     * Read-only view of the products of the snapshot, ordered by id.
+     */
+    private final class Products extends AbstractList<ProductDTO> implements RandomAccess {
+
+      @Override
+      public ProductDTO get(int index) {
+        Objects.checkIndex(index, ids.length);
+        return product(index);
+      }
+
+      @Override
+      public int size() {
+        return ids.length;
+      }
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.plausibility.PurchaseValidation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Business and latency metrics of the product service. All meters but the stock gauges are
+ * registered up front, so recording is an {@link EnumMap} lookup plus a lock-free meter update,
+ * without allocation.
+ */
+@Component
+public class ProductMetrics {
+
+  public enum Operation {
+    GET_PRODUCTS, GET_PRODUCT, STREAM_PRODUCTS, CREATE_PRODUCT, DELETE_PRODUCT, UPDATE_PRODUCT, BUY_PRODUCT, BUY_PRODUCTS, APPLY_OPERATIONS
+  }
+
+  public enum PurchaseStep {
+    VALIDATE_COINS, DECREMENT, COLLECT_COINS, UPDATE_CATALOG, DIAGNOSE
+  }
+
+  private final Map<Operation, Timer> operations = new EnumMap<>(Operation.class);
+  private final Map<PurchaseStep, Timer> steps = new EnumMap<>(PurchaseStep.class);
+  private final Map<PurchaseValidation, Counter> purchases = new EnumMap<>(PurchaseValidation.class);
+  private final Map<Operation, Counter> retried = new EnumMap<>(Operation.class);
+  private final Map<Operation, Counter> exhausted = new EnumMap<>(Operation.class);
+  private final Map<Operation, DistributionSummary> attempts = new EnumMap<>(Operation.class);
+  private final Map<Integer, Gauge> stock = new ConcurrentHashMap<>();
+  private final MeterRegistry registry;
+
+  public ProductMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    for (Operation operation : Operation.values()) {
+      operations.put(operation, Timer.builder("vending.product.operation")
+              .description("Duration of the product service operations")
+              .tag("operation", tagValue(operation))
+              .publishPercentileHistogram()
+              .publishPercentiles(0.5, 0.95, 0.99)
+              .register(registry));
+    }
+    for (PurchaseStep step : PurchaseStep.values()) {
+      steps.put(step, Timer.builder("vending.purchase.step")
+              .description("Duration of the single steps of a purchase")
+              .tag("step", tagValue(step))
+              .publishPercentileHistogram()
+              .register(registry));
+    }
+    for (PurchaseValidation result : PurchaseValidation.values()) {
+      purchases.put(result, Counter.builder("vending.purchase")
+              .description("Purchases by result")
+              .tag("result", tagValue(result))
+              .register(registry));
+    }
+    for (Operation operation : Operation.values()) {
+      retried.put(operation, conflictCounter(registry, operation, "retried"));
+      exhausted.put(operation, conflictCounter(registry, operation, "exhausted"));
+      attempts.put(operation, DistributionSummary.builder("vending.product.attempts")
+              .description("Attempts a product mutation took until it was not in conflict with a concurrent change")
+              .tag("operation", tagValue(operation))
+              .publishPercentiles(0.5, 0.99)
+              .register(registry));
+    }
+  }
+
+  /**
+   * Records the duration of a service operation.
+   *
+   * @param operation the operation.
+   * @param start     the {@link System#nanoTime()} at the start of the operation.
+   */
+  public void record(Operation operation, long start) {
+    operations.get(operation).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records the duration of a purchase step.
+   *
+   * @param step  the finished step.
+   * @param start the {@link System#nanoTime()} at the start of the step.
+   * @return the {@link System#nanoTime()} at the end of the step, i.e. the start of the next one.
+   */
+  public long step(PurchaseStep step, long start) {
+    long end = System.nanoTime();
+    steps.get(step).record(end - start, TimeUnit.NANOSECONDS);
+    return end;
+  }
+
+  /**
+   * Counts a purchase by its result.
+   *
+   * @param result {@link PurchaseValidation#PURCHASED} or the reason of the failure.
+   */
+  public void purchase(PurchaseValidation result) {
+    purchases.get(result).increment();
+  }
+
+  /**
+   * Counts a product mutation that lost against a concurrent change of the same product.
+   *
+   * @param operation the mutation.
+   * @param retrying  whether the mutation is retried or has run out of attempts.
+   */
+  public void conflict(Operation operation, boolean retrying) {
+    (retrying ? retried : exhausted).get(operation).increment();
+  }
+
+  /**
+   * Records the number of attempts a product mutation took.
+   */
+  public void attempts(Operation operation, int count) {
+    attempts.get(operation).record(count);
+  }
+
+  /**
+   * Registers the stock gauges of the catalog: the units in stock per product, tagged with the
+   * product id only, and the number of sold out products. The gauges of products no longer in the
+   * catalog are removed, so the number of time series follows the size of the catalog. The
+   * gauges read the live catalog snapshot when they are scraped.
+   *
+   * @param catalog the product catalog.
+   */
+  public void registerStock(ProductCatalog catalog) {
+    Gauge.builder("vending.product.sold.out", catalog, ProductMetrics::soldOut)
+            .description("Number of products without a unit in stock")
+            .register(registry);
+    var snapshot = catalog.snapshot();
+    if (snapshot == null) {
+      return;
+    }
+    Set<Integer> productIds = new HashSet<>();
+    for (var product : snapshot.products()) {
+      productIds.add(product.getProductId());
+      registerStock(catalog, product.getProductId());
+    }
+    for (Integer productId : stock.keySet()) {
+      if (!productIds.contains(productId)) {
+        removeStock(productId);
+      }
+    }
+  }
+
+  /**
+   * Registers the stock gauge of one product; registering it again has no effect.
+   *
+   * @param catalog   the product catalog.
+   * @param productId the product.
+   */
+  public void registerStock(ProductCatalog catalog, Integer productId) {
+    stock.computeIfAbsent(productId, id -> Gauge.builder("vending.product.stock", catalog, current -> quantity(current, id))
+            .description("Units of the product in stock")
+            .tag("product", id.toString())
+            .register(registry));
+  }
+
+  /**
+   * Removes the stock gauge of a deleted product.
+   *
+   * @param productId the product.
+   */
+  public void removeStock(Integer productId) {
+    var gauge = stock.remove(productId);
+    if (gauge != null) {
+      registry.remove(gauge);
+    }
+  }
+
+  private static Counter conflictCounter(MeterRegistry registry, Operation operation, String outcome) {
+    return Counter.builder("vending.product.conflict")
+            .description("Optimistic locking conflicts of the product mutations")
+            .tag("operation", tagValue(operation))
+            .tag("outcome", outcome)
+            .register(registry);
+  }
+
+  private static double quantity(ProductCatalog catalog, Integer productId) {
+    var snapshot = catalog.snapshot();
+    var product = snapshot == null ? null : snapshot.get(productId);
+    if (product == null) {
+      return Double.NaN;
+    }
+    return product.getQuantity() == null ? 0 : product.getQuantity();
+  }
+
+  private static double soldOut(ProductCatalog catalog) {
+    var snapshot = catalog.snapshot();
+    if (snapshot == null) {
+      return Double.NaN;
+    }
+    long soldOut = 0;
+    for (var product : snapshot.products()) {
+      if (product.getQuantity() == null || product.getQuantity() == 0) {
+        soldOut++;
+      }
+    }
+    return soldOut;
+  }
+
+  private static String tagValue(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT);
+  }
+}
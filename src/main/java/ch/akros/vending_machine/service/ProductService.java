@@ -1,17 +1,37 @@
 package ch.akros.vending_machine.service;
 
+import ch.akros.vending_machine.dto.BasketRequestDTO;
 import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkResponseDTO;
 import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
 import ch.akros.vending_machine.dto.ProductResponseDto;
 import ch.akros.vending_machine.exception.ProductNotFoundException;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface ProductService {
     List<ProductDTO> getProducts();
+    ProductPageDTO getProducts(Integer after, int limit);
+    void streamProducts(Consumer<ProductDTO> consumer);
     ProductResponseDto getProduct(Integer id) throws ProductNotFoundException;
     ProductResponseDto createProduct(ProductDTO product);
     ProductResponseDto deleteProduct(Integer id) throws ProductNotFoundException ;
     ProductResponseDto updateProduct(ProductDTO product, Integer id) throws ProductNotFoundException;
     ProductResponseDto buyProduct(Integer id, PriceRequestDTO priceRequestDTO) throws ProductNotFoundException;
+    ProductResponseDto buyProducts(BasketRequestDTO basketRequestDTO) throws ProductNotFoundException;
+
+    /**
+     * Applies restocks and updates of several products either all together or not at all.
+     *
+     * @return one result per operation, in request order.
+     */
+    ProductBulkResponseDTO applyOperations(ProductBulkRequestDTO productBulkRequestDTO);
+
+    /**
+     * @return the current catalog, loaded first if necessary. Its version changes with every product change.
+     */
+    ProductCatalog.Snapshot catalog();
 }
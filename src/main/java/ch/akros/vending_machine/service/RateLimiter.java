@@ -0,0 +1,128 @@
+package ch.akros.vending_machine.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets per principal and role. A principal is limited by the most generous of its roles
+ * {@code client_admin}, {@code client_user} and {@code client_remove}, or by the default limit if
+ * it has none of them. A bucket holds up to {@code burst} requests and refills at {@code rate}
+ * requests per second.
+ * <p>
+ * A bucket is a single {@link AtomicLong}: the time at which it will be full again, as in the
+ * generic cell rate algorithm. Taking a token is one compare-and-set, so concurrent requests of a
+ * principal never block each other. Buckets idle for {@code rate-limit.idle-timeout} are evicted;
+ * an evicted bucket is full, so the timeout should not be shorter than the time a bucket takes to
+ * refill.
+ */
+@Component
+public class RateLimiter {
+
+  private static final String ROLE_PREFIX = "ROLE_";
+
+  private final boolean enabled;
+  private final List<Limit> roleLimits;
+  private final Limit defaultLimit;
+  private final Cache<Key, AtomicLong> buckets;
+
+  public RateLimiter(MeterRegistry meterRegistry,
+                     @Value("${rate-limit.enabled:true}") boolean enabled,
+                     @Value("${rate-limit.idle-timeout:1m}") Duration idleTimeout,
+                     @Value("${rate-limit.maximum-size:100000}") long maximumSize,
+                     @Value("${rate-limit.client-admin.rate:50}") double adminRate,
+                     @Value("${rate-limit.client-admin.burst:100}") int adminBurst,
+                     @Value("${rate-limit.client-user.rate:20}") double userRate,
+                     @Value("${rate-limit.client-user.burst:40}") int userBurst,
+                     @Value("${rate-limit.client-remove.rate:5}") double removeRate,
+                     @Value("${rate-limit.client-remove.burst:10}") int removeBurst,
+                     @Value("${rate-limit.default.rate:5}") double defaultRate,
+                     @Value("${rate-limit.default.burst:10}") int defaultBurst) {
+    this.enabled = enabled;
+    this.roleLimits = List.of(
+            new Limit("client_admin", adminRate, adminBurst, meterRegistry),
+            new Limit("client_user", userRate, userBurst, meterRegistry),
+            new Limit("client_remove", removeRate, removeBurst, meterRegistry));
+    this.defaultLimit = new Limit("default", defaultRate, defaultBurst, meterRegistry);
+    this.buckets = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterAccess(idleTimeout)
+            .build();
+    Gauge.builder("vending.ratelimit.buckets", buckets, Cache::estimatedSize)
+            .description("Number of rate limit buckets in memory")
+            .register(meterRegistry);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Takes a token from the bucket of the authenticated principal.
+   *
+   * @param authentication the authenticated principal.
+   * @return {@code 0} if the request may pass, otherwise the nanoseconds until the next token.
+   */
+  public long tryAcquire(Authentication authentication) {
+    return tryAcquire(authentication, System.nanoTime());
+  }
+
+  long tryAcquire(Authentication authentication, long now) {
+    var limit = limitOf(authentication);
+    var bucket = buckets.get(new Key(authentication.getName(), limit.role()), key -> new AtomicLong(now));
+    while (true) {
+      long fullAt = bucket.get();
+      long next = Math.max(fullAt, now) + limit.intervalNanos();
+      long wait = next - now - limit.capacityNanos();
+      if (wait > 0) {
+        limit.rejected().increment();
+        return wait;
+      }
+      if (bucket.compareAndSet(fullAt, next)) {
+        return 0;
+      }
+    }
+  }
+
+  private Limit limitOf(Authentication authentication) {
+    Limit granted = null;
+    for (GrantedAuthority authority : authentication.getAuthorities()) {
+      for (Limit limit : roleLimits) {
+        if (limit.authority().equals(authority.getAuthority())
+                && (granted == null || limit.intervalNanos() < granted.intervalNanos())) {
+          granted = limit;
+        }
+      }
+    }
+    return granted == null ? defaultLimit : granted;
+  }
+
+  private record Key(String principal, String role) {
+  }
+
+  /**
+   * @param intervalNanos the time in which one token is refilled.
+   * @param capacityNanos the time in which an empty bucket is refilled.
+   */
+  private record Limit(String role, String authority, long intervalNanos, long capacityNanos, Counter rejected) {
+
+    Limit(String role, double rate, int burst, MeterRegistry meterRegistry) {
+      this(role, ROLE_PREFIX + role, (long) (TimeUnit.SECONDS.toNanos(1) / rate), (long) (TimeUnit.SECONDS.toNanos(1) / rate) * burst,
+              Counter.builder("vending.ratelimit.rejected")
+                      .description("Requests refused because the rate limit of the principal was exceeded")
+                      .tag("role", role)
+                      .register(meterRegistry));
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package ch.akros.vending_machine.service;
+
+import java.util.function.Supplier;
+
+/**
+ * Marks reads that may be served by the read replica. A marked read only goes to the replica when
+ * it runs in a read-only transaction and the replica has caught up with the writes it has to see;
+ * otherwise, and when no replica is configured, it is served by the primary like every other
+ * statement. Repository reads are read-only by default, so reads must opt in rather than out: a
+ * read that is followed by a versioned write would fail on a stale row.
+ */
+public final class ReplicaReads {
+
+  /**
+   * The writes a replica read has to see.
+   */
+  public enum Consistency {
+    /**
+     * The writes the current principal committed through this instance. Without an authenticated
+     * principal this is the same as {@link #INSTANCE}.
+     */
+    PRINCIPAL,
+    /**
+     * All writes committed through this instance, for state that is shared by all callers.
+     */
+    INSTANCE
+  }
+
+  private static final ThreadLocal<Consistency> CURRENT = new ThreadLocal<>();
+
+  private ReplicaReads() {
+  }
+
+  /**
+   * Runs the read with the given consistency and returns its result.
+   */
+  public static <T> T call(Consistency consistency, Supplier<T> read) {
+    Consistency previous = CURRENT.get();
+    CURRENT.set(consistency);
+    try {
+      return read.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Runs the read with the given consistency.
+   */
+  public static void run(Consistency consistency, Runnable read) {
+    call(consistency, () -> {
+      read.run();
+      return null;
+    });
+  }
+
+  /**
+   * @return the consistency of the read the current thread runs, or {@code null} if it may not use the replica.
+   */
+  public static Consistency current() {
+    return CURRENT.get();
+  }
+}
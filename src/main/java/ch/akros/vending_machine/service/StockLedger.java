@@ -0,0 +1,348 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntUnaryOperator;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_QUANTITY;
+import static ch.akros.vending_machine.service.TransactionCallbacks.afterRollback;
+
+/**
+ * Authoritative product stock held in memory, enabled with {@code stock.ledger.enabled}. Every
+ * product has one counter that packs the quantity with a change version; a change is a single
+ * compare-and-set on it, so purchases of different products never contend and purchases of the
+ * same product do not lock. The quantity never drops below zero and is never raised above
+ * {@link ch.akros.vending_machine.constant.AppConstant#MAX_QUANTITY}.
+ * <p>
+ * A change is acknowledged once it is in the {@link StockWriteAheadLog}. The changed stock is
+ * written to the {@link MachineStock} rows of
+ * {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID} in batches, every {@code stock.ledger.flush-interval} or after
+ * {@code stock.ledger.flush-batch-size} changes, and the log segments they were in are deleted
+ * afterwards. At startup the log left by the previous run is replayed and flushed, so a crash
+ * loses no acknowledged change. Products are loaded from the database on first use.
+ */
+@Component
+public class StockLedger {
+
+  /**
+   * Returned when a change would break the stock rules or the product is unknown.
+   */
+  public static final int REJECTED = -1;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StockLedger.class);
+
+  private final ProductRepository productRepository;
+  private final MachineStockRepository machineStockRepository;
+  private final TransactionTemplate transactionTemplate;
+  private final MeterRegistry meterRegistry;
+  private final boolean enabled;
+  private final Path directory;
+  private final int flushBatchSize;
+  private final ConcurrentMap<Integer, AtomicLong> counters = new ConcurrentHashMap<>();
+  private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger changes = new AtomicInteger();
+  private final AtomicBoolean flushQueued = new AtomicBoolean();
+  private final ReentrantLock flushLock = new ReentrantLock();
+  private final Timer flushed;
+  private ExecutorService flusher;
+  private StockWriteAheadLog log;
+
+  public StockLedger(ProductRepository productRepository,
+                     MachineStockRepository machineStockRepository,
+                     TransactionTemplate transactionTemplate,
+                     MeterRegistry meterRegistry,
+                     @Value("${stock.ledger.enabled:false}") boolean enabled,
+                     @Value("${stock.ledger.directory:data/stock-wal}") String directory,
+                     @Value("${stock.ledger.flush-batch-size:500}") int flushBatchSize) {
+    this.productRepository = productRepository;
+    this.machineStockRepository = machineStockRepository;
+    this.transactionTemplate = transactionTemplate;
+    this.meterRegistry = meterRegistry;
+    this.enabled = enabled;
+    this.directory = Path.of(directory);
+    this.flushBatchSize = flushBatchSize;
+    this.flushed = Timer.builder("vending.stock.ledger.flush")
+            .description("Duration of writing the changed stock to the database")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    Gauge.builder("vending.stock.ledger.pending", dirty, Set::size)
+            .description("Number of products whose stock is not yet in the database")
+            .register(meterRegistry);
+  }
+
+  /**
+   * Opens the log and replays the changes a previous run did not write to the database.
+   */
+  @PostConstruct
+  public void start() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    log = new StockWriteAheadLog(directory, meterRegistry);
+    flusher = Executors.newSingleThreadExecutor(task -> {
+      var thread = new Thread(task, "stock-ledger-flush");
+      thread.setDaemon(true);
+      return thread;
+    });
+    var entries = log.replay();
+    if (entries.isEmpty()) {
+      log.deleteUpTo(log.firstSegment() - 1);
+      return;
+    }
+    for (var entry : entries.values()) {
+      counters.put(entry.productId(), new AtomicLong(pack(entry.version(), entry.quantity())));
+      dirty.add(entry.productId());
+    }
+    if (flush() < 0) {
+      throw new IllegalStateException("Could not write the recovered stock of " + entries.size() + " product(s)");
+    }
+    LOGGER.info("Recovered the stock of {} product(s) from {}", entries.size(), directory);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (!enabled) {
+      return;
+    }
+    flush();
+    flusher.shutdown();
+    log.close();
+  }
+
+  /**
+   * @return whether the stock is kept by the ledger rather than updated in the database directly.
+   */
+  public boolean enabled() {
+    return enabled;
+  }
+
+  /**
+   * @param productId the id of the product.
+   * @return the quantity in stock, or {@link #REJECTED} if the ledger has not loaded the product.
+   */
+  public int quantity(Integer productId) {
+    var counter = productId == null ? null : counters.get(productId);
+    return counter == null ? REJECTED : quantity(counter.get());
+  }
+
+  /**
+   * Takes units out of stock. If the surrounding transaction rolls back, the units are put back.
+   *
+   * @return the quantity left, or {@link #REJECTED} if there are not enough units.
+   */
+  public int take(Integer productId, int units) {
+    int left = update(productId, quantity -> quantity - units);
+    if (left != REJECTED) {
+      afterRollback(() -> change(productId, quantity -> quantity + units, false));
+    }
+    return left;
+  }
+
+  /**
+   * Puts units into stock.
+   *
+   * @return the new quantity, or {@link #REJECTED} if it would exceed the capacity.
+   */
+  public int add(Integer productId, int units) {
+    return update(productId, quantity -> quantity + units);
+  }
+
+  /**
+   * @return the new quantity, or {@link #REJECTED} if it is out of range.
+   */
+  public int set(Integer productId, int quantity) {
+    return update(productId, current -> quantity);
+  }
+
+  /**
+   * Changes the stock of a product atomically. A negative result, or a result above the capacity
+   * that is larger than the current quantity, rejects the change.
+   *
+   * @return the new quantity, or {@link #REJECTED}.
+   */
+  public int update(Integer productId, IntUnaryOperator change) {
+    return change(productId, change, true);
+  }
+
+  /**
+   * Takes over a quantity written to the database by someone else, e.g. an import.
+   */
+  public void stored(Integer productId, int quantity) {
+    if (enabled && counters.containsKey(productId)) {
+      change(productId, current -> quantity, false);
+    }
+  }
+
+  /**
+   * Marks the stock of a product for the next flush.
+   */
+  public void touch(Integer productId) {
+    if (enabled && counters.containsKey(productId)) {
+      dirty.add(productId);
+    }
+  }
+
+  /**
+   * Forgets a deleted product.
+   */
+  public void remove(Integer productId) {
+    if (enabled) {
+      counters.remove(productId);
+      dirty.remove(productId);
+    }
+  }
+
+  /**
+   * Writes the stock of the changed products to the database in one transaction and deletes the
+   * log segments that are no longer needed. A product this machine did not hold yet gets a stock
+   * row; a product deleted in the meantime is skipped.
+   *
+   * @return the number of written products, or -1 if the write failed and will be retried.
+   */
+  @Scheduled(fixedDelayString = "${stock.ledger.flush-interval:1s}", initialDelayString = "${stock.ledger.flush-interval:1s}")
+  public int flush() {
+    if (!enabled) {
+      return 0;
+    }
+    flushLock.lock();
+    try {
+      if (dirty.isEmpty()) {
+        return 0;
+      }
+      long start = System.nanoTime();
+      long sealed = log.rotate().join();
+      changes.set(0);
+      List<Integer> productIds = new ArrayList<>(dirty.size());
+      for (var iterator = dirty.iterator(); iterator.hasNext(); ) {
+        productIds.add(iterator.next());
+        iterator.remove();
+      }
+      try {
+        transactionTemplate.executeWithoutResult(status -> {
+          var missing = new HashSet<>(productIds);
+          for (MachineStock stock : machineStockRepository.findAllForUpdate(LOCAL_MACHINE_ID, productIds)) {
+            missing.remove(stock.getProductId());
+            var counter = counters.get(stock.getProductId());
+            if (counter != null) {
+              stock.setQuantity(quantity(counter.get()));
+            }
+          }
+          for (Product product : missing.isEmpty() ? List.<Product>of() : productRepository.findAllById(missing)) {
+            var counter = counters.get(product.getProductId());
+            if (counter != null) {
+              machineStockRepository.save(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), quantity(counter.get()), product));
+            }
+          }
+        });
+      } catch (RuntimeException e) {
+        dirty.addAll(productIds);
+        LOGGER.warn("Could not write the stock of {} product(s), retrying with the next flush: {}",
+                productIds.size(), e.getMessage());
+        return -1;
+      }
+      log.deleteUpTo(sealed);
+      flushed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return productIds.size();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private int change(Integer productId, IntUnaryOperator change, boolean checked) {
+    var counter = counter(productId);
+    if (counter == null) {
+      return REJECTED;
+    }
+    long current;
+    long next;
+    do {
+      current = counter.get();
+      int before = quantity(current);
+      int after = change.applyAsInt(before);
+      if (checked && (after < 0 || after > MAX_QUANTITY && after > before)) {
+        return REJECTED;
+      }
+      next = pack(version(current) + 1, Math.max(0, after));
+    } while (!counter.compareAndSet(current, next));
+    record(productId, counter, current, next);
+    return quantity(next);
+  }
+
+  /**
+   * Logs a change and waits until it is durable. The product is marked dirty before the record is
+   * queued, so a record in a sealed segment always belongs to a product the flush writes.
+   */
+  private void record(Integer productId, AtomicLong counter, long before, long after) {
+    dirty.add(productId);
+    try {
+      log.append(productId, version(after), quantity(after)).join();
+    } catch (CompletionException e) {
+      int delta = quantity(after) - quantity(before);
+      counter.getAndUpdate(value -> pack(version(value) + 1, quantity(value) - delta));
+      throw new IllegalStateException("Could not log the stock change of product " + productId, e.getCause());
+    }
+    if (changes.incrementAndGet() >= flushBatchSize && flushQueued.compareAndSet(false, true)) {
+      flusher.execute(() -> {
+        flushQueued.set(false);
+        flush();
+      });
+    }
+  }
+
+  private AtomicLong counter(Integer productId) {
+    if (!enabled || productId == null) {
+      return null;
+    }
+    var counter = counters.get(productId);
+    if (counter != null) {
+      return counter;
+    }
+    return productRepository.findById(productId)
+            .map(product -> counters.computeIfAbsent(productId, id ->
+                    new AtomicLong(pack(0, product.getQuantity() == null ? 0 : product.getQuantity()))))
+            .orElse(null);
+  }
+
+  private static long pack(int version, int quantity) {
+    return (long) version << 32 | quantity & 0xFFFFFFFFL;
+  }
+
+  private static int version(long value) {
+    return (int) (value >>> 32);
+  }
+
+  private static int quantity(long value) {
+    return (int) value;
+  }
+}
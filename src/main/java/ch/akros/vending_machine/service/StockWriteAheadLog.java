@@ -0,0 +1,297 @@
+package ch.akros.vending_machine.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of stock changes. Every record holds the new quantity of one product and the
+ * version of that change, so replaying keeps the highest version per product whatever the order
+ * the records were written in. Records of concurrent callers are written by one thread and made
+ * durable with a single fsync per batch. The log is split into numbered segments: {@link #rotate()}
+ * seals the current one, and sealed segments are deleted once their changes are in the database.
+ */
+final class StockWriteAheadLog implements Closeable {
+
+  static final int RECORD_BYTES = 16;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StockWriteAheadLog.class);
+  private static final int MAX_BATCH = 1024;
+  private static final String PREFIX = "stock-";
+  private static final String SUFFIX = ".wal";
+
+  /**
+   * One logged stock change.
+   */
+  record Entry(int productId, int version, int quantity) {
+  }
+
+  private record Request(Entry entry, CompletableFuture<Long> done) {
+  }
+
+  private final Path directory;
+  private final long firstSegment;
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  private final Request closing = new Request(null, new CompletableFuture<>());
+  private final Thread writer;
+  private final Timer synced;
+  private FileChannel channel;
+  private long segment;
+  private boolean closed;
+
+  StockWriteAheadLog(Path directory, MeterRegistry meterRegistry) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    long last = -1;
+    for (Path file : segments()) {
+      last = Math.max(last, number(file));
+    }
+    this.firstSegment = last + 1;
+    this.segment = firstSegment;
+    this.channel = open(segment);
+    this.synced = Timer.builder("vending.stock.wal.sync")
+            .description("Duration of writing and syncing one batch of stock changes")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    this.writer = new Thread(this::run, "stock-wal-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Queues a stock change.
+   *
+   * @return completed once the change is on disk.
+   */
+  CompletableFuture<Long> append(int productId, int version, int quantity) {
+    return enqueue(new Request(new Entry(productId, version, quantity), new CompletableFuture<>()));
+  }
+
+  /**
+   * Starts a new segment. Changes queued before the call are in the sealed segment or an older one.
+   *
+   * @return completed with the number of the sealed segment.
+   */
+  CompletableFuture<Long> rotate() {
+    return enqueue(new Request(null, new CompletableFuture<>()));
+  }
+
+  /**
+   * Deletes the segment with the given number and all older ones.
+   */
+  void deleteUpTo(long sealed) {
+    for (Path file : segments()) {
+      if (number(file) <= sealed) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          LOGGER.warn("Could not delete the stock log segment {}: {}", file, e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the segments left by previous runs. A torn or corrupt record ends its segment.
+   *
+   * @return the latest change per product.
+   */
+  Map<Integer, Entry> replay() throws IOException {
+    Map<Integer, Entry> latest = new HashMap<>();
+    for (Path file : segments()) {
+      if (number(file) >= firstSegment) {
+        continue;
+      }
+      try (var in = new DataInputStream(Files.newInputStream(file))) {
+        read(file, in, latest);
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * @return the number of the segment this log started with; older segments belong to previous runs.
+   */
+  long firstSegment() {
+    return firstSegment;
+  }
+
+  @Override
+  public void close() {
+    enqueue(closing).join();
+  }
+
+  private CompletableFuture<Long> enqueue(Request request) {
+    synchronized (queue) {
+      if (closed) {
+        if (request != closing) {
+          request.done().completeExceptionally(new IOException("The stock log is closed"));
+        }
+        return request.done();
+      }
+      closed = request == closing;
+      queue.add(request);
+    }
+    return request.done();
+  }
+
+  private void run() {
+    var batch = new ArrayList<Request>(MAX_BATCH);
+    var buffer = ByteBuffer.allocate(MAX_BATCH * RECORD_BYTES);
+    var crc = new CRC32();
+    boolean open = true;
+    while (open) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      queue.drainTo(batch, MAX_BATCH - 1);
+      open = write(batch, buffer, crc);
+      batch.clear();
+    }
+  }
+
+  /**
+   * Writes and syncs the records of the batch. Rotations and the close request are executed in
+   * their position within the batch, after the records queued before them are on disk.
+   *
+   * @return {@code false} once the log has been closed.
+   */
+  private boolean write(List<Request> batch, ByteBuffer buffer, CRC32 crc) {
+    int from = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      var request = batch.get(i);
+      if (request.entry() != null) {
+        encode(request.entry(), buffer, crc);
+        continue;
+      }
+      sync(batch.subList(from, i), buffer);
+      from = i + 1;
+      try {
+        if (request == closing) {
+          channel.close();
+          request.done().complete(segment);
+          return false;
+        }
+        channel.close();
+        channel = open(++segment);
+        request.done().complete(segment - 1);
+      } catch (IOException e) {
+        request.done().completeExceptionally(e);
+      }
+    }
+    sync(batch.subList(from, batch.size()), buffer);
+    return true;
+  }
+
+  private void sync(List<Request> appends, ByteBuffer buffer) {
+    if (appends.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    long position = -1;
+    try {
+      position = channel.position();
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+      synced.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      appends.forEach(request -> request.done().complete(segment));
+    } catch (IOException e) {
+      truncate(position);
+      appends.forEach(request -> request.done().completeExceptionally(e));
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Cuts off a partially written batch, so that the records written after it can be replayed.
+   */
+  private void truncate(long position) {
+    if (position < 0) {
+      return;
+    }
+    try {
+      channel.truncate(position);
+      channel.position(position);
+    } catch (IOException e) {
+      LOGGER.warn("Could not truncate the stock log segment {}: {}", segment, e.getMessage());
+    }
+  }
+
+  private static void encode(Entry entry, ByteBuffer buffer, CRC32 crc) {
+    int offset = buffer.position();
+    buffer.putInt(entry.productId()).putInt(entry.version()).putInt(entry.quantity());
+    crc.reset();
+    crc.update(buffer.array(), offset, RECORD_BYTES - Integer.BYTES);
+    buffer.putInt((int) crc.getValue());
+  }
+
+  private static void read(Path file, DataInputStream in, Map<Integer, Entry> latest) throws IOException {
+    var record = new byte[RECORD_BYTES];
+    var buffer = ByteBuffer.wrap(record);
+    var crc = new CRC32();
+    while (true) {
+      try {
+        in.readFully(record);
+      } catch (EOFException e) {
+        return;
+      }
+      crc.reset();
+      crc.update(record, 0, RECORD_BYTES - Integer.BYTES);
+      if ((int) crc.getValue() != buffer.getInt(RECORD_BYTES - Integer.BYTES)) {
+        LOGGER.warn("Stopped replaying {} at a corrupt record", file);
+        return;
+      }
+      var entry = new Entry(buffer.getInt(0), buffer.getInt(Integer.BYTES), buffer.getInt(2 * Integer.BYTES));
+      latest.merge(entry.productId(), entry, (known, next) -> next.version() - known.version() > 0 ? next : known);
+    }
+  }
+
+  private FileChannel open(long number) throws IOException {
+    return FileChannel.open(directory.resolve(PREFIX + "%016d".formatted(number) + SUFFIX),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private List<Path> segments() {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith(PREFIX)
+                      && file.getFileName().toString().endsWith(SUFFIX))
+              .sorted()
+              .toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static long number(Path file) {
+    var name = file.getFileName().toString();
+    return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+  }
+}
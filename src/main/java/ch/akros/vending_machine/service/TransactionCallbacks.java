@@ -0,0 +1,58 @@
+package ch.akros.vending_machine.service;
+
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hooks into the transaction the current thread runs in, if there is one.
+ */
+public final class TransactionCallbacks {
+
+  private TransactionCallbacks() {
+  }
+
+  /**
+   * Runs the action once the surrounding transaction has committed, or immediately when there is none.
+   */
+  public static void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+  /**
+   * Runs the action once the surrounding transaction has rolled back. Without a transaction there is
+   * nothing to roll back and the action is dropped.
+   */
+  public static void afterRollback(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        if (status == STATUS_ROLLED_BACK) {
+          action.run();
+        }
+      }
+    });
+  }
+
+  /**
+   * Marks the surrounding transaction for rollback, so that the changes made so far are undone
+   * without throwing an exception through the caller.
+   */
+  public static void rollback() {
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+    }
+  }
+}
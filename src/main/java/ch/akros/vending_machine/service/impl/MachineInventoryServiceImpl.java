@@ -0,0 +1,211 @@
+package ch.akros.vending_machine.service.impl;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.dto.ResponseTimestamp;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.plausibility.PurchaseValidation;
+import ch.akros.vending_machine.plausibility.PurchaseValidator;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.MachineInventoryService;
+import ch.akros.vending_machine.service.Payment;
+import ch.akros.vending_machine.service.ProductMetrics;
+import ch.akros.vending_machine.service.ReplicaReads;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import static ch.akros.vending_machine.constant.AppConstant.COIN_NOT_ALLOWED;
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.MACHINE_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.MACHINE_PRODUCTS_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_QUANTITY;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_FOUND_BY_ID;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_NOT_FOUND_BY_ID;
+import static ch.akros.vending_machine.constant.AppConstant.TOO_MANY_COINS;
+import static ch.akros.vending_machine.dto.mapper.ProductMapper.PRODUCT_MAPPER;
+import static ch.akros.vending_machine.service.ReplicaReads.Consistency.PRINCIPAL;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Serves the stock of every machine straight from {@link MachineStockRepository}. Unlike the
+ * products of the local machine, the stock of the fleet is not cached in memory: every request
+ * is one or two primary key lookups of a single machine. Reads may be served by the read replica
+ * once it has the writes of the caller.
+ * <p>
+ * Machines are paid with the exact price. Their coin stock is not known here, so no change is given.
+ * <p>
+ * The stock of {@link ch.akros.vending_machine.constant.AppConstant#LOCAL_MACHINE_ID} can be read
+ * here but only changed through the product API, which keeps the catalog, the stock ledger and the
+ * inventory journal in step with it.
+ */
+@Service
+@RequiredArgsConstructor
+public class MachineInventoryServiceImpl implements MachineInventoryService {
+
+  private final MachineStockRepository machineStockRepository;
+  private final ProductRepository productRepository;
+  private final ProductMetrics productMetrics;
+
+  @Override
+  @Transactional(readOnly = true)
+  public ProductPageDTO getProducts(String machineId, Integer after, int limit) {
+    int size = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+    var products = ReplicaReads.call(PRINCIPAL, () -> machineStockRepository.findPage(machineId, after == null ? 0 : after, Limit.of(size))).stream()
+            .map(PRODUCT_MAPPER::mapToProductDTO)
+            .toList();
+    return ProductPageDTO.builder()
+            .products(products)
+            .nextCursor(products.size() == size ? products.get(size - 1).getProductId() : null)
+            .build();
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public ProductResponseDto getProduct(String machineId, Integer id) throws ProductNotFoundException {
+    MachineStock stock = ReplicaReads.call(PRINCIPAL, () -> machineStockRepository.findStock(machineId, id))
+            .orElseThrow(() -> new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id));
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .message(PRODUCT_FOUND_BY_ID, id)
+            .statusCode(OK.value())
+            .path(path(machineId, id))
+            .product(PRODUCT_MAPPER.mapToProductDTO(stock))
+            .build();
+  }
+
+  @Override
+  @Transactional
+  public ProductResponseDto updateProduct(String machineId, Integer id, ProductDTO productDTO) throws ProductNotFoundException {
+    if (LOCAL_MACHINE_ID.equals(machineId)) {
+      return localMachineRefused(id);
+    }
+    Integer quantity = productDTO.getQuantity();
+    if (quantity == null || quantity < 0 || quantity > MAX_QUANTITY) {
+      return ProductResponseDto.builder()
+              .timestamp(ResponseTimestamp.now())
+              .status(BAD_REQUEST)
+              .message("Product quantity must be between 0 and " + MAX_QUANTITY)
+              .error("Product cannot be updated, due the number of products: " + quantity)
+              .statusCode(BAD_REQUEST.value())
+              .path(path(machineId, id))
+              .product(productDTO)
+              .build();
+    }
+    if (!productRepository.existsById(id)) {
+      throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+    }
+    machineStockRepository.upsertQuantity(machineId, id, quantity);
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .message("Product updated")
+            .statusCode(OK.value())
+            .path(path(machineId, id))
+            .product(PRODUCT_MAPPER.mapToProductDTO(findStock(machineId, id)))
+            .build();
+  }
+
+  @Override
+  @Transactional
+  public ProductResponseDto buyProduct(String machineId, Integer id, PriceRequestDTO priceRequestDTO) throws ProductNotFoundException {
+    if (LOCAL_MACHINE_ID.equals(machineId)) {
+      return localMachineRefused(id);
+    }
+    var payment = Payment.of(priceRequestDTO.getPrices(), priceRequestDTO.getCoins());
+    if (payment.refusal() != null) {
+      productMetrics.purchase(payment.refusal());
+      return ProductResponseDto.builder()
+              .message(payment.refusal().getDescription())
+              .error(payment.refusal() == PurchaseValidation.TOO_MANY_COINS ? TOO_MANY_COINS : COIN_NOT_ALLOWED)
+              .status(BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(path(machineId, id))
+              .build();
+    }
+
+    int price = payment.total();
+    boolean bought = machineStockRepository.decrementQuantity(machineId, id, price) == 1;
+    MachineStock stock = machineStockRepository.findStock(machineId, id).orElse(null);
+    var validation = bought ? PurchaseValidation.PURCHASED
+            : PurchaseValidator.refusedPurchase(price).apply(stock == null ? null : stock.getProduct());
+    productMetrics.purchase(validation);
+    return switch (validation) {
+      case PURCHASED -> ProductResponseDto.builder()
+              .timestamp(ResponseTimestamp.now())
+              .status(OK)
+              .message(validation.getDescription())
+              .statusCode(OK.value())
+              .path(path(machineId, id))
+              .product(PRODUCT_MAPPER.mapToProductDTO(stock))
+              .build();
+      case PRICE_TOO_HIGH, PRICE_TOO_LOW -> ProductResponseDto.builder()
+              .message("Please insert a price = " + stock.getProduct().getProductPrice() + ", inserted price is: " + price)
+              .error(validation.getDescription())
+              .status(BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(path(machineId, id))
+              .build();
+      case OUT_OF_STOCK -> ProductResponseDto.builder()
+              .message(validation.getDescription())
+              .error("Product cannot be bought, no unit left by ID: " + id)
+              .status(BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(path(machineId, id))
+              .build();
+      default -> throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+    };
+  }
+
+  @Override
+  @Transactional
+  public ProductResponseDto removeProduct(String machineId, Integer id) throws ProductNotFoundException {
+    if (LOCAL_MACHINE_ID.equals(machineId)) {
+      return localMachineRefused(id);
+    }
+    MachineStock stock = findStock(machineId, id);
+    machineStockRepository.deleteStock(machineId, id);
+    stock.setQuantity(0);
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .message("Product removed from machine")
+            .statusCode(OK.value())
+            .path(path(machineId, id))
+            .product(PRODUCT_MAPPER.mapToProductDTO(stock))
+            .build();
+  }
+
+  private static ProductResponseDto localMachineRefused(Integer id) {
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(BAD_REQUEST)
+            .message("The stock of this machine is changed through " + PRODUCT_API_PATH)
+            .error("Product cannot be changed through the machine API")
+            .statusCode(BAD_REQUEST.value())
+            .path(path(LOCAL_MACHINE_ID, id))
+            .build();
+  }
+
+  private MachineStock findStock(String machineId, Integer id) throws ProductNotFoundException {
+    return machineStockRepository.findStock(machineId, id)
+            .orElseThrow(() -> new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id));
+  }
+
+  /**
+   * Joins the path here instead of passing a prefix to the response: the machine id comes from the
+   * client, and the response only keeps the escaped form of constant prefixes.
+   */
+  private static String path(String machineId, Integer id) {
+    return MACHINE_API_PATH + machineId + MACHINE_PRODUCTS_PATH + id;
+  }
+}
@@ -0,0 +1,138 @@
+package ch.akros.vending_machine.service.impl;
+
+import ch.akros.vending_machine.dto.BasketRequestDTO;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkResponseDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.service.ProductCatalog;
+import ch.akros.vending_machine.service.ProductMetrics;
+import ch.akros.vending_machine.service.ProductService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static ch.akros.vending_machine.service.ProductMetrics.Operation.*;
+
+/**
+ * Times every {@link ProductService} operation of {@link ProductServiceImpl}, including failed ones.
+ */
+@Service
+@Primary
+@RequiredArgsConstructor
+public class MeteredProductService implements ProductService {
+
+  private final ProductServiceImpl productService;
+  private final ProductMetrics productMetrics;
+
+  @Override
+  public List<ProductDTO> getProducts() {
+    long start = System.nanoTime();
+    try {
+      return productService.getProducts();
+    } finally {
+      productMetrics.record(GET_PRODUCTS, start);
+    }
+  }
+
+  @Override
+  public ProductPageDTO getProducts(Integer after, int limit) {
+    long start = System.nanoTime();
+    try {
+      return productService.getProducts(after, limit);
+    } finally {
+      productMetrics.record(GET_PRODUCTS, start);
+    }
+  }
+
+  @Override
+  public void streamProducts(Consumer<ProductDTO> consumer) {
+    long start = System.nanoTime();
+    try {
+      productService.streamProducts(consumer);
+    } finally {
+      productMetrics.record(STREAM_PRODUCTS, start);
+    }
+  }
+
+  @Override
+  public ProductResponseDto getProduct(Integer id) throws ProductNotFoundException {
+    long start = System.nanoTime();
+    try {
+      return productService.getProduct(id);
+    } finally {
+      productMetrics.record(GET_PRODUCT, start);
+    }
+  }
+
+  @Override
+  public ProductResponseDto createProduct(ProductDTO product) {
+    long start = System.nanoTime();
+    try {
+      return productService.createProduct(product);
+    } finally {
+      productMetrics.record(CREATE_PRODUCT, start);
+    }
+  }
+
+  @Override
+  public ProductResponseDto deleteProduct(Integer id) throws ProductNotFoundException {
+    long start = System.nanoTime();
+    try {
+      return productService.deleteProduct(id);
+    } finally {
+      productMetrics.record(DELETE_PRODUCT, start);
+    }
+  }
+
+  @Override
+  public ProductResponseDto updateProduct(ProductDTO product, Integer id) throws ProductNotFoundException {
+    long start = System.nanoTime();
+    try {
+      return productService.updateProduct(product, id);
+    } finally {
+      productMetrics.record(UPDATE_PRODUCT, start);
+    }
+  }
+
+  @Override
+  public ProductResponseDto buyProduct(Integer id, PriceRequestDTO priceRequestDTO) throws ProductNotFoundException {
+    long start = System.nanoTime();
+    try {
+      return productService.buyProduct(id, priceRequestDTO);
+    } finally {
+      productMetrics.record(BUY_PRODUCT, start);
+    }
+  }
+
+  @Override
+  public ProductResponseDto buyProducts(BasketRequestDTO basketRequestDTO) throws ProductNotFoundException {
+    long start = System.nanoTime();
+    try {
+      return productService.buyProducts(basketRequestDTO);
+    } finally {
+      productMetrics.record(BUY_PRODUCTS, start);
+    }
+  }
+
+  @Override
+  public ProductBulkResponseDTO applyOperations(ProductBulkRequestDTO productBulkRequestDTO) {
+    long start = System.nanoTime();
+    try {
+      return productService.applyOperations(productBulkRequestDTO);
+    } finally {
+      productMetrics.record(APPLY_OPERATIONS, start);
+    }
+  }
+
+  @Override
+  public ProductCatalog.Snapshot catalog() {
+    return productService.catalog();
+  }
+}
@@ -1,28 +1,83 @@
 package ch.akros.vending_machine.service.impl;
 
+import ch.akros.vending_machine.domain.InventoryEvent;
+import ch.akros.vending_machine.domain.MachineStock;
 import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.BasketRequestDTO;
 import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkResponseDTO;
 import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductOperationDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
 import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.dto.ResponseTimestamp;
 import ch.akros.vending_machine.dto.mapper.ProductMapper;
 import ch.akros.vending_machine.exception.ProductNotFoundException;
 import ch.akros.vending_machine.plausibility.ProductValidation;
 import ch.akros.vending_machine.plausibility.ProductValidator;
+import ch.akros.vending_machine.plausibility.PurchaseValidation;
+import ch.akros.vending_machine.plausibility.PurchaseValidator;
+import ch.akros.vending_machine.repository.MachineStockRepository;
 import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.CoinInventory;
+import ch.akros.vending_machine.service.InventoryJournal;
+import ch.akros.vending_machine.service.OptimisticRetry;
+import ch.akros.vending_machine.service.Payment;
+import ch.akros.vending_machine.service.ProductCatalog;
+import ch.akros.vending_machine.service.ProductMetrics;
 import ch.akros.vending_machine.service.ProductService;
+import ch.akros.vending_machine.service.ReplicaReads;
+import ch.akros.vending_machine.service.StockLedger;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static ch.akros.vending_machine.constant.AppConstant.BASKET_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.BULK_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.COIN_NOT_ALLOWED;
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_BASKET_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_BULK_OPERATIONS;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_QUANTITY;
 import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
-import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_FOUND_BY_ID;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_NOT_FOUND_BY_ID;
+import static ch.akros.vending_machine.constant.AppConstant.TOO_MANY_COINS;
+import static ch.akros.vending_machine.service.ProductMetrics.PurchaseStep.*;
+import static ch.akros.vending_machine.service.ReplicaReads.Consistency.INSTANCE;
+import static ch.akros.vending_machine.service.ReplicaReads.Consistency.PRINCIPAL;
+import static ch.akros.vending_machine.service.TransactionCallbacks.afterCommit;
+import static ch.akros.vending_machine.service.TransactionCallbacks.afterRollback;
+import static ch.akros.vending_machine.service.TransactionCallbacks.rollback;
 import static org.springframework.http.HttpStatus.*;
 
 ;
@@ -32,29 +87,75 @@ import static org.springframework.http.HttpStatus.*;
 public class ProductServiceImpl implements ProductService {
 
   private static final Logger log = LoggerFactory.getLogger(ProductServiceImpl.class);
-  private static final String PRODUCT_NOT_FOUND_BY_ID = "Product not found by ID: ";
   private final ProductRepository productRepository;
+  private final ProductCatalog productCatalog;
+  private final ProductMetrics productMetrics;
+  private final CoinInventory coinInventory;
+  private final StockLedger stockLedger;
+  private final OptimisticRetry optimisticRetry;
+  private final InventoryJournal inventoryJournal;
+  private final MachineStockRepository machineStockRepository;
+  private final TransactionTemplate transactionTemplate;
   private static final ProductMapper PRODUCT_MAPPER = ProductMapper.PRODUCT_MAPPER;
 
+  @PersistenceContext
+  private EntityManager entityManager;
+
   @Override
   public List<ProductDTO> getProducts() {
-    List<Product> products = productRepository.findAll();
-    return products.stream().map(ProductMapper.PRODUCT_MAPPER::mapToProductDTO).toList();
+    return catalog().products();
+  }
+
+  /**
+   * Reads one keyset page from the primary key index instead of the cached catalog, so a page
+   * costs the same whatever the size of the catalog. The rows may come from the read replica
+   * once it has the writes of the caller.
+   */
+  @Override
+  @Transactional(readOnly = true)
+  public ProductPageDTO getProducts(Integer after, int limit) {
+    int size = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+    var products = ReplicaReads.call(PRINCIPAL, () -> productRepository.findByProductIdGreaterThanOrderByProductIdAsc(after == null ? 0 : after, Limit.of(size))).stream()
+            .map(this::withLedgerStock)
+            .map(PRODUCT_MAPPER::mapToProductDTO)
+            .toList();
+    return ProductPageDTO.builder()
+            .products(products)
+            .nextCursor(products.size() == size ? products.get(size - 1).getProductId() : null)
+            .build();
+  }
+
+  /**
+   * Streams all products from a database cursor. Every row is detached once it has been handed
+   * to the consumer, so the persistence context does not grow with the table. The rows may come
+   * from the read replica once it has the writes of the caller.
+   */
+  @Override
+  @Transactional(readOnly = true)
+  public void streamProducts(Consumer<ProductDTO> consumer) {
+    ReplicaReads.run(PRINCIPAL, () -> {
+      try (Stream<Product> products = productRepository.streamAllByOrderByProductIdAsc()) {
+        products.forEach(product -> {
+          consumer.accept(PRODUCT_MAPPER.mapToProductDTO(product));
+          entityManager.detach(product);
+        });
+      }
+    });
   }
 
   @Override
   public ProductResponseDto getProduct(Integer id) throws ProductNotFoundException {
-    Product productById = findProductById(id);
-    var validation = ProductValidator.findProductById(id).apply(PRODUCT_MAPPER.mapToProductDTO(productById));
+    ProductDTO productById = catalog().get(id);
+    var validation = ProductValidator.findProductById(id).apply(productById);
     if (validation == ProductValidation.VALID) {
       return ProductResponseDto.builder()
-              .timestamp(Instant.now().toString())
+              .timestamp(ResponseTimestamp.now())
               .status(OK)
-              .message("Product found by ID: " + id)
+              .message(PRODUCT_FOUND_BY_ID, id)
               .error(null)
-              .path(PRODUCT_API_PATH + id)
+              .path(PRODUCT_API_PATH, id)
               .statusCode(OK.value())
-              .data(Map.of(PRODUCT_KEY, PRODUCT_MAPPER.mapToProductDTO(productById)))
+              .product(productById)
               .build();
     }
 
@@ -63,6 +164,9 @@ public class ProductServiceImpl implements ProductService {
 
   @Override
   public ProductResponseDto createProduct(@Valid ProductDTO productDTO) {
+    if (!stockLedger.enabled()) {
+      return restock(productDTO);
+    }
 
     var productName = productDTO.getProductName();
     var findProduct = productRepository.findByProductName(productName);
@@ -71,158 +175,807 @@ public class ProductServiceImpl implements ProductService {
       Product product1 = new Product();
       product1.setProductName(productName);
       product1.setProductPrice(productDTO.getProductPrice());
-      product1.setQuantity(1);
+      var saved = productRepository.save(product1);
+      machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, saved.getProductId(), 1);
+      saved.setQuantity(1);
+      productCatalog.put(saved);
+      productMetrics.registerStock(productCatalog, saved.getProductId());
+      inventoryJournal.record(InventoryEvent.Type.CREATED, saved.getProductId(), 1, saved.getProductName(), saved.getProductPrice());
 
       ProductResponseDto responseDto = ProductResponseDto.builder()
-              .timestamp(Instant.now().toString())
+              .timestamp(ResponseTimestamp.now())
               .status(CREATED)
               .error(null)
               .path(PRODUCT_API_PATH)
               .statusCode(CREATED.value())
-              .data(Map.of(PRODUCT_KEY, PRODUCT_MAPPER.mapToProductDTO(productRepository.save(product1))))
+              .product(PRODUCT_MAPPER.mapToProductDTO(saved))
               .build();
       log.info("HttpStatus: {}", responseDto.getStatus());
       return responseDto;
-    } else {
-      if (findProduct.getQuantity() > 9) {
-        return ProductResponseDto.builder()
-                .timestamp(Instant.now().toString())
-                .status(BAD_REQUEST)
-                .error("Product cannot be added")
-                .path(PRODUCT_API_PATH)
-                .statusCode(BAD_REQUEST.value())
-                .data(Map.of(PRODUCT_KEY, productDTO))
-                .build();
+    }
+
+    Integer id = findProduct.getProductId();
+    return optimisticRetry.execute(ProductMetrics.Operation.CREATE_PRODUCT, id, attempt -> {
+      Product product = attempt == 1 ? withLedgerStock(findProduct) : findProductById(id);
+      if (product == null) {
+        return createProduct(productDTO);
       }
-      findProduct.setQuantity(findProduct.getQuantity() + 1);
-      findProduct.setProductId(findProduct.getProductId());
-      findProduct.setProductName(findProduct.getProductName());
-      findProduct.setProductPrice(productDTO.getProductPrice() == null ? findProduct.getProductPrice() : productDTO.getProductPrice());
+      Integer price = productDTO.getProductPrice() == null ? product.getProductPrice() : productDTO.getProductPrice();
+      boolean changed = !price.equals(product.getProductPrice());
+      product.setProductPrice(price);
+      // The unit is added in the transaction of the price change and taken back if it rolls back.
+      var saved = transactionTemplate.execute(status -> {
+        int quantity = stockLedger.add(id, 1);
+        if (quantity == StockLedger.REJECTED) {
+          return null;
+        }
+        afterRollback(() -> stockLedger.update(id, left -> left - 1));
+        var stored = changed ? productRepository.save(product) : product;
+        stored.setQuantity(quantity);
+        inventoryJournal.record(InventoryEvent.Type.RESTOCKED, id, 1, null, price);
+        return stored;
+      });
+      if (saved == null) {
+        return productFull(productDTO);
+      }
+      stockLedger.touch(id);
+      productCatalog.put(saved);
 
       return ProductResponseDto.builder()
-              .timestamp(Instant.now().toString())
+              .timestamp(ResponseTimestamp.now())
               .status(CREATED)
               .error(null)
               .path(PRODUCT_API_PATH)
               .statusCode(CREATED.value())
-              .data(Map.of(PRODUCT_KEY, PRODUCT_MAPPER.mapToProductDTO(productRepository.save(findProduct))))
+              .product(PRODUCT_MAPPER.mapToProductDTO(saved))
               .build();
+    });
+  }
+
+  /**
+   * Creates the product or adds one unit to it in a single statement. Stock kept in the ledger is
+   * restocked through the ledger instead.
+   */
+  private ProductResponseDto restock(ProductDTO productDTO) {
+    var restock = productRepository.restock(LOCAL_MACHINE_ID, productDTO.getProductName(), productDTO.getProductPrice(), MAX_QUANTITY);
+    if (restock == null) {
+      return productFull(productDTO);
+    }
+    var saved = restock.product();
+    productCatalog.put(saved);
+    if (restock.created()) {
+      productMetrics.registerStock(productCatalog, saved.getProductId());
+      inventoryJournal.record(InventoryEvent.Type.CREATED, saved.getProductId(), 1, saved.getProductName(), saved.getProductPrice());
+    } else {
+      inventoryJournal.record(InventoryEvent.Type.RESTOCKED, saved.getProductId(), 1, null, saved.getProductPrice());
     }
+
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(CREATED)
+            .error(null)
+            .path(PRODUCT_API_PATH)
+            .statusCode(CREATED.value())
+            .product(PRODUCT_MAPPER.mapToProductDTO(saved))
+            .build();
   }
 
+  private ProductResponseDto productFull(ProductDTO productDTO) {
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(BAD_REQUEST)
+            .error("Product cannot be added")
+            .path(PRODUCT_API_PATH)
+            .statusCode(BAD_REQUEST.value())
+            .product(productDTO)
+            .build();
+  }
+
+  /**
+   * Takes one unit out of stock, or deletes the product with its last unit. The product is deleted
+   * together with its stock only if neither was changed since they were read, so a concurrent
+   * restock is not lost. A product that other machines of the fleet still hold is kept in the catalog with
+   * no local unit instead.
+   */
   @Override
   public ProductResponseDto deleteProduct(Integer id) throws ProductNotFoundException {
-    Product product = findProductById(id);
-    if (product != null) {
-      if (product.getQuantity() > 1) {
-        product.setQuantity(product.getQuantity() - 1);
-        productRepository.save(product);
+    return optimisticRetry.execute(ProductMetrics.Operation.DELETE_PRODUCT, id, attempt -> {
+      Product product = findProductById(id);
+      if (product == null) {
+        throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+      }
+      int left = stockLedger.enabled()
+              ? stockLedger.update(id, quantity -> quantity > 1 ? quantity - 1 : StockLedger.REJECTED)
+              : machineStockRepository.removeUnit(LOCAL_MACHINE_ID, id) == 1 ? quantityOf(product) - 1 : StockLedger.REJECTED;
+      int taken = 1;
+      if (left == StockLedger.REJECTED && machineStockRepository.existsByProductIdAndMachineIdNot(id, LOCAL_MACHINE_ID)) {
+        // Machines of the fleet still stock the product, so it stays in the catalog without local units.
+        taken = stockLedger.enabled() ? stockLedger.quantity(id) : quantityOf(product);
+        if (stockLedger.enabled()) {
+          left = stockLedger.set(id, 0);
+        } else {
+          machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, id, 0);
+          left = 0;
+        }
+      }
+      if (left != StockLedger.REJECTED) {
+        product.setQuantity(left);
+        productCatalog.put(product);
+        inventoryJournal.record(InventoryEvent.Type.UPDATED, id, -taken, null, null);
 
         return ProductResponseDto.builder()
-                .timestamp(Instant.now().toString())
+                .timestamp(ResponseTimestamp.now())
                 .status(OK)
                 .error(null)
                 .statusCode(OK.value())
-                .path(PRODUCT_API_PATH + id)
-                .data(Map.of(PRODUCT_KEY, PRODUCT_MAPPER.mapToProductDTO(product)))
+                .path(PRODUCT_API_PATH, id)
+                .product(PRODUCT_MAPPER.mapToProductDTO(product))
                 .build();
-
       }
 
-      productRepository.deleteById(id);
+      transactionTemplate.executeWithoutResult(status -> {
+        var stock = machineStockRepository.findAllForUpdate(LOCAL_MACHINE_ID, List.of(id));
+        if (!stockLedger.enabled() && stock.stream().anyMatch(row -> row.getQuantity() != quantityOf(product))) {
+          throw new ObjectOptimisticLockingFailureException(MachineStock.class, id);
+        }
+        machineStockRepository.deleteStock(LOCAL_MACHINE_ID, id);
+        productRepository.delete(product);
+        inventoryJournal.record(InventoryEvent.Type.DELETED, id, -quantityOf(product), null, null);
+      });
+      stockLedger.remove(id);
+      productCatalog.remove(id);
+      productMetrics.removeStock(id);
       return ProductResponseDto.builder()
-              .timestamp(Instant.now().toString())
+              .timestamp(ResponseTimestamp.now())
               .status(OK)
               .message("Product deleted")
               .error(null)
               .statusCode(OK.value())
-              .path(PRODUCT_API_PATH + id)
-              .data(Map.of(PRODUCT_KEY, PRODUCT_MAPPER.mapToProductDTO(product)))
+              .path(PRODUCT_API_PATH, id)
+              .product(PRODUCT_MAPPER.mapToProductDTO(product))
               .build();
-    }
-
-    throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+    });
   }
 
   @Override
   public ProductResponseDto updateProduct(@Valid ProductDTO productDTO, Integer id) throws ProductNotFoundException {
-    if (productDTO.getQuantity() != null && productDTO.getQuantity() > 10) {
+    if (productDTO.getQuantity() != null && (productDTO.getQuantity() < 0 || productDTO.getQuantity() > MAX_QUANTITY)) {
       return ProductResponseDto.builder()
-              .timestamp(Instant.now().toString())
+              .timestamp(ResponseTimestamp.now())
               .status(BAD_REQUEST)
-              .message("Product quantity must be less than 11")
+              .message("Product quantity must be between 0 and " + MAX_QUANTITY)
               .error("Product cannot be updated, due the number of products: " + productDTO.getQuantity())
               .statusCode(BAD_REQUEST.value())
-              .path(PRODUCT_API_PATH + id)
-              .data(Map.of(PRODUCT_KEY, productDTO))
+              .path(PRODUCT_API_PATH, id)
+              .product(productDTO)
               .build();
     }
-    Product findProductById = findProductById(id);
-    if (findProductById != null && findProductById.getProductId().equals(id)) {
+    return optimisticRetry.execute(ProductMetrics.Operation.UPDATE_PRODUCT, id, attempt -> {
+      Product findProductById = findProductById(id);
+      if (findProductById == null) {
+        throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+      }
       if (productDTO.getProductName() != null) {
         findProductById.setProductName(productDTO.getProductName());
       }
       if (productDTO.getProductPrice() != null) {
         findProductById.setProductPrice(productDTO.getProductPrice());
       }
-      if (productDTO.getQuantity() != null) {
-        findProductById.setQuantity(productDTO.getQuantity());
-      }
-      var update = productRepository.save(findProductById);
+      var update = transactionTemplate.execute(status -> {
+        int before = quantityOf(findProductById);
+        if (productDTO.getQuantity() != null && stockLedger.enabled()) {
+          // The ledger is changed in the transaction of the update and changed back if it rolls back.
+          int[] replaced = {StockLedger.REJECTED};
+          stockLedger.update(id, quantity -> {
+            replaced[0] = quantity;
+            return productDTO.getQuantity();
+          });
+          before = replaced[0];
+          if (before != StockLedger.REJECTED) {
+            int change = productDTO.getQuantity() - before;
+            afterRollback(() -> stockLedger.update(id, quantity -> quantity - change));
+          }
+        }
+        var saved = productRepository.save(findProductById);
+        if (productDTO.getQuantity() != null && !stockLedger.enabled()) {
+          machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, id, productDTO.getQuantity());
+          saved.setQuantity(productDTO.getQuantity());
+        } else if (productDTO.getQuantity() != null && before != StockLedger.REJECTED) {
+          saved.setQuantity(productDTO.getQuantity());
+        }
+        int delta = before == StockLedger.REJECTED || productDTO.getQuantity() == null ? 0 : productDTO.getQuantity() - before;
+        inventoryJournal.record(InventoryEvent.Type.UPDATED, id, delta, saved.getProductName(), saved.getProductPrice());
+        return saved;
+      });
+      stockLedger.touch(id);
+      productCatalog.put(update);
       return ProductResponseDto.builder()
-              .timestamp(Instant.now().toString())
+              .timestamp(ResponseTimestamp.now())
               .status(OK)
               .error(null)
               .statusCode(OK.value())
-              .path(PRODUCT_API_PATH + id)
-              .data(Map.of(PRODUCT_KEY, PRODUCT_MAPPER.mapToProductDTO(update)))
+              .path(PRODUCT_API_PATH, id)
+              .product(PRODUCT_MAPPER.mapToProductDTO(update))
               .build();
+    });
+  }
+
+  /**
+   * Buys one unit of the product. An overpayment is accepted when the coin inventory can return
+   * the change; the product stock, the inserted coins and the dispensed change are updated in
+   * one transaction.
+   */
+  @Override
+  @Transactional
+  public ProductResponseDto buyProduct(Integer id, PriceRequestDTO priceRequestDTO) throws ProductNotFoundException {
+    long start = System.nanoTime();
+    var payment = Payment.of(priceRequestDTO.getPrices(), priceRequestDTO.getCoins());
+    start = productMetrics.step(VALIDATE_COINS, start);
+    if (payment.refusal() != null) {
+      return paymentRefused(payment.refusal(), PRODUCT_API_PATH, id);
     }
 
-    throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+    return buyProduct(id, payment.total(), payment.coins(), start);
   }
 
-  public ProductResponseDto buyProduct(Integer id, PriceRequestDTO priceRequestDTO) throws ProductNotFoundException {
-    List<Integer> prices = priceRequestDTO.getPrices();
-    var notAllowed = prices.stream().filter(price -> price == 1 || price == 5 || price == 500).toList();
-    if (!notAllowed.isEmpty()) {
+  /**
+   * Buys all products of the basket with one payment. The stock rows of the products are locked
+   * and validated together, and all decrements are flushed as one JDBC batch together with the coin updates,
+   * so the basket and its change are paid either completely or not at all. With the stock ledger
+   * the units are taken in memory instead and put back if the transaction rolls back. A basket
+   * holds at most {@link ch.akros.vending_machine.constant.AppConstant#MAX_BASKET_SIZE} units, which
+   * bounds the rows one purchase locks.
+   */
+  @Override
+  @Transactional
+  public ProductResponseDto buyProducts(BasketRequestDTO basketRequestDTO) throws ProductNotFoundException {
+    var payment = Payment.of(basketRequestDTO.getPrices(), basketRequestDTO.getCoins());
+    if (payment.refusal() != null) {
+      return paymentRefused(payment.refusal(), BASKET_API_PATH, null);
+    }
+    List<Integer> productIds = basketRequestDTO.getProductIds();
+    if (productIds == null || productIds.isEmpty()) {
+      productMetrics.purchase(PurchaseValidation.BASKET_EMPTY);
       return ProductResponseDto.builder()
-              .message("Coin not allowed")
-              .error("Vending Machine does not accept coins: [1 or 5 or 500]")
+              .message(PurchaseValidation.BASKET_EMPTY.getDescription())
+              .error("Please add at least one product to the basket")
               .status(HttpStatus.BAD_REQUEST)
-              .timestamp(Instant.now().toString())
-              .path(PRODUCT_API_PATH + id)
+              .timestamp(ResponseTimestamp.now())
+              .path(BASKET_API_PATH)
+              .build();
+    }
+    if (productIds.size() > MAX_BASKET_SIZE) {
+      productMetrics.purchase(PurchaseValidation.BASKET_TOO_LARGE);
+      return ProductResponseDto.builder()
+              .message(PurchaseValidation.BASKET_TOO_LARGE.getDescription())
+              .error("Please add at most " + MAX_BASKET_SIZE + " products to the basket")
+              .status(HttpStatus.BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(BASKET_API_PATH)
               .build();
     }
 
-    return buyProduct(id, prices.stream().reduce(0, Integer::sum));
-  }
+    Map<Integer, Integer> units = new TreeMap<>();
+    productIds.forEach(productId -> units.merge(productId, 1, Integer::sum));
+    Map<Integer, MachineStock> stocks = stockLedger.enabled() ? Map.of() : lockStock(units.keySet());
+    List<Product> products = productRepository.findAllById(units.keySet()).stream()
+            .map(this::withLedgerStock)
+            .sorted(Comparator.comparing(Product::getProductId))
+            .toList();
+    if (products.size() < units.size()) {
+      var found = products.stream().map(Product::getProductId).collect(Collectors.toSet());
+      var missing = units.keySet().stream().filter(productId -> !found.contains(productId)).findFirst().orElse(null);
+      productMetrics.purchase(PurchaseValidation.PRODUCT_NOT_FOUND_BY_ID);
+      throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + missing);
+    }
+
+    int expected = 0;
+    for (Product product : products) {
+      int requested = units.get(product.getProductId());
+      if (product.getQuantity() == null || product.getQuantity() < requested) {
+        return basketOutOfStock(product);
+      }
+      expected += product.getProductPrice() * requested;
+    }
+    var inserted = payment.coins();
+    int price = payment.total();
+    if (price < expected || price > expected && !coinInventory.canChange(price - expected)) {
+      var validation = price > expected ? PurchaseValidation.PRICE_TOO_HIGH : PurchaseValidation.PRICE_TOO_LOW;
+      productMetrics.purchase(validation);
+      return ProductResponseDto.builder()
+              .message("Please insert a price = " + expected + ", inserted price is: " + price)
+              .error(validation.getDescription())
+              .status(HttpStatus.BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(BASKET_API_PATH)
+              .build();
+    }
 
-  private ProductResponseDto buyProduct(Integer id, Integer price) throws ProductNotFoundException {
-    ProductResponseDto productResponseDto = getProduct(id);
-    ProductDTO productDTO = productResponseDto.getData().get(PRODUCT_KEY);
-    log.info("Given Price is: {}, Product price is: {}", price, productDTO.getProductPrice());
-    if (price > productDTO.getProductPrice()) {
+    Map<String, ProductDTO> bought = new LinkedHashMap<>();
+    for (Product product : products) {
+      int requested = units.get(product.getProductId());
+      int left = stockLedger.enabled() ? stockLedger.take(product.getProductId(), requested) : product.getQuantity() - requested;
+      if (left == StockLedger.REJECTED) {
+        rollback();
+        product.setQuantity(stockLedger.quantity(product.getProductId()));
+        return basketOutOfStock(product);
+      }
+      if (!stockLedger.enabled()) {
+        stocks.get(product.getProductId()).setQuantity(left);
+      }
+      product.setQuantity(left);
+      inventoryJournal.record(InventoryEvent.Type.PURCHASED, product.getProductId(), -requested, null, null);
+      bought.put(product.getProductId().toString(), PRODUCT_MAPPER.mapToProductDTO(product));
+    }
+    var dispensed = new int[inserted.length];
+    if (!coinInventory.collect(inserted, price - expected, dispensed)) {
+      rollback();
+      productMetrics.purchase(PurchaseValidation.PRICE_TOO_HIGH);
       return ProductResponseDto.builder()
-              .message("Please insert a price = " + productDTO.getProductPrice() + ", inserted price is: " + price)
-              .error("Vending Machine can not return money change. Inserted price is higher than expected price")
+              .message("Please insert a price = " + expected + ", inserted price is: " + price)
+              .error(PurchaseValidation.PRICE_TOO_HIGH.getDescription())
               .status(HttpStatus.BAD_REQUEST)
-              .timestamp(Instant.now().toString())
-              .path(PRODUCT_API_PATH + id)
+              .timestamp(ResponseTimestamp.now())
+              .path(BASKET_API_PATH)
+              .build();
+    }
+    afterCommit(() -> products.forEach(productCatalog::put));
+    productMetrics.purchase(PurchaseValidation.PURCHASED);
+    return ProductResponseDto.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .message("Products purchased")
+            .error(null)
+            .statusCode(OK.value())
+            .path(BASKET_API_PATH)
+            .data(bought)
+            .change(price > expected ? CoinInventory.coins(dispensed) : null)
+            .build();
+  }
+
+  /**
+   * Applies restocks and updates as one set. The touched products and their stock rows are loaded
+   * and locked with one query each, every operation is checked against the quantities the operations before it leave, and
+   * the changes are written in one transaction, as JDBC batches when it commits. If an operation
+   * is refused, none is applied. With the stock ledger the quantities are changed in the ledger
+   * and put back if the transaction rolls back.
+   */
+  @Override
+  @Transactional
+  public ProductBulkResponseDTO applyOperations(ProductBulkRequestDTO productBulkRequestDTO) {
+    List<ProductOperationDTO> operations = productBulkRequestDTO == null ? null : productBulkRequestDTO.getOperations();
+    if (operations == null || operations.isEmpty() || operations.size() > MAX_BULK_OPERATIONS) {
+      return ProductBulkResponseDTO.builder()
+              .timestamp(ResponseTimestamp.now())
+              .status(BAD_REQUEST)
+              .statusCode(BAD_REQUEST.value())
+              .message("Please send between 1 and " + MAX_BULK_OPERATIONS + " operations")
+              .error("Operations cannot be applied")
+              .path(BULK_API_PATH)
+              .results(List.of())
+              .build();
+    }
+
+    Set<Integer> productIds = new HashSet<>();
+    Set<String> productNames = new HashSet<>();
+    for (ProductOperationDTO operation : operations) {
+      if (operation != null && operation.getType() == ProductOperationDTO.Type.UPDATE && operation.getProductId() != null) {
+        productIds.add(operation.getProductId());
+      }
+      if (operation != null && operation.getProductName() != null) {
+        productNames.add(nameKey(operation.getProductName()));
+      }
+    }
+    Map<Integer, BulkStock> byId = new HashMap<>();
+    Map<String, BulkStock> byName = new HashMap<>();
+    var products = productRepository.findAllByIdOrNameForUpdate(productIds, productNames);
+    Map<Integer, MachineStock> machineStocks = stockLedger.enabled() || products.isEmpty()
+            ? Map.of()
+            : lockStock(products.stream().map(Product::getProductId).toList());
+    for (Product product : products) {
+      int quantity = stockLedger.enabled() ? stockLedger.quantity(product.getProductId()) : StockLedger.REJECTED;
+      var machineStock = machineStocks.get(product.getProductId());
+      var stock = new BulkStock(product, quantity != StockLedger.REJECTED ? quantity
+              : machineStock == null ? null : machineStock.getQuantity(), false);
+      byId.put(product.getProductId(), stock);
+      byName.put(nameKey(product.getProductName()), stock);
+    }
+
+    List<BulkResult> results = new ArrayList<>(operations.size());
+    int refused = 0;
+    for (ProductOperationDTO operation : operations) {
+      var result = operation == null || operation.getType() == null
+              ? BulkResult.refused(null, BAD_REQUEST, "the operation type must be RESTOCK or UPDATE")
+              : operation.getType() == ProductOperationDTO.Type.RESTOCK ? restock(operation, byName) : update(operation, byId, byName);
+      results.add(result);
+      refused += result.error() == null ? 0 : 1;
+    }
+    if (refused == 0) {
+      refused = store(results, machineStocks);
+    }
+    if (refused > 0) {
+      rollback();
+      return ProductBulkResponseDTO.builder()
+              .timestamp(ResponseTimestamp.now())
+              .status(BAD_REQUEST)
+              .statusCode(BAD_REQUEST.value())
+              .message("Operations not applied")
+              .error(refused + " of " + operations.size() + " operation(s) refused")
+              .path(BULK_API_PATH)
+              .results(results.stream().map(result -> result.error() == null
+                      ? BulkResult.refused(result.stock(), FAILED_DEPENDENCY, "Not applied, another operation was refused").toResponse(null)
+                      : result.toResponse(null)).toList())
               .build();
-    } else if (price < productDTO.getProductPrice()) {
+    }
+
+    for (BulkResult result : results) {
+      var product = result.stock().product();
+      if (result.stock().created() && result.first()) {
+        inventoryJournal.record(InventoryEvent.Type.CREATED, product.getProductId(), result.delta(), product.getProductName(), product.getProductPrice());
+      } else {
+        var type = result.status() == CREATED ? InventoryEvent.Type.RESTOCKED : InventoryEvent.Type.UPDATED;
+        inventoryJournal.record(type, product.getProductId(), result.delta(), null, product.getProductPrice());
+      }
+    }
+    var stocks = results.stream().map(BulkResult::stock).distinct().toList();
+    afterCommit(() -> stocks.forEach(stock -> {
+      var product = stock.product();
+      productCatalog.put(new Product(product.getProductId(), product.getProductName(), product.getProductPrice(), stock.quantity()));
+      if (stock.created()) {
+        productMetrics.registerStock(productCatalog, product.getProductId());
+      }
+    }));
+    return ProductBulkResponseDTO.builder()
+            .timestamp(ResponseTimestamp.now())
+            .status(OK)
+            .statusCode(OK.value())
+            .message("Operations applied")
+            .error(null)
+            .path(BULK_API_PATH)
+            .results(results.stream().map(result -> result.toResponse(result.stock().productDTO())).toList())
+            .build();
+  }
+
+  private BulkResult restock(ProductOperationDTO operation, Map<String, BulkStock> byName) {
+    String productName = operation.getProductName();
+    if (productName == null || productName.isBlank()) {
+      return BulkResult.refused(null, BAD_REQUEST, "the productName must not null or empty");
+    }
+    int units = operation.getQuantity() == null ? 1 : operation.getQuantity();
+    if (units < 1) {
+      return BulkResult.refused(null, BAD_REQUEST, "a restock adds at least one unit");
+    }
+    var stock = byName.get(nameKey(productName));
+    boolean first = false;
+    if (stock == null) {
+      if (operation.getProductPrice() == null) {
+        return BulkResult.refused(null, BAD_REQUEST, "the productPrice must not null");
+      }
+      stock = new BulkStock(new Product(null, productName, operation.getProductPrice(), 0), 0, true);
+      byName.put(nameKey(productName), stock);
+      first = true;
+    }
+    if (stock.quantity() + units > MAX_QUANTITY) {
+      return BulkResult.refused(stock, BAD_REQUEST, "Product cannot be added, only " + (MAX_QUANTITY - stock.quantity()) + " unit(s) fit");
+    }
+    if (operation.getProductPrice() != null) {
+      stock.product().setProductPrice(operation.getProductPrice());
+    }
+    stock.add(units);
+    return new BulkResult(stock, units, first, CREATED, null);
+  }
+
+  private BulkResult update(ProductOperationDTO operation, Map<Integer, BulkStock> byId, Map<String, BulkStock> byName) {
+    Integer id = operation.getProductId();
+    var stock = id == null ? null : byId.get(id);
+    if (stock == null) {
+      return BulkResult.refused(null, NOT_FOUND, PRODUCT_NOT_FOUND_BY_ID + id);
+    }
+    Integer quantity = operation.getQuantity();
+    if (quantity != null && (quantity < 0 || quantity > MAX_QUANTITY)) {
+      return BulkResult.refused(stock, BAD_REQUEST, "Product cannot be updated, due the number of products: " + quantity);
+    }
+    String productName = operation.getProductName();
+    if (productName != null) {
+      var named = byName.get(nameKey(productName));
+      if (productName.isBlank() || named != null && named != stock) {
+        return BulkResult.refused(stock, BAD_REQUEST, "Product cannot be renamed to: " + productName);
+      }
+      byName.remove(nameKey(stock.product().getProductName()));
+      byName.put(nameKey(productName), stock);
+      stock.product().setProductName(productName);
+    }
+    if (operation.getProductPrice() != null) {
+      stock.product().setProductPrice(operation.getProductPrice());
+    }
+    int delta = quantity == null ? 0 : quantity - stock.quantity();
+    stock.add(delta);
+    return new BulkResult(stock, delta, false, OK, null);
+  }
+
+  /**
+   * Persists the new products and hands the stock changes to the locked stock rows or the stock
+   * ledger. The changed rows are flushed when the transaction commits.
+   *
+   * @param machineStocks the locked stock rows of the loaded products, by product id.
+   * @return the number of operations refused by the stock ledger.
+   */
+  private int store(List<BulkResult> results, Map<Integer, MachineStock> machineStocks) {
+    var stocks = results.stream().map(BulkResult::stock).distinct().toList();
+    for (BulkStock stock : stocks) {
+      var product = stock.product();
+      if (stock.created()) {
+        productRepository.save(product);
+        entityManager.persist(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), stock.quantity(), product));
+      } else if (!stockLedger.enabled()) {
+        var machineStock = machineStocks.get(product.getProductId());
+        if (machineStock != null) {
+          machineStock.setQuantity(stock.quantity());
+        } else if (stock.quantity() != stock.initial()) {
+          entityManager.persist(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), stock.quantity(), product));
+        }
+      } else {
+        Integer id = product.getProductId();
+        int delta = stock.quantity() - stock.initial();
+        if (delta != 0 && stockLedger.update(id, quantity -> quantity + delta) == StockLedger.REJECTED) {
+          int refused = 0;
+          for (ListIterator<BulkResult> it = results.listIterator(); it.hasNext(); ) {
+            if (it.next().stock() == stock) {
+              it.set(BulkResult.refused(stock, CONFLICT, "The stock was changed concurrently, please try again"));
+              refused++;
+            }
+          }
+          return refused;
+        }
+        if (delta != 0) {
+          afterRollback(() -> stockLedger.update(id, quantity -> quantity - delta));
+        }
+        stockLedger.touch(id);
+      }
+    }
+    return 0;
+  }
+
+  private static String nameKey(String productName) {
+    return productName.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Takes one unit of the product out of stock if the price matches the product price. With the
+   * stock ledger the unit is taken in memory and put back if the purchase rolls back.
+   *
+   * @return the number of taken units, either 0 or 1.
+   */
+  private int decrementQuantity(Integer id, ProductDTO listed, int price) {
+    if (!stockLedger.enabled()) {
+      return machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, id, price);
+    }
+    Integer productPrice = listed != null ? listed.getProductPrice() : Optional.ofNullable(findProductById(id))
+            .map(Product::getProductPrice)
+            .orElse(null);
+    return productPrice != null && productPrice == price && stockLedger.take(id, 1) != StockLedger.REJECTED ? 1 : 0;
+  }
+
+  private ProductResponseDto basketOutOfStock(Product product) {
+    productMetrics.purchase(PurchaseValidation.OUT_OF_STOCK);
+    return ProductResponseDto.builder()
+            .message(PurchaseValidation.OUT_OF_STOCK.getDescription())
+            .error("Product cannot be bought, only " + product.getQuantity() + " unit(s) left by ID: " + product.getProductId())
+            .status(HttpStatus.BAD_REQUEST)
+            .timestamp(ResponseTimestamp.now())
+            .path(BASKET_API_PATH)
+            .build();
+  }
+
+  private ProductResponseDto paymentRefused(PurchaseValidation refusal, String path, Integer id) {
+    productMetrics.purchase(refusal);
+    return ProductResponseDto.builder()
+            .message(refusal.getDescription())
+            .error(refusal == PurchaseValidation.TOO_MANY_COINS ? TOO_MANY_COINS : COIN_NOT_ALLOWED)
+            .status(HttpStatus.BAD_REQUEST)
+            .timestamp(ResponseTimestamp.now())
+            .path(path, id)
+            .build();
+  }
+
+  /**
+   * Buys one unit of the product. The duration of every step is recorded, starting at {@code start}.
+   * The unit is taken out of the catalog once the purchase has committed, so a purchase that rolls
+   * back never shows up in it.
+   */
+  private ProductResponseDto buyProduct(Integer id, int price, int[] inserted, long start) throws ProductNotFoundException {
+    ProductDTO listed = catalog().get(id);
+    int change = listed == null || listed.getProductPrice() == null ? 0 : price - listed.getProductPrice();
+    int charged = change > 0 && coinInventory.canChange(change) ? listed.getProductPrice() : price;
+    int decremented = decrementQuantity(id, listed, charged);
+    start = productMetrics.step(DECREMENT, start);
+    if (decremented == 1) {
+      var dispensed = new int[inserted.length];
+      boolean collected = coinInventory.collect(inserted, price - charged, dispensed);
+      start = productMetrics.step(COLLECT_COINS, start);
+      if (!collected) {
+        rollback();
+        productMetrics.purchase(PurchaseValidation.PRICE_TOO_HIGH);
+        return ProductResponseDto.builder()
+                .message("Please insert a price = " + charged + ", inserted price is: " + price)
+                .error(PurchaseValidation.PRICE_TOO_HIGH.getDescription())
+                .status(HttpStatus.BAD_REQUEST)
+                .timestamp(ResponseTimestamp.now())
+                .path(PRODUCT_API_PATH, id)
+                .build();
+      }
+      inventoryJournal.record(InventoryEvent.Type.PURCHASED, id, -1, null, null);
+      afterCommit(() -> productCatalog.purchased(id));
+      ProductDTO product = listed != null && listed.getQuantity() != null
+              ? ProductCatalog.withOneUnitLess(listed)
+              : PRODUCT_MAPPER.mapToProductDTO(findProductById(id));
+      productMetrics.step(UPDATE_CATALOG, start);
+      productMetrics.purchase(PurchaseValidation.PURCHASED);
       return ProductResponseDto.builder()
-              .message("Please insert a price = " + productDTO.getProductPrice() + ", inserted price is: " + price)
-              .error("Inserted price is lower than expected price")
+              .timestamp(ResponseTimestamp.now())
+              .status(OK)
+              .message(PurchaseValidation.PURCHASED.getDescription())
+              .error(null)
+              .statusCode(OK.value())
+              .path(PRODUCT_API_PATH, id)
+              .product(product)
+              .change(charged < price ? CoinInventory.coins(dispensed) : null)
+              .build();
+    }
+
+    Product product = findProductById(id);
+    var validation = PurchaseValidator.refusedPurchase(price).apply(product);
+    productMetrics.step(DIAGNOSE, start);
+    productMetrics.purchase(validation);
+    log.info("Given Price is: {}, purchase refused: {}", price, validation);
+    return switch (validation) {
+      case PRICE_TOO_HIGH, PRICE_TOO_LOW -> ProductResponseDto.builder()
+              .message("Please insert a price = " + product.getProductPrice() + ", inserted price is: " + price)
+              .error(validation.getDescription())
               .status(HttpStatus.BAD_REQUEST)
-              .timestamp(Instant.now().toString())
-              .path(PRODUCT_API_PATH + id)
+              .timestamp(ResponseTimestamp.now())
+              .path(PRODUCT_API_PATH, id)
               .build();
+      case OUT_OF_STOCK -> ProductResponseDto.builder()
+              .message(validation.getDescription())
+              .error("Product cannot be bought, no unit left by ID: " + id)
+              .status(HttpStatus.BAD_REQUEST)
+              .timestamp(ResponseTimestamp.now())
+              .path(PRODUCT_API_PATH, id)
+              .build();
+      default -> throw new ProductNotFoundException(PRODUCT_NOT_FOUND_BY_ID + id);
+    };
+  }
+
+  /**
+   * Reloads the catalog from the database. Runs periodically so that changes made by other
+   * instances or directly in the database become visible to the read endpoints. The products are
+   * read from the read replica once it has every write of this instance, so a reload never takes
+   * back a change the catalog already shows.
+   *
+   * @return the catalog snapshot in place after the reload.
+   */
+  @Scheduled(fixedDelayString = "${catalog.refresh-interval:30s}", initialDelayString = "${catalog.refresh-interval:30s}")
+  public ProductCatalog.Snapshot refreshCatalog() {
+    var expected = productCatalog.snapshot();
+    var products = ReplicaReads.call(INSTANCE, productRepository::findAll);
+    if (stockLedger.enabled()) {
+      products.forEach(this::withLedgerStock);
     }
-    return deleteProduct(id);
+    var snapshot = productCatalog.replace(expected, products);
+    productMetrics.registerStock(productCatalog);
+    return snapshot;
+  }
+
+  @Override
+  public ProductCatalog.Snapshot catalog() {
+    var snapshot = productCatalog.snapshot();
+    return snapshot != null ? snapshot : refreshCatalog();
+  }
+
+  /**
+   * Loads and write-locks the stock rows of the products in this machine.
+   *
+   * @return the locked rows by product id; products this machine does not hold are missing.
+   */
+  private Map<Integer, MachineStock> lockStock(Collection<Integer> productIds) {
+    Map<Integer, MachineStock> stocks = new HashMap<>();
+    machineStockRepository.findAllForUpdate(LOCAL_MACHINE_ID, productIds)
+            .forEach(stock -> stocks.put(stock.getProductId(), stock));
+    return stocks;
+  }
+
+  private static int quantityOf(Product product) {
+    return product.getQuantity() == null ? 0 : product.getQuantity();
   }
 
   private Product findProductById(Integer id) {
-    return productRepository.findById(id).orElse(null);
+    return withLedgerStock(productRepository.findById(id).orElse(null));
+  }
+
+  /**
+   * Replaces the quantity read from the database with the one in the stock ledger, which may not
+   * have been written yet.
+   */
+  private Product withLedgerStock(Product product) {
+    if (product != null && stockLedger.enabled()) {
+      if (entityManager.contains(product)) {
+        entityManager.detach(product);
+      }
+      int quantity = stockLedger.quantity(product.getProductId());
+      if (quantity != StockLedger.REJECTED) {
+        product.setQuantity(quantity);
+      }
+    }
+    return product;
+  }
+
+  /**
+   * A product touched by a bulk request, with the quantity it had when it was loaded and the one
+   * the operations so far leave.
+   */
+  private static final class BulkStock {
+
+    private final Product product;
+    private final int initial;
+    private final boolean created;
+    private int quantity;
+
+    private BulkStock(Product product, Integer quantity, boolean created) {
+      this.product = product;
+      this.initial = quantity == null ? 0 : quantity;
+      this.quantity = initial;
+      this.created = created;
+    }
+
+    Product product() {
+      return product;
+    }
+
+    int initial() {
+      return initial;
+    }
+
+    boolean created() {
+      return created;
+    }
+
+    int quantity() {
+      return quantity;
+    }
+
+    void add(int units) {
+      quantity += units;
+    }
+
+    ProductDTO productDTO() {
+      var dto = PRODUCT_MAPPER.mapToProductDTO(product);
+      dto.setQuantity(quantity);
+      return dto;
+    }
+  }
+
+  /**
+   * The outcome of one operation of a bulk request.
+   *
+   * @param first whether the operation created the product.
+   */
+  private record BulkResult(BulkStock stock, int delta, boolean first, HttpStatus status, String error) {
+
+    static BulkResult refused(BulkStock stock, HttpStatus status, String error) {
+      return new BulkResult(stock, 0, false, status, error);
+    }
+
+    ProductResponseDto toResponse(ProductDTO product) {
+      Integer id = stock == null ? null : stock.product().getProductId();
+      return ProductResponseDto.builder()
+              .timestamp(ResponseTimestamp.now())
+              .status(status)
+              .statusCode(status.value())
+              .error(error)
+              .path(PRODUCT_API_PATH, id)
+              .product(product)
+              .build();
+    }
   }
 }
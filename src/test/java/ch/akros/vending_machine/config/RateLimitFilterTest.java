@@ -0,0 +1,77 @@
+package ch.akros.vending_machine.config;
+
+import ch.akros.vending_machine.service.RateLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.http.HttpHeaders.RETRY_AFTER;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.HttpStatus.TOO_MANY_REQUESTS;
+
+class RateLimitFilterTest {
+
+  private RateLimitFilter rateLimitFilter;
+
+  @BeforeEach
+  void setUp() {
+    var rateLimiter = new RateLimiter(new SimpleMeterRegistry(), true, Duration.ofMinutes(1), 1_000,
+            10, 20, 0.5, 1, 1, 2, 1, 1);
+    rateLimitFilter = new RateLimitFilter(rateLimiter, new ObjectMapper());
+  }
+
+  @AfterEach
+  void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  void requestOverTheLimitIsRefused() throws Exception {
+    //Given
+    var user = new TestingAuthenticationToken("alice", null, "ROLE_client_user");
+    SecurityContextHolder.getContext().setAuthentication(user);
+    var firstChain = new MockFilterChain();
+    var secondChain = new MockFilterChain();
+
+    //When
+    var first = filter(firstChain);
+    var second = filter(secondChain);
+
+    //Then
+    assertThat(first.getStatus()).isEqualTo(OK.value());
+    assertThat(firstChain.getRequest()).isNotNull();
+    assertThat(second.getStatus()).isEqualTo(TOO_MANY_REQUESTS.value());
+    assertThat(second.getHeader(RETRY_AFTER)).isEqualTo("2");
+    assertThat(secondChain.getRequest()).isNull();
+  }
+
+  @Test
+  void anonymousRequestIsNotLimited() throws Exception {
+    //Given
+    var chain = new MockFilterChain();
+
+    //When
+    filter(new MockFilterChain());
+    var response = filter(chain);
+
+    //Then
+    assertThat(response.getStatus()).isEqualTo(OK.value());
+    assertThat(chain.getRequest()).isNotNull();
+  }
+
+  private MockHttpServletResponse filter(MockFilterChain chain) throws Exception {
+    var response = new MockHttpServletResponse();
+    rateLimitFilter.doFilter(new MockHttpServletRequest("POST", "/api/v1/products/1"), response, chain);
+    return response;
+  }
+}
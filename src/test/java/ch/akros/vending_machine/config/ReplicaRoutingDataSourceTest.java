@@ -0,0 +1,165 @@
+package ch.akros.vending_machine.config;
+
+import ch.akros.vending_machine.service.ReplicaReads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static ch.akros.vending_machine.service.ReplicaReads.Consistency.INSTANCE;
+import static ch.akros.vending_machine.service.ReplicaReads.Consistency.PRINCIPAL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Routes between two separate in-memory databases. Replication is simulated by copying the
+ * heartbeat of the primary to the replica, the rows themselves differ, so every read shows
+ * which database served it.
+ */
+class ReplicaRoutingDataSourceTest {
+
+  private JdbcTemplate primary;
+  private JdbcTemplate replica;
+  private ReplicaLagMonitor replicaLagMonitor;
+  private JdbcTemplate jdbcTemplate;
+  private TransactionTemplate readOnly;
+  private TransactionTemplate readWrite;
+
+  @BeforeEach
+  void setUp() {
+    var primaryDataSource = new DriverManagerDataSource("jdbc:h2:mem:primary-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    var replicaDataSource = new DriverManagerDataSource("jdbc:h2:mem:replica-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    primary = new JdbcTemplate(primaryDataSource);
+    replica = new JdbcTemplate(replicaDataSource);
+    for (var database : new JdbcTemplate[]{primary, replica}) {
+      database.execute("create table _item (name varchar(20))");
+    }
+    primary.update("insert into _item values ('primary')");
+    replica.update("insert into _item values ('replica')");
+    replica.execute("create table _replica_heartbeat (id integer primary key, beat bigint not null)");
+    replica.update("insert into _replica_heartbeat values (1, 0)");
+
+    replicaLagMonitor = new ReplicaLagMonitor(primaryDataSource, replicaDataSource, Duration.ofSeconds(2), new SimpleMeterRegistry());
+    var dataSource = new LazyConnectionDataSourceProxy(new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, replicaLagMonitor));
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    // The proxy reads the connection defaults with its first connection, which counts as a write.
+    jdbcTemplate.queryForObject("select count(*) from _item", Integer.class);
+    replicaLagMonitor.start();
+    var transactionManager = new DataSourceTransactionManager(dataSource);
+    readOnly = new TransactionTemplate(transactionManager);
+    readOnly.setReadOnly(true);
+    readWrite = new TransactionTemplate(transactionManager);
+  }
+
+  @AfterEach
+  void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  void markedReadOnlyReadsUseTheReplicaOnceItCaughtUp() {
+    //Given
+    String before = read(INSTANCE);
+
+    //When
+    replicate();
+
+    //Then
+    assertThat(before).isEqualTo("primary");
+    assertThat(read(INSTANCE)).isEqualTo("replica");
+    assertThat(read(PRINCIPAL)).isEqualTo("replica");
+    String unmarked = readOnly.execute(status -> select());
+    String readWriteRead = readWrite.execute(status -> ReplicaReads.call(PRINCIPAL, this::select));
+    assertThat(unmarked).isEqualTo("primary");
+    assertThat(readWriteRead).isEqualTo("primary");
+  }
+
+  @Test
+  void principalsReadTheirWrites() {
+    //Given
+    replicate();
+    login("alice");
+    readWrite.executeWithoutResult(status -> jdbcTemplate.update("update _item set name = name"));
+
+    //When
+    String alice = read(PRINCIPAL);
+    login("bob");
+    String bob = read(PRINCIPAL);
+    String instance = read(INSTANCE);
+
+    //Then
+    assertThat(alice).isEqualTo("primary");
+    assertThat(bob).isEqualTo("replica");
+    assertThat(instance).isEqualTo("primary");
+
+    //Verify
+    replicate();
+    login("alice");
+    assertThat(read(PRINCIPAL)).isEqualTo("replica");
+    assertThat(read(INSTANCE)).isEqualTo("replica");
+  }
+
+  @Test
+  void writesWithoutTransactionAreTracked() {
+    //Given
+    replicate();
+    login("alice");
+
+    //When
+    jdbcTemplate.update("update _item set name = name");
+
+    //Then
+    assertThat(read(PRINCIPAL)).isEqualTo("primary");
+    replicate();
+    assertThat(read(PRINCIPAL)).isEqualTo("replica");
+  }
+
+  @Test
+  void laggingReplicaFallsBackToThePrimary() throws InterruptedException {
+    //Given
+    replicate();
+    assertThat(read(INSTANCE)).isEqualTo("replica");
+
+    //When
+    Thread.sleep(2_100);
+    replicaLagMonitor.beat();
+
+    //Then
+    assertThat(read(INSTANCE)).isEqualTo("primary");
+    replicate();
+    assertThat(read(INSTANCE)).isEqualTo("replica");
+  }
+
+  private String read(ReplicaReads.Consistency consistency) {
+    return readOnly.execute(status -> ReplicaReads.call(consistency, this::select));
+  }
+
+  private String select() {
+    return jdbcTemplate.queryForObject("select name from _item", String.class);
+  }
+
+  /**
+   * Lets the replica replay everything up to the last heartbeat and runs the next heartbeat, which
+   * finds out. Writes committed before that heartbeat are on the replica afterwards.
+   */
+  private void replicate() {
+    for (int i = 0; i < 2; i++) {
+      replica.update("update _replica_heartbeat set beat = ? where id = 1",
+              primary.queryForObject("select beat from _replica_heartbeat where id = 1", Long.class));
+      replicaLagMonitor.beat();
+    }
+  }
+
+  private static void login(String name) {
+    SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(name, null, "ROLE_client_user"));
+  }
+}
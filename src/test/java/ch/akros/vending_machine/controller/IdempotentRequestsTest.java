@@ -0,0 +1,147 @@
+package ch.akros.vending_machine.controller;
+
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.exception.IdempotencyKeyException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ch.akros.vending_machine.constant.AppConstant.IDEMPOTENT_REPLAYED_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
+
+class IdempotentRequestsTest {
+
+  private IdempotentRequests idempotentRequests;
+  private AtomicInteger handled;
+  private PriceRequestDTO prices;
+
+  @BeforeEach
+  void setUp() {
+    idempotentRequests = new IdempotentRequests(new ObjectMapper(), new SimpleMeterRegistry(), 100, Duration.ofMinutes(1), Duration.ofSeconds(5));
+    handled = new AtomicInteger();
+    prices = PriceRequestDTO.builder().prices(List.of(100, 200)).build();
+  }
+
+  @Test
+  void retryIsAnsweredWithTheFirstResponse() throws Exception {
+    //When
+    var first = idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, this::handle);
+    var retry = idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, this::handle);
+
+    //Then
+    assertThat(handled).hasValue(1);
+    assertThat(retry.getBody()).isEqualTo(first.getBody());
+    assertThat(first.getHeaders().containsKey(IDEMPOTENT_REPLAYED_HEADER)).isFalse();
+    assertThat(retry.getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER)).isEqualTo("true");
+  }
+
+  @Test
+  void keysAreScopedByEndpoint() throws Exception {
+    //When
+    idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, this::handle);
+    idempotentRequests.execute("key", PRODUCT_API_PATH, 2, prices, this::handle);
+
+    //Then
+    assertThat(handled).hasValue(2);
+  }
+
+  @Test
+  void requestsWithoutKeyAreAlwaysHandled() throws Exception {
+    //When
+    idempotentRequests.execute(null, PRODUCT_API_PATH, 1, prices, this::handle);
+    idempotentRequests.execute(null, PRODUCT_API_PATH, 1, prices, this::handle);
+
+    //Then
+    assertThat(handled).hasValue(2);
+  }
+
+  @Test
+  void keyReusedForAnotherBodyIsRefused() throws Exception {
+    //Given
+    idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, this::handle);
+    var otherPrices = PriceRequestDTO.builder().prices(List.of(200, 200)).build();
+
+    //When //Then
+    assertThatThrownBy(() -> idempotentRequests.execute("key", PRODUCT_API_PATH, 1, otherPrices, this::handle))
+            .isInstanceOf(IdempotencyKeyException.class)
+            .extracting("status").isEqualTo(UNPROCESSABLE_ENTITY);
+    assertThat(handled).hasValue(1);
+  }
+
+  @Test
+  void blankKeyIsRefused() {
+    //When //Then
+    assertThatThrownBy(() -> idempotentRequests.execute(" ", PRODUCT_API_PATH, 1, prices, this::handle))
+            .isInstanceOf(IdempotencyKeyException.class)
+            .extracting("status").isEqualTo(BAD_REQUEST);
+    assertThat(handled).hasValue(0);
+  }
+
+  @Test
+  void failedRequestIsHandledAgainOnRetry() throws Exception {
+    //Given
+    assertThatThrownBy(() -> idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, () -> {
+      throw new IllegalStateException("Machine is offline");
+    })).isInstanceOf(IllegalStateException.class);
+
+    //When
+    var retry = idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, this::handle);
+
+    //Then
+    assertThat(handled).hasValue(1);
+    assertThat(retry.getHeaders().containsKey(IDEMPOTENT_REPLAYED_HEADER)).isFalse();
+  }
+
+  @Test
+  void concurrentDuplicatesWaitForTheFirstRequest() throws Exception {
+    //Given
+    int clients = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Void> release = new CompletableFuture<>();
+    IdempotentRequests.Request<String> slow = () -> {
+      started.countDown();
+      release.join();
+      return handle();
+    };
+    Future<ResponseEntity<String>> first = executor.submit(() -> idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, slow));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    //When
+    var retries = new ArrayList<Future<ResponseEntity<String>>>();
+    for (int i = 1; i < clients; i++) {
+      retries.add(executor.submit(() -> idempotentRequests.execute("key", PRODUCT_API_PATH, 1, prices, slow)));
+    }
+    release.complete(null);
+
+    //Then
+    String body = first.get(5, TimeUnit.SECONDS).getBody();
+    for (var retry : retries) {
+      String retried = retry.get(5, TimeUnit.SECONDS).getBody();
+      assertThat(retried).isEqualTo(body);
+    }
+    assertThat(handled).hasValue(1);
+    executor.shutdown();
+  }
+
+  private ResponseEntity<String> handle() {
+    return ResponseEntity.ok("purchase " + handled.incrementAndGet());
+  }
+}
@@ -0,0 +1,72 @@
+package ch.akros.vending_machine.controller;
+
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.service.MachineInventoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+
+import java.util.List;
+
+import static ch.akros.vending_machine.constant.AppConstant.DEFAULT_PAGE_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.openMocks;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+
+class MachineInventoryControllerTest {
+
+  @InjectMocks
+  private MachineInventoryController controller;
+
+  @Mock
+  private MachineInventoryService machineInventoryService;
+
+  @BeforeEach
+  void setUp() {
+    openMocks(this);
+  }
+
+  @Test
+  void getProducts() {
+    //Given
+    var products = List.of(ProductDTO.builder().productId(4).productName("Cola").productPrice(350).quantity(2).build());
+    when(machineInventoryService.getProducts("m-1", null, DEFAULT_PAGE_SIZE))
+            .thenReturn(ProductPageDTO.builder().products(products).nextCursor(4).build());
+
+    //When
+    var responseEntity = controller.getProducts("m-1", null, null);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    assertThat(responseEntity.getBody()).isEqualTo(products);
+    assertThat(responseEntity.getHeaders().getFirst(NEXT_CURSOR_HEADER)).isEqualTo("4");
+
+    //Verify
+    verify(machineInventoryService, times(1)).getProducts("m-1", null, DEFAULT_PAGE_SIZE);
+  }
+
+  @Test
+  void buyProductRefused() throws ProductNotFoundException {
+    //Given
+    var priceRequestDTO = new PriceRequestDTO(List.of(200), null);
+    when(machineInventoryService.buyProduct("m-1", 4, priceRequestDTO))
+            .thenReturn(ProductResponseDto.builder().status(BAD_REQUEST).build());
+
+    //When
+    var responseEntity = controller.buyProduct("m-1", 4, priceRequestDTO);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(BAD_REQUEST);
+
+    //Verify
+    verify(machineInventoryService, times(1)).buyProduct("m-1", 4, priceRequestDTO);
+  }
+}
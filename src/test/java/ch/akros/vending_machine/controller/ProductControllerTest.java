@@ -1,22 +1,38 @@
 package ch.akros.vending_machine.controller;
 
+import ch.akros.vending_machine.dto.InventoryEventDTO;
 import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkRequestDTO;
+import ch.akros.vending_machine.dto.ProductBulkResponseDTO;
 import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.dto.ProductOperationDTO;
+import ch.akros.vending_machine.dto.ProductPageDTO;
 import ch.akros.vending_machine.dto.ProductResponseDto;
 import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.service.InventoryJournal;
+import ch.akros.vending_machine.service.ProductCatalog;
 import ch.akros.vending_machine.service.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
+import static ch.akros.vending_machine.constant.AppConstant.IDEMPOTENT_REPLAYED_HEADER;
+import static ch.akros.vending_machine.constant.AppConstant.NEXT_CURSOR_HEADER;
 import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.openMocks;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
 import static org.springframework.http.HttpStatus.OK;
 
 class ProductControllerTest {
@@ -27,9 +43,20 @@ class ProductControllerTest {
   @Mock
   private ProductService productService;
 
+  @Mock
+  private InventoryJournal inventoryJournal;
+
+  @Spy
+  private IdempotentRequests idempotentRequests =
+          new IdempotentRequests(new ObjectMapper(), new SimpleMeterRegistry(), 100, Duration.ofMinutes(1), Duration.ofSeconds(1));
+
+  private ProductCatalog.Snapshot catalog;
+
   @BeforeEach
   void setUp() {
     openMocks(this);
+    catalog = new ProductCatalog().replace(null, List.of());
+    when(productService.catalog()).thenReturn(catalog);
   }
 
   @Test
@@ -53,7 +80,7 @@ class ProductControllerTest {
     when(productService.getProducts()).thenReturn(productDTOS);
 
     //When
-    var responseEntity = controller.getAllProducts();
+    var responseEntity = controller.getAllProducts(null, null, new HttpHeaders());
     assertThat(responseEntity).isNotNull();
     assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
     int size = responseEntity.getBody().size();
@@ -64,7 +91,72 @@ class ProductControllerTest {
   }
 
   @Test
-  void addProduct() {
+  void getAllProductsPage() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+
+    ProductPageDTO page = ProductPageDTO.builder()
+            .products(List.of(productDTO1))
+            .nextCursor(productDTO1.getProductId())
+            .build();
+    when(productService.getProducts(null, 1)).thenReturn(page);
+
+    //When
+    var responseEntity = controller.getAllProducts(null, 1, new HttpHeaders());
+
+    //Then
+    assertThat(responseEntity).isNotNull();
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    assertThat(responseEntity.getBody().size()).isEqualTo(1);
+    assertThat(responseEntity.getHeaders().getFirst(NEXT_CURSOR_HEADER)).isEqualTo("1");
+
+    //Verify
+    verify(productService, times(0)).getProducts();
+  }
+
+  @Test
+  void getProductPageValidatedByItsContent() {
+    //Given
+    ProductDTO productDTO1 = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(1)
+            .build();
+    ProductPageDTO page = ProductPageDTO.builder()
+            .products(List.of(productDTO1))
+            .build();
+    when(productService.getProducts(null, 1)).thenReturn(page);
+    var eTag = controller.getAllProducts(null, 1, new HttpHeaders()).getHeaders().getETag();
+    var headers = new HttpHeaders();
+    headers.setIfNoneMatch(catalog.eTag());
+
+    //When
+    var modified = controller.getAllProducts(null, 1, headers);
+    headers.setIfNoneMatch(eTag);
+    var notModified = controller.getAllProducts(null, 1, headers);
+    productDTO1.setQuantity(0);
+    var changed = controller.getAllProducts(null, 1, headers);
+
+    //Then
+    assertThat(eTag).isNotEqualTo(catalog.eTag());
+    assertThat(modified.getStatusCode()).isEqualTo(OK);
+    assertThat(notModified.getStatusCode()).isEqualTo(NOT_MODIFIED);
+    assertThat(notModified.getBody()).isNull();
+    assertThat(changed.getStatusCode()).isEqualTo(OK);
+    assertThat(changed.getHeaders().getETag()).isNotEqualTo(eTag);
+
+    //Verify
+    verify(productService, times(0)).catalog();
+  }
+
+  @Test
+  void addProduct() throws ProductNotFoundException {
     //Given
     ProductDTO productDTO1 = ProductDTO.builder()
             .productId(1)
@@ -83,7 +175,7 @@ class ProductControllerTest {
     when(productService.createProduct(productDTO1)).thenReturn(responseDto);
 
     //When
-    var responseEntity = controller.addProduct(productDTO1);
+    var responseEntity = controller.addProduct(productDTO1, null);
 
     //Then
     assertThat(responseEntity).isNotNull();
@@ -112,13 +204,68 @@ class ProductControllerTest {
     when(productService.getProduct(productDTO1.getProductId())).thenReturn(responseDto);
 
     //When
-    var responseEntity = controller.getProductById(productDTO1.getProductId());
+    var responseEntity = controller.getProductById(productDTO1.getProductId(), new HttpHeaders());
 
     //Then
     assertThat(responseEntity).isNotNull();
     assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
     ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
     assertThat(actual).isEqualTo(productDTO1);
+    assertThat(responseEntity.getHeaders().getETag()).isEqualTo(catalog.eTag());
+    assertThat(responseEntity.getHeaders().getCacheControl()).isEqualTo("no-cache");
+  }
+
+  @Test
+  void getProductByIdNotModified() throws ProductNotFoundException {
+    //Given
+    var headers = new HttpHeaders();
+    headers.setIfNoneMatch("W/" + catalog.eTag());
+
+    //When
+    var responseEntity = controller.getProductById(1, headers);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(NOT_MODIFIED);
+    assertThat(responseEntity.getBody()).isNull();
+    assertThat(responseEntity.getHeaders().getETag()).isEqualTo(catalog.eTag());
+
+    //Verify
+    verify(productService, times(0)).getProduct(any());
+  }
+
+  @Test
+  void getAllProductsModifiedSinceOtherVersion() {
+    //Given
+    var headers = new HttpHeaders();
+    headers.setIfNoneMatch("\"other-0\"");
+    headers.setIfModifiedSince(catalog.lastModified() + 60_000);
+    when(productService.getProducts()).thenReturn(List.of());
+
+    //When
+    var responseEntity = controller.getAllProducts(null, null, headers);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    assertThat(responseEntity.getHeaders().getETag()).isEqualTo(catalog.eTag());
+
+    //Verify
+    verify(productService, times(1)).getProducts();
+  }
+
+  @Test
+  void getAllProductsNotModifiedSince() {
+    //Given
+    var headers = new HttpHeaders();
+    headers.setIfModifiedSince(catalog.lastModified());
+
+    //When
+    var responseEntity = controller.getAllProducts(null, null, headers);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(NOT_MODIFIED);
+
+    //Verify
+    verify(productService, times(0)).getProducts();
   }
 
   @Test
@@ -204,7 +351,7 @@ class ProductControllerTest {
     when(productService.buyProduct(productDTO1.getProductId(), priceRequestDTO)).thenReturn(responseDto);
 
     //When
-    var responseEntity = controller.buyProduct(productDTO1.getProductId(), priceRequestDTO);
+    var responseEntity = controller.buyProduct(productDTO1.getProductId(), priceRequestDTO, null);
 
     //Then
     assertThat(responseEntity).isNotNull();
@@ -212,4 +359,73 @@ class ProductControllerTest {
     ProductDTO actual = responseEntity.getBody().getData().get(PRODUCT_KEY);
     assertThat(actual).isEqualTo(productDTO1);
   }
-}
\ No newline at end of file
+
+  @Test
+  void buyProductWithTheSameIdempotencyKeyBuysOnce() throws ProductNotFoundException {
+    //Given
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(200, 200))
+            .build();
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Product bought")
+            .status(OK)
+            .statusCode(OK.value())
+            .build();
+    when(productService.buyProduct(1, priceRequestDTO)).thenReturn(responseDto);
+
+    //When
+    var first = controller.buyProduct(1, priceRequestDTO, "purchase-1");
+    var retry = controller.buyProduct(1, priceRequestDTO, "purchase-1");
+
+    //Then
+    assertThat(retry.getBody()).isSameAs(first.getBody());
+    assertThat(retry.getHeaders().getFirst(IDEMPOTENT_REPLAYED_HEADER)).isEqualTo("true");
+
+    //Verify
+    verify(productService, times(1)).buyProduct(1, priceRequestDTO);
+  }
+
+  @Test
+  void getProductHistoryCapsTheLimit() {
+    //Given
+    var event = InventoryEventDTO.builder()
+            .eventId(7L)
+            .productId(1)
+            .type("PURCHASED")
+            .quantityDelta(-1)
+            .build();
+    when(inventoryJournal.history(1, 500)).thenReturn(List.of(event));
+
+    //When
+    var responseEntity = controller.getProductHistory(1, 10_000);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(OK);
+    assertThat(responseEntity.getBody()).isEqualTo(List.of(event));
+
+    //Verify
+    verify(inventoryJournal).history(1, 500);
+  }
+
+  @Test
+  void applyOperations() {
+    //Given
+    var request = new ProductBulkRequestDTO(List.of(ProductOperationDTO.builder()
+            .type(ProductOperationDTO.Type.RESTOCK)
+            .productName("Cola")
+            .build()));
+    var responseDto = ProductBulkResponseDTO.builder()
+            .status(BAD_REQUEST)
+            .statusCode(BAD_REQUEST.value())
+            .results(List.of())
+            .build();
+    when(productService.applyOperations(request)).thenReturn(responseDto);
+
+    //When
+    var responseEntity = controller.applyOperations(request);
+
+    //Then
+    assertThat(responseEntity.getStatusCode()).isEqualTo(BAD_REQUEST);
+    assertThat(responseEntity.getBody()).isSameAs(responseDto);
+  }
+}
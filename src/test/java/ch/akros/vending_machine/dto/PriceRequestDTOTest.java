@@ -0,0 +1,56 @@
+package ch.akros.vending_machine.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.MAX_COINS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PriceRequestDTOTest {
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  @Test
+  void readPrices() throws Exception {
+    //When
+    var priceRequestDTO = objectMapper.readValue("{\"prices\":[50,100,200]}", PriceRequestDTO.class);
+
+    //Then
+    assertThat(priceRequestDTO.getPrices()).containsExactly(50, 100, 200);
+    assertThat(priceRequestDTO.getCoins()).isNull();
+  }
+
+  @Test
+  void readCoins() throws Exception {
+    //When
+    var priceRequestDTO = objectMapper.readValue("{\"coins\":{\"200\":1,\"50\":3,\"200\":1}}", PriceRequestDTO.class);
+
+    //Then
+    assertThat(priceRequestDTO.getCoins()).containsOnly(Map.entry(200, 2), Map.entry(50, 3));
+    assertThat(priceRequestDTO.getPrices()).isNull();
+  }
+
+  @Test
+  void refuseTooManyPrices() {
+    //Given
+    String json = "{\"prices\":[" + String.join(",", Collections.nCopies(MAX_COINS + 1, "10")) + "]}";
+
+    //Then
+    assertThrows(MismatchedInputException.class, () -> objectMapper.readValue(json, PriceRequestDTO.class));
+  }
+
+  @Test
+  void refuseTooManyCoins() {
+    //Then
+    assertThrows(MismatchedInputException.class,
+            () -> objectMapper.readValue("{\"coins\":{\"10\":" + Integer.MAX_VALUE + "}}", PriceRequestDTO.class));
+    assertThrows(MismatchedInputException.class,
+            () -> objectMapper.readValue("{\"coins\":{\"ten\":1}}", PriceRequestDTO.class));
+  }
+}
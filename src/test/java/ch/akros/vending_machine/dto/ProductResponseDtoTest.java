@@ -0,0 +1,115 @@
+package ch.akros.vending_machine.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Map;
+
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_API_PATH;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+
+class ProductResponseDtoTest {
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  private final ProductDTO productDTO = ProductDTO.builder()
+          .productId(1)
+          .productName("Cola")
+          .productPrice(350)
+          .quantity(5)
+          .build();
+
+  @Test
+  void serializeProductResponse() throws Exception {
+    //Given
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .timestamp("2024-01-01T00:00:00Z")
+            .status(OK)
+            .message("Product found by ID: " + 12)
+            .error(null)
+            .path(PRODUCT_API_PATH + 12)
+            .statusCode(OK.value())
+            .data(Map.of(PRODUCT_KEY, productDTO))
+            .build();
+
+    //When
+    String json = objectMapper.writeValueAsString(responseDto);
+
+    //Then
+    assertThat(json).isEqualTo("{\"message\":\"Product found by ID: 12\",\"error\":null,\"path\":\"/api/v1/products/12\","
+            + "\"status\":\"OK\",\"statusCode\":200,\"timestamp\":\"2024-01-01T00:00:00Z\","
+            + "\"data\":{\"product\":{\"productId\":1,\"productName\":\"Cola\",\"productPrice\":350,\"quantity\":5}}}");
+  }
+
+  @Test
+  void serializePrefixedResponse() throws Exception {
+    //Given
+    ProductResponseDto joined = ProductResponseDto.builder()
+            .timestamp("2024-01-01T00:00:00Z")
+            .status(OK)
+            .message("Product found by ID: " + Integer.MIN_VALUE)
+            .path(PRODUCT_API_PATH + Integer.MIN_VALUE)
+            .statusCode(OK.value())
+            .data(Map.of(PRODUCT_KEY, productDTO))
+            .build();
+    ProductResponseDto prefixed = ProductResponseDto.builder()
+            .timestamp("2024-01-01T00:00:00Z")
+            .status(OK)
+            .message("Product found by ID: ", Integer.MIN_VALUE)
+            .path(PRODUCT_API_PATH, Integer.MIN_VALUE)
+            .statusCode(OK.value())
+            .product(productDTO)
+            .build();
+
+    //When
+    String json = objectMapper.writeValueAsString(prefixed);
+
+    //Then
+    assertThat(json).isEqualTo(objectMapper.writeValueAsString(joined));
+    assertThat(objectMapper.valueToTree(prefixed).toString()).isEqualTo(json);
+    assertThat(prefixed.getMessage()).isEqualTo(joined.getMessage());
+    assertThat(prefixed.getPath()).isEqualTo(joined.getPath());
+    assertThat(prefixed.getData()).containsEntry(PRODUCT_KEY, productDTO);
+  }
+
+  @Test
+  void serializeErrorResponse() throws Exception {
+    //Given
+    ProductResponseDto responseDto = ProductResponseDto.builder()
+            .message("Coin not allowed")
+            .error("Vending Machine does not accept coins: [1 or 5 or 500]")
+            .status(BAD_REQUEST)
+            .timestamp("2024-01-01T00:00:00Z")
+            .path(PRODUCT_API_PATH + -3)
+            .build();
+
+    //When
+    String json = objectMapper.writeValueAsString(responseDto);
+
+    //Then
+    assertThat(json).isEqualTo("{\"message\":\"Coin not allowed\",\"error\":\"Vending Machine does not accept coins: [1 or 5 or 500]\","
+            + "\"path\":\"/api/v1/products/-3\",\"status\":\"BAD_REQUEST\",\"statusCode\":null,"
+            + "\"timestamp\":\"2024-01-01T00:00:00Z\",\"data\":null}");
+  }
+
+  @Test
+  void serializeManyDistinctPrefixes() throws Exception {
+    for (int machine = 0; machine < 200; machine++) {
+      //Given
+      String prefix = "/api/v1/machines/m\"" + machine + "/products/";
+      ProductResponseDto responseDto = ProductResponseDto.builder()
+              .path(prefix, 7)
+              .build();
+
+      //When
+      String json = objectMapper.writeValueAsString(responseDto);
+
+      //Then
+      assertThat(objectMapper.readTree(json).get("path").asText()).isEqualTo(prefix + 7);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductRepositoryTest {
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @BeforeEach
+  void setUp() {
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+  }
+
+  @Test
+  void decrementQuantity() {
+    //Given
+    Product product = stocked("Cola", 350, 1);
+
+    //When
+    int wrongPrice = machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, product.getProductId(), 300);
+    int bought = machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, product.getProductId(), 350);
+    int soldOut = machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, product.getProductId(), 350);
+
+    //Then
+    assertThat(wrongPrice).isZero();
+    assertThat(bought).isEqualTo(1);
+    assertThat(soldOut).isZero();
+    assertThat(productRepository.findById(product.getProductId())).get()
+            .extracting(Product::getQuantity).isEqualTo(0);
+  }
+
+  @Test
+  void saveOfStaleProductIsRefused() {
+    //Given
+    Product product = stocked("Sprite", 350, 5);
+    Product admin = productRepository.findById(product.getProductId()).orElseThrow();
+    productRepository.restock(LOCAL_MACHINE_ID, "Sprite", 350, 10);
+
+    //When
+    admin.setProductPrice(400);
+
+    //Then
+    assertThatThrownBy(() -> productRepository.save(admin)).isInstanceOf(OptimisticLockingFailureException.class);
+    assertThat(productRepository.findById(product.getProductId())).get()
+            .extracting(Product::getQuantity, Product::getProductPrice).containsExactly(6, 350);
+  }
+
+  @Test
+  void saveOfProductKeepsTheStock() {
+    //Given
+    Product product = stocked("Sprite", 350, 5);
+    Product admin = productRepository.findById(product.getProductId()).orElseThrow();
+    machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, product.getProductId(), 350);
+
+    //When
+    admin.setProductPrice(400);
+    productRepository.save(admin);
+
+    //Then
+    assertThat(productRepository.findById(product.getProductId())).get()
+            .extracting(Product::getQuantity, Product::getProductPrice).containsExactly(4, 400);
+  }
+
+  @Test
+  void findPageAfterCursor() {
+    //Given
+    Product cola = stocked("Cola", 350, 3);
+    Product fanta = stocked("Fanta", 350, 4);
+    Product sprite = stocked("Sprite", 350, 5);
+
+    //When
+    var firstPage = productRepository.findByProductIdGreaterThanOrderByProductIdAsc(0, Limit.of(2));
+    var lastPage = productRepository.findByProductIdGreaterThanOrderByProductIdAsc(fanta.getProductId(), Limit.of(2));
+
+    //Then
+    assertThat(firstPage).extracting(Product::getProductId, Product::getQuantity)
+            .containsExactly(tuple(cola.getProductId(), 3), tuple(fanta.getProductId(), 4));
+    assertThat(lastPage).extracting(Product::getProductId, Product::getQuantity)
+            .containsExactly(tuple(sprite.getProductId(), 5));
+  }
+
+  @Test
+  void decrementQuantityUnderContention() throws Exception {
+    //Given
+    int stock = 60;
+    int buyers = 8;
+    int attemptsPerBuyer = 25;
+    Product product = stocked("Fanta", 350, stock);
+    Integer id = product.getProductId();
+
+    ExecutorService executor = Executors.newFixedThreadPool(buyers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<int[]>> results = new ArrayList<>();
+    Callable<int[]> buyer = () -> {
+      start.await();
+      int[] outcomes = new int[2];
+      for (int i = 0; i < attemptsPerBuyer; i++) {
+        outcomes[machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, id, 350)]++;
+      }
+      return outcomes;
+    };
+
+    //When
+    for (int i = 0; i < buyers; i++) {
+      results.add(executor.submit(buyer));
+    }
+    start.countDown();
+    int bought = 0;
+    int refused = 0;
+    for (Future<int[]> result : results) {
+      int[] outcomes = result.get();
+      refused += outcomes[0];
+      bought += outcomes[1];
+    }
+    executor.shutdown();
+
+    //Then
+    assertThat(bought).isEqualTo(stock);
+    assertThat(refused).isEqualTo(buyers * attemptsPerBuyer - stock);
+    assertThat(productRepository.findById(id)).get()
+            .extracting(Product::getQuantity).isEqualTo(stock - bought);
+  }
+
+  @Test
+  void restockCreatesAndIncrementsUpToMaxQuantity() {
+    //When
+    var created = productRepository.restock(LOCAL_MACHINE_ID, "Mate", 300, 10);
+    var restocked = productRepository.restock(LOCAL_MACHINE_ID, "mate", 320, 10);
+    for (int i = 0; i < 8; i++) {
+      productRepository.restock(LOCAL_MACHINE_ID, "MATE", 320, 10);
+    }
+    var full = productRepository.restock(LOCAL_MACHINE_ID, "Mate", 320, 10);
+
+    //Then
+    assertThat(created.created()).isTrue();
+    assertThat(created.product().getQuantity()).isEqualTo(1);
+    assertThat(restocked.created()).isFalse();
+    assertThat(restocked.product().getProductId()).isEqualTo(created.product().getProductId());
+    assertThat(full).isNull();
+    assertThat(productRepository.findAll()).singleElement()
+            .extracting(Product::getProductName, Product::getProductPrice, Product::getQuantity)
+            .containsExactly("Mate", 320, 10);
+  }
+
+  @Test
+  void restockUnderContention() throws Exception {
+    //Given
+    int restockers = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(restockers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<ProductRestockRepository.Restock>> results = new ArrayList<>();
+
+    //When
+    for (int i = 0; i < restockers; i++) {
+      results.add(executor.submit(() -> {
+        start.await();
+        return productRepository.restock(LOCAL_MACHINE_ID, "Rivella", 400, 10);
+      }));
+    }
+    start.countDown();
+    int created = 0;
+    for (Future<ProductRestockRepository.Restock> result : results) {
+      created += result.get().created() ? 1 : 0;
+    }
+    executor.shutdown();
+
+    //Then
+    assertThat(created).isEqualTo(1);
+    assertThat(productRepository.findAll()).singleElement()
+            .extracting(Product::getQuantity).isEqualTo(restockers);
+  }
+
+  private Product stocked(String productName, int productPrice, int quantity) {
+    Product product = productRepository.save(new Product(null, productName, productPrice, null));
+    machineStockRepository.save(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), quantity));
+    return product;
+  }
+}
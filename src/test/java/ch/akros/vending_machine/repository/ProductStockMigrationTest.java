@@ -0,0 +1,61 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Import(ProductStockMigration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductStockMigrationTest {
+
+  @Autowired
+  private ProductStockMigration productStockMigration;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+  }
+
+  @Test
+  void legacyQuantityIsCopiedToTheLocalMachine() {
+    //Given
+    var cola = productRepository.save(new Product(null, "Cola", 350, null));
+    var fanta = productRepository.save(new Product(null, "Fanta", 350, null));
+    var sprite = productRepository.save(new Product(null, "Sprite", 350, null));
+    jdbcTemplate.execute("alter table _product add column quantity integer");
+    jdbcTemplate.update("update _product set quantity = 4 where product_id = ?", cola.getProductId());
+    jdbcTemplate.update("update _product set quantity = 6 where product_id = ?", fanta.getProductId());
+    machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, fanta.getProductId(), 2);
+
+    //When
+    productStockMigration.migrate();
+    productStockMigration.migrate();
+
+    //Then
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getQuantity).isEqualTo(4);
+    assertThat(productRepository.findById(fanta.getProductId())).get().extracting(Product::getQuantity).isEqualTo(2);
+    assertThat(productRepository.findById(sprite.getProductId())).get().extracting(Product::getQuantity).isNull();
+    assertThat(jdbcTemplate.queryForObject("select count(*) from information_schema.columns "
+            + "where lower(table_name) = '_product' and lower(column_name) = 'quantity'", Integer.class)).isZero();
+  }
+}
@@ -0,0 +1,72 @@
+package ch.akros.vending_machine.repository;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the stock mapping with the physical naming strategy of the dev and prod profiles, which
+ * keeps the attribute names as column names.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.naming.physical-strategy=org.hibernate.boot.model.naming.PhysicalNamingStrategyStandardImpl"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StandardNamingTest {
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+  }
+
+  @Test
+  void stockColumnsKeepTheAttributeNames() {
+    //When
+    var columns = jdbcTemplate.queryForList("select lower(column_name) from information_schema.columns "
+            + "where lower(table_name) = ?", String.class, MachineStock.TABLE);
+
+    //Then
+    assertThat(columns).contains("machineid", "productid").doesNotContain("machine_id", "product_id");
+  }
+
+  @Test
+  void productReadsTheStockOfTheLocalMachine() {
+    //Given
+    var product = productRepository.save(new Product(null, "Cola", 350, null));
+    machineStockRepository.upsertQuantity(LOCAL_MACHINE_ID, product.getProductId(), 3);
+    machineStockRepository.upsertQuantity("machine-2", product.getProductId(), 7);
+
+    //When
+    int bought = machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, product.getProductId(), 350);
+    var restock = productRepository.restock(LOCAL_MACHINE_ID, "Cola", 350, 10);
+
+    //Then
+    assertThat(bought).isEqualTo(1);
+    assertThat(restock.product().getQuantity()).isEqualTo(3);
+    assertThat(productRepository.findById(product.getProductId())).get()
+            .extracting(Product::getQuantity).isEqualTo(3);
+    assertThat(productRepository.findByProductIdGreaterThanOrderByProductIdAsc(0, Limit.of(1)))
+            .extracting(Product::getQuantity).containsExactly(3);
+  }
+}
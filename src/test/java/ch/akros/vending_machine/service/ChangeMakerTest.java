@@ -0,0 +1,121 @@
+package ch.akros.vending_machine.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeMakerTest {
+
+  private static final int[] DENOMINATIONS = {10, 20, 50, 100, 200};
+
+  @Test
+  void planWithFewestCoins() {
+    //Given
+    ChangeMaker changeMaker = ChangeMaker.of(DENOMINATIONS, new int[]{5, 5, 5, 5, 5}, 10_000);
+    int[] plan = new int[DENOMINATIONS.length];
+
+    //When
+    boolean planned = changeMaker.plan(380, plan);
+
+    //Then
+    assertThat(planned).isTrue();
+    assertThat(plan).containsExactly(1, 1, 1, 1, 1);
+  }
+
+  @Test
+  void planWhenGreedyFails() {
+    //Given
+    ChangeMaker changeMaker = ChangeMaker.of(DENOMINATIONS, new int[]{0, 3, 1, 0, 0}, 10_000);
+    int[] plan = new int[DENOMINATIONS.length];
+
+    //When
+    boolean planned = changeMaker.plan(60, plan);
+
+    //Then
+    assertThat(planned).isTrue();
+    assertThat(plan).containsExactly(0, 3, 0, 0, 0);
+  }
+
+  @Test
+  void unreachableAmounts() {
+    //Given
+    ChangeMaker changeMaker = ChangeMaker.of(DENOMINATIONS, new int[]{0, 1, 1, 0, 1}, 10_000);
+
+    //Then
+    assertThat(changeMaker.canChange(0)).isTrue();
+    assertThat(changeMaker.canChange(70)).isTrue();
+    assertThat(changeMaker.canChange(40)).isFalse();
+    assertThat(changeMaker.canChange(15)).isFalse();
+    assertThat(changeMaker.canChange(280)).isFalse();
+    assertThat(changeMaker.canChange(-20)).isFalse();
+  }
+
+  @Test
+  void withAddedAndRemovedCoins() {
+    //Given
+    ChangeMaker changeMaker = ChangeMaker.of(DENOMINATIONS, new int[]{0, 0, 1, 0, 0}, 10_000);
+
+    //When
+    ChangeMaker changed = changeMaker.with(new int[]{0, 2, 0, 0, 0}, new int[]{0, 0, 1, 0, 0}, 10_000);
+
+    //Then
+    assertThat(changeMaker.canChange(50)).isTrue();
+    assertThat(changed.canChange(50)).isFalse();
+    assertThat(changed.canChange(40)).isTrue();
+    assertThat(changed.stock(1)).isEqualTo(2);
+  }
+
+  @Test
+  void matchesExhaustiveSearch() {
+    //Given
+    Random random = new Random(42);
+    int[] plan = new int[DENOMINATIONS.length];
+
+    for (int round = 0; round < 50; round++) {
+      int[] stock = new int[DENOMINATIONS.length];
+      for (int i = 0; i < stock.length; i++) {
+        stock[i] = random.nextInt(4);
+      }
+      ChangeMaker changeMaker = ChangeMaker.of(DENOMINATIONS, stock, 10_000);
+
+      for (int amount = 0; amount <= 1_000; amount += 10) {
+        //When
+        int expected = fewestCoins(stock, 0, amount);
+        boolean planned = changeMaker.plan(amount, plan);
+
+        //Then
+        assertThat(planned).isEqualTo(expected >= 0);
+        if (planned) {
+          int value = 0;
+          int coins = 0;
+          for (int i = 0; i < plan.length; i++) {
+            assertThat(plan[i]).isBetween(0, stock[i]);
+            value += plan[i] * DENOMINATIONS[i];
+            coins += plan[i];
+          }
+          assertThat(value).isEqualTo(amount);
+          assertThat(coins).isEqualTo(expected);
+        }
+      }
+    }
+  }
+
+  private static int fewestCoins(int[] stock, int index, int amount) {
+    if (amount == 0) {
+      return 0;
+    }
+    if (index == stock.length) {
+      return -1;
+    }
+    int best = -1;
+    for (int k = 0; k <= stock[index] && k * DENOMINATIONS[index] <= amount; k++) {
+      int rest = fewestCoins(stock, index + 1, amount - k * DENOMINATIONS[index]);
+      if (rest >= 0 && (best < 0 || rest + k < best)) {
+        best = rest + k;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,202 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.Coin;
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.repository.CoinRepository;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Import({ProductServiceImpl.class, ProductCatalog.class, ProductMetrics.class, CoinInventory.class, StockLedger.class, OptimisticRetry.class, InventoryJournal.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CoinInventoryTest {
+
+  @Autowired
+  private ProductServiceImpl productService;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @Autowired
+  private CoinRepository coinRepository;
+
+  @Autowired
+  private CoinInventory coinInventory;
+
+  @Autowired
+  private ProductCatalog productCatalog;
+
+  @BeforeEach
+  void setUp() {
+    coinInventory.flush();
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    coinRepository.deleteAll();
+    coinInventory.refresh();
+    productService.refreshCatalog();
+  }
+
+  @Test
+  void buyProductWithChange() throws Exception {
+    //Given
+    Product cola = stocked("Cola", 350, 1);
+    productCatalog.put(cola);
+    coinInventory.refill(Map.of(20, 3, 50, 1));
+
+    //When
+    var responseDto = productService.buyProduct(cola.getProductId(), PriceRequestDTO.builder().prices(List.of(200, 200, 10)).build());
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(responseDto.getChange()).containsExactly(Map.entry(20, 3));
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getQuantity).isEqualTo(0);
+    assertThat(coinRepository.findAll()).extracting(Coin::getDenomination, Coin::getQuantity)
+            .contains(tuple(10, 1), tuple(20, 0),
+                    tuple(50, 1), tuple(200, 2));
+    assertThat(coinInventory.stock()).containsEntry(20, 0).containsEntry(200, 2);
+  }
+
+  @Test
+  void buyProductWithoutChange() throws Exception {
+    //Given
+    Product cola = stocked("Cola", 350, 1);
+    productCatalog.put(cola);
+
+    //When
+    var responseDto = productService.buyProduct(cola.getProductId(), PriceRequestDTO.builder().prices(List.of(200, 200)).build());
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getQuantity).isEqualTo(1);
+    assertThat(coinInventory.stock()).containsEntry(200, 0);
+  }
+
+  @Test
+  void rollBackWhenChangeIsGone() throws Exception {
+    //Given
+    Product cola = stocked("Cola", 350, 2);
+    productCatalog.put(cola);
+    coinInventory.refill(Map.of(50, 1));
+    coinRepository.dispenseCoins(50, 1);
+
+    //When
+    var responseDto = productService.buyProduct(cola.getProductId(), PriceRequestDTO.builder().prices(List.of(200, 200)).build());
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getQuantity).isEqualTo(2);
+    assertThat(coinRepository.findById(200)).get().extracting(Coin::getQuantity).isEqualTo(0);
+    assertThat(coinRepository.findById(50)).get().extracting(Coin::getQuantity).isEqualTo(0);
+  }
+
+  @Test
+  void concurrentCollectsAreAllInTheChangeTable() throws Exception {
+    //Given
+    int clients = 8;
+    int purchases = 25;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    CountDownLatch start = new CountDownLatch(1);
+    Callable<Void> client = () -> {
+      start.await();
+      for (int i = 0; i < purchases; i++) {
+        coinInventory.collect(new int[]{1, 0, 0, 0, 0}, 0, new int[CoinInventory.denominations()]);
+      }
+      return null;
+    };
+
+    //When
+    var results = new ArrayList<Future<Void>>();
+    for (int i = 0; i < clients; i++) {
+      results.add(executor.submit(client));
+    }
+    start.countDown();
+    for (var result : results) {
+      result.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+    int written = coinInventory.flush();
+
+    //Then
+    assertThat(written).isEqualTo(clients * purchases);
+    assertThat(coinInventory.stock()).containsEntry(10, clients * purchases);
+    assertThat(coinInventory.canChange(clients * purchases * 10)).isTrue();
+    assertThat(coinRepository.findById(10)).get().extracting(Coin::getQuantity).isEqualTo(clients * purchases);
+  }
+
+  @Test
+  void purchaseWithoutChangeLeavesTheCoinTableToTheFlush() throws Exception {
+    //Given
+    Product cola = stocked("Cola", 350, 2);
+    productCatalog.put(cola);
+
+    //When
+    var responseDto = productService.buyProduct(cola.getProductId(), PriceRequestDTO.builder().prices(List.of(200, 100, 50)).build());
+    var beforeFlush = coinRepository.findById(200).orElseThrow().getQuantity();
+    int written = coinInventory.flush();
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(beforeFlush).isZero();
+    assertThat(coinInventory.stock()).containsEntry(200, 1).containsEntry(100, 1).containsEntry(50, 1);
+    assertThat(written).isEqualTo(3);
+    assertThat(coinRepository.findAll()).extracting(Coin::getDenomination, Coin::getQuantity)
+            .contains(tuple(50, 1), tuple(100, 1), tuple(200, 1));
+  }
+
+  @Test
+  void purchaseWithChangeWritesTheCollectedCoinsFirst() throws Exception {
+    //Given
+    Product cola = stocked("Cola", 350, 2);
+    Product water = stocked("Water", 150, 2);
+    productCatalog.put(cola);
+    productCatalog.put(water);
+    productService.buyProduct(cola.getProductId(), PriceRequestDTO.builder().prices(List.of(200, 100, 50)).build());
+
+    //When
+    var responseDto = productService.buyProduct(water.getProductId(), PriceRequestDTO.builder().prices(List.of(200)).build());
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(responseDto.getChange()).containsExactly(Map.entry(50, 1));
+    assertThat(coinRepository.findAll()).extracting(Coin::getDenomination, Coin::getQuantity)
+            .contains(tuple(50, 0), tuple(100, 1), tuple(200, 2));
+    assertThat(coinInventory.flush()).isZero();
+  }
+
+  private Product stocked(String productName, int productPrice, int quantity) {
+    Product product = productRepository.save(new Product(null, productName, productPrice, null));
+    machineStockRepository.save(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), quantity));
+    product.setQuantity(quantity);
+    return product;
+  }
+}
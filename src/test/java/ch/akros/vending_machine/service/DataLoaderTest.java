@@ -0,0 +1,83 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "data.import.chunk-size=100"
+})
+@Import({DataLoader.class, StockLedger.class, SimpleMeterRegistry.class})
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DataLoaderTest {
+
+  @Autowired
+  private DataLoader dataLoader;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @BeforeEach
+  void setUp() {
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+  }
+
+  @Test
+  void load() throws IOException {
+    //When
+    long rows = dataLoader.load();
+
+    //Then
+    assertThat(rows).isPositive();
+    assertThat(productRepository.count()).isEqualTo(rows);
+  }
+
+  @Test
+  void loadInChunks() throws IOException {
+    //Given
+    int products = 1_050;
+
+    //When
+    long imported = dataLoader.load(products(products, 5));
+    long reimported = dataLoader.load(products(products, 7));
+
+    //Then
+    assertThat(imported).isEqualTo(products);
+    assertThat(reimported).isEqualTo(products);
+    assertThat(productRepository.count()).isEqualTo(products);
+    assertThat(productRepository.findByProductName("Product 1049").getQuantity()).isEqualTo(7);
+  }
+
+  private static ByteArrayInputStream products(int count, int quantity) {
+    var json = new StringBuilder("[");
+    for (int i = 0; i < count; i++) {
+      json.append(i == 0 ? "" : ",")
+              .append("{\"productId\":").append(i + 1)
+              .append(",\"productName\":\"Product ").append(i)
+              .append("\",\"productPrice\":350,\"quantity\":").append(quantity).append('}');
+    }
+    return new ByteArrayInputStream(json.append(']').toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
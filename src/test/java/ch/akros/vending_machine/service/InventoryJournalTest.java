@@ -0,0 +1,181 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.InventoryEvent;
+import ch.akros.vending_machine.domain.InventorySnapshot;
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.repository.CoinRepository;
+import ch.akros.vending_machine.repository.InventoryEventRepository;
+import ch.akros.vending_machine.repository.InventorySnapshotRepository;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "journal.sequence-interval=1h",
+        "journal.snapshot-interval=1h"
+})
+@Import({ProductServiceImpl.class, ProductCatalog.class, ProductMetrics.class, CoinInventory.class, StockLedger.class, OptimisticRetry.class, InventoryJournal.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InventoryJournalTest {
+
+  @Autowired
+  private InventoryJournal inventoryJournal;
+
+  @Autowired
+  private ProductServiceImpl productService;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @Autowired
+  private CoinRepository coinRepository;
+
+  @Autowired
+  private InventoryEventRepository eventRepository;
+
+  @Autowired
+  private InventorySnapshotRepository snapshotRepository;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @BeforeEach
+  void setUp() {
+    eventRepository.deleteAllInBatch();
+    snapshotRepository.deleteAllInBatch();
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    coinRepository.deleteAll();
+    productService.refreshCatalog();
+  }
+
+  @Test
+  void rebuildReplaysTheJournaledChanges() throws Exception {
+    //Given
+    var cola = ProductDTO.builder().productName("Cola").productPrice(350).build();
+    Integer colaId = productService.createProduct(cola).getData().get(PRODUCT_KEY).getProductId();
+    productService.createProduct(cola);
+    productService.createProduct(cola);
+    productService.buyProduct(colaId, PriceRequestDTO.builder().prices(List.of(200, 100, 50)).build());
+    Integer fantaId = productService.createProduct(ProductDTO.builder().productName("Fanta").productPrice(300).build())
+            .getData().get(PRODUCT_KEY).getProductId();
+    productService.updateProduct(ProductDTO.builder().productName("Fanta Zero").productPrice(250).quantity(7).build(), fantaId);
+    Integer spriteId = productService.createProduct(ProductDTO.builder().productName("Sprite").productPrice(300).build())
+            .getData().get(PRODUCT_KEY).getProductId();
+    productService.deleteProduct(spriteId);
+
+    //When
+    int sequenced = inventoryJournal.sequence();
+    var state = inventoryJournal.rebuild();
+
+    //Then
+    assertThat(sequenced).isEqualTo(8);
+    assertThat(state).containsOnlyKeys(colaId, fantaId);
+    assertThat(state.get(colaId)).extracting(InventorySnapshot::getQuantity, InventorySnapshot::getProductPrice)
+            .containsExactly(2, 350);
+    assertThat(state.get(fantaId)).extracting(InventorySnapshot::getProductName, InventorySnapshot::getQuantity)
+            .containsExactly("Fanta Zero", 7);
+    assertThat(inventoryJournal.history(colaId, 2)).extracting(event -> event.getType())
+            .containsExactly("PURCHASED", "RESTOCKED");
+  }
+
+  @Test
+  void snapshotIsTheStartingPointOfTheReplay() throws Exception {
+    //Given
+    Integer id = productService.createProduct(ProductDTO.builder().productName("Tea").productPrice(200).build())
+            .getData().get(PRODUCT_KEY).getProductId();
+    productService.updateProduct(ProductDTO.builder().quantity(5).build(), id);
+    int stored = inventoryJournal.snapshot();
+    eventRepository.deleteAllInBatch();
+    productService.deleteProduct(id);
+
+    //When
+    var state = inventoryJournal.rebuild();
+
+    //Then
+    assertThat(stored).isEqualTo(1);
+    assertThat(snapshotRepository.findById(id)).get().extracting(InventorySnapshot::getQuantity).isEqualTo(5);
+    assertThat(state.get(id)).extracting(InventorySnapshot::getQuantity).isEqualTo(4);
+    assertThat(inventoryJournal.snapshot()).isEqualTo(1);
+    assertThat(inventoryJournal.snapshot()).isEqualTo(-1);
+  }
+
+  @Test
+  void eventCommittedAfterTheSnapshotIsReplayedDespiteItsLowerId() {
+    //Given
+    Integer id = productService.createProduct(ProductDTO.builder().productName("Tea").productPrice(200).build())
+            .getData().get(PRODUCT_KEY).getProductId();
+    int[] stored = {0};
+    transactionTemplate.executeWithoutResult(status -> {
+      inventoryJournal.record(InventoryEvent.Type.RESTOCKED, id, 1, null, null);
+      eventRepository.flush();
+      CompletableFuture.runAsync(() -> {
+        inventoryJournal.record(InventoryEvent.Type.RESTOCKED, id, 1, null, null);
+        stored[0] = inventoryJournal.snapshot();
+      }).join();
+    });
+
+    //When
+    var state = inventoryJournal.rebuild();
+
+    //Then
+    assertThat(stored[0]).isEqualTo(1);
+    assertThat(snapshotRepository.findById(id)).get().extracting(InventorySnapshot::getQuantity).isEqualTo(2);
+    assertThat(eventRepository.findAll(Sort.by("logPosition"))).extracting(InventoryEvent::getEventId)
+            .satisfies(ids -> assertThat(ids.get(2)).isLessThan(ids.get(1)));
+    assertThat(state.get(id)).extracting(InventorySnapshot::getQuantity).isEqualTo(3);
+  }
+
+  @Test
+  void reconcileJournalsChangesMadeOutsideTheService() {
+    //Given
+    Integer waterId = stocked("Water", 100, 6).getProductId();
+    Integer juiceId = productService.createProduct(ProductDTO.builder().productName("Juice").productPrice(400).build())
+            .getData().get(PRODUCT_KEY).getProductId();
+    machineStockRepository.deleteStock(LOCAL_MACHINE_ID, juiceId);
+    productRepository.deleteById(juiceId);
+
+    //When
+    int differences = inventoryJournal.reconcile();
+    var state = inventoryJournal.rebuild();
+
+    //Then
+    assertThat(differences).isEqualTo(2);
+    assertThat(state).containsOnlyKeys(waterId);
+    assertThat(state.get(waterId)).extracting(InventorySnapshot::getQuantity).isEqualTo(6);
+    assertThat(eventRepository.findAll()).extracting(InventoryEvent::getType)
+            .contains(InventoryEvent.Type.RECONCILED, InventoryEvent.Type.DELETED);
+    assertThat(inventoryJournal.reconcile()).isZero();
+  }
+
+  private Product stocked(String productName, int productPrice, int quantity) {
+    Product product = productRepository.save(new Product(null, productName, productPrice, null));
+    machineStockRepository.save(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), quantity));
+    product.setQuantity(quantity);
+    return product;
+  }
+}
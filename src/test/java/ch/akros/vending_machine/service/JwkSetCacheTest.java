@@ -0,0 +1,108 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.config.SecurityConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JwkSetCacheTest {
+
+  private LocalJwksIssuer issuer;
+  private SimpleMeterRegistry meterRegistry;
+  private JwkSetCache jwkSetCache;
+  private JwtDecoder jwtDecoder;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    issuer = new LocalJwksIssuer();
+    meterRegistry = new SimpleMeterRegistry();
+    jwkSetCache = new JwkSetCache(issuer.jwkSetUri(), Duration.ofSeconds(2), Duration.ZERO,
+            new RestTemplateBuilder(), meterRegistry);
+    jwtDecoder = new SecurityConfig(null, null, null).jwtDecoder(jwkSetCache, issuer.issuer());
+  }
+
+  @AfterEach
+  void tearDown() {
+    issuer.close();
+  }
+
+  @Test
+  void decodeWithPreWarmedKeys() {
+    //Given
+    jwkSetCache.warmUp();
+
+    //When
+    var jwt = jwtDecoder.decode(issuer.token("user"));
+
+    //Then
+    assertThat(jwt.getClaimAsString("preferred_username")).isEqualTo("user");
+    assertThat(issuer.requests()).isEqualTo(1);
+    assertThat(meterRegistry.get("vending.jwks.refresh").tag("outcome", "success").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("vending.jwks.keys").gauge().value()).isEqualTo(1);
+  }
+
+  @Test
+  void decodeAfterKeyRotation() {
+    //Given
+    jwkSetCache.warmUp();
+    issuer.rotate();
+
+    //When
+    var jwt = jwtDecoder.decode(issuer.token("user"));
+
+    //Then
+    assertThat(jwt.getClaimAsString("preferred_username")).isEqualTo("user");
+    assertThat(issuer.requests()).isEqualTo(2);
+  }
+
+  @Test
+  void keepKnownKeysWhenRefreshFails() {
+    //Given
+    jwkSetCache.warmUp();
+    var token = issuer.token("user");
+    issuer.failing(true);
+
+    //When
+    jwkSetCache.scheduledRefresh();
+    var jwt = jwtDecoder.decode(token);
+
+    //Then
+    assertThat(jwt.getClaimAsString("preferred_username")).isEqualTo("user");
+    assertThat(meterRegistry.get("vending.jwks.refresh").tag("outcome", "failure").timer().count()).isEqualTo(1);
+    issuer.rotate();
+    assertThrows(JwtException.class, () -> jwtDecoder.decode(issuer.token("user")));
+  }
+
+  @Test
+  void decodeWhileRefreshIsInFlight() {
+    //Given
+    jwkSetCache.warmUp();
+    var token = issuer.token("user");
+    issuer.delay(Duration.ofMillis(500));
+    var refresh = CompletableFuture.runAsync(jwkSetCache::scheduledRefresh);
+    while (issuer.requests() < 2) {
+      Thread.onSpinWait();
+    }
+
+    //When
+    long start = System.nanoTime();
+    var jwt = jwtDecoder.decode(token);
+    long elapsed = System.nanoTime() - start;
+
+    //Then
+    assertThat(jwt.getClaimAsString("preferred_username")).isEqualTo("user");
+    assertThat(Duration.ofNanos(elapsed)).isLessThan(Duration.ofMillis(400));
+    refresh.join();
+    assertThat(issuer.requests()).isEqualTo(2);
+  }
+}
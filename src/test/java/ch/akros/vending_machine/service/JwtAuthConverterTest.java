@@ -0,0 +1,112 @@
+package ch.akros.vending_machine.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JwtAuthConverterTest {
+
+  private final JwtAuthConverter converter = new JwtAuthConverter("preferred_username", "conde-rest-api", 100, Duration.ofMinutes(5));
+
+  @Test
+  void convert() {
+    //Given
+    Jwt jwt = jwt("token-1", List.of("client_user", "client_admin"));
+
+    //When
+    var authentication = converter.convert(jwt);
+
+    //Then
+    assertThat(authentication.getName()).isEqualTo("conde");
+    assertThat(authentication.getAuthorities()).extracting(GrantedAuthority::getAuthority)
+            .containsExactlyInAnyOrder("ROLE_client_user", "ROLE_client_admin", "SCOPE_profile");
+  }
+
+  @Test
+  void convertReusesAuthoritiesOfTheSameRoles() {
+    //Given
+    Jwt first = jwt("token-1", List.of("client_user"));
+    Jwt second = jwt("token-2", List.of("client_user"));
+
+    //When
+    var firstAuthentication = converter.convert(first);
+    var sameToken = converter.convert(first);
+    var secondAuthentication = converter.convert(second);
+
+    //Then
+    assertThat(sameToken).isNotSameAs(firstAuthentication);
+    assertThat(sameToken.getAuthorities()).usingElementComparator(JwtAuthConverterTest::identity)
+            .containsExactlyInAnyOrderElementsOf(firstAuthentication.getAuthorities());
+    assertThat(secondAuthentication.getAuthorities()).usingElementComparator(JwtAuthConverterTest::identity)
+            .containsExactlyInAnyOrderElementsOf(firstAuthentication.getAuthorities());
+  }
+
+  @Test
+  void convertKeysTokenIdsByIssuer() {
+    //Given
+    Jwt first = jwt("http://localhost:8080/realms/conde", "token-1", "conde", List.of("client_admin"));
+    Jwt second = jwt("http://localhost:8080/realms/other", "token-1", "other", List.of("client_user"));
+
+    //When
+    var firstAuthentication = converter.convert(first);
+    var secondAuthentication = converter.convert(second);
+
+    //Then
+    assertThat(firstAuthentication.getName()).isEqualTo("conde");
+    assertThat(secondAuthentication.getName()).isEqualTo("other");
+    assertThat(secondAuthentication.getAuthorities()).extracting(GrantedAuthority::getAuthority)
+            .containsExactlyInAnyOrder("ROLE_client_user", "SCOPE_profile");
+  }
+
+  @Test
+  void convertTokensWithoutId() {
+    //Given
+    Jwt first = jwt(null, null, "conde", List.of("client_admin"));
+    Jwt second = jwt(null, null, "other", List.of("client_user"));
+
+    //When
+    var firstAuthentication = converter.convert(first);
+    var sameToken = converter.convert(first);
+    var secondAuthentication = converter.convert(second);
+
+    //Then
+    assertThat(sameToken.getName()).isEqualTo("conde");
+    assertThat(sameToken.getAuthorities()).usingElementComparator(JwtAuthConverterTest::identity)
+            .containsExactlyInAnyOrderElementsOf(firstAuthentication.getAuthorities());
+    assertThat(secondAuthentication.getName()).isEqualTo("other");
+  }
+
+  private static int identity(GrantedAuthority first, GrantedAuthority second) {
+    return first == second ? 0 : 1;
+  }
+
+  private static Jwt jwt(String id, List<String> roles) {
+    return jwt(null, id, "conde", roles);
+  }
+
+  private static Jwt jwt(String issuer, String id, String username, List<String> roles) {
+    var builder = Jwt.withTokenValue(issuer + "." + id + "." + username)
+            .header("alg", "RS256");
+    if (issuer != null) {
+      builder.issuer(issuer);
+    }
+    if (id != null) {
+      builder.jti(id);
+    }
+    return builder
+            .subject("subject")
+            .claim("preferred_username", username)
+            .claim("scope", "profile")
+            .claim("resource_access", Map.of("conde-rest-api", Map.of("roles", roles)))
+            .issuedAt(Instant.now())
+            .expiresAt(Instant.now().plusSeconds(60))
+            .build();
+  }
+}
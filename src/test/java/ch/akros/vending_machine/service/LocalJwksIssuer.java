@@ -0,0 +1,113 @@
+package ch.akros.vending_machine.service;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the identity provider: serves the JWK set of a generated RSA key on a local port
+ * and signs tokens with it. The key can be rotated, and the endpoint can be slowed down or made
+ * to fail.
+ */
+class LocalJwksIssuer implements AutoCloseable {
+
+  static final String CERTS_PATH = "/protocol/openid-connect/certs";
+
+  private final HttpServer server;
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile RSAKey key = generateKey();
+  private volatile Duration delay = Duration.ZERO;
+  private volatile boolean failing;
+
+  LocalJwksIssuer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(CERTS_PATH, exchange -> {
+      requests.incrementAndGet();
+      try {
+        Thread.sleep(delay.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      byte[] body = failing ? new byte[0] : new JWKSet(key.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(failing ? 503 : 200, body.length == 0 ? -1 : body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    server.setExecutor(null);
+    server.start();
+  }
+
+  String issuer() {
+    return "http://localhost:" + server.getAddress().getPort() + "/realms/conde";
+  }
+
+  String jwkSetUri() {
+    return "http://localhost:" + server.getAddress().getPort() + CERTS_PATH;
+  }
+
+  int requests() {
+    return requests.get();
+  }
+
+  void rotate() {
+    key = generateKey();
+  }
+
+  void delay(Duration delay) {
+    this.delay = delay;
+  }
+
+  void failing(boolean failing) {
+    this.failing = failing;
+  }
+
+  String token(String username) {
+    var now = Instant.now();
+    var claims = new JWTClaimsSet.Builder()
+            .issuer(issuer())
+            .subject(UUID.randomUUID().toString())
+            .jwtID(UUID.randomUUID().toString())
+            .claim("preferred_username", username)
+            .issueTime(Date.from(now))
+            .expirationTime(Date.from(now.plusSeconds(300)))
+            .build();
+    try {
+      var jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims);
+      jwt.sign(new RSASSASigner(key));
+      return jwt.serialize();
+    } catch (JOSEException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private static RSAKey generateKey() {
+    try {
+      return new RSAKeyGenerator(2048).keyID(UUID.randomUUID().toString()).generate();
+    } catch (JOSEException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
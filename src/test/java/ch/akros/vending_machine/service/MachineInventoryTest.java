@@ -0,0 +1,208 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.impl.MachineInventoryServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.OK;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Import({MachineInventoryServiceImpl.class, ProductMetrics.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MachineInventoryTest {
+
+  @Autowired
+  private MachineInventoryServiceImpl machineInventoryService;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private Product cola;
+  private Product fanta;
+
+  @BeforeEach
+  void setUp() {
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    cola = productRepository.save(new Product(null, "Cola", 350, 0));
+    fanta = productRepository.save(new Product(null, "Fanta", 300, 0));
+  }
+
+  @Test
+  void stockIsKeptPerMachine() throws ProductNotFoundException {
+    //Given
+    machineInventoryService.updateProduct("m-1", cola.getProductId(), ProductDTO.builder().quantity(7).build());
+    machineInventoryService.updateProduct("m-1", cola.getProductId(), ProductDTO.builder().quantity(2).build());
+    machineInventoryService.updateProduct("m-1", fanta.getProductId(), ProductDTO.builder().quantity(4).build());
+    machineInventoryService.updateProduct("m-2", cola.getProductId(), ProductDTO.builder().quantity(1).build());
+
+    //When
+    var response = machineInventoryService.buyProduct("m-1", cola.getProductId(), new PriceRequestDTO(List.of(200, 100, 50), null));
+
+    //Then
+    assertThat(response.getStatus()).isEqualTo(OK);
+    assertThat(response.getPath()).isEqualTo("/api/v1/machines/m-1/products/" + cola.getProductId());
+    assertThat(response.getData().get(PRODUCT_KEY).getQuantity()).isEqualTo(1);
+    assertThat(machineInventoryService.getProducts("m-1", null, 10).getProducts())
+            .extracting(ProductDTO::getProductName, ProductDTO::getProductPrice, ProductDTO::getQuantity)
+            .containsExactly(tuple("Cola", 350, 1), tuple("Fanta", 300, 4));
+    assertThat(machineInventoryService.getProducts("m-2", null, 10).getProducts())
+            .extracting(ProductDTO::getProductName, ProductDTO::getQuantity)
+            .containsExactly(tuple("Cola", 1));
+    assertThat(machineInventoryService.getProducts("m-3", null, 10).getProducts()).isEmpty();
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getQuantity).isNull();
+  }
+
+  @Test
+  void getProductsPagesByProductId() {
+    //Given
+    machineStockRepository.saveAll(List.of(
+            new MachineStock("m-1", cola.getProductId(), 1),
+            new MachineStock("m-1", fanta.getProductId(), 2)));
+
+    //When
+    var first = machineInventoryService.getProducts("m-1", null, 1);
+    var second = machineInventoryService.getProducts("m-1", first.getNextCursor(), 1);
+
+    //Then
+    assertThat(first.getProducts()).extracting(ProductDTO::getProductId).containsExactly(cola.getProductId());
+    assertThat(first.getNextCursor()).isEqualTo(cola.getProductId());
+    assertThat(second.getProducts()).extracting(ProductDTO::getProductId).containsExactly(fanta.getProductId());
+  }
+
+  @Test
+  void refusedPurchases() throws ProductNotFoundException {
+    //Given
+    machineStockRepository.save(new MachineStock("m-1", cola.getProductId(), 0));
+    machineStockRepository.save(new MachineStock("m-1", fanta.getProductId(), 1));
+
+    //When
+    var outOfStock = machineInventoryService.buyProduct("m-1", cola.getProductId(), new PriceRequestDTO(List.of(200, 100, 50), null));
+    var tooLow = machineInventoryService.buyProduct("m-1", fanta.getProductId(), new PriceRequestDTO(List.of(200), null));
+    var tooHigh = machineInventoryService.buyProduct("m-1", fanta.getProductId(), new PriceRequestDTO(List.of(200, 200), null));
+
+    //Then
+    assertThat(outOfStock.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(outOfStock.getMessage()).isEqualTo("Product is out of stock");
+    assertThat(tooLow.getError()).isEqualTo("Inserted price is lower than expected price");
+    assertThat(tooHigh.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(machineStockRepository.findStock("m-1", fanta.getProductId())).get().extracting(MachineStock::getQuantity).isEqualTo(1);
+    assertThrows(ProductNotFoundException.class,
+            () -> machineInventoryService.buyProduct("m-2", cola.getProductId(), new PriceRequestDTO(List.of(200, 100, 50), null)));
+  }
+
+  @Test
+  void updateProductValidatesQuantityAndCatalog() throws ProductNotFoundException {
+    //When
+    var tooMany = machineInventoryService.updateProduct("m-1", cola.getProductId(), ProductDTO.builder().quantity(11).build());
+    var local = machineInventoryService.updateProduct(LOCAL_MACHINE_ID, cola.getProductId(), ProductDTO.builder().quantity(1).build());
+
+    //Then
+    assertThat(tooMany.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(local.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(machineStockRepository.count()).isZero();
+    assertThrows(ProductNotFoundException.class,
+            () -> machineInventoryService.updateProduct("m-1", fanta.getProductId() + 100, ProductDTO.builder().quantity(1).build()));
+  }
+
+  @Test
+  void productLookupAcrossMachinesIsIndexed() {
+    //Given
+    machineStockRepository.save(new MachineStock("m-7", cola.getProductId(), 1));
+
+    //When
+    Integer indexes = jdbcTemplate.queryForObject(
+            "select count(*) from information_schema.indexes where lower(index_name) = ?", Integer.class, MachineStock.PRODUCT_INDEX);
+
+    //Then
+    assertThat(indexes).isEqualTo(1);
+    assertThat(machineStockRepository.existsByProductIdAndMachineIdNot(cola.getProductId(), LOCAL_MACHINE_ID)).isTrue();
+    assertThat(machineStockRepository.existsByProductIdAndMachineIdNot(cola.getProductId(), "m-7")).isFalse();
+    assertThat(machineStockRepository.existsByProductIdAndMachineIdNot(fanta.getProductId(), LOCAL_MACHINE_ID)).isFalse();
+  }
+
+  @Test
+  void removeProductKeepsTheCatalog() throws ProductNotFoundException {
+    //Given
+    machineStockRepository.save(new MachineStock("m-1", cola.getProductId(), 3));
+
+    //When
+    var response = machineInventoryService.removeProduct("m-1", cola.getProductId());
+
+    //Then
+    assertThat(response.getStatus()).isEqualTo(OK);
+    assertThat(machineStockRepository.findStock("m-1", cola.getProductId())).isEmpty();
+    assertThat(productRepository.existsById(cola.getProductId())).isTrue();
+    assertThrows(ProductNotFoundException.class, () -> machineInventoryService.removeProduct("m-1", cola.getProductId()));
+  }
+
+  @Test
+  void buyUnderContention() throws Exception {
+    //Given
+    int buyers = 8;
+    machineStockRepository.save(new MachineStock("m-1", cola.getProductId(), 5));
+    machineStockRepository.save(new MachineStock("m-2", cola.getProductId(), 5));
+    ExecutorService executor = Executors.newFixedThreadPool(buyers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> results = new ArrayList<>();
+    Callable<Integer> buyer = () -> {
+      start.await();
+      int bought = 0;
+      for (int i = 0; i < 3; i++) {
+        var response = machineInventoryService.buyProduct("m-1", cola.getProductId(), new PriceRequestDTO(List.of(200, 100, 50), null));
+        bought += response.getStatus() == OK ? 1 : 0;
+      }
+      return bought;
+    };
+
+    //When
+    for (int i = 0; i < buyers; i++) {
+      results.add(executor.submit(buyer));
+    }
+    start.countDown();
+    int bought = 0;
+    for (Future<Integer> result : results) {
+      bought += result.get();
+    }
+    executor.shutdown();
+
+    //Then
+    assertThat(bought).isEqualTo(5);
+    assertThat(machineStockRepository.findStock("m-1", cola.getProductId())).get().extracting(MachineStock::getQuantity).isEqualTo(0);
+    assertThat(machineStockRepository.findStock("m-2", cola.getProductId())).get().extracting(MachineStock::getQuantity).isEqualTo(5);
+  }
+}
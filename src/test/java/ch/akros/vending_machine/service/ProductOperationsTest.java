@@ -0,0 +1,120 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.ProductBulkRequestDTO;
+import ch.akros.vending_machine.dto.ProductOperationDTO;
+import ch.akros.vending_machine.dto.ProductResponseDto;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
+import static ch.akros.vending_machine.dto.ProductOperationDTO.Type.RESTOCK;
+import static ch.akros.vending_machine.dto.ProductOperationDTO.Type.UPDATE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.springframework.http.HttpStatus.*;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect")
+@Import({ProductServiceImpl.class, ProductCatalog.class, ProductMetrics.class, CoinInventory.class, StockLedger.class, OptimisticRetry.class, InventoryJournal.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductOperationsTest {
+
+  @Autowired
+  private ProductServiceImpl productService;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @BeforeEach
+  void setUp() {
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    productService.refreshCatalog();
+  }
+
+  @Test
+  void applyOperations() {
+    //Given
+    Product cola = stocked("Cola", 350, 2);
+    Product fanta = stocked("Fanta", 350, 9);
+    var request = new ProductBulkRequestDTO(List.of(
+            ProductOperationDTO.builder().type(RESTOCK).productName("cola").quantity(3).build(),
+            ProductOperationDTO.builder().type(RESTOCK).productName("Mate").productPrice(300).quantity(4).build(),
+            ProductOperationDTO.builder().type(RESTOCK).productName("MATE").build(),
+            ProductOperationDTO.builder().type(UPDATE).productId(fanta.getProductId()).productPrice(400).quantity(10).build()));
+
+    //When
+    var response = productService.applyOperations(request);
+
+    //Then
+    assertThat(response.getStatus()).isEqualTo(OK);
+    assertThat(response.getResults()).extracting(ProductResponseDto::getStatus).containsExactly(CREATED, CREATED, CREATED, OK);
+    assertThat(response.getResults().get(2).getData().get(PRODUCT_KEY).getQuantity()).isEqualTo(5);
+    assertThat(productRepository.findAll())
+            .extracting(Product::getProductName, Product::getProductPrice, Product::getQuantity)
+            .containsExactlyInAnyOrder(tuple("Cola", 350, 5), tuple("Fanta", 400, 10), tuple("Mate", 300, 5));
+    assertThat(productService.getProducts()).hasSize(3);
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getVersion).isEqualTo(cola.getVersion());
+  }
+
+  @Test
+  void applyOperationsValidatesTheSet() {
+    //Given
+    Product cola = stocked("Cola", 350, 6);
+    var request = new ProductBulkRequestDTO(List.of(
+            ProductOperationDTO.builder().type(UPDATE).productId(cola.getProductId()).productPrice(400).build(),
+            ProductOperationDTO.builder().type(RESTOCK).productName("Cola").quantity(3).build(),
+            ProductOperationDTO.builder().type(RESTOCK).productName("Cola").quantity(2).build(),
+            ProductOperationDTO.builder().type(UPDATE).productId(cola.getProductId() + 100).quantity(1).build()));
+
+    //When
+    var response = productService.applyOperations(request);
+
+    //Then
+    assertThat(response.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(response.getResults()).extracting(ProductResponseDto::getStatus)
+            .containsExactly(FAILED_DEPENDENCY, FAILED_DEPENDENCY, BAD_REQUEST, NOT_FOUND);
+    assertThat(productRepository.findById(cola.getProductId())).get()
+            .extracting(Product::getProductPrice, Product::getQuantity).containsExactly(350, 6);
+  }
+
+  @Test
+  void applyOperationsRefusesTakenName() {
+    //Given
+    Product cola = stocked("Cola", 350, 1);
+    stocked("Fanta", 350, 1);
+    var request = new ProductBulkRequestDTO(List.of(
+            ProductOperationDTO.builder().type(UPDATE).productId(cola.getProductId()).productName("fanta").build()));
+
+    //When
+    var response = productService.applyOperations(request);
+
+    //Then
+    assertThat(response.getStatus()).isEqualTo(BAD_REQUEST);
+    assertThat(response.getResults()).extracting(ProductResponseDto::getStatus).containsExactly(BAD_REQUEST);
+    assertThat(productRepository.findById(cola.getProductId())).get().extracting(Product::getProductName).isEqualTo("Cola");
+  }
+
+  private Product stocked(String productName, int productPrice, int quantity) {
+    Product product = productRepository.save(new Product(null, productName, productPrice, null));
+    machineStockRepository.save(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), quantity));
+    product.setQuantity(quantity);
+    return product;
+  }
+}
@@ -1,21 +1,42 @@
 package ch.akros.vending_machine.service;
 
+import ch.akros.vending_machine.domain.InventoryEvent;
+import ch.akros.vending_machine.domain.MachineStock;
 import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.BasketRequestDTO;
 import ch.akros.vending_machine.dto.PriceRequestDTO;
 import ch.akros.vending_machine.dto.ProductDTO;
 import ch.akros.vending_machine.dto.ProductResponseDto;
 import ch.akros.vending_machine.dto.mapper.ProductMapper;
+import ch.akros.vending_machine.exception.ProductConflictException;
 import ch.akros.vending_machine.exception.ProductNotFoundException;
+import ch.akros.vending_machine.plausibility.PurchaseValidation;
+import ch.akros.vending_machine.repository.MachineStockRepository;
 import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.repository.ProductRestockRepository;
 import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-
+import org.mockito.Spy;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_BASKET_SIZE;
+import static ch.akros.vending_machine.constant.AppConstant.MAX_COINS;
 import static ch.akros.vending_machine.constant.AppConstant.PRODUCT_KEY;
 import static ch.akros.vending_machine.dto.mapper.ProductMapper.PRODUCT_MAPPER;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -32,11 +53,38 @@ class ProductServiceTest {
   @Mock
   private ProductRepository productRepository;
 
+  @Spy
+  private ProductCatalog productCatalog = new ProductCatalog();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Spy
+  private ProductMetrics productMetrics = new ProductMetrics(meterRegistry);
+
+  @Mock
+  private CoinInventory coinInventory;
+
+  @Mock
+  private StockLedger stockLedger;
+
+  @Mock
+  private InventoryJournal inventoryJournal;
+
+  @Mock
+  private MachineStockRepository machineStockRepository;
+
+  @Spy
+  private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+  @Spy
+  private OptimisticRetry optimisticRetry = new OptimisticRetry(productMetrics, 3, Duration.ofMillis(1), Duration.ofMillis(2));
+
   private static final ProductMapper MAPPER = PRODUCT_MAPPER;
 
   @BeforeEach
   void setUp() {
     openMocks(this);
+    when(coinInventory.collect(any(), anyInt(), any())).thenReturn(true);
   }
 
   @Test
@@ -50,7 +98,7 @@ class ProductServiceTest {
             .build();
 
     ProductDTO productDTO2 = ProductDTO.builder()
-            .productId(1)
+            .productId(2)
             .productName("Fanta")
             .productPrice(350)
             .quantity(1)
@@ -64,14 +112,41 @@ class ProductServiceTest {
 
     //When
     List<ProductDTO> result = productService.getProducts();
+    List<ProductDTO> cached = productService.getProducts();
 
     //Then
     assertThat(result).hasSize(expectedProductDTOs.size());
+    assertThat(cached).isSameAs(result);
 
     //Verify
     verify(productRepository, times(1)).findAll();
   }
 
+  @Test
+  void getProductsPage() {
+    //Given
+    List<Product> products = List.of(
+            new Product(1, "Cola", 350, 1),
+            new Product(2, "Fanta", 350, 1),
+            new Product(4, "Sprite", 350, 1));
+
+    when(productRepository.findByProductIdGreaterThanOrderByProductIdAsc(0, Limit.of(2))).thenReturn(products.subList(0, 2));
+    when(productRepository.findByProductIdGreaterThanOrderByProductIdAsc(2, Limit.of(2))).thenReturn(products.subList(2, 3));
+
+    //When
+    var firstPage = productService.getProducts(null, 2);
+    var lastPage = productService.getProducts(firstPage.getNextCursor(), 2);
+
+    //Then
+    assertThat(firstPage.getProducts()).extracting(ProductDTO::getProductId).containsExactly(1, 2);
+    assertThat(firstPage.getNextCursor()).isEqualTo(2);
+    assertThat(lastPage.getProducts()).extracting(ProductDTO::getProductId).containsExactly(4);
+    assertThat(lastPage.getNextCursor()).isNull();
+
+    //Verify
+    verify(productRepository, never()).findAll();
+  }
+
   @Test
   void getProduct() throws ProductNotFoundException {
     //Given
@@ -84,7 +159,7 @@ class ProductServiceTest {
 
     Product product = MAPPER.mapToProduct(productDTO);
 
-    when(productRepository.findById(productDTO.getProductId())).thenReturn(Optional.of(product));
+    when(productRepository.findAll()).thenReturn(List.of(product));
 
     //When
     ProductResponseDto responseDto = productService.getProduct(productDTO.getProductId());
@@ -94,7 +169,8 @@ class ProductServiceTest {
     assertThat(responseDto.getStatus()).isNotNull().isEqualTo(OK);
 
     //Verify
-    verify(productRepository, times(1)).findById(productDTO.getProductId());
+    verify(productRepository, times(1)).findAll();
+    verify(productRepository, times(0)).findById(productDTO.getProductId());
   }
 
   @Test
@@ -136,8 +212,7 @@ class ProductServiceTest {
 
     Product product = MAPPER.mapToProduct(productDTO);
 
-    when(productRepository.findByProductName(productDTO.getProductName())).thenReturn(null);
-    when(productRepository.save(any())).thenReturn(product);
+    when(productRepository.restock(LOCAL_MACHINE_ID, "Cola", 350, 10)).thenReturn(new ProductRestockRepository.Restock(product, true));
 
     //When
     var responseDto = productService.createProduct(productDTO);
@@ -147,7 +222,9 @@ class ProductServiceTest {
     assertThat(responseDto.getStatus()).isNotNull().isEqualTo(CREATED);
 
     //Verify
-    verify(productRepository, times(1)).save(any());
+    verify(inventoryJournal, times(1)).record(InventoryEvent.Type.CREATED, 1, 1, "Cola", 350);
+    verify(productRepository, times(0)).findByProductName(any());
+    verify(productRepository, times(0)).save(any());
   }
 
   @Test
@@ -162,8 +239,7 @@ class ProductServiceTest {
 
     Product product = MAPPER.mapToProduct(productDTO);
 
-    when(productRepository.findByProductName(productDTO.getProductName())).thenReturn(product);
-    when(productRepository.save(any())).thenReturn(product);
+    when(productRepository.restock(LOCAL_MACHINE_ID, "Cola", 350, 10)).thenReturn(null);
 
     //When
     var responseDto = productService.createProduct(productDTO);
@@ -174,6 +250,7 @@ class ProductServiceTest {
 
     //Verify
     verify(productRepository, times(0)).save(any());
+    verify(inventoryJournal, times(0)).record(any(), any(), anyInt(), any(), any());
   }
 
   @Test
@@ -188,8 +265,7 @@ class ProductServiceTest {
 
     Product product = MAPPER.mapToProduct(productDTO);
 
-    when(productRepository.save(product)).thenReturn(product);
-    when(productRepository.findByProductName(productDTO.getProductName())).thenReturn(product);
+    when(productRepository.restock(LOCAL_MACHINE_ID, "Cola", 350, 10)).thenReturn(new ProductRestockRepository.Restock(product, false));
 
     //When
     var responseDto = productService.createProduct(productDTO);
@@ -199,7 +275,8 @@ class ProductServiceTest {
     assertThat(responseDto.getStatus()).isNotNull().isEqualTo(CREATED);
 
     //Verify
-    verify(productRepository, times(1)).save(product);
+    verify(inventoryJournal, times(1)).record(InventoryEvent.Type.RESTOCKED, 1, 1, null, 350);
+    verify(productRepository, times(0)).save(product);
   }
 
   @Test
@@ -215,6 +292,8 @@ class ProductServiceTest {
     Product product = MAPPER.mapToProduct(productDTO);
 
     when(productRepository.findById(productDTO.getProductId())).thenReturn(Optional.of(product));
+    when(productRepository.findAll()).thenReturn(List.of(product));
+    productService.refreshCatalog();
 
     //When
     var responseDto = productService.deleteProduct(productDTO.getProductId());
@@ -222,8 +301,53 @@ class ProductServiceTest {
     //Then
     assertThat(responseDto).isNotNull();
     assertThat(responseDto.getStatus()).isNotNull().isEqualTo(OK);
+    assertThat(meterRegistry.find("vending.product.stock").gauges()).isEmpty();
+
+    verify(machineStockRepository, times(1)).deleteStock(LOCAL_MACHINE_ID, productDTO.getProductId());
+    verify(productRepository, times(1)).delete(product);
+  }
+
+  @Test
+  void deleteLastUnitOfProductStockedByMachines() throws ProductNotFoundException {
+    //Given
+    Product product = new Product(1, "Cola", 350, 1);
+
+    when(productRepository.findById(1)).thenReturn(Optional.of(product));
+    when(machineStockRepository.existsByProductIdAndMachineIdNot(1, LOCAL_MACHINE_ID)).thenReturn(true);
+
+    //When
+    var responseDto = productService.deleteProduct(1);
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(responseDto.getData().get(PRODUCT_KEY).getQuantity()).isZero();
+
+    //Verify
+    verify(machineStockRepository, times(1)).upsertQuantity(LOCAL_MACHINE_ID, 1, 0);
+    verify(productRepository, times(0)).delete(any());
+    verify(inventoryJournal, times(1)).record(InventoryEvent.Type.UPDATED, 1, -1, null, null);
+  }
+
+  @Test
+  void deleteLastUnitRetriesWhenRestockedConcurrently() throws ProductNotFoundException {
+    //Given
+    Product stale = new Product(1, "Cola", 350, 1);
+    Product current = new Product(1, "Cola", 350, 4);
+
+    when(productRepository.findById(1)).thenReturn(Optional.of(stale), Optional.of(current));
+    when(machineStockRepository.removeUnit(LOCAL_MACHINE_ID, 1)).thenReturn(0, 1);
+    when(machineStockRepository.findAllForUpdate(LOCAL_MACHINE_ID, List.of(1))).thenReturn(List.of(new MachineStock(LOCAL_MACHINE_ID, 1, 4)));
+
+    //When
+    var responseDto = productService.deleteProduct(1);
 
-    verify(productRepository, times(1)).deleteById(productDTO.getProductId());
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(responseDto.getData().get(PRODUCT_KEY).getQuantity()).isEqualTo(3);
+
+    //Verify
+    verify(machineStockRepository, times(0)).deleteStock(any(), any());
+    verify(productRepository, times(0)).delete(any());
   }
 
   @Test
@@ -239,6 +363,7 @@ class ProductServiceTest {
     Product product = MAPPER.mapToProduct(productDTO);
 
     when(productRepository.findById(productDTO.getProductId())).thenReturn(Optional.of(product));
+    when(machineStockRepository.removeUnit(LOCAL_MACHINE_ID, productDTO.getProductId())).thenReturn(1);
 
     //When
     var responseDto = productService.deleteProduct(productDTO.getProductId());
@@ -272,7 +397,7 @@ class ProductServiceTest {
     assertThat(responseDto).isNotNull();
     assertThat(responseDto.getMessage()).isNotNull().isEqualTo(expectedResult);
 
-    verify(productRepository, times(0)).deleteById(productDTO.getProductId());
+    verify(productRepository, times(0)).delete(any());
   }
 
   @Test
@@ -300,6 +425,47 @@ class ProductServiceTest {
 
     //Verify
     verify(productRepository, times(1)).save(product);
+    verify(machineStockRepository, times(1)).upsertQuantity(LOCAL_MACHINE_ID, 1, 2);
+  }
+
+  @Test
+  void updateProductRetriesOnConflict() throws ProductNotFoundException {
+    //Given
+    Product stale = new Product(1, "Cola", 350, 1);
+    Product current = new Product(1, "Cola", 350, 3, 1);
+    ProductDTO productDTO = ProductDTO.builder().productPrice(400).build();
+
+    when(productRepository.findById(1)).thenReturn(Optional.of(stale), Optional.of(current));
+    when(productRepository.save(stale)).thenThrow(new ObjectOptimisticLockingFailureException(Product.class, 1));
+    when(productRepository.save(current)).thenReturn(current);
+
+    //When
+    var responseDto = productService.updateProduct(productDTO, 1);
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(responseDto.getData().get(PRODUCT_KEY).getProductPrice()).isEqualTo(400);
+    assertThat(responseDto.getData().get(PRODUCT_KEY).getQuantity()).isEqualTo(3);
+    assertThat(meterRegistry.get("vending.product.conflict").tags("operation", "update_product", "outcome", "retried")
+            .counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void updateProductGivesUpAfterMaxAttempts() {
+    //Given
+    Product product = new Product(1, "Cola", 350, 1);
+    when(productRepository.findById(1)).thenReturn(Optional.of(product));
+    when(productRepository.save(product)).thenThrow(new ObjectOptimisticLockingFailureException(Product.class, 1));
+    ProductDTO productDTO = ProductDTO.builder().productPrice(400).build();
+
+    //When
+    var exception = assertThrows(ProductConflictException.class, () -> productService.updateProduct(productDTO, 1));
+
+    //Then
+    assertThat(exception.getMessage()).contains("Product 1 was changed concurrently");
+    verify(productRepository, times(3)).save(product);
+    assertThat(meterRegistry.get("vending.product.conflict").tags("operation", "update_product", "outcome", "exhausted")
+            .counter().count()).isEqualTo(1);
   }
 
   @Test
@@ -373,6 +539,7 @@ class ProductServiceTest {
 
     Product product = MAPPER.mapToProduct(productDTO);
 
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, productDTO.getProductId(), 350)).thenReturn(1);
     when(productRepository.findById(productDTO.getProductId())).thenReturn(Optional.of(product));
 
     //When
@@ -381,6 +548,123 @@ class ProductServiceTest {
     //Then
     assertThat(responseDto).isNotNull();
     assertThat(responseDto.getStatus()).isNotNull().isEqualTo(OK);
+
+    //Verify
+    verify(machineStockRepository, times(1)).decrementQuantity(LOCAL_MACHINE_ID, productDTO.getProductId(), 350);
+    verify(productRepository, times(0)).save(any());
+    verify(productRepository, times(0)).deleteById(any());
+  }
+
+  @Test
+  void buyProductUpdatesCatalog() throws ProductNotFoundException {
+    //Given
+    ProductDTO productDTO = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(2)
+            .build();
+
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(50, 100, 200))
+            .build();
+
+    when(productRepository.findAll()).thenReturn(List.of(MAPPER.mapToProduct(productDTO)));
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, productDTO.getProductId(), 350)).thenReturn(1);
+    productService.getProducts();
+
+    //When
+    var responseDto = productService.buyProduct(productDTO.getProductId(), priceRequestDTO);
+    var found = productService.getProduct(productDTO.getProductId());
+
+    //Then
+    assertThat(responseDto.getStatus()).isEqualTo(OK);
+    assertThat(responseDto.getData().get(PRODUCT_KEY).getQuantity()).isEqualTo(1);
+    assertThat(found.getData().get(PRODUCT_KEY).getQuantity()).isEqualTo(1);
+
+    //Verify
+    verify(productRepository, times(1)).findAll();
+    verify(productRepository, times(0)).findById(productDTO.getProductId());
+  }
+
+  @Test
+  void buyProductFromCatalogWithSparseIds() throws ProductNotFoundException {
+    //Given
+    List<Product> products = IntStream.range(0, 200)
+            .mapToObj(i -> new Product(i * 1_000_000 + 1, "Product " + i, 350, 5))
+            .toList();
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(50, 100, 200))
+            .build();
+
+    when(productRepository.findAll()).thenReturn(products);
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, 100_000_001, 350)).thenReturn(1);
+    var before = productService.catalog();
+
+    //When
+    productService.buyProduct(100_000_001, priceRequestDTO);
+    var after = productService.catalog();
+
+    //Then
+    assertThat(after.version()).isEqualTo(before.version() + 1);
+    assertThat(after.get(100_000_001).getQuantity()).isEqualTo(4);
+    assertThat(before.get(100_000_001).getQuantity()).isEqualTo(5);
+    assertThat(after.get(100_000_000)).isNull();
+    assertThat(after.products()).hasSize(200).isSortedAccordingTo(Comparator.comparing(ProductDTO::getProductId));
+    assertThat(after.get(64_000_001).getProductId()).isEqualTo(64_000_001);
+  }
+
+  @Test
+  void buyProductOutOfStock() throws ProductNotFoundException {
+    //Given
+    ProductDTO productDTO = ProductDTO.builder()
+            .productId(1)
+            .productName("Cola")
+            .productPrice(350)
+            .quantity(0)
+            .build();
+
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(50, 100, 200))
+            .build();
+
+    Product product = MAPPER.mapToProduct(productDTO);
+
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, productDTO.getProductId(), 350)).thenReturn(0);
+    when(productRepository.findById(productDTO.getProductId())).thenReturn(Optional.of(product));
+
+    //When
+    var responseDto = productService.buyProduct(productDTO.getProductId(), priceRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(BAD_REQUEST);
+    assertThat(responseDto.getMessage()).isEqualTo("Product is out of stock");
+  }
+
+  @Test
+  void buyProductRecordsMetrics() throws ProductNotFoundException {
+    //Given
+    Product product = new Product(1, "Cola", 350, 1);
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(50, 100, 200))
+            .build();
+
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, 1, 350)).thenReturn(1, 0);
+    when(productRepository.findById(1)).thenReturn(Optional.of(product));
+    product.setQuantity(0);
+
+    //When
+    productService.buyProduct(1, priceRequestDTO);
+    productService.buyProduct(1, priceRequestDTO);
+    productService.buyProduct(1, PriceRequestDTO.builder().prices(List.of(500)).build());
+
+    //Then
+    assertThat(meterRegistry.get("vending.purchase").tag("result", "purchased").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("vending.purchase").tag("result", "out_of_stock").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("vending.purchase").tag("result", "coin_not_allowed").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("vending.purchase.step").tag("step", "decrement").timer().count()).isEqualTo(2);
+    assertThat(meterRegistry.get("vending.purchase.step").tag("step", "validate_coins").timer().count()).isEqualTo(3);
   }
 
   @Test
@@ -489,6 +773,71 @@ class ProductServiceTest {
     assertThat(responseDto.getStatus()).isNotNull().isEqualTo(BAD_REQUEST);
   }
 
+  @Test
+  void buyProductWithChange() throws ProductNotFoundException {
+    //Given
+    Product product = new Product(1, "Cola", 350, 1);
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(200, 200))
+            .build();
+
+    when(productRepository.findAll()).thenReturn(List.of(product));
+    when(coinInventory.canChange(50)).thenReturn(true);
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, 1, 350)).thenReturn(1);
+
+    //When
+    var responseDto = productService.buyProduct(1, priceRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(OK);
+
+    //Verify
+    verify(coinInventory, times(1)).collect(any(), eq(50), any());
+  }
+
+  @Test
+  void buyProductWithCoinCounts() throws ProductNotFoundException {
+    //Given
+    Product product = new Product(1, "Cola", 350, 1);
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .coins(Map.of(100, 3, 50, 1))
+            .build();
+
+    when(machineStockRepository.decrementQuantity(LOCAL_MACHINE_ID, 1, 350)).thenReturn(1);
+    when(productRepository.findById(1)).thenReturn(Optional.of(product));
+
+    //When
+    var responseDto = productService.buyProduct(1, priceRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(OK);
+
+    //Verify
+    verify(coinInventory, times(1)).collect(eq(new int[]{0, 0, 1, 3, 0}), eq(0), any());
+  }
+
+  @Test
+  void buyProductWithTooManyCoins() throws ProductNotFoundException {
+    //Given
+    PriceRequestDTO priceRequestDTO = PriceRequestDTO.builder()
+            .prices(List.of(200))
+            .coins(Map.of(10, MAX_COINS))
+            .build();
+
+    //When
+    var responseDto = productService.buyProduct(1, priceRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(BAD_REQUEST);
+    assertThat(responseDto.getMessage()).isEqualTo("Too many coins");
+
+    //Verify
+    verify(machineStockRepository, times(0)).decrementQuantity(any(), any(), any());
+  }
+
   @Test
   void buyProductWithoutProductResponseDto() {
     //Given
@@ -513,4 +862,108 @@ class ProductServiceTest {
     assertThat(responseDto).isNotNull();
     assertThat(responseDto.getMessage()).isNotNull().isEqualTo(expectedResult);
   }
-}
\ No newline at end of file
+
+  @Test
+  void buyProducts() throws ProductNotFoundException {
+    //Given
+    Product cola = new Product(1, "Cola", 300, 2);
+    Product fanta = new Product(2, "Fanta", 350, 1);
+
+    BasketRequestDTO basketRequestDTO = BasketRequestDTO.builder()
+            .productIds(List.of(1, 2, 1))
+            .prices(List.of(200, 200, 200, 200, 100, 50))
+            .build();
+
+    MachineStock colaStock = new MachineStock(LOCAL_MACHINE_ID, 1, 2);
+    MachineStock fantaStock = new MachineStock(LOCAL_MACHINE_ID, 2, 1);
+
+    when(machineStockRepository.findAllForUpdate(eq(LOCAL_MACHINE_ID), any())).thenReturn(List.of(colaStock, fantaStock));
+    when(productRepository.findAllById(any())).thenReturn(List.of(fanta, cola));
+
+    //When
+    var responseDto = productService.buyProducts(basketRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(OK);
+    assertThat(colaStock.getQuantity()).isZero();
+    assertThat(fantaStock.getQuantity()).isZero();
+    assertThat(responseDto.getData()).containsOnlyKeys("1", "2");
+
+    //Verify
+    verify(machineStockRepository, times(1)).findAllForUpdate(eq(LOCAL_MACHINE_ID), any());
+    verify(machineStockRepository, times(0)).decrementQuantity(any(), any(), any());
+  }
+
+  @Test
+  void buyProductsWithNotEnoughStock() throws ProductNotFoundException {
+    //Given
+    Product cola = new Product(1, "Cola", 300, 2);
+    Product fanta = new Product(2, "Fanta", 350, 1);
+
+    BasketRequestDTO basketRequestDTO = BasketRequestDTO.builder()
+            .productIds(List.of(1, 2, 2))
+            .prices(List.of(200, 200, 200, 200, 200))
+            .build();
+
+    MachineStock colaStock = new MachineStock(LOCAL_MACHINE_ID, 1, 2);
+    MachineStock fantaStock = new MachineStock(LOCAL_MACHINE_ID, 2, 1);
+
+    when(machineStockRepository.findAllForUpdate(eq(LOCAL_MACHINE_ID), any())).thenReturn(List.of(colaStock, fantaStock));
+    when(productRepository.findAllById(any())).thenReturn(List.of(cola, fanta));
+
+    //When
+    var responseDto = productService.buyProducts(basketRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(BAD_REQUEST);
+    assertThat(colaStock.getQuantity()).isEqualTo(2);
+    assertThat(fantaStock.getQuantity()).isEqualTo(1);
+  }
+
+  @Test
+  void buyProductsWithTooLargeBasket() throws ProductNotFoundException {
+    //Given
+    BasketRequestDTO basketRequestDTO = BasketRequestDTO.builder()
+            .productIds(Collections.nCopies(MAX_BASKET_SIZE + 1, 1))
+            .prices(List.of(200))
+            .build();
+
+    //When
+    var responseDto = productService.buyProducts(basketRequestDTO);
+
+    //Then
+    assertThat(responseDto).isNotNull();
+    assertThat(responseDto.getStatus()).isNotNull().isEqualTo(BAD_REQUEST);
+    assertThat(responseDto.getMessage()).isEqualTo(PurchaseValidation.BASKET_TOO_LARGE.getDescription());
+
+    //Verify
+    verify(machineStockRepository, times(0)).findAllForUpdate(any(), any());
+  }
+
+  @Test
+  void stockGaugesFollowTheProductsOfTheCatalog() {
+    //Given
+    when(productRepository.findAll()).thenReturn(List.of(
+            new Product(1, "Cola", 350, 4),
+            new Product(2, "Fanta", 350, 0),
+            new Product(3, "Mate", 300, 6)));
+    productService.refreshCatalog();
+    var gauges = meterRegistry.find("vending.product.stock").gauges().size();
+
+    //When
+    when(productRepository.findAll()).thenReturn(List.of(
+            new Product(1, "Cola", 350, 4),
+            new Product(3, "Mate", 300, 6)));
+    productService.refreshCatalog();
+
+    //Then
+    assertThat(gauges).isEqualTo(3);
+    assertThat(meterRegistry.get("vending.product.stock").tag("product", "1").gauge().value()).isEqualTo(4);
+    assertThat(meterRegistry.get("vending.product.stock").tag("product", "3").gauge().value()).isEqualTo(6);
+    assertThat(meterRegistry.find("vending.product.stock").tag("product", "2").gauge()).isNull();
+    assertThat(meterRegistry.find("vending.product.stock").gauges()).hasSize(2);
+    assertThat(meterRegistry.get("vending.product.sold.out").gauge().value()).isZero();
+  }
+}
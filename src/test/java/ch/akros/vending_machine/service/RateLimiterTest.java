@@ -0,0 +1,133 @@
+package ch.akros.vending_machine.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private SimpleMeterRegistry meterRegistry;
+  private RateLimiter rateLimiter;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    rateLimiter = new RateLimiter(meterRegistry, true, Duration.ofMinutes(1), 1_000,
+            10, 20, 2, 4, 1, 2, 1, 1);
+  }
+
+  @Test
+  void burstIsAllowedThenRefilledAtTheRate() {
+    //Given
+    var user = new TestingAuthenticationToken("alice", null, "ROLE_client_user");
+    long now = 0;
+
+    //When
+    for (int i = 0; i < 4; i++) {
+      assertThat(rateLimiter.tryAcquire(user, now)).isZero();
+    }
+    long wait = rateLimiter.tryAcquire(user, now);
+
+    //Then
+    assertThat(wait).isEqualTo(SECOND / 2);
+    assertThat(rateLimiter.tryAcquire(user, now + SECOND / 2)).isZero();
+    assertThat(rateLimiter.tryAcquire(user, now + SECOND / 2)).isPositive();
+    assertThat(meterRegistry.get("vending.ratelimit.rejected").tag("role", "client_user").counter().count()).isEqualTo(2);
+  }
+
+  @Test
+  void principalsHaveTheirOwnBuckets() {
+    //Given
+    var alice = new TestingAuthenticationToken("alice", null, "ROLE_client_remove");
+    var bob = new TestingAuthenticationToken("bob", null, "ROLE_client_remove");
+    rateLimiter.tryAcquire(alice, 0);
+    rateLimiter.tryAcquire(alice, 0);
+
+    //When
+    long aliceWait = rateLimiter.tryAcquire(alice, 0);
+    long bobWait = rateLimiter.tryAcquire(bob, 0);
+
+    //Then
+    assertThat(aliceWait).isPositive();
+    assertThat(bobWait).isZero();
+  }
+
+  @Test
+  void mostGenerousRoleApplies() {
+    //Given
+    var admin = new TestingAuthenticationToken("carol", null, "ROLE_client_user", "ROLE_client_admin");
+
+    //When
+    int allowed = 0;
+    while (rateLimiter.tryAcquire(admin, 0) == 0) {
+      allowed++;
+    }
+
+    //Then
+    assertThat(allowed).isEqualTo(20);
+  }
+
+  @Test
+  void principalWithoutKnownRoleGetsTheDefaultLimit() {
+    //Given
+    var other = new TestingAuthenticationToken("dave", null, "SCOPE_profile");
+
+    //When
+    long first = rateLimiter.tryAcquire(other, 0);
+    long second = rateLimiter.tryAcquire(other, 0);
+
+    //Then
+    assertThat(first).isZero();
+    assertThat(second).isEqualTo(SECOND);
+    assertThat(meterRegistry.get("vending.ratelimit.rejected").tag("role", "default").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void concurrentRequestsTakeNoMoreThanTheBurst() throws Exception {
+    //Given
+    var user = new TestingAuthenticationToken("alice", null, "ROLE_client_user");
+    int clients = 8;
+    int requests = 50;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    CountDownLatch start = new CountDownLatch(1);
+    Callable<Integer> client = () -> {
+      start.await();
+      int allowed = 0;
+      for (int i = 0; i < requests; i++) {
+        if (rateLimiter.tryAcquire(user, 0) == 0) {
+          allowed++;
+        }
+      }
+      return allowed;
+    };
+
+    //When
+    var results = new ArrayList<Future<Integer>>();
+    for (int i = 0; i < clients; i++) {
+      results.add(executor.submit(client));
+    }
+    start.countDown();
+    int allowed = 0;
+    for (var result : results) {
+      allowed += result.get(5, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    //Then
+    assertThat(allowed).isEqualTo(4);
+  }
+}
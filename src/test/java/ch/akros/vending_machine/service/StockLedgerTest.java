@@ -0,0 +1,231 @@
+package ch.akros.vending_machine.service;
+
+import ch.akros.vending_machine.domain.MachineStock;
+import ch.akros.vending_machine.domain.Product;
+import ch.akros.vending_machine.dto.PriceRequestDTO;
+import ch.akros.vending_machine.dto.ProductDTO;
+import ch.akros.vending_machine.repository.CoinRepository;
+import ch.akros.vending_machine.repository.MachineStockRepository;
+import ch.akros.vending_machine.repository.ProductRepository;
+import ch.akros.vending_machine.service.impl.ProductServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static ch.akros.vending_machine.constant.AppConstant.LOCAL_MACHINE_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.springframework.http.HttpStatus.OK;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "stock.ledger.enabled=true",
+        "stock.ledger.flush-interval=1h"
+})
+@Import({ProductServiceImpl.class, ProductCatalog.class, ProductMetrics.class, CoinInventory.class, StockLedger.class, OptimisticRetry.class, InventoryJournal.class, SimpleMeterRegistry.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockLedgerTest {
+
+  @TempDir
+  static Path directory;
+
+  @DynamicPropertySource
+  static void properties(DynamicPropertyRegistry registry) {
+    registry.add("stock.ledger.directory", () -> directory.resolve("wal").toString());
+  }
+
+  @Autowired
+  private StockLedger stockLedger;
+
+  @Autowired
+  private ProductServiceImpl productService;
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private MachineStockRepository machineStockRepository;
+
+  @Autowired
+  private CoinRepository coinRepository;
+
+  @Autowired
+  private TransactionTemplate transactionTemplate;
+
+  @BeforeEach
+  void setUp() {
+    stockLedger.flush();
+    machineStockRepository.deleteAll();
+    productRepository.deleteAll();
+    coinRepository.deleteAll();
+    productService.refreshCatalog();
+  }
+
+  @Test
+  void capacityIsEnforcedInMemory() {
+    //Given
+    Integer id = stocked("Cola", 350, 9).getProductId();
+
+    //When
+    int full = stockLedger.add(id, 1);
+    int overfull = stockLedger.add(id, 1);
+    int taken = stockLedger.take(id, 10);
+    int empty = stockLedger.take(id, 1);
+
+    //Then
+    assertThat(full).isEqualTo(10);
+    assertThat(overfull).isEqualTo(StockLedger.REJECTED);
+    assertThat(taken).isZero();
+    assertThat(empty).isEqualTo(StockLedger.REJECTED);
+    assertThat(stockLedger.quantity(id)).isZero();
+  }
+
+  @Test
+  void flushWritesTheChangedStock() {
+    //Given
+    Integer id = stocked("Fanta", 350, 5).getProductId();
+    stockLedger.take(id, 2);
+
+    //When
+    int before = productRepository.findById(id).orElseThrow().getQuantity();
+    int flushed = stockLedger.flush();
+
+    //Then
+    assertThat(before).isEqualTo(5);
+    assertThat(flushed).isEqualTo(1);
+    assertThat(productRepository.findById(id)).get().extracting(Product::getQuantity).isEqualTo(3);
+  }
+
+  @Test
+  void recoverChangesThatWereNotFlushed() throws Exception {
+    //Given
+    Path crashed = directory.resolve("crashed");
+    Integer id = stocked("Sprite", 350, 4).getProductId();
+    var ledger = new StockLedger(productRepository, machineStockRepository, transactionTemplate, new SimpleMeterRegistry(), true, crashed.toString(), 500);
+    ledger.start();
+    ledger.take(id, 1);
+    ledger.set(id, 7);
+    ledger.take(id, 3);
+
+    //When
+    var restarted = new StockLedger(productRepository, machineStockRepository, transactionTemplate, new SimpleMeterRegistry(), true, crashed.toString(), 500);
+    restarted.start();
+
+    //Then
+    assertThat(productRepository.findById(id)).get().extracting(Product::getQuantity).isEqualTo(4);
+    assertThat(restarted.quantity(id)).isEqualTo(4);
+    restarted.stop();
+  }
+
+  @Test
+  void takeIsUndoneOnRollback() {
+    //Given
+    Integer id = stocked("Pepsi", 350, 2).getProductId();
+
+    //When
+    transactionTemplate.executeWithoutResult(status -> {
+      stockLedger.take(id, 2);
+      status.setRollbackOnly();
+    });
+
+    //Then
+    assertThat(stockLedger.quantity(id)).isEqualTo(2);
+  }
+
+  @Test
+  void takeUnderContention() throws Exception {
+    //Given
+    int buyers = 8;
+    int attemptsPerBuyer = 25;
+    Integer id = stocked("Water", 350, 10).getProductId();
+
+    ExecutorService executor = Executors.newFixedThreadPool(buyers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> results = new ArrayList<>();
+    Callable<Integer> buyer = () -> {
+      start.await();
+      int bought = 0;
+      for (int i = 0; i < attemptsPerBuyer; i++) {
+        bought += stockLedger.take(id, 1) == StockLedger.REJECTED ? 0 : 1;
+      }
+      return bought;
+    };
+
+    //When
+    for (int i = 0; i < buyers; i++) {
+      results.add(executor.submit(buyer));
+    }
+    start.countDown();
+    int bought = 0;
+    for (Future<Integer> result : results) {
+      bought += result.get();
+    }
+    executor.shutdown();
+    stockLedger.flush();
+
+    //Then
+    assertThat(bought).isEqualTo(10);
+    assertThat(productRepository.findById(id)).get().extracting(Product::getQuantity).isEqualTo(0);
+  }
+
+  @Test
+  void buyProductTakesTheStockFromTheLedger() throws Exception {
+    //Given
+    Integer id = stocked("Tea", 350, 1).getProductId();
+    productService.refreshCatalog();
+
+    //When
+    var bought = productService.buyProduct(id, PriceRequestDTO.builder().prices(List.of(200, 100, 50)).build());
+    var soldOut = productService.buyProduct(id, PriceRequestDTO.builder().prices(List.of(200, 100, 50)).build());
+
+    //Then
+    assertThat(bought.getStatus()).isEqualTo(OK);
+    assertThat(soldOut.getStatus()).isNotEqualTo(OK);
+    assertThat(stockLedger.quantity(id)).isZero();
+    assertThat(productRepository.findById(id)).get().extracting(Product::getQuantity).isEqualTo(1);
+    stockLedger.flush();
+    assertThat(productRepository.findById(id)).get().extracting(Product::getQuantity).isEqualTo(0);
+  }
+
+  @Test
+  void updateIsUndoneInTheLedgerWhenTheSaveFails() {
+    //Given
+    Integer id = stocked("Mate", 350, 5).getProductId();
+    stocked("Club Mate", 350, 5);
+    stockLedger.quantity(id);
+
+    //When
+    var update = ProductDTO.builder().productName("Club Mate").quantity(9).build();
+    var failure = catchThrowable(() -> productService.updateProduct(update, id));
+
+    //Then
+    assertThat(failure).isInstanceOf(DataIntegrityViolationException.class);
+    assertThat(stockLedger.quantity(id)).isEqualTo(5);
+  }
+
+  private Product stocked(String productName, int productPrice, int quantity) {
+    Product product = productRepository.save(new Product(null, productName, productPrice, null));
+    machineStockRepository.save(new MachineStock(LOCAL_MACHINE_ID, product.getProductId(), quantity));
+    product.setQuantity(quantity);
+    return product;
+  }
+}